@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import sonia.scm.io.ContentType;
+import sonia.scm.io.ContentTypeResolver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+/**
+ * Synthetic inputs for the benchmarks. All inputs are created from a fixed seed, so that every run measures the same
+ * data.
+ */
+final class BenchmarkData {
+
+  private static final long SEED = 42L;
+
+  private static final String[] CODE_LINES = {
+    "package com.example.module;\n",
+    "import java.util.List;\n",
+    "public class Service {\n",
+    "  private final Repository repository;\n",
+    "  public List<Entity> findAll(String namespace) {\n",
+    "    return repository.find(namespace).stream().filter(Entity::isActive).toList();\n",
+    "  }\n",
+    "  // TODO handle pagination of large result sets\n",
+    "}\n"
+  };
+
+  private BenchmarkData() {
+  }
+
+  static byte[] text(int size) {
+    Random random = new Random(SEED);
+    StringBuilder builder = new StringBuilder(size);
+    while (builder.length() < size) {
+      builder.append(CODE_LINES[random.nextInt(CODE_LINES.length)]);
+    }
+    builder.setLength(size);
+    return builder.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  static byte[] binary(int size) {
+    byte[] bytes = new byte[size];
+    new Random(SEED).nextBytes(bytes);
+    // make sure the content is detected as binary
+    bytes[0] = 0;
+    return bytes;
+  }
+
+  /**
+   * Returns the path of the n-th file of a deep monorepo like tree.
+   */
+  static String path(int n) {
+    return "services/module-" + (n % 50)
+      + "/src/main/java/com/example/module" + (n % 50)
+      + "/package" + (n % 7)
+      + "/File" + n + ".java";
+  }
+
+  static ContentTypeResolver contentTypeResolver() {
+    return new SimpleContentTypeResolver();
+  }
+
+  /**
+   * Resolves content types like the resolver of SCM-Manager for the inputs of the benchmarks, without the costs of a
+   * full detection library, which is not part of the plugin.
+   */
+  private static class SimpleContentTypeResolver implements ContentTypeResolver {
+
+    private static final SimpleContentType JAVA = new SimpleContentType("text", "x-java-source", "java");
+    private static final SimpleContentType BINARY = new SimpleContentType("application", "octet-stream", null);
+
+    @Override
+    public ContentType resolve(String path) {
+      return path.endsWith(".java") ? JAVA : BINARY;
+    }
+
+    @Override
+    public ContentType resolve(String path, byte[] contentPrefix) {
+      for (byte b : contentPrefix) {
+        if (b == 0) {
+          return BINARY;
+        }
+      }
+      return resolve(path);
+    }
+
+    @Override
+    public Map<String, String> findSyntaxModesByLanguage(String language) {
+      return Collections.emptyMap();
+    }
+  }
+
+  private static class SimpleContentType implements ContentType {
+
+    private final String primary;
+    private final String secondary;
+    private final String language;
+
+    private SimpleContentType(String primary, String secondary, String language) {
+      this.primary = primary;
+      this.secondary = secondary;
+      this.language = language;
+    }
+
+    @Override
+    public String getPrimary() {
+      return primary;
+    }
+
+    @Override
+    public String getSecondary() {
+      return secondary;
+    }
+
+    @Override
+    public String getRaw() {
+      return primary + "/" + secondary;
+    }
+
+    @Override
+    public boolean isText() {
+      return "text".equals(primary);
+    }
+
+    @Override
+    public Optional<String> getLanguage() {
+      return Optional.ofNullable(language);
+    }
+  }
+}
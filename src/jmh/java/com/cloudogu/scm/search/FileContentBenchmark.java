@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import sonia.scm.io.ContentType;
+import sonia.scm.io.ContentTypeResolver;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the construction of documents, which derives file name and extension from the path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileContentBenchmark {
+
+  private static final int FILES = 10000;
+
+  private String[] paths;
+  private ContentType contentType;
+
+  @Setup
+  public void setUp() {
+    paths = new String[FILES];
+    for (int i = 0; i < FILES; i++) {
+      paths[i] = BenchmarkData.path(i);
+    }
+    ContentTypeResolver resolver = BenchmarkData.contentTypeResolver();
+    contentType = resolver.resolve(paths[0]);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FILES)
+  public void create(Blackhole blackhole) {
+    for (String path : paths) {
+      blackhole.consume(new FileContent("42", path, contentType, "content"));
+    }
+  }
+}
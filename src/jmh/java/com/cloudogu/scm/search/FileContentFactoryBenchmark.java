@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import com.google.common.io.ByteStreams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the extraction of text and binary files from 1 KiB up to 50 MiB, with and without a known size. Binary
+ * files are either indexed by their path only or passed to a {@link BinaryFileContentResolver}, which reads the whole
+ * content and returns a short text, so that the overhead of the plugin around the resolver is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileContentFactoryBenchmark {
+
+  private static final long MAX_CONTENT_SIZE = 10L * 1024 * 1024;
+
+  @Param({"1024", "65536", "1048576", "10485760", "52428800"})
+  private int size;
+
+  @Param({"text", "binary", "resolved"})
+  private String kind;
+
+  @Param({"true", "false"})
+  private boolean sizeKnown;
+
+  private FileContentFactory factory;
+  private String path;
+  private byte[] content;
+
+  @Setup
+  public void setUp() {
+    Set<BinaryFileContentResolver> resolvers = "resolved".equals(kind)
+      ? Collections.singleton(new DrainingResolver())
+      : Collections.emptySet();
+    factory = new FileContentFactory(BenchmarkData.contentTypeResolver(), resolvers);
+    if ("text".equals(kind)) {
+      path = BenchmarkData.path(1);
+      content = BenchmarkData.text(size);
+    } else {
+      path = "assets/archive.bin";
+      content = BenchmarkData.binary(size);
+    }
+  }
+
+  @Benchmark
+  public FileContent create() throws IOException {
+    return factory.create("42", new ByteArrayFile(path, content, sizeKnown), MAX_CONTENT_SIZE);
+  }
+
+  /**
+   * Resolver without the costs of a parser, it reads the content like a parser would and returns its size.
+   */
+  private static class DrainingResolver implements BinaryFileContentResolver {
+
+    @Override
+    public String resolveContent(InputStream input) {
+      try {
+        return "archive of " + ByteStreams.exhaust(input) + " bytes";
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    @Override
+    public boolean isSupported(String contentType) {
+      return "application/octet-stream".equals(contentType);
+    }
+  }
+
+  private static class ByteArrayFile implements RepositoryFile {
+
+    private final String path;
+    private final byte[] content;
+    private final boolean sizeKnown;
+
+    private ByteArrayFile(String path, byte[] content, boolean sizeKnown) {
+      this.path = path;
+      this.content = content;
+      this.sizeKnown = sizeKnown;
+    }
+
+    @Override
+    public String getPath() {
+      return path;
+    }
+
+    @Override
+    public OptionalLong getSize() {
+      return sizeKnown ? OptionalLong.of(content.length) : OptionalLong.empty();
+    }
+
+    @Override
+    public InputStream openStream() {
+      return new ByteArrayInputStream(content);
+    }
+  }
+}
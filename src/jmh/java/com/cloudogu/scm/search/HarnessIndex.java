@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.scm.search;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.FSDirectory;
+import sonia.scm.repository.Repository;
+import sonia.scm.search.Hit;
+import sonia.scm.search.Id;
+import sonia.scm.search.Index;
+import sonia.scm.search.QueryResult;
+import sonia.scm.search.SearchEngine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Lucene index of the harness, which writes the documents like the search engine of SCM-Manager: every field of
+ * {@link FileContent} is written as declared by its {@code @Indexed} annotation, one writer is shared by all tasks and
+ * committed after each of them, searches only see committed documents. The analyzers of SCM-Manager are part of the
+ * server, the tokenized fields are analyzed by the standard analyzer of lucene instead.
+ */
+@SuppressWarnings("UnstableApiUsage")
+final class HarnessIndex implements Closeable {
+
+  private static final String ID = "_id";
+  private static final String REPOSITORY = "_repository";
+  private static final int MAX_HITS = 16;
+  private static final String BLOB_ID_QUERY = "blobId:";
+
+  private final Repository repository;
+  private final FSDirectory directory;
+  private final IndexWriter writer;
+  private final SearcherManager searcherManager;
+
+  HarnessIndex(Path path, Repository repository) throws IOException {
+    this.repository = repository;
+    this.directory = FSDirectory.open(path);
+    this.writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()));
+    // the searcher manager requires an existing index
+    this.writer.commit();
+    this.searcherManager = new SearcherManager(directory, null);
+  }
+
+  /**
+   * Returns the index for the indexer, which passes all writes to the lucene writer.
+   */
+  @SuppressWarnings("unchecked")
+  Index<FileContent> createIndex() {
+    Index<FileContent> index = mock(Index.class);
+    doAnswer(invocation -> {
+      FileContent fileContent = invocation.getArgument(2);
+      writer.updateDocument(new Term(ID, fileContent.getPath()), document(fileContent));
+      return null;
+    }).when(index).store(any(), any(), any());
+
+    Index.Deleter<FileContent> deleter = mock(Index.Deleter.class);
+    doAnswer(invocation -> {
+      Id<FileContent> id = invocation.getArgument(0);
+      writer.deleteDocuments(new Term(ID, id.getMainId()));
+      return null;
+    }).when(deleter).byId(any());
+    Index.DeleteBy deleteByRepository = mock(Index.DeleteBy.class);
+    doAnswer(invocation -> {
+      writer.deleteDocuments(new Term(REPOSITORY, repository.getId()));
+      return null;
+    }).when(deleteByRepository).execute();
+    when(deleter.by(Repository.class, repository)).thenReturn(deleteByRepository);
+    when(index.delete()).thenReturn(deleter);
+    return index;
+  }
+
+  /**
+   * Returns a search engine, which answers the searches of {@link IndexedDocuments} from the committed documents.
+   */
+  SearchEngine createSearchEngine() {
+    SearchEngine searchEngine = mock(SearchEngine.class, RETURNS_DEEP_STUBS);
+    when(searchEngine.forType(FileContent.class).search().filter(any(), anyString()).limit(anyInt()).execute(anyString()))
+      .thenAnswer(invocation -> searchByBlobId(invocation.getArgument(0)));
+    return searchEngine;
+  }
+
+  private QueryResult searchByBlobId(String query) throws IOException {
+    if (!query.startsWith(BLOB_ID_QUERY)) {
+      throw new IllegalArgumentException("unsupported query " + query);
+    }
+    String blobId = query.substring(BLOB_ID_QUERY.length()).replace("\"", "");
+    IndexSearcher searcher = searcherManager.acquire();
+    try {
+      List<Hit> hits = new ArrayList<>();
+      for (ScoreDoc scoreDoc : searcher.search(new TermQuery(new Term("blobId", blobId)), MAX_HITS).scoreDocs) {
+        hits.add(hit(searcher.storedFields().document(scoreDoc.doc), scoreDoc.score));
+      }
+      return new QueryResult(hits.size(), FileContent.class, hits);
+    } finally {
+      searcherManager.release(searcher);
+    }
+  }
+
+  private Hit hit(Document document, float score) {
+    Map<String, Hit.Field> fields = new HashMap<>();
+    for (IndexableField field : document.getFields()) {
+      fields.put(field.name(), new Hit.ValueField(field.stringValue()));
+    }
+    return new Hit(document.get("path"), repository.getId(), score, fields);
+  }
+
+  /**
+   * Commits the documents of a task and makes them searchable.
+   */
+  void commit() throws IOException {
+    writer.commit();
+    searcherManager.maybeRefreshBlocking();
+  }
+
+  /**
+   * Returns the number of committed documents.
+   */
+  int size() throws IOException {
+    IndexSearcher searcher = searcherManager.acquire();
+    try {
+      return searcher.getIndexReader().numDocs();
+    } finally {
+      searcherManager.release(searcher);
+    }
+  }
+
+  /**
+   * Returns the blob id of the committed document of the given path.
+   */
+  Optional<String> getBlobId(String path) throws IOException {
+    IndexSearcher searcher = searcherManager.acquire();
+    try {
+      ScoreDoc[] scoreDocs = searcher.search(new TermQuery(new Term(ID, path)), 1).scoreDocs;
+      if (scoreDocs.length == 0) {
+        return Optional.empty();
+      }
+      return Optional.ofNullable(searcher.storedFields().document(scoreDocs[0].doc).get("blobId"));
+    } finally {
+      searcherManager.release(searcher);
+    }
+  }
+
+  private Document document(FileContent fileContent) {
+    Document document = new Document();
+    document.add(new StringField(ID, fileContent.getPath(), Field.Store.NO));
+    document.add(new StringField(REPOSITORY, repository.getId(), Field.Store.NO));
+    document.add(new StoredField("revision", fileContent.getRevision()));
+    document.add(new TextField("path", fileContent.getPath(), Field.Store.YES));
+    document.add(new TextField("filename", fileContent.getFilename(), Field.Store.YES));
+    addIfPresent(document, HarnessIndex::untokenized, "extension", fileContent.getExtension());
+    addIfPresent(document, (name, value) -> new TextField(name, value, Field.Store.YES), "content", fileContent.getContent());
+    document.add(new StoredField("contentType", fileContent.getContentType()));
+    document.add(new StoredField("binary", String.valueOf(fileContent.isBinary())));
+    addIfPresent(document, StoredField::new, "codingLanguage", fileContent.getCodingLanguage());
+    addIfPresent(document, HarnessIndex::untokenized, "blobId", fileContent.getBlobId());
+    document.add(new StoredField("generated", String.valueOf(fileContent.isGenerated())));
+    return document;
+  }
+
+  /**
+   * Searchable, but not tokenized field.
+   */
+  private static IndexableField untokenized(String name, String value) {
+    return new StringField(name, value, Field.Store.YES);
+  }
+
+  private void addIfPresent(Document document, FieldFactory factory, String name, String value) {
+    if (value != null) {
+      document.add(factory.create(name, value));
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      searcherManager.close();
+      writer.close();
+    } finally {
+      directory.close();
+    }
+  }
+
+  @FunctionalInterface
+  private interface FieldFactory {
+    IndexableField create(String name, String value);
+  }
+}
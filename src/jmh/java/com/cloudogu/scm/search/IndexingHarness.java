@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import com.google.common.base.Stopwatch;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.repository.api.RepositoryServiceFactory;
+import sonia.scm.search.Index;
+import sonia.scm.store.InMemoryBlobStoreFactory;
+import sonia.scm.store.InMemoryByteDataStoreFactory;
+import sonia.scm.store.InMemoryConfigurationStoreFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Indexes a generated git repository end to end and reports the throughput of a full re-index and the latency from
+ * a push until its changes are searchable. The harness uses the real indexer, worker and syncer, the documents are
+ * written to a lucene index on disk by the {@link HarnessIndex}, so the results include the costs of lucene.
+ * <p>
+ * Run it with {@code gradle indexingHarness -Dharness.files=100000}, see {@link RepositoryShape} for the shape of the
+ * repository. The options of the plugin, e.g. {@code -Dscm.contentSearch.extractionWorkers=8}, are passed through.
+ */
+@SuppressWarnings("UnstableApiUsage")
+public final class IndexingHarness {
+
+  private static final String PREFIX = "scm.contentsearch.";
+
+  private final RepositoryShape shape;
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final HeadRevisionCache headRevisionCache = new HeadRevisionCache();
+  private final Repository repository = new Repository("harness", "git", "harness", "large");
+
+  private int reIndexRuns;
+  private int documentCount;
+
+  IndexingHarness(RepositoryShape shape) {
+    this.shape = shape;
+  }
+
+  public static void main(String[] args) throws IOException {
+    new IndexingHarness(RepositoryShape.fromSystemProperties()).run();
+  }
+
+  void run() throws IOException {
+    Path directory = Files.createTempDirectory("content-search-harness");
+    ContentExtractionPool extractionPool = new ContentExtractionPool();
+    try {
+      System.out.println("generate repository with " + shape);
+      Stopwatch sw = Stopwatch.createStarted();
+      File repositoryDirectory = directory.resolve("repository").toFile();
+      try (SyntheticRepository syntheticRepository = SyntheticRepository.create(repositoryDirectory, shape);
+           HarnessIndex harnessIndex = new HarnessIndex(directory.resolve("index"), repository)) {
+        System.out.println("generated repository in " + sw.stop());
+
+        IndexSyncer syncer = createSyncer(syntheticRepository, extractionPool, harnessIndex);
+        Index<FileContent> index = harnessIndex.createIndex();
+        reIndex(syncer, index, harnessIndex);
+        push(syncer, index, harnessIndex, syntheticRepository);
+      }
+    } finally {
+      extractionPool.shutdown();
+      delete(directory);
+    }
+  }
+
+  private IndexSyncer createSyncer(SyntheticRepository syntheticRepository,
+                                   ContentExtractionPool extractionPool,
+                                   HarnessIndex harnessIndex) {
+    org.eclipse.jgit.lib.Repository gitRepository = syntheticRepository.getRepository();
+    RepositoryService repositoryService = SyntheticRepositoryService.create(repository, gitRepository);
+    RepositoryServiceFactory repositoryServiceFactory = mock(RepositoryServiceFactory.class);
+    when(repositoryServiceFactory.create(repository)).thenReturn(repositoryService);
+
+    BulkContentReaderProvider readerProvider = new BulkContentReaderProvider() {
+      @Override
+      public boolean isSupported(Repository repository) {
+        return true;
+      }
+
+      @Override
+      public BulkContentReader create(RepositoryService repositoryService) {
+        // the reader closes the repository after every run
+        gitRepository.incrementOpen();
+        return new GitBulkContentReader(repositoryService, gitRepository);
+      }
+    };
+
+    IndexMetrics metrics = new IndexMetrics(registry, mock(IndexUpdateCoalescer.class));
+    ContentSearchConfigStore configStore = new ContentSearchConfigStore(InMemoryConfigurationStoreFactory.create());
+    BulkContentReaderFactory readerFactory = new BulkContentReaderFactory(Collections.singleton(readerProvider));
+    IndexerFactory indexerFactory = new IndexerFactory(
+      new FileContentFactory(BenchmarkData.contentTypeResolver(), Collections.emptySet()),
+      readerFactory,
+      extractionPool,
+      configStore,
+      metrics,
+      new IndexedDocuments(harnessIndex.createSearchEngine())
+    );
+    IndexingContextFactory contextFactory = new IndexingContextFactory(
+      new IndexStatusStore(new InMemoryByteDataStoreFactory()),
+      new IndexSnapshotStore(new InMemoryBlobStoreFactory()),
+      new DefaultBranchCache(),
+      headRevisionCache,
+      configStore,
+      readerFactory,
+      metrics
+    );
+    return new IndexSyncer(repositoryServiceFactory, indexerFactory, new IndexSyncWorkerFactory(contextFactory));
+  }
+
+  private void reIndex(IndexSyncer syncer, Index<FileContent> index, HarnessIndex harnessIndex) throws IOException {
+    long files = files();
+    double bytes = bytesRead();
+    int runs = 0;
+    startHeapMeasurement();
+    Stopwatch sw = Stopwatch.createStarted();
+    IndexSyncer.Result result = commit(harnessIndex, pendingState -> syncer.reindex(index, repository, pendingState));
+    runs++;
+    // a re-index always starts over, the remaining chunks are continued by updates like the coalescer does
+    while (result == IndexSyncer.Result.INCOMPLETE) {
+      result = commit(harnessIndex, pendingState -> syncer.ensureIndexIsUpToDate(index, repository, pendingState));
+      runs++;
+    }
+    sw.stop();
+    reIndexRuns = runs;
+
+    if (result == IndexSyncer.Result.FAILED) {
+      throw new IllegalStateException("re-index failed, see log for details");
+    }
+    documentCount = harnessIndex.size();
+    if (documentCount != shape.getFiles()) {
+      throw new IllegalStateException("re-index wrote " + documentCount + " of " + shape.getFiles() + " files");
+    }
+
+    double seconds = sw.elapsed(TimeUnit.NANOSECONDS) / 1e9;
+    System.out.println();
+    System.out.println("re-index of " + documentCount + " documents in " + runs + " runs took " + sw);
+    System.out.printf("  files/sec:  %.0f%n", (files() - files) / seconds);
+    System.out.printf("  MB/sec:     %.1f%n", (bytesRead() - bytes) / seconds / (1024 * 1024));
+    System.out.printf("  peak heap:  %d MB%n", peakHeap() / (1024 * 1024));
+    printStages();
+  }
+
+  private void push(IndexSyncer syncer,
+                    Index<FileContent> index,
+                    HarnessIndex harnessIndex,
+                    SyntheticRepository syntheticRepository) throws IOException {
+    int pushes = Integer.getInteger("harness.pushes", 20);
+    if (pushes <= 0) {
+      return;
+    }
+
+    long[] latencies = new long[pushes];
+    startHeapMeasurement();
+    for (int i = 0; i < pushes; i++) {
+      int[] files = syntheticRepository.randomFiles(shape.getChangesPerCommit());
+      String revision = syntheticRepository.commit(files);
+      long start = System.nanoTime();
+      // the listener invalidates the cached head on every push
+      headRevisionCache.invalidate(repository);
+      IndexSyncer.Result result;
+      do {
+        result = commit(harnessIndex, pendingState -> syncer.ensureIndexIsUpToDate(index, repository, pendingState));
+      } while (result == IndexSyncer.Result.INCOMPLETE);
+      latencies[i] = System.nanoTime() - start;
+
+      String path = shape.path(files[0]);
+      Optional<String> indexedBlobId = harnessIndex.getBlobId(path);
+      if (result == IndexSyncer.Result.FAILED || !indexedBlobId.equals(Optional.of(syntheticRepository.blobId(path)))) {
+        throw new IllegalStateException("push " + revision + " was not indexed, see log for details");
+      }
+    }
+
+    Arrays.sort(latencies);
+    System.out.println();
+    System.out.println(pushes + " pushes with " + shape.getChangesPerCommit() + " changed files each");
+    System.out.printf("  push-to-searchable p50:  %.1f ms%n", latencies[pushes / 2] / 1e6);
+    System.out.printf("  push-to-searchable p95:  %.1f ms%n", latencies[Math.min(pushes - 1, pushes * 95 / 100)] / 1e6);
+    System.out.printf("  push-to-searchable max:  %.1f ms%n", latencies[pushes - 1] / 1e6);
+    System.out.printf("  peak heap:               %d MB%n", peakHeap() / (1024 * 1024));
+    System.out.println("  (without the quiet window of the update coalescer)");
+  }
+
+  /**
+   * Runs a single update like a task of the search engine: the index is committed at the end of the task, the status
+   * and the snapshot are stored after the commit.
+   */
+  private IndexSyncer.Result commit(HarnessIndex harnessIndex,
+                                    Function<PendingIndexState, IndexSyncer.Result> update) throws IOException {
+    PendingIndexState pendingState = new PendingIndexState();
+    IndexSyncer.Result result = update.apply(pendingState);
+    harnessIndex.commit();
+    pendingState.commit();
+    return result;
+  }
+
+  int getReIndexRuns() {
+    return reIndexRuns;
+  }
+
+  int getDocumentCount() {
+    return documentCount;
+  }
+
+  private long files() {
+    return (long) registry.find(PREFIX + "files").counters().stream().mapToDouble(Counter::count).sum();
+  }
+
+  private double bytesRead() {
+    Counter counter = registry.find(PREFIX + "bytes.read").counter();
+    return counter != null ? counter.count() : 0;
+  }
+
+  private void printStages() {
+    for (String stage : new String[]{"collect", "extract", "store"}) {
+      double seconds = registry.find(PREFIX + stage).timers().stream()
+        .mapToDouble(timer -> timer.totalTime(TimeUnit.SECONDS))
+        .sum();
+      long count = registry.find(PREFIX + stage).timers().stream().mapToLong(Timer::count).sum();
+      System.out.printf("  %-10s  %8.2f s in %d operations%n", stage + ":", seconds, count);
+    }
+  }
+
+  private static void startHeapMeasurement() {
+    System.gc();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+      }
+    }
+  }
+
+  /**
+   * Returns the sum of the peaks of all heap pools, which is an upper bound of the peak heap usage, because the pools
+   * do not necessarily reach their peak at the same time.
+   */
+  private static long peakHeap() {
+    return ManagementFactory.getMemoryPoolMXBeans().stream()
+      .filter(pool -> pool.getType() == MemoryType.HEAP)
+      .mapToLong(pool -> pool.getPeakUsage().getUsed())
+      .sum();
+  }
+
+  private static void delete(Path directory) throws IOException {
+    try (Stream<Path> paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.scm.search;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the harness with a small repository and a small chunk size, so that the re-index takes several runs.
+ */
+class IndexingHarnessTest {
+
+  @AfterEach
+  void clearProperties() {
+    System.clearProperty(IndexSyncWorker.CHUNK_SIZE_PROPERTY);
+    System.clearProperty("harness.pushes");
+  }
+
+  @Test
+  void shouldReIndexInChunksAndIndexPushes() throws IOException {
+    System.setProperty(IndexSyncWorker.CHUNK_SIZE_PROPERTY, "100");
+    System.setProperty("harness.pushes", "3");
+    IndexingHarness harness = new IndexingHarness(new RepositoryShape(450, 2, 4, 10, 256, 5, 4));
+
+    harness.run();
+
+    assertThat(harness.getReIndexRuns()).isEqualTo(5);
+    assertThat(harness.getDocumentCount()).isEqualTo(450);
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The shape of a generated repository. All values can be set with system properties prefixed with {@code harness.},
+ * e.g. {@code -Dharness.files=100000}.
+ */
+final class RepositoryShape {
+
+  private static final String PREFIX = "harness.";
+
+  private final int files;
+  private final int depth;
+  private final int fanout;
+  private final int binaryPercent;
+  private final int fileSize;
+  private final int history;
+  private final int changesPerCommit;
+
+  private final byte[] text;
+  private final byte[] binary;
+
+  RepositoryShape(int files, int depth, int fanout, int binaryPercent, int fileSize, int history, int changesPerCommit) {
+    this.files = files;
+    this.depth = depth;
+    this.fanout = fanout;
+    this.binaryPercent = binaryPercent;
+    this.fileSize = fileSize;
+    this.history = history;
+    this.changesPerCommit = changesPerCommit;
+    // files have a size between the half and one and a half of the configured size
+    this.text = BenchmarkData.text(fileSize * 3 / 2 + 1);
+    this.binary = BenchmarkData.binary(fileSize * 3 / 2 + 1);
+  }
+
+  static RepositoryShape fromSystemProperties() {
+    return new RepositoryShape(
+      Integer.getInteger(PREFIX + "files", 100_000),
+      Integer.getInteger(PREFIX + "depth", 6),
+      Integer.getInteger(PREFIX + "fanout", 10),
+      Integer.getInteger(PREFIX + "binaryPercent", 10),
+      Integer.getInteger(PREFIX + "fileSize", 4096),
+      Integer.getInteger(PREFIX + "history", 200),
+      Integer.getInteger(PREFIX + "changesPerCommit", 10)
+    );
+  }
+
+  int getFiles() {
+    return files;
+  }
+
+  int getHistory() {
+    return history;
+  }
+
+  int getChangesPerCommit() {
+    return changesPerCommit;
+  }
+
+  /**
+   * Returns the path of the n-th file. Consecutive files are spread over the directories of every level, so that the
+   * tree is balanced.
+   */
+  String path(int n) {
+    StringBuilder builder = new StringBuilder();
+    int bucket = n;
+    for (int level = 0; level < depth; level++) {
+      builder.append("dir").append(bucket % fanout).append('/');
+      bucket /= fanout;
+    }
+    return builder.append("File").append(n).append(isBinary(n) ? ".bin" : ".java").toString();
+  }
+
+  boolean isBinary(int n) {
+    return n % 100 < binaryPercent;
+  }
+
+  /**
+   * Returns the content of the n-th file in the given version. Every file and version has its own content, otherwise
+   * the indexer would detect unchanged blobs and skip them.
+   */
+  byte[] content(int n, int version) {
+    byte[] header = ("// File " + n + " version " + version + "\n").getBytes(StandardCharsets.US_ASCII);
+    byte[] base = isBinary(n) ? binary : text;
+    int size = Math.max(header.length + 1, fileSize / 2 + (int) ((n * 7919L) % (fileSize + 1)));
+    byte[] content = new byte[size];
+    System.arraycopy(base, 0, content, 0, size);
+    // binary content starts with a zero byte, which must be kept to be detected as binary
+    int offset = isBinary(n) ? 1 : 0;
+    System.arraycopy(header, 0, content, offset, Math.min(header.length, size - offset));
+    return content;
+  }
+
+  @Override
+  public String toString() {
+    return files + " files (" + binaryPercent + "% binary, ~" + fileSize + " bytes), depth " + depth
+      + ", fanout " + fanout + ", " + history + " commits of history with " + changesPerCommit + " changes each";
+  }
+}
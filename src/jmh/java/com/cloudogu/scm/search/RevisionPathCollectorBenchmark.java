@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import org.mockito.Answers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import sonia.scm.repository.BrowserResult;
+import sonia.scm.repository.FileObject;
+import sonia.scm.repository.api.BrowseCommandBuilder;
+import sonia.scm.repository.api.RepositoryService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures the collection of all paths of a revision with 10k up to 100k files. The tree is created up front and
+ * every directory is returned by the browse command of the fallback reader, so only the walk and the path set are
+ * measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RevisionPathCollectorBenchmark {
+
+  @Param({"10000", "100000"})
+  private int files;
+
+  private final Map<String, FileObject> directories = new HashMap<>();
+
+  private RepositoryService repositoryService;
+
+  @Setup
+  public void setUp() throws IOException {
+    createTree();
+    AtomicReference<String> path = new AtomicReference<>();
+    BrowseCommandBuilder command = mock(BrowseCommandBuilder.class, Answers.RETURNS_SELF);
+    when(command.setPath(anyString())).thenAnswer(invocation -> {
+      path.set(invocation.getArgument(0));
+      return command;
+    });
+    when(command.getBrowserResult()).thenAnswer(invocation -> new BrowserResult("42", directories.get(path.get())));
+    repositoryService = mock(RepositoryService.class);
+    when(repositoryService.getBrowseCommand()).thenReturn(command);
+  }
+
+  private void createTree() {
+    directories.put("", directory(""));
+    for (int i = 0; i < files; i++) {
+      String path = BenchmarkData.path(i);
+      FileObject parent = parent(directories, path);
+      FileObject file = new FileObject();
+      file.setName(path.substring(path.lastIndexOf('/') + 1));
+      file.setPath(path);
+      file.setDirectory(false);
+      parent.getChildren().add(file);
+    }
+  }
+
+  private FileObject parent(Map<String, FileObject> directories, String path) {
+    String parentPath = path.contains("/") ? path.substring(0, path.lastIndexOf('/')) : "";
+    FileObject parent = directories.get(parentPath);
+    if (parent == null) {
+      parent = directory(parentPath);
+      directories.put(parentPath, parent);
+      parent(directories, parentPath).getChildren().add(parent);
+    }
+    return parent;
+  }
+
+  private FileObject directory(String path) {
+    FileObject directory = new FileObject();
+    directory.setName(path.substring(path.lastIndexOf('/') + 1));
+    directory.setPath(path);
+    directory.setDirectory(true);
+    directory.setChildren(new ArrayList<>());
+    return directory;
+  }
+
+  @Benchmark
+  public RevisionPathCollector collect() throws IOException {
+    RevisionPathCollector collector = new RevisionPathCollector(
+      repositoryService, new BulkContentReaderFactory(Collections.emptySet())
+    );
+    collector.collect("42");
+    return collector;
+  }
+}
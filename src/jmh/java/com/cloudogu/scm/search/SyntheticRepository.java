@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * A local bare git repository with generated content. The commits are written directly to the object database,
+ * without a working tree, so that repositories with hundreds of thousands of files can be created in reasonable time.
+ */
+final class SyntheticRepository implements Closeable {
+
+  private static final PersonIdent AUTHOR = new PersonIdent("Harness", "harness@example.com");
+
+  private final RepositoryShape shape;
+  private final Repository repository;
+  private final DirCache tree = DirCache.newInCore();
+  private final int[] versions;
+  private final Random random = new Random(42L);
+
+  private ObjectId head;
+  private int commits;
+
+  private SyntheticRepository(RepositoryShape shape, Repository repository) {
+    this.shape = shape;
+    this.repository = repository;
+    this.versions = new int[shape.getFiles()];
+  }
+
+  static SyntheticRepository create(File directory, RepositoryShape shape) throws IOException {
+    Repository repository = FileRepositoryBuilder.create(directory);
+    repository.create(true);
+
+    SyntheticRepository syntheticRepository = new SyntheticRepository(shape, repository);
+    syntheticRepository.commit(IntStream.range(0, shape.getFiles()).toArray());
+    for (int i = 0; i < shape.getHistory(); i++) {
+      syntheticRepository.commit(syntheticRepository.randomFiles(shape.getChangesPerCommit()));
+    }
+    return syntheticRepository;
+  }
+
+  Repository getRepository() {
+    return repository;
+  }
+
+  String getHead() {
+    return head.name();
+  }
+
+  /**
+   * Returns the id of the blob of the given path in the current head.
+   */
+  String blobId(String path) {
+    return tree.getEntry(path).getObjectId().name();
+  }
+
+  int[] randomFiles(int count) {
+    return random.ints(0, shape.getFiles()).distinct().limit(Math.min(count, shape.getFiles())).toArray();
+  }
+
+  /**
+   * Writes a new version of the given files and commits them on top of the current head, just like a push.
+   *
+   * @return the id of the new commit
+   */
+  String commit(int... files) throws IOException {
+    try (ObjectInserter inserter = repository.newObjectInserter()) {
+      DirCacheEditor editor = tree.editor();
+      for (int n : files) {
+        ObjectId blobId = inserter.insert(Constants.OBJ_BLOB, shape.content(n, versions[n]++));
+        editor.add(new DirCacheEditor.PathEdit(shape.path(n)) {
+          @Override
+          public void apply(DirCacheEntry entry) {
+            entry.setFileMode(FileMode.REGULAR_FILE);
+            entry.setObjectId(blobId);
+          }
+        });
+      }
+      editor.finish();
+
+      CommitBuilder commit = new CommitBuilder();
+      commit.setTreeId(tree.writeTree(inserter));
+      if (head != null) {
+        commit.setParentId(head);
+      }
+      commit.setAuthor(AUTHOR);
+      commit.setCommitter(AUTHOR);
+      commit.setMessage("change " + commits++);
+      head = inserter.insert(commit);
+      inserter.flush();
+    }
+
+    RefUpdate update = repository.updateRef(Constants.HEAD);
+    update.setNewObjectId(head);
+    update.forceUpdate();
+    return head.name();
+  }
+
+  @Override
+  public void close() {
+    repository.close();
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.mockito.Answers;
+import sonia.scm.repository.Added;
+import sonia.scm.repository.Changeset;
+import sonia.scm.repository.ChangesetPagingResult;
+import sonia.scm.repository.Feature;
+import sonia.scm.repository.Modification;
+import sonia.scm.repository.Modifications;
+import sonia.scm.repository.Modified;
+import sonia.scm.repository.Person;
+import sonia.scm.repository.Removed;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.api.Command;
+import sonia.scm.repository.api.LogCommandBuilder;
+import sonia.scm.repository.api.ModificationsCommandBuilder;
+import sonia.scm.repository.api.RepositoryService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * A repository service for a local git repository, which implements the commands used by the indexer with plain
+ * JGit. The service of the git plugin requires a running SCM-Manager, the commands below behave the same for the
+ * purpose of indexing: the log command counts the commits between two revisions and the modifications command diffs
+ * two revisions without rename detection. Files are read and walked by the {@link GitBulkContentReader}.
+ */
+final class SyntheticRepositoryService {
+
+  private final org.eclipse.jgit.lib.Repository repository;
+
+  private SyntheticRepositoryService(org.eclipse.jgit.lib.Repository repository) {
+    this.repository = repository;
+  }
+
+  static RepositoryService create(Repository repository, org.eclipse.jgit.lib.Repository gitRepository) {
+    SyntheticRepositoryService commands = new SyntheticRepositoryService(gitRepository);
+
+    RepositoryService repositoryService = mock(RepositoryService.class);
+    when(repositoryService.getRepository()).thenReturn(repository);
+    when(repositoryService.isSupported(Command.LOG)).thenReturn(true);
+    when(repositoryService.isSupported(Command.BROWSE)).thenReturn(true);
+    when(repositoryService.isSupported(Feature.MODIFICATIONS_BETWEEN_REVISIONS)).thenReturn(true);
+    when(repositoryService.getLogCommand()).thenAnswer(
+      invocation -> command(LogCommandBuilder.class, "getChangesets", commands::log)
+    );
+    when(repositoryService.getModificationsCommand()).thenAnswer(
+      invocation -> command(ModificationsCommandBuilder.class, "getModifications", commands::modifications)
+    );
+    return repositoryService;
+  }
+
+  /**
+   * Creates a command builder, which records the arguments of all setters and passes them to the given operation, if
+   * the terminal method is called.
+   */
+  private static <T> T command(Class<T> type, String terminal, Operation operation) {
+    Map<String, Object> arguments = new HashMap<>();
+    return mock(type, invocation -> {
+      String method = invocation.getMethod().getName();
+      if (method.equals(terminal)) {
+        return operation.execute(arguments);
+      } else if (type.isAssignableFrom(invocation.getMethod().getReturnType())) {
+        if (invocation.getArguments().length == 1) {
+          arguments.put(method, invocation.getArgument(0));
+        }
+        return invocation.getMock();
+      }
+      return Answers.RETURNS_DEFAULTS.answer(invocation);
+    });
+  }
+
+  private ChangesetPagingResult log(Map<String, Object> arguments) throws IOException {
+    String start = (String) arguments.getOrDefault("setStartChangeset", Constants.HEAD);
+    String ancestor = (String) arguments.get("setAncestorChangeset");
+    int limit = (int) arguments.getOrDefault("setPagingLimit", Integer.MAX_VALUE);
+
+    List<Changeset> changesets = new ArrayList<>();
+    int total = 0;
+    try (RevWalk revWalk = new RevWalk(repository)) {
+      revWalk.markStart(revWalk.parseCommit(resolve(start)));
+      if (ancestor != null) {
+        revWalk.markUninteresting(revWalk.parseCommit(resolve(ancestor)));
+      }
+      for (RevCommit commit : revWalk) {
+        if (changesets.size() < limit) {
+          changesets.add(changeset(commit));
+        }
+        total++;
+      }
+    }
+    return new ChangesetPagingResult(total, changesets);
+  }
+
+  private Changeset changeset(RevCommit commit) {
+    Person author = new Person(commit.getAuthorIdent().getName(), commit.getAuthorIdent().getEmailAddress());
+    return new Changeset(commit.getName(), commit.getCommitTime() * 1000L, author, commit.getFullMessage());
+  }
+
+  private Modifications modifications(Map<String, Object> arguments) throws IOException {
+    String revision = (String) arguments.get("revision");
+    Collection<Modification> modifications = new ArrayList<>();
+    try (RevWalk revWalk = new RevWalk(repository); TreeWalk treeWalk = new TreeWalk(repository)) {
+      treeWalk.addTree(revWalk.parseCommit(resolve((String) arguments.get("baseRevision"))).getTree());
+      treeWalk.addTree(revWalk.parseCommit(resolve(revision)).getTree());
+      treeWalk.setRecursive(true);
+      treeWalk.setFilter(TreeFilter.ANY_DIFF);
+      for (DiffEntry entry : DiffEntry.scan(treeWalk)) {
+        switch (entry.getChangeType()) {
+          case ADD, COPY -> modifications.add(new Added(entry.getNewPath()));
+          case DELETE -> modifications.add(new Removed(entry.getOldPath()));
+          default -> modifications.add(new Modified(entry.getNewPath()));
+        }
+      }
+    }
+    return new Modifications(revision, modifications);
+  }
+
+  private ObjectId resolve(String revision) throws IOException {
+    ObjectId id = repository.resolve(revision);
+    if (id == null) {
+      throw new IOException("could not resolve revision " + revision);
+    }
+    return id;
+  }
+
+  @FunctionalInterface
+  private interface Operation {
+    Object execute(Map<String, Object> arguments) throws IOException;
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import org.mockito.Answers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import sonia.scm.repository.Added;
+import sonia.scm.repository.Modification;
+import sonia.scm.repository.Modifications;
+import sonia.scm.repository.Modified;
+import sonia.scm.repository.Removed;
+import sonia.scm.repository.Renamed;
+import sonia.scm.repository.api.ModificationsCommandBuilder;
+import sonia.scm.repository.api.RepositoryService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures the collection of paths from diffs with 10k up to 100k modifications. The modifications are created up
+ * front, so only the work of the collector is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UpdatePathCollectorBenchmark {
+
+  @Param({"10000", "100000"})
+  private int modifications;
+
+  private RepositoryService repositoryService;
+
+  @Setup
+  public void setUp() throws IOException {
+    List<Modification> list = new ArrayList<>(modifications);
+    for (int i = 0; i < modifications; i++) {
+      String path = BenchmarkData.path(i);
+      switch (i % 10) {
+        case 0, 1 -> list.add(new Added(path));
+        case 2 -> list.add(new Removed(path));
+        case 3 -> list.add(new Renamed(BenchmarkData.path(i + modifications), path));
+        default -> list.add(new Modified(path));
+      }
+    }
+
+    ModificationsCommandBuilder command = mock(ModificationsCommandBuilder.class, Answers.RETURNS_SELF);
+    when(command.getModifications()).thenReturn(new Modifications("42", list));
+    repositoryService = mock(RepositoryService.class);
+    when(repositoryService.getModificationsCommand()).thenReturn(command);
+  }
+
+  @Benchmark
+  public UpdatePathCollector collect() throws IOException {
+    UpdatePathCollector collector = new UpdatePathCollector(repositoryService);
+    collector.collect("21", "42");
+    return collector;
+  }
+}
@@ -25,4 +25,13 @@ public interface BinaryFileContentResolver {
   String resolveContent(InputStream input);
 
   boolean isSupported(String contentType);
+
+  /**
+   * Returns the version of the extraction. The extracted text is cached by the content of the file, the class of the
+   * resolver and this version. Implementations have to return a new version, whenever they extract a different text
+   * from the same content, e.g. after an update of the underlying library.
+   */
+  default String getVersion() {
+    return "1";
+  }
 }
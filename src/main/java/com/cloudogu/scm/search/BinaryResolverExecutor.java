@@ -0,0 +1,438 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.io.ByteArrayInputStream;
+import java.io.InterruptedIOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs {@link BinaryFileContentResolver}s isolated from the indexing threads. A single pathological file must not
+ * block the index of a repository, so only a few calls run at the same time and every call is abandoned after a
+ * timeout. The input of a call is limited and passed as a byte array, so that resolvers never hold a stream of the
+ * repository, the extracted text is truncated to a maximum length.
+ * <p>
+ * The worker of an abandoned call is replaced, because a resolver may ignore the interrupt and never return. To bound
+ * the number of threads, at most as many workers are replaced as there are workers. Once the limit is reached a stuck
+ * worker keeps its slot until it returns, calls which cannot start in time are counted as failures of the resolver
+ * which blocks the worker.
+ * <p>
+ * The inputs of the waiting, running and abandoned calls are limited by a byte budget, which can be set with the
+ * system property {@value #MEMORY_BUDGET_PROPERTY}. Calls which exceed the budget or the queue are skipped.
+ * <p>
+ * A resolver which fails or times out several times in a row is disabled for a cool down period. After the period a
+ * single call is allowed, if it succeeds the resolver is enabled again.
+ * <p>
+ * Every call which does not produce a text is added to the {@link SkippedBlobReport} of the current run.
+ */
+@Singleton
+public class BinaryResolverExecutor {
+
+  private static final Logger LOG = LoggerFactory.getLogger(BinaryResolverExecutor.class);
+
+  static final String WORKERS_PROPERTY = "scm.contentSearch.resolverWorkers";
+  static final String QUEUE_SIZE_PROPERTY = "scm.contentSearch.resolverQueueSize";
+  static final String TIMEOUT_PROPERTY = "scm.contentSearch.resolverTimeout";
+  static final String MAX_INPUT_SIZE_PROPERTY = "scm.contentSearch.resolverMaxInputSize";
+  static final String MAX_OUTPUT_LENGTH_PROPERTY = "scm.contentSearch.resolverMaxOutputLength";
+  static final String MEMORY_BUDGET_PROPERTY = "scm.contentSearch.resolverMemoryBudget";
+  static final String FAILURE_THRESHOLD_PROPERTY = "scm.contentSearch.resolverFailureThreshold";
+  static final String COOL_DOWN_PROPERTY = "scm.contentSearch.resolverCoolDown";
+
+  private static final int DEFAULT_WORKERS = 2;
+  private static final int DEFAULT_QUEUE_SIZE = 16;
+  private static final long DEFAULT_TIMEOUT_SECONDS = 120;
+  private static final int DEFAULT_MAX_INPUT_SIZE = 64 * 1024 * 1024;
+  private static final int DEFAULT_MAX_OUTPUT_LENGTH = 8 * 1024 * 1024;
+  private static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+  private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+  private static final long DEFAULT_COOL_DOWN_SECONDS = 15 * 60L;
+
+  private final Settings settings;
+  private final Clock clock;
+  private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+  // limits the calls which wait for a worker or run, abandoned calls are not counted
+  private final Semaphore admissions;
+  private final Semaphore workerSlots;
+  // limits the inputs of all calls, including the abandoned ones which have not returned yet
+  private final Semaphore memory;
+
+  // guarded by this, calls which occupy a worker slot in the order of their start
+  private final Set<Call> running = new LinkedHashSet<>();
+  private int abandoned;
+
+  private ExecutorService executor;
+
+  @Inject
+  public BinaryResolverExecutor() {
+    this(new Settings(
+      Integer.getInteger(WORKERS_PROPERTY, DEFAULT_WORKERS),
+      Integer.getInteger(QUEUE_SIZE_PROPERTY, DEFAULT_QUEUE_SIZE),
+      Duration.ofSeconds(Long.getLong(TIMEOUT_PROPERTY, DEFAULT_TIMEOUT_SECONDS)),
+      Integer.getInteger(MAX_INPUT_SIZE_PROPERTY, DEFAULT_MAX_INPUT_SIZE),
+      Integer.getInteger(MAX_OUTPUT_LENGTH_PROPERTY, DEFAULT_MAX_OUTPUT_LENGTH),
+      Long.getLong(MEMORY_BUDGET_PROPERTY, DEFAULT_MEMORY_BUDGET),
+      Integer.getInteger(FAILURE_THRESHOLD_PROPERTY, DEFAULT_FAILURE_THRESHOLD),
+      Duration.ofSeconds(Long.getLong(COOL_DOWN_PROPERTY, DEFAULT_COOL_DOWN_SECONDS))
+    ), Clock.systemUTC());
+  }
+
+  @VisibleForTesting
+  BinaryResolverExecutor(Settings settings, Clock clock) {
+    this.settings = settings;
+    this.clock = clock;
+    this.admissions = new Semaphore(settings.workers + settings.queueSize);
+    this.workerSlots = new Semaphore(settings.workers);
+    this.memory = new Semaphore(settings.memoryBudget);
+  }
+
+  /**
+   * Returns the maximum number of bytes which are passed to a resolver. Larger files are skipped, because a truncated
+   * document can rarely be parsed.
+   */
+  int getMaxInputSize() {
+    return settings.maxInputSize;
+  }
+
+  /**
+   * Extracts the text of the given content with the resolver. Returns an empty optional, if the resolver has not
+   * returned a text, the reason is added to the report if the resolver has not been called or has failed.
+   */
+  Optional<String> resolve(BinaryFileContentResolver resolver,
+                           RepositoryFile file,
+                           byte[] content,
+                           SkippedBlobReport report) throws InterruptedIOException {
+    String name = resolver.getClass().getName();
+    CircuitBreaker circuitBreaker = circuitBreakers.computeIfAbsent(name, n -> new CircuitBreaker());
+    if (!circuitBreaker.allows(clock.millis())) {
+      report.skipped(file, name, SkippedBlobReport.Reason.DISABLED);
+      return Optional.empty();
+    }
+
+    Call call = new Call(name, circuitBreaker, permits(content.length));
+    if (!admissions.tryAcquire()) {
+      return busy(call, file, report);
+    }
+    try {
+      if (!memory.tryAcquire(call.memory)) {
+        LOG.debug("memory budget of resolvers is exhausted, skip {}", file.getPath());
+        return busy(call, file, report);
+      }
+      return execute(resolver, call, file, content, report);
+    } finally {
+      admissions.release();
+    }
+  }
+
+  private Optional<String> execute(BinaryFileContentResolver resolver,
+                                   Call call,
+                                   RepositoryFile file,
+                                   byte[] content,
+                                   SkippedBlobReport report) throws InterruptedIOException {
+    try {
+      if (!workerSlots.tryAcquire(settings.timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+        memory.release(call.memory);
+        blocked(file);
+        return busy(call, file, report);
+      }
+    } catch (InterruptedException e) {
+      memory.release(call.memory);
+      call.circuitBreaker.release();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for binary content resolver");
+    }
+
+    Future<String> future;
+    try {
+      future = submit(call, () -> resolver.resolveContent(new ByteArrayInputStream(content)));
+    } catch (RejectedExecutionException e) {
+      return busy(call, file, report);
+    }
+
+    try {
+      String text = future.get(settings.timeout.toMillis(), TimeUnit.MILLISECONDS);
+      call.circuitBreaker.success();
+      return Optional.ofNullable(text).map(t -> truncate(file, t));
+    } catch (InterruptedException e) {
+      abandon(call, future);
+      call.circuitBreaker.release();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for binary content resolver");
+    } catch (TimeoutException e) {
+      abandon(call, future);
+      LOG.warn("resolver {} has not extracted {} within {}, skip content", call.resolver, file.getPath(), settings.timeout);
+      failed(call.circuitBreaker, call.resolver);
+      report.skipped(file, call.resolver, SkippedBlobReport.Reason.TIMEOUT);
+    } catch (ExecutionException e) {
+      LOG.warn("resolver {} failed to extract {}, skip content", call.resolver, file.getPath(), e.getCause());
+      failed(call.circuitBreaker, call.resolver);
+      report.skipped(file, call.resolver, SkippedBlobReport.Reason.FAILED);
+    }
+    return Optional.empty();
+  }
+
+  private Optional<String> busy(Call call, RepositoryFile file, SkippedBlobReport report) {
+    // the resolver was not slow, the other calls have been
+    call.circuitBreaker.release();
+    report.skipped(file, call.resolver, SkippedBlobReport.Reason.BUSY);
+    return Optional.empty();
+  }
+
+  /**
+   * Called if a call could not start within the timeout. Usually the workers are stuck and may not be replaced anymore,
+   * so the call which occupies a worker for the longest time is counted as a failure of its resolver.
+   */
+  private void blocked(RepositoryFile file) {
+    Call blocking;
+    synchronized (this) {
+      blocking = running.stream().findFirst().orElse(null);
+    }
+    if (blocking != null) {
+      LOG.warn("resolver {} blocks the workers, {} could not be extracted", blocking.resolver, file.getPath());
+      failed(blocking.circuitBreaker, blocking.resolver);
+    }
+  }
+
+  private Future<String> submit(Call call, Callable<String> callable) {
+    synchronized (this) {
+      running.add(call);
+    }
+    try {
+      return executor().submit(() -> {
+        if (!started(call)) {
+          return null;
+        }
+        try {
+          return callable.call();
+        } finally {
+          finished(call);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      synchronized (this) {
+        running.remove(call);
+      }
+      workerSlots.release();
+      memory.release(call.memory);
+      throw e;
+    }
+  }
+
+  private synchronized boolean started(Call call) {
+    if (call.abandoned) {
+      return false;
+    }
+    call.started = true;
+    return true;
+  }
+
+  private synchronized void finished(Call call) {
+    call.finished = true;
+    memory.release(call.memory);
+    if (call.replaced) {
+      abandoned--;
+    } else if (running.remove(call)) {
+      workerSlots.release();
+    }
+  }
+
+  /**
+   * Gives up a call which has not returned in time. A call which has not started yet never will, a running call keeps
+   * its memory until it returns. The worker of a running call is replaced, unless the limit of replaced workers is
+   * reached.
+   */
+  private synchronized void abandon(Call call, Future<String> future) {
+    future.cancel(true);
+    call.abandoned = true;
+    if (call.finished) {
+      return;
+    }
+    if (!call.started) {
+      running.remove(call);
+      workerSlots.release();
+      memory.release(call.memory);
+    } else if (abandoned < settings.workers) {
+      abandoned++;
+      call.replaced = true;
+      running.remove(call);
+      workerSlots.release();
+      LOG.warn("replace worker of resolver {}, which has not returned in time", call.resolver);
+    } else {
+      LOG.warn("resolver {} has not returned in time, but too many workers are already replaced", call.resolver);
+    }
+  }
+
+  private int permits(long bytes) {
+    return (int) Math.max(1, Math.min(settings.memoryBudget, bytes));
+  }
+
+  private String truncate(RepositoryFile file, String text) {
+    if (text.length() > settings.maxOutputLength) {
+      LOG.debug("extracted text of {} exceeds {} characters, truncate it", file.getPath(), settings.maxOutputLength);
+      return text.substring(0, settings.maxOutputLength);
+    }
+    return text;
+  }
+
+  private void failed(CircuitBreaker circuitBreaker, String name) {
+    if (circuitBreaker.failure(clock.millis())) {
+      LOG.error(
+        "resolver {} has failed {} times in a row, disable it for {}",
+        name, settings.failureThreshold, settings.coolDown
+      );
+    }
+  }
+
+  private synchronized ExecutorService executor() {
+    if (executor == null) {
+      // threads are created on demand, the worker slots limit the calls which run at the same time
+      executor = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("content-search-resolver-%d").setDaemon(true).build()
+      );
+    }
+    return executor;
+  }
+
+  public synchronized void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  @VisibleForTesting
+  static class Settings {
+
+    private final int workers;
+    private final int queueSize;
+    private final Duration timeout;
+    private final int maxInputSize;
+    private final int maxOutputLength;
+    private final int memoryBudget;
+    private final int failureThreshold;
+    private final Duration coolDown;
+
+    Settings(int workers,
+             int queueSize,
+             Duration timeout,
+             int maxInputSize,
+             int maxOutputLength,
+             long memoryBudget,
+             int failureThreshold,
+             Duration coolDown) {
+      this.workers = Math.max(1, workers);
+      this.queueSize = Math.max(1, queueSize);
+      this.timeout = timeout;
+      this.maxInputSize = Math.max(0, maxInputSize);
+      this.maxOutputLength = Math.max(0, maxOutputLength);
+      this.memoryBudget = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget));
+      this.failureThreshold = Math.max(1, failureThreshold);
+      this.coolDown = coolDown;
+    }
+  }
+
+  /**
+   * A single call of a resolver and the memory reserved for its input. The state is guarded by the executor.
+   */
+  private static class Call {
+
+    private final String resolver;
+    private final CircuitBreaker circuitBreaker;
+    private final int memory;
+
+    private boolean started;
+    private boolean finished;
+    private boolean abandoned;
+    private boolean replaced;
+
+    private Call(String resolver, CircuitBreaker circuitBreaker, int memory) {
+      this.resolver = resolver;
+      this.circuitBreaker = circuitBreaker;
+      this.memory = memory;
+    }
+  }
+
+  /**
+   * Counts the consecutive failures of a resolver. Once the threshold is reached the circuit is open and no calls are
+   * allowed until the cool down has passed, then a single trial call is allowed.
+   */
+  private class CircuitBreaker {
+
+    private int failures;
+    private long openUntil;
+    private boolean trial;
+
+    synchronized boolean allows(long now) {
+      if (failures < settings.failureThreshold) {
+        return true;
+      }
+      if (trial || now < openUntil) {
+        return false;
+      }
+      trial = true;
+      return true;
+    }
+
+    /**
+     * Called if an allowed call has not been executed, e.g. because the pool was busy.
+     */
+    synchronized void release() {
+      trial = false;
+    }
+
+    synchronized void success() {
+      failures = 0;
+      trial = false;
+    }
+
+    /**
+     * Returns {@code true} if the circuit has been opened by this failure.
+     */
+    synchronized boolean failure(long now) {
+      failures++;
+      trial = false;
+      if (failures >= settings.failureThreshold) {
+        openUntil = now + settings.coolDown.toMillis();
+        return true;
+      }
+      return false;
+    }
+  }
+}
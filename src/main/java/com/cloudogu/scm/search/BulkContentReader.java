@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Reads the files of a whole set of paths from one revision and walks the paths of all files of a revision.
+ */
+public interface BulkContentReader extends Closeable {
+
+  /**
+   * Passes every file of the given paths to the consumer. Paths which do not exist in the revision are skipped.
+   */
+  void read(String revision, Collection<String> paths, FileConsumer consumer) throws IOException;
+
+  /**
+   * Passes the path of every file of the revision to the visitor in {@link PathOrder}, starting with the first path
+   * after the cursor. Subtrees which lie entirely before the cursor are not walked at all. The walk stops as soon as
+   * the visitor returns {@code false}.
+   *
+   * @param after last path of a previous walk, or {@code null} to start with the first file
+   */
+  void walk(String revision, @Nullable String after, PathVisitor visitor) throws IOException;
+
+  /**
+   * Returns {@code true} if the files passed to the consumer may be opened from other threads than the reading one,
+   * while the reader is still open.
+   */
+  default boolean isConcurrent() {
+    return false;
+  }
+
+  @Override
+  default void close() throws IOException {
+    // most readers do not hold resources
+  }
+
+  @FunctionalInterface
+  interface PathVisitor {
+    /**
+     * @return {@code false} to stop the walk
+     */
+    boolean visit(String path);
+  }
+
+  @FunctionalInterface
+  interface FileConsumer {
+    void accept(RepositoryFile file) throws IOException;
+  }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.api.RepositoryService;
+
+import jakarta.inject.Inject;
+import java.io.IOException;
+import java.util.Set;
+
+public class BulkContentReaderFactory {
+
+  private final Set<BulkContentReaderProvider> providers;
+
+  @Inject
+  public BulkContentReaderFactory(Set<BulkContentReaderProvider> providers) {
+    this.providers = providers;
+  }
+
+  public BulkContentReader create(RepositoryService repositoryService) throws IOException {
+    Repository repository = repositoryService.getRepository();
+    for (BulkContentReaderProvider provider : providers) {
+      if (provider.isSupported(repository)) {
+        return provider.create(repositoryService);
+      }
+    }
+    return new CatContentReader(repositoryService);
+  }
+
+}
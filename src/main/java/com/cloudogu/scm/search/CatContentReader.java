@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import sonia.scm.repository.FileObject;
+import sonia.scm.repository.api.RepositoryService;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * Fallback {@link BulkContentReader} which uses one cat command per file and one browse command per directory. It is
+ * used for every repository type without a {@link BulkContentReaderProvider}.
+ * <p>
+ * The files have no blob ids, their change tokens are derived from the size and the date of the last commit instead.
+ * The sizes are taken from a browse of the parent directory, the dates of the last commits need a second, more
+ * expensive browse, which is only done if the change token of a file is requested.
+ */
+public class CatContentReader implements BulkContentReader {
+
+  private final RepositoryService repositoryService;
+
+  public CatContentReader(RepositoryService repositoryService) {
+    this.repositoryService = repositoryService;
+  }
+
+  /**
+   * Reads the files with one cat command per file. The parent directory of the files is browsed once for their sizes,
+   * as long as the paths of the same directory follow each other, which they do in {@link PathOrder}.
+   */
+  @Override
+  public void read(String revision, Collection<String> paths, FileConsumer consumer) throws IOException {
+    Directory sizes = new Directory(revision, false);
+    Directory lastCommits = new Directory(revision, true);
+    for (String path : paths) {
+      OptionalLong size = sizes.get(path).map(FileObject::getLength).orElse(OptionalLong.empty());
+      consumer.accept(new CatFile(repositoryService, revision, path, size, lastCommits));
+    }
+  }
+
+  /**
+   * Walks the tree one directory at a time, so that only the pending entries of the directories along the current path
+   * are held in memory.
+   * The children of every directory are sorted, because the browse command does not guarantee the {@link PathOrder}.
+   * The walk is iterative, deep trees must not overflow the stack.
+   */
+  @Override
+  public void walk(String revision, @Nullable String after, PathVisitor visitor) throws IOException {
+    Deque<FileObject> stack = new ArrayDeque<>(browse(revision, ""));
+    while (!stack.isEmpty()) {
+      FileObject file = stack.pop();
+      if (file.isDirectory()) {
+        if (PathOrder.mayContainPathAfter(file.getPath(), after)) {
+          List<FileObject> children = browse(revision, file.getPath());
+          for (int i = children.size() - 1; i >= 0; i--) {
+            stack.push(children.get(i));
+          }
+        }
+      } else if (PathOrder.isAfter(file.getPath(), after) && !visitor.visit(file.getPath())) {
+        return;
+      }
+    }
+  }
+
+  private List<FileObject> browse(String revision, String path) throws IOException {
+    List<FileObject> children = new ArrayList<>(children(revision, path, false));
+    children.sort(Comparator.comparing(CatContentReader::sortKey, PathOrder.COMPARATOR));
+    return children;
+  }
+
+  private Collection<FileObject> children(String revision, String path, boolean lastCommit) throws IOException {
+    return repositoryService.getBrowseCommand()
+      .setDisableSubRepositoryDetection(true)
+      .setDisableLastCommit(!lastCommit)
+      .setDisablePreProcessors(true)
+      .setDisableCache(true)
+      .setLimit(Integer.MAX_VALUE)
+      .setRecursive(false)
+      .setRevision(revision)
+      .setPath(path)
+      .getBrowserResult()
+      .getFile()
+      .getChildren();
+  }
+
+  private static String sortKey(FileObject file) {
+    return file.isDirectory() ? file.getPath() + "/" : file.getPath();
+  }
+
+  static RepositoryFile file(RepositoryService repositoryService, String revision, String path) {
+    return new CatFile(repositoryService, revision, path, OptionalLong.empty(), null);
+  }
+
+  /**
+   * Files of the last browsed directory.
+   */
+  private class Directory {
+
+    private final String revision;
+    private final boolean lastCommit;
+    private String path;
+    private Map<String, FileObject> files = Collections.emptyMap();
+
+    private Directory(String revision, boolean lastCommit) {
+      this.revision = revision;
+      this.lastCommit = lastCommit;
+    }
+
+    Optional<FileObject> get(String filePath) throws IOException {
+      String parent = parent(filePath);
+      if (!parent.equals(path)) {
+        files = new HashMap<>();
+        for (FileObject file : children(revision, parent, lastCommit)) {
+          if (!file.isDirectory()) {
+            files.put(file.getPath(), file);
+          }
+        }
+        path = parent;
+      }
+      return Optional.ofNullable(files.get(filePath));
+    }
+
+    private String parent(String filePath) {
+      int index = filePath.lastIndexOf('/');
+      return index < 0 ? "" : filePath.substring(0, index);
+    }
+  }
+
+  private static class CatFile implements RepositoryFile {
+
+    private final RepositoryService repositoryService;
+    private final String revision;
+    private final String path;
+    private final OptionalLong size;
+    @Nullable
+    private final Directory lastCommits;
+
+    private CatFile(RepositoryService repositoryService,
+                    String revision,
+                    String path,
+                    OptionalLong size,
+                    @Nullable Directory lastCommits) {
+      this.repositoryService = repositoryService;
+      this.revision = revision;
+      this.path = path;
+      this.size = size;
+      this.lastCommits = lastCommits;
+    }
+
+    @Override
+    public String getPath() {
+      return path;
+    }
+
+    @Override
+    public OptionalLong getSize() {
+      return size;
+    }
+
+    /**
+     * Browses the parent directory with the last commits, unless it is the last browsed directory. So the token should
+     * be requested while the file is consumed, when the files of the same directory follow each other.
+     */
+    @Override
+    public Optional<String> getChangeToken() {
+      if (lastCommits == null) {
+        return Optional.empty();
+      }
+      try {
+        return lastCommits.get(path).flatMap(CatFile::changeToken);
+      } catch (IOException e) {
+        throw new UncheckedIOException("failed to browse last commit of " + path, e);
+      }
+    }
+
+    private static Optional<String> changeToken(FileObject file) {
+      OptionalLong length = file.getLength();
+      OptionalLong commitDate = file.getCommitDate();
+      // without the date of the last commit, a change which keeps the size would go unnoticed
+      if (length.isPresent() && commitDate.isPresent()) {
+        return Optional.of("meta:" + length.getAsLong() + ":" + commitDate.getAsLong());
+      }
+      return Optional.empty();
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+      return repositoryService.getCatCommand().setRevision(revision).getStream(path);
+    }
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Set of file paths which stores every path segment only once per directory, so that the long common prefixes of the
+ * paths of a repository are shared. The paths are iterated ordered by directory, every directory is iterated as a
+ * whole before its next sibling.
+ * <p>
+ * The set does not support removal.
+ */
+public class CompactPathSet extends AbstractSet<String> {
+
+  private static final char SEPARATOR = '/';
+
+  private final Node root = new Node("");
+  private int size;
+
+  @Override
+  public boolean add(String path) {
+    Node node = root;
+    for (String segment : split(path)) {
+      node = node.getOrCreateChild(segment);
+    }
+    if (node.file) {
+      return false;
+    }
+    node.file = true;
+    size++;
+    return true;
+  }
+
+  @Override
+  public boolean contains(Object object) {
+    if (!(object instanceof String path)) {
+      return false;
+    }
+    Node node = root;
+    for (String segment : split(path)) {
+      node = node.getChild(segment);
+      if (node == null) {
+        return false;
+      }
+    }
+    return node.file;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void clear() {
+    root.children = Node.EMPTY;
+    root.childCount = 0;
+    size = 0;
+  }
+
+  @Override
+  public Iterator<String> iterator() {
+    return new PathIterator();
+  }
+
+  private static String[] split(String path) {
+    return path.split(String.valueOf(SEPARATOR), -1);
+  }
+
+  private static class Node {
+
+    private static final Node[] EMPTY = new Node[0];
+
+    private final String name;
+    private Node[] children = EMPTY;
+    private int childCount;
+    private boolean file;
+
+    private Node(String name) {
+      this.name = name;
+    }
+
+    private Node getChild(String segment) {
+      int index = indexOf(segment);
+      return index >= 0 ? children[index] : null;
+    }
+
+    private Node getOrCreateChild(String segment) {
+      int index = indexOf(segment);
+      if (index >= 0) {
+        return children[index];
+      }
+      int insertAt = -(index + 1);
+      if (childCount == children.length) {
+        children = Arrays.copyOf(children, Math.max(2, childCount * 2));
+      }
+      System.arraycopy(children, insertAt, children, insertAt + 1, childCount - insertAt);
+      Node child = new Node(segment);
+      children[insertAt] = child;
+      childCount++;
+      return child;
+    }
+
+    private int indexOf(String segment) {
+      int low = 0;
+      int high = childCount - 1;
+      while (low <= high) {
+        int middle = (low + high) >>> 1;
+        int comparison = children[middle].name.compareTo(segment);
+        if (comparison < 0) {
+          low = middle + 1;
+        } else if (comparison > 0) {
+          high = middle - 1;
+        } else {
+          return middle;
+        }
+      }
+      return -(low + 1);
+    }
+  }
+
+  /**
+   * Walks the tree depth first without recursion. The stack holds the position within each directory on the current
+   * path and the builder holds the path of the current directory.
+   */
+  private class PathIterator implements Iterator<String> {
+
+    private final Deque<Position> stack = new ArrayDeque<>();
+    private final StringBuilder path = new StringBuilder();
+    private String next;
+
+    private PathIterator() {
+      stack.push(new Position(root, 0));
+      next = advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public String next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      String current = next;
+      next = advance();
+      return current;
+    }
+
+    private String advance() {
+      while (!stack.isEmpty()) {
+        Position position = stack.peek();
+        if (position.index >= position.node.childCount) {
+          stack.pop();
+          continue;
+        }
+        Node child = position.node.children[position.index++];
+        path.setLength(position.prefixLength);
+        path.append(child.name);
+        String current = child.file ? path.toString() : null;
+        if (child.childCount > 0) {
+          path.append(SEPARATOR);
+          stack.push(new Position(child, path.length()));
+        }
+        if (current != null) {
+          return current;
+        }
+      }
+      return null;
+    }
+  }
+
+  private static class Position {
+
+    private final Node node;
+    private final int prefixLength;
+    private int index;
+
+    private Position(Node node, int prefixLength) {
+      this.node = node;
+      this.prefixLength = prefixLength;
+    }
+  }
+}
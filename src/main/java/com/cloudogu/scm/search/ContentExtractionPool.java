@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Shared pool of workers which read and extract file contents for the {@link Indexer}. The number of extracted files
+ * which may wait for the index writer is limited by the queue size, which keeps the memory of an index update bounded.
+ * <p>
+ * The files in flight additionally reserve their expected size from a memory budget, which is shared by all index
+ * updates, so that concurrent updates of different repositories cannot multiply the memory of their queues.
+ */
+@Singleton
+public class ContentExtractionPool {
+
+  static final String WORKERS_PROPERTY = "scm.contentSearch.extractionWorkers";
+  static final String QUEUE_SIZE_PROPERTY = "scm.contentSearch.extractionQueueSize";
+  static final String MEMORY_BUDGET_PROPERTY = "scm.contentSearch.extractionMemoryBudget";
+
+  private static final int DEFAULT_WORKERS = Math.min(4, Runtime.getRuntime().availableProcessors());
+  private static final long DEFAULT_MEMORY_BUDGET = 128L * 1024 * 1024;
+
+  private final int workers;
+  private final int queueSize;
+  private final int memoryBudget;
+  private final Semaphore memory;
+
+  private ExecutorService executor;
+
+  @Inject
+  public ContentExtractionPool() {
+    this(
+      Integer.getInteger(WORKERS_PROPERTY, DEFAULT_WORKERS),
+      Integer.getInteger(QUEUE_SIZE_PROPERTY, DEFAULT_WORKERS * 4),
+      Long.getLong(MEMORY_BUDGET_PROPERTY, DEFAULT_MEMORY_BUDGET)
+    );
+  }
+
+  @VisibleForTesting
+  ContentExtractionPool(int workers, int queueSize) {
+    this(workers, queueSize, DEFAULT_MEMORY_BUDGET);
+  }
+
+  @VisibleForTesting
+  ContentExtractionPool(int workers, int queueSize, long memoryBudget) {
+    this.workers = Math.max(1, workers);
+    this.queueSize = Math.max(1, queueSize);
+    this.memoryBudget = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget));
+    this.memory = new Semaphore(this.memoryBudget);
+  }
+
+  boolean isParallel() {
+    return workers > 1;
+  }
+
+  int getQueueSize() {
+    return queueSize;
+  }
+
+  /**
+   * Reserves the expected memory of a file from the shared budget, without waiting. A file which is larger than the
+   * whole budget reserves the whole budget.
+   *
+   * @return the reserved amount, which must be passed to {@link #release(int)} after the extracted content has been
+   * written, or {@code -1} if the budget is exhausted
+   */
+  int tryReserve(long bytes) {
+    int permits = permits(bytes);
+    return memory.tryAcquire(permits) ? permits : -1;
+  }
+
+  /**
+   * Reserves the expected memory of a file from the shared budget and waits until it is available. Callers must not
+   * hold reservations of their own while waiting, otherwise the updates could block each other.
+   */
+  int reserve(long bytes) throws InterruptedIOException {
+    int permits = permits(bytes);
+    try {
+      memory.acquire(permits);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for memory to extract content");
+    }
+    return permits;
+  }
+
+  void release(int reserved) {
+    if (reserved > 0) {
+      memory.release(reserved);
+    }
+  }
+
+  private int permits(long bytes) {
+    return (int) Math.max(1, Math.min(memoryBudget, bytes));
+  }
+
+  <T> Future<T> submit(Callable<T> callable) {
+    return executor().submit(callable);
+  }
+
+  private synchronized ExecutorService executor() {
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(
+        workers,
+        new ThreadFactoryBuilder().setNameFormat("content-search-extraction-%d").setDaemon(true).build()
+      );
+    }
+    return executor;
+  }
+
+  public synchronized void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+}
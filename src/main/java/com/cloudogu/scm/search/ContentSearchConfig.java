@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import jakarta.xml.bind.annotation.XmlAccessType;
+import jakarta.xml.bind.annotation.XmlAccessorType;
+import jakarta.xml.bind.annotation.XmlRootElement;
+
+@Data
+@XmlRootElement
+@NoArgsConstructor
+@AllArgsConstructor
+@XmlAccessorType(XmlAccessType.FIELD)
+public class ContentSearchConfig {
+
+  /**
+   * Maximum size in bytes of files whose content is indexed, {@code null} to use the global default.
+   */
+  private Long maxContentSize;
+
+  /**
+   * Rules for files which should not be indexed, one per line in the syntax of a {@code .searchignore} file, see
+   * {@link PathExclusions}. The rules take precedence over the {@code .searchignore} file of the repository.
+   */
+  private String excludes;
+
+  public ContentSearchConfig(Long maxContentSize) {
+    this.maxContentSize = maxContentSize;
+  }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import de.otto.edison.hal.HalRepresentation;
+import de.otto.edison.hal.Links;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@SuppressWarnings("java:S2160") // no need to override equals for dto
+public class ContentSearchConfigDto extends HalRepresentation {
+
+  private Long maxContentSize;
+  private long defaultMaxContentSize;
+  private String excludes;
+
+  ContentSearchConfigDto(Links links, Long maxContentSize, long defaultMaxContentSize, String excludes) {
+    super(links);
+    this.maxContentSize = maxContentSize;
+    this.defaultMaxContentSize = defaultMaxContentSize;
+    this.excludes = excludes;
+  }
+}
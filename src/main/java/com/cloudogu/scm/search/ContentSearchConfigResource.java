@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import com.google.common.base.Strings;
+import de.otto.edison.hal.Links;
+import sonia.scm.api.v2.resources.LinkBuilder;
+import sonia.scm.api.v2.resources.ScmPathInfo;
+import sonia.scm.api.v2.resources.ScmPathInfoStore;
+import sonia.scm.repository.NamespaceAndName;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.RepositoryPermissions;
+import sonia.scm.web.VndMediaType;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Provider;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.PUT;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import java.util.Objects;
+
+import static de.otto.edison.hal.Link.link;
+import static sonia.scm.ContextEntry.ContextBuilder.entity;
+import static sonia.scm.NotFoundException.notFound;
+
+@Path(ContentSearchConfigResource.PATH)
+public class ContentSearchConfigResource {
+
+  static final String PATH = "v2/content-search/config";
+  static final String MEDIA_TYPE = VndMediaType.PREFIX + "contentSearchConfig" + VndMediaType.SUFFIX;
+
+  private final RepositoryManager repositoryManager;
+  private final ContentSearchConfigStore configStore;
+  private final Provider<ScmPathInfoStore> scmPathInfoStore;
+  private final IndexUpdateCoalescer coalescer;
+
+  @Inject
+  public ContentSearchConfigResource(RepositoryManager repositoryManager,
+                                     ContentSearchConfigStore configStore,
+                                     Provider<ScmPathInfoStore> scmPathInfoStore,
+                                     IndexUpdateCoalescer coalescer) {
+    this.repositoryManager = repositoryManager;
+    this.configStore = configStore;
+    this.scmPathInfoStore = scmPathInfoStore;
+    this.coalescer = coalescer;
+  }
+
+  @GET
+  @Path("{namespace}/{name}")
+  @Produces(MEDIA_TYPE)
+  public ContentSearchConfigDto get(@PathParam("namespace") String namespace, @PathParam("name") String name) {
+    Repository repository = load(namespace, name);
+    RepositoryPermissions.modify(repository).check();
+
+    ContentSearchConfig config = configStore.get(repository);
+    String self = createLink(scmPathInfoStore.get().get(), repository);
+    Links links = Links.linkingTo().self(self).single(link("update", self)).build();
+    return new ContentSearchConfigDto(
+      links, config.getMaxContentSize(), configStore.getDefaultMaxContentSize(), config.getExcludes()
+    );
+  }
+
+  @PUT
+  @Path("{namespace}/{name}")
+  @Consumes(MEDIA_TYPE)
+  public void update(@PathParam("namespace") String namespace, @PathParam("name") String name, ContentSearchConfigDto dto) {
+    Repository repository = load(namespace, name);
+    RepositoryPermissions.modify(repository).check();
+
+    ContentSearchConfig config = configStore.get(repository);
+    boolean excludesChanged = !Objects.equals(
+      Strings.emptyToNull(config.getExcludes()), Strings.emptyToNull(dto.getExcludes())
+    );
+    config.setMaxContentSize(dto.getMaxContentSize());
+    config.setExcludes(dto.getExcludes());
+    configStore.set(repository, config);
+
+    if (excludesChanged) {
+      // the index is reconciled with the new rules, only the affected files are written or removed
+      coalescer.reconcile(repository);
+    }
+  }
+
+  private Repository load(String namespace, String name) {
+    NamespaceAndName namespaceAndName = new NamespaceAndName(namespace, name);
+    Repository repository = repositoryManager.get(namespaceAndName);
+    if (repository == null) {
+      throw notFound(entity(namespaceAndName));
+    }
+    return repository;
+  }
+
+  static String createLink(ScmPathInfo pathInfo, Repository repository) {
+    return new LinkBuilder(pathInfo, ContentSearchConfigResource.class)
+      .method("get")
+      .parameters(repository.getNamespace(), repository.getName())
+      .href();
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import sonia.scm.repository.Repository;
+import sonia.scm.store.ConfigurationStoreFactory;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+/**
+ * Repository specific configuration of the content search. Values which are not configured for a repository fall back
+ * to the global defaults, which can be set with system properties.
+ */
+@Singleton
+public class ContentSearchConfigStore {
+
+  static final String MAX_CONTENT_SIZE_PROPERTY = "scm.contentSearch.maxContentSize";
+
+  private static final String STORE_NAME = "content-search";
+  private static final long DEFAULT_MAX_CONTENT_SIZE = 10L * 1024 * 1024;
+
+  private final ConfigurationStoreFactory storeFactory;
+  private final long defaultMaxContentSize;
+
+  @Inject
+  public ContentSearchConfigStore(ConfigurationStoreFactory storeFactory) {
+    this.storeFactory = storeFactory;
+    this.defaultMaxContentSize = Long.getLong(MAX_CONTENT_SIZE_PROPERTY, DEFAULT_MAX_CONTENT_SIZE);
+  }
+
+  public ContentSearchConfig get(Repository repository) {
+    return storeFactory.withType(ContentSearchConfig.class)
+      .withName(STORE_NAME)
+      .forRepository(repository)
+      .build()
+      .getOptional()
+      .orElseGet(ContentSearchConfig::new);
+  }
+
+  public void set(Repository repository, ContentSearchConfig config) {
+    storeFactory.withType(ContentSearchConfig.class)
+      .withName(STORE_NAME)
+      .forRepository(repository)
+      .build()
+      .set(config);
+  }
+
+  /**
+   * Returns the maximum size in bytes of files whose content is indexed. Larger files are indexed by their path only.
+   */
+  public long getMaxContentSize(Repository repository) {
+    Long maxContentSize = get(repository).getMaxContentSize();
+    if (maxContentSize != null && maxContentSize > 0) {
+      return maxContentSize;
+    }
+    return defaultMaxContentSize;
+  }
+
+  long getDefaultMaxContentSize() {
+    return defaultMaxContentSize;
+  }
+}
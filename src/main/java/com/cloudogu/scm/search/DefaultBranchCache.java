@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import sonia.scm.repository.Repository;
+
+import jakarta.inject.Singleton;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In memory cache of the default branch names, which were resolved during the last index updates.
+ */
+@Singleton
+public class DefaultBranchCache {
+
+  private final Map<String, String> defaultBranches = new ConcurrentHashMap<>();
+
+  public Optional<String> get(Repository repository) {
+    return Optional.ofNullable(defaultBranches.get(repository.getId()));
+  }
+
+  public void put(Repository repository, String defaultBranch) {
+    defaultBranches.put(repository.getId(), defaultBranch);
+  }
+
+  public void invalidate(Repository repository) {
+    defaultBranches.remove(repository.getId());
+  }
+
+}
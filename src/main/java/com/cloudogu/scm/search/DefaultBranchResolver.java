@@ -18,6 +18,7 @@ package com.cloudogu.scm.search;
 
 import lombok.Getter;
 import sonia.scm.repository.Branch;
+import sonia.scm.repository.Repository;
 import sonia.scm.repository.api.Command;
 import sonia.scm.repository.api.RepositoryService;
 
@@ -28,24 +29,37 @@ import java.util.Optional;
 public class DefaultBranchResolver {
 
   private final RepositoryService repositoryService;
+  private final DefaultBranchCache defaultBranchCache;
 
-  public DefaultBranchResolver(RepositoryService repositoryService) {
+  public DefaultBranchResolver(RepositoryService repositoryService, DefaultBranchCache defaultBranchCache) {
     this.repositoryService = repositoryService;
+    this.defaultBranchCache = defaultBranchCache;
   }
 
   public Result resolve() throws IOException {
     if (!repositoryService.isSupported(Command.BRANCHES)) {
       return Result.notSupported();
     } else {
-      return repositoryService.getBranchesCommand()
+      Repository repository = repositoryService.getRepository();
+      Optional<String> cachedDefaultBranch = defaultBranchCache.get(repository);
+      if (cachedDefaultBranch.isPresent()) {
+        return Result.defaultBranch(cachedDefaultBranch.get());
+      }
+
+      Optional<String> defaultBranch = repositoryService.getBranchesCommand()
         .getBranches()
         .getBranches()
         .stream()
         .filter(Branch::isDefaultBranch)
         .findFirst()
-        .map(Branch::getName)
-        .map(Result::defaultBranch)
-        .orElseGet(Result::empty);
+        .map(Branch::getName);
+
+      if (defaultBranch.isPresent()) {
+        defaultBranchCache.put(repository, defaultBranch.get());
+        return Result.defaultBranch(defaultBranch.get());
+      }
+      defaultBranchCache.invalidate(repository);
+      return Result.empty();
     }
   }
 
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import sonia.scm.repository.Repository;
+import sonia.scm.store.DataStore;
+import sonia.scm.store.DataStoreFactory;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.time.Instant;
+
+/**
+ * Persistent journal of repositories which have received changes, that are not yet written to the index.
+ * The journal survives restarts, so that the startup check can focus on the repositories with pending changes.
+ */
+@Singleton
+public class DirtyRepositoryJournal {
+
+  private static final String STORE_NAME = "content-search-journal";
+
+  private final DataStore<DirtyRepository> store;
+
+  @Inject
+  public DirtyRepositoryJournal(DataStoreFactory storeFactory) {
+    this.store = storeFactory.withType(DirtyRepository.class).withName(STORE_NAME).build();
+  }
+
+  public synchronized void mark(Repository repository) {
+    store.put(repository.getId(), new DirtyRepository(Instant.now()));
+  }
+
+  /**
+   * Removes the repository from the journal, if it has not received further changes since the given instant.
+   *
+   * @param repository repository which is now up to date
+   * @param since start of the index update, changes after this are not covered by the update
+   */
+  public synchronized void clear(Repository repository, Instant since) {
+    DirtyRepository dirtyRepository = store.get(repository.getId());
+    if (dirtyRepository != null && dirtyRepository.getLastChange().isBefore(since)) {
+      store.remove(repository.getId());
+    }
+  }
+
+  public synchronized boolean contains(Repository repository) {
+    return store.get(repository.getId()) != null;
+  }
+
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.SCMContextProvider;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Persistent cache for the text which {@link BinaryFileContentResolver}s extract from binary files, e.g. from pdf or
+ * office documents. Extracting those files is by far the most expensive part of indexing, with the cache the same
+ * content is extracted only once, regardless of re-indexes, changes of the index version, moved files or forks.
+ * <p>
+ * The cache is bounded by the total size of the cached texts, the least recently used entries are evicted first. The
+ * order of use survives restarts, because the modification time of an entry is updated on every hit. The size can be
+ * set with the system property {@value #MAX_SIZE_PROPERTY}, a size of 0 disables the cache.
+ */
+@Singleton
+@SuppressWarnings("UnstableApiUsage")
+public class ExtractedTextCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ExtractedTextCache.class);
+
+  static final String MAX_SIZE_PROPERTY = "scm.contentSearch.extractedTextCacheSize";
+  private static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private final Path directory;
+  private final long maxSize;
+
+  // access ordered, the first entry is the least recently used
+  private final Map<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long size;
+  private boolean loaded;
+
+  @Inject
+  public ExtractedTextCache(SCMContextProvider contextProvider) {
+    this(
+      contextProvider.resolve(Paths.get("cache", "content-search", "extracted-text")),
+      Long.getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE)
+    );
+  }
+
+  @VisibleForTesting
+  ExtractedTextCache(Path directory, long maxSize) {
+    this.directory = directory;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Returns a cache which never caches anything.
+   */
+  static ExtractedTextCache disabled() {
+    return new ExtractedTextCache(null, 0);
+  }
+
+  boolean isEnabled() {
+    return maxSize > 0;
+  }
+
+  /**
+   * Creates the key of a cache entry from the given parts, e.g. the name and version of the resolver and the hash of
+   * the content.
+   */
+  static String key(Object... parts) {
+    StringBuilder builder = new StringBuilder();
+    for (Object part : parts) {
+      builder.append(part).append('\n');
+    }
+    return Hashing.sha256().hashString(builder, StandardCharsets.UTF_8).toString();
+  }
+
+  public Optional<String> get(String key) {
+    if (!isEnabled() || !contains(key)) {
+      return Optional.empty();
+    }
+    Path file = file(key);
+    try {
+      String text = Files.readString(file, StandardCharsets.UTF_8);
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+      return Optional.of(text);
+    } catch (IOException e) {
+      LOG.debug("failed to read cached text {}, remove it from the cache", file, e);
+      remove(key);
+      return Optional.empty();
+    }
+  }
+
+  public void put(String key, String text) {
+    if (!isEnabled()) {
+      return;
+    }
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > maxSize) {
+      return;
+    }
+    Path file = file(key);
+    Path temp = null;
+    try {
+      Files.createDirectories(file.getParent());
+      // every write gets its own temporary file, concurrent writers of the same key must not share one
+      temp = Files.createTempFile(file.getParent(), key, TEMP_SUFFIX);
+      Files.write(temp, bytes);
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      added(key, bytes.length);
+    } catch (IOException e) {
+      LOG.warn("failed to write extracted text to cache {}", file, e);
+      if (temp != null) {
+        deleteQuietly(temp);
+      }
+    }
+  }
+
+  private synchronized boolean contains(String key) {
+    load();
+    return entries.get(key) != null;
+  }
+
+  private synchronized void added(String key, long length) {
+    load();
+    Long previous = entries.put(key, length);
+    size += length - (previous != null ? previous : 0);
+    evict();
+  }
+
+  private synchronized void remove(String key) {
+    Long length = entries.remove(key);
+    if (length != null) {
+      size -= length;
+    }
+    deleteQuietly(file(key));
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+    while (size > maxSize && iterator.hasNext()) {
+      Map.Entry<String, Long> eldest = iterator.next();
+      iterator.remove();
+      size -= eldest.getValue();
+      deleteQuietly(file(eldest.getKey()));
+    }
+  }
+
+  /**
+   * Reads the entries of the cache directory once, ordered by the time of their last use.
+   */
+  private void load() {
+    if (loaded) {
+      return;
+    }
+    loaded = true;
+    if (!Files.isDirectory(directory)) {
+      return;
+    }
+    try (Stream<Path> files = Files.walk(directory, 2)) {
+      List<Path> cached = files.filter(Files::isRegularFile).toList();
+      for (Path file : cached.stream().sorted(Comparator.comparing(ExtractedTextCache::lastModified)).toList()) {
+        String name = file.getFileName().toString();
+        if (name.endsWith(TEMP_SUFFIX)) {
+          // left over from a write which has been interrupted
+          deleteQuietly(file);
+        } else {
+          long length = Files.size(file);
+          entries.put(name, length);
+          size += length;
+        }
+      }
+      LOG.debug("found {} cached texts with {} bytes in {}", entries.size(), size, directory);
+      evict();
+    } catch (IOException e) {
+      LOG.warn("failed to read cached texts from {}", directory, e);
+    }
+  }
+
+  private static FileTime lastModified(Path file) {
+    try {
+      return Files.getLastModifiedTime(file);
+    } catch (IOException e) {
+      return FileTime.fromMillis(0);
+    }
+  }
+
+  private Path file(String key) {
+    // spread the entries over sub directories, to keep the directories small
+    return directory.resolve(key.substring(0, 2)).resolve(key);
+  }
+
+  private static void deleteQuietly(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      LOG.debug("failed to delete {}", file, e);
+    }
+  }
+}
@@ -31,8 +31,12 @@ import java.nio.file.Paths;
 @SuppressWarnings("UnstableApiUsage")
 public class FileContent {
 
-  static final int VERSION = 2;
+  static final int VERSION = 4;
 
+  /**
+   * Revision at which the document has been written. Files whose blob has not changed are not written again, so the
+   * revision may be older than the indexed revision of the repository, but the file has the same content in both.
+   */
   @Indexed(type = Indexed.Type.STORED_ONLY)
   private final String revision;
 
@@ -68,6 +72,19 @@ public class FileContent {
   @Indexed(type = Indexed.Type.STORED_ONLY)
   private final String codingLanguage;
 
+  /**
+   * Searchable, so that renamed or copied files can take over the document of the same blob.
+   */
+  @Nullable
+  @Indexed(type = Indexed.Type.SEARCHABLE)
+  private String blobId;
+
+  /**
+   * {@code true} if the file looks generated or minified, its content is not indexed.
+   */
+  @Indexed(type = Indexed.Type.STORED_ONLY)
+  private boolean generated;
+
   public FileContent(String revision, String path, ContentType contentType) {
     this(revision, path, contentType, null);
   }
@@ -83,11 +100,59 @@ public class FileContent {
     this.content = content;
   }
 
-  private String fileName(String path) {
+  /**
+   * Creates a document from the stored fields of an indexed document.
+   */
+  FileContent(String revision,
+              String path,
+              String contentType,
+              boolean binary,
+              @Nullable String codingLanguage,
+              @Nullable String content) {
+    this.revision = revision;
+    this.path = path;
+    this.filename = fileName(path);
+    this.extension = extension(filename);
+    this.contentType = contentType;
+    this.binary = binary;
+    this.codingLanguage = codingLanguage;
+    this.content = content;
+  }
+
+  private FileContent(FileContent source, String revision, String path) {
+    this.revision = revision;
+    this.path = path;
+    this.filename = source.filename;
+    this.extension = source.extension;
+    this.contentType = source.contentType;
+    this.binary = source.binary;
+    this.codingLanguage = source.codingLanguage;
+    this.content = source.content;
+    this.blobId = source.blobId;
+    this.generated = source.generated;
+  }
+
+  /**
+   * Returns a copy of this document for the same file at another path, e.g. after the directory of the file has been
+   * moved. Because the content type is resolved from the file name, the file name of the path must not change.
+   */
+  FileContent moveTo(String revision, String path) {
+    return new FileContent(this, revision, path);
+  }
+
+  void setBlobId(@Nullable String blobId) {
+    this.blobId = blobId;
+  }
+
+  void setGenerated(boolean generated) {
+    this.generated = generated;
+  }
+
+  static String fileName(String path) {
     return Paths.get(path).getFileName().toString();
   }
 
-  private String extension(String fileName) {
+  private static String extension(String fileName) {
     return Strings.emptyToNull(Files.getFileExtension(fileName));
   }
 
@@ -16,36 +16,138 @@
 
 package com.cloudogu.scm.search;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hashing;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+import com.google.common.primitives.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import sonia.scm.io.ContentType;
 import sonia.scm.io.ContentTypeResolver;
 import sonia.scm.repository.api.RepositoryService;
 
 import jakarta.inject.Inject;
+import javax.annotation.Nullable;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.SequenceInputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 public class FileContentFactory {
 
+  private static final Logger LOG = LoggerFactory.getLogger(FileContentFactory.class);
+
+  static final String DETECT_GENERATED_PROPERTY = "scm.contentSearch.detectGenerated";
+
   private static final int HEAD_BUFFER_SIZE = 1024;
+  private static final int CHAR_BUFFER_SIZE = 8192;
+  private static final int MAX_POOLED_BUILDER_CAPACITY = 1024 * 1024;
+
+  private static final ThreadLocal<DecodeBuffer> DECODE_BUFFERS = ThreadLocal.withInitial(DecodeBuffer::new);
 
   private final ContentTypeResolver contentTypeResolver;
   private final Set<BinaryFileContentResolver> binaryFileContentResolvers;
+  private final ExtractedTextCache extractedTextCache;
+  private final BinaryResolverExecutor resolverExecutor;
+  private final boolean detectGenerated;
 
   @Inject
+  public FileContentFactory(ContentTypeResolver contentTypeResolver,
+                            Set<BinaryFileContentResolver> binaryFileContentResolvers,
+                            ExtractedTextCache extractedTextCache,
+                            BinaryResolverExecutor resolverExecutor) {
+    this(
+      contentTypeResolver,
+      binaryFileContentResolvers,
+      extractedTextCache,
+      resolverExecutor,
+      Boolean.parseBoolean(System.getProperty(DETECT_GENERATED_PROPERTY, "true"))
+    );
+  }
+
   public FileContentFactory(ContentTypeResolver contentTypeResolver, Set<BinaryFileContentResolver> binaryFileContentResolvers) {
+    this(contentTypeResolver, binaryFileContentResolvers, ExtractedTextCache.disabled(), new BinaryResolverExecutor());
+  }
+
+  @VisibleForTesting
+  FileContentFactory(ContentTypeResolver contentTypeResolver,
+                     Set<BinaryFileContentResolver> binaryFileContentResolvers,
+                     boolean detectGenerated) {
+    this(
+      contentTypeResolver,
+      binaryFileContentResolvers,
+      ExtractedTextCache.disabled(),
+      new BinaryResolverExecutor(),
+      detectGenerated
+    );
+  }
+
+  @VisibleForTesting
+  FileContentFactory(ContentTypeResolver contentTypeResolver,
+                     Set<BinaryFileContentResolver> binaryFileContentResolvers,
+                     ExtractedTextCache extractedTextCache,
+                     BinaryResolverExecutor resolverExecutor,
+                     boolean detectGenerated) {
     this.contentTypeResolver = contentTypeResolver;
     this.binaryFileContentResolvers = binaryFileContentResolvers;
+    this.extractedTextCache = extractedTextCache;
+    this.resolverExecutor = resolverExecutor;
+    this.detectGenerated = detectGenerated;
   }
 
   public FileContent create(RepositoryService repositoryService, String revision, String path) throws IOException {
+    return create(revision, CatContentReader.file(repositoryService, revision, path), Long.MAX_VALUE);
+  }
+
+  /**
+   * Creates the content of the given file. The content of files larger than the given maximum is not indexed, those
+   * files are only found by their path. The size is checked before the content is read, if the file knows its size.
+   */
+  public FileContent create(String revision, RepositoryFile file, long maxContentSize) throws IOException {
+    return create(revision, file, maxContentSize, new SkippedBlobReport());
+  }
+
+  /**
+   * Creates the content of the given file, like {@link #create(String, RepositoryFile, long)}. Files whose content
+   * could not be extracted by a {@link BinaryFileContentResolver} are added to the given report.
+   */
+  FileContent create(String revision, RepositoryFile file, long maxContentSize, SkippedBlobReport report) throws IOException {
+    FileContent fileContent = extract(revision, file, maxContentSize, report);
+    file.getBlobId().ifPresent(fileContent::setBlobId);
+    return fileContent;
+  }
+
+  /**
+   * Returns a fingerprint of the installed binary content resolvers and of the detection of generated files. Documents
+   * created with a different fingerprint may have a different content for the same file.
+   */
+  String getFingerprint() {
+    return binaryFileContentResolvers.stream()
+      .map(resolver -> resolver.getClass().getName() + "@" + resolver.getVersion())
+      .sorted()
+      .collect(Collectors.joining(",")) + (detectGenerated ? ";generated" : "");
+  }
+
+  private FileContent extract(String revision, RepositoryFile file, long maxContentSize, SkippedBlobReport report) throws IOException {
+    String path = file.getPath();
     ContentType contentType = contentTypeResolver.resolve(path);
     if (contentType.isText() || isBinaryDefault(contentType)) {
-      return create(repositoryService, revision, path, contentType);
+      if (detectGenerated && GeneratedFileDetector.isGeneratedPath(path)) {
+        return generated(revision, path, contentType);
+      }
+      OptionalLong size = file.getSize();
+      if (size.isPresent() && size.getAsLong() > maxContentSize) {
+        return tooLarge(revision, path, contentType);
+      }
+      return create(revision, file, contentType, maxContentSize, report);
     }
     return new FileContent(revision, path, contentType);
   }
@@ -54,22 +156,37 @@ public class FileContentFactory {
     return "application".equals(contentType.getPrimary()) || "octet-stream".equals(contentType.getSecondary());
   }
 
-  private FileContent create(RepositoryService repositoryService, String revision, String path, ContentType contentType) throws IOException {
-    try (InputStream content = repositoryService.getCatCommand().setRevision(revision).getStream(path)) {
+  private FileContent create(String revision,
+                             RepositoryFile file,
+                             ContentType contentType,
+                             long maxContentSize,
+                             SkippedBlobReport report) throws IOException {
+    String path = file.getPath();
+    try (InputStream content = file.openStream()) {
 
       byte[] buffer = readHeader(content);
+      if (buffer.length > maxContentSize) {
+        return tooLarge(revision, path, contentType);
+      }
       if (buffer.length > 0) {
         ContentType moreAccurateContentType = contentTypeResolver.resolve(path, buffer);
         if (moreAccurateContentType.isText()) {
-          ByteArrayOutputStream output = writeContentToStream(buffer, content);
-          return new FileContent(revision, path, moreAccurateContentType, output.toString(StandardCharsets.UTF_8));
+          if (detectGenerated && GeneratedFileDetector.isGeneratedContent(buffer)) {
+            return generated(revision, path, moreAccurateContentType);
+          }
+          Optional<String> text = decode(buffer, content, maxContentSize);
+          if (text.isEmpty()) {
+            return tooLarge(revision, path, contentType);
+          }
+          if (detectGenerated && GeneratedFileDetector.isMinified(text.get())) {
+            return generated(revision, path, moreAccurateContentType);
+          }
+          return new FileContent(revision, path, moreAccurateContentType, text.get());
         } else {
-          ByteArrayOutputStream baos = writeContentToStream(buffer, content);
-          for (BinaryFileContentResolver resolver : binaryFileContentResolvers) {
-            if (resolver.isSupported(contentType.getRaw())) {
-              String fileContent = resolver.resolveContent(new ByteArrayInputStream(baos.toByteArray()));
-              return new FileContent(revision, path, moreAccurateContentType, fileContent);
-            }
+          Optional<BinaryFileContentResolver> resolver = findBinaryResolver(contentType);
+          if (resolver.isPresent()) {
+            String fileContent = resolveBinary(resolver.get(), file, buffer, content, maxContentSize, report);
+            return new FileContent(revision, path, moreAccurateContentType, fileContent);
           }
         }
       }
@@ -77,11 +194,134 @@ public class FileContentFactory {
     }
   }
 
-  private ByteArrayOutputStream writeContentToStream(byte[] buffer, InputStream inputStream) throws IOException {
-    ByteArrayOutputStream output = new ByteArrayOutputStream();
-    output.write(buffer);
-    ByteStreams.copy(inputStream, output);
-    return output;
+  /**
+   * Extracts the text of a binary file with the given resolver on the {@link BinaryResolverExecutor} or takes it from
+   * the {@link ExtractedTextCache}. The cache key is the blob id of the file, which is a hash of its content, or a hash
+   * of the content itself, if the file has no blob id.
+   */
+  @Nullable
+  private String resolveBinary(BinaryFileContentResolver resolver,
+                               RepositoryFile file,
+                               byte[] header,
+                               InputStream content,
+                               long maxContentSize,
+                               SkippedBlobReport report) throws IOException {
+    int maxInputSize = (int) Math.min(maxContentSize, resolverExecutor.getMaxInputSize());
+    OptionalLong size = file.getSize();
+    if (size.isPresent() && size.getAsLong() > maxInputSize) {
+      report.skipped(file, resolver.getClass().getName(), SkippedBlobReport.Reason.TOO_LARGE);
+      return null;
+    }
+
+    Optional<String> blobId = file.getBlobId();
+    String key = null;
+    if (blobId.isPresent()) {
+      key = cacheKey(resolver, maxContentSize, "blob:" + blobId.get());
+      Optional<String> cached = cached(file, key);
+      if (cached.isPresent()) {
+        return cached.get();
+      }
+    }
+
+    byte[] bytes = readForResolver(header, content, maxInputSize);
+    if (bytes == null) {
+      report.skipped(file, resolver.getClass().getName(), SkippedBlobReport.Reason.TOO_LARGE);
+      return null;
+    }
+
+    if (key == null) {
+      key = cacheKey(resolver, maxContentSize, "sha256:" + sha256(bytes));
+      Optional<String> cached = cached(file, key);
+      if (cached.isPresent()) {
+        return cached.get();
+      }
+    }
+
+    Optional<String> text = resolverExecutor.resolve(resolver, file, bytes, report);
+    if (text.isPresent()) {
+      extractedTextCache.put(key, text.get());
+    }
+    return text.orElse(null);
+  }
+
+  /**
+   * Reads the content which is passed to a resolver. Returns {@code null} if the content exceeds the limit, even if the
+   * size of the file is not known in advance, because a truncated document can rarely be parsed.
+   */
+  @Nullable
+  private byte[] readForResolver(byte[] header, InputStream content, int maxInputSize) throws IOException {
+    // read one more byte than allowed, to find out if the file exceeds the limit
+    byte[] remaining = ByteStreams.toByteArray(ByteStreams.limit(content, Math.max(0, maxInputSize - header.length + 1)));
+    byte[] bytes = Bytes.concat(header, remaining);
+    if (bytes.length > maxInputSize) {
+      return null;
+    }
+    return bytes;
+  }
+
+  private String cacheKey(BinaryFileContentResolver resolver, long maxContentSize, String contentKey) {
+    return ExtractedTextCache.key(resolver.getClass().getName(), resolver.getVersion(), maxContentSize, contentKey);
+  }
+
+  private Optional<String> cached(RepositoryFile file, String key) {
+    Optional<String> cached = extractedTextCache.get(key);
+    if (cached.isPresent()) {
+      LOG.trace("found extracted text of {} in cache", file.getPath());
+    }
+    return cached;
+  }
+
+  @SuppressWarnings("UnstableApiUsage")
+  private String sha256(byte[] bytes) {
+    if (!extractedTextCache.isEnabled()) {
+      // the key is not used without cache
+      return "";
+    }
+    return Hashing.sha256().hashBytes(bytes).toString();
+  }
+
+  private FileContent tooLarge(String revision, String path, ContentType contentType) {
+    LOG.debug("content of {} exceeds the maximum content size, index path only", path);
+    return new FileContent(revision, path, contentType);
+  }
+
+  private FileContent generated(String revision, String path, ContentType contentType) {
+    LOG.debug("{} looks generated or minified, index path only", path);
+    FileContent fileContent = new FileContent(revision, path, contentType);
+    fileContent.setGenerated(true);
+    return fileContent;
+  }
+
+  private Optional<BinaryFileContentResolver> findBinaryResolver(ContentType contentType) {
+    return binaryFileContentResolvers.stream()
+      .filter(resolver -> resolver.isSupported(contentType.getRaw()))
+      .findFirst();
+  }
+
+  /**
+   * Decodes the header and the rest of the stream as UTF-8 into a buffer which is reused by the current thread,
+   * without collecting the raw bytes first. Returns an empty optional if the content exceeds the maximum size.
+   */
+  private Optional<String> decode(byte[] header, InputStream content, long maxContentSize) throws IOException {
+    // read one more byte than allowed, to find out if the file exceeds the limit
+    CountingInputStream remaining = new CountingInputStream(ByteStreams.limit(content, maxContentSize - header.length + 1));
+    Reader reader = new InputStreamReader(
+      new SequenceInputStream(new ByteArrayInputStream(header), remaining), StandardCharsets.UTF_8
+    );
+
+    DecodeBuffer buffer = DECODE_BUFFERS.get();
+    try {
+      int read;
+      while ((read = reader.read(buffer.chars)) != -1) {
+        if (header.length + remaining.getCount() > maxContentSize) {
+          return Optional.empty();
+        }
+        buffer.builder.append(buffer.chars, 0, read);
+      }
+      return Optional.of(buffer.builder.toString());
+    } finally {
+      buffer.reset();
+    }
   }
 
   private byte[] readHeader(InputStream content) throws IOException {
@@ -98,4 +338,19 @@ public class FileContentFactory {
     }
     return new byte[0];
   }
+
+  private static class DecodeBuffer {
+
+    private final char[] chars = new char[CHAR_BUFFER_SIZE];
+    private StringBuilder builder = new StringBuilder();
+
+    void reset() {
+      if (builder.capacity() > MAX_POOLED_BUILDER_CAPACITY) {
+        // do not keep the buffer of a single large file for the lifetime of the thread
+        builder = new StringBuilder();
+      } else {
+        builder.setLength(0);
+      }
+    }
+  }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Cheap heuristic for generated and minified files, e.g. minified javascript, source maps, code of the protocol buffer
+ * compiler or huge single line json. The content of those files produces a lot of useless tokens and is expensive to
+ * analyze and to highlight, so they are indexed by their path only.
+ * <p>
+ * The heuristic looks at the name of the file, at the header, which is read anyway to detect the content type, and at
+ * the length of the lines of the decoded text. It does not read any further content.
+ */
+final class GeneratedFileDetector {
+
+  private static final String[] GENERATED_SUFFIXES = {
+    ".min.js", ".min.mjs", ".min.css", ".js.map", ".css.map", ".pb.go", ".pb.h", ".pb.cc", "_pb2.py", ".pb.swift",
+    ".g.dart", ".freezed.dart"
+  };
+
+  private static final String[] GENERATED_MARKERS = {
+    "@generated", "code generated by", "generated by the protocol buffer compiler"
+  };
+
+  /**
+   * Number of characters of a line, which is a strong sign for minified code or data. Lines of hand-written files are
+   * rarely that long, even paragraphs of prose without line breaks.
+   */
+  static final int MAX_LINE_LENGTH = 5000;
+
+  private GeneratedFileDetector() {
+  }
+
+  static boolean isGeneratedPath(String path) {
+    String name = FileContent.fileName(path).toLowerCase(Locale.ENGLISH);
+    for (String suffix : GENERATED_SUFFIXES) {
+      if (name.endsWith(suffix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  static boolean isGeneratedContent(byte[] header) {
+    return hasGeneratedMarker(header);
+  }
+
+  /**
+   * Checks the decoded text for a line of at least {@link #MAX_LINE_LENGTH} characters. The characters are counted
+   * instead of the bytes, so that text with multi byte characters, e.g. CJK, is not mistaken for minified content.
+   */
+  static boolean isMinified(CharSequence text) {
+    int lineLength = 0;
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) == '\n') {
+        lineLength = 0;
+      } else if (++lineLength >= MAX_LINE_LENGTH) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean hasGeneratedMarker(byte[] header) {
+    // every byte is mapped to a single char, the markers are plain ascii
+    String text = new String(header, StandardCharsets.ISO_8859_1).toLowerCase(Locale.ENGLISH);
+    for (String marker : GENERATED_MARKERS) {
+      if (text.contains(marker)) {
+        return true;
+      }
+    }
+    if (text.contains("do not edit") && text.contains("generated")) {
+      return true;
+    }
+    // source maps without the usual file extension
+    return text.startsWith("{\"version\":3,") && text.contains("\"sources\"");
+  }
+}
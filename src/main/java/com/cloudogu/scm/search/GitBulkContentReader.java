@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import sonia.scm.repository.api.RepositoryService;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+
+/**
+ * Reads the files of a git revision with a single walk over the tree, instead of resolving the revision and the path
+ * for every single file. Git LFS pointers are resolved with the cat command, because only the cat command knows how
+ * to fetch the real content. Blobs are opened with their own object reader, so that the files can be read
+ * concurrently.
+ */
+class GitBulkContentReader implements BulkContentReader {
+
+  private static final int LFS_POINTER_MAX_SIZE = 1024;
+  private static final byte[] LFS_POINTER_PREFIX = "version https://git-lfs.github.com/spec/".getBytes(StandardCharsets.US_ASCII);
+
+  private final RepositoryService repositoryService;
+  private final Repository repository;
+  private final ObjectReader reader;
+
+  GitBulkContentReader(RepositoryService repositoryService, Repository repository) {
+    this.repositoryService = repositoryService;
+    this.repository = repository;
+    this.reader = repository.newObjectReader();
+  }
+
+  @Override
+  public void read(String revision, Collection<String> paths, FileConsumer consumer) throws IOException {
+    if (paths.isEmpty()) {
+      return;
+    }
+
+    ObjectId commitId = resolve(revision);
+    Set<String> pathSet = paths instanceof Set ? (Set<String>) paths : new HashSet<>(paths);
+    try (RevWalk revWalk = new RevWalk(reader); TreeWalk treeWalk = new TreeWalk(reader)) {
+      treeWalk.addTree(revWalk.parseCommit(commitId).getTree());
+      treeWalk.setRecursive(true);
+      treeWalk.setFilter(PathFilterGroup.createFromStrings(paths));
+      while (treeWalk.next()) {
+        String path = treeWalk.getPathString();
+        if (treeWalk.getFileMode(0).getObjectType() == Constants.OBJ_BLOB && pathSet.contains(path)) {
+          consumer.accept(new GitFile(revision, path, treeWalk.getObjectId(0)));
+        }
+      }
+    }
+  }
+
+  @Override
+  public void walk(String revision, @Nullable String after, PathVisitor visitor) throws IOException {
+    ObjectId commitId = resolve(revision);
+    try (RevWalk revWalk = new RevWalk(reader); TreeWalk treeWalk = new TreeWalk(reader)) {
+      treeWalk.addTree(revWalk.parseCommit(commitId).getTree());
+      treeWalk.setRecursive(true);
+      if (after != null) {
+        treeWalk.setFilter(new AfterPathFilter(after));
+      }
+      while (treeWalk.next()) {
+        if (treeWalk.getFileMode(0).getObjectType() == Constants.OBJ_BLOB && !visitor.visit(treeWalk.getPathString())) {
+          return;
+        }
+      }
+    }
+  }
+
+  private ObjectId resolve(String revision) throws IOException {
+    ObjectId commitId = repository.resolve(revision);
+    if (commitId == null) {
+      throw new IOException("could not resolve revision " + revision);
+    }
+    return commitId;
+  }
+
+  @Override
+  public boolean isConcurrent() {
+    return true;
+  }
+
+  @Override
+  public void close() {
+    reader.close();
+    repository.close();
+  }
+
+  private class GitFile implements RepositoryFile {
+
+    private final String revision;
+    private final String path;
+    private final ObjectId blobId;
+
+    private ObjectLoader loader;
+    private Boolean lfsPointer;
+
+    private GitFile(String revision, String path, ObjectId blobId) {
+      this.revision = revision;
+      this.path = path;
+      this.blobId = blobId;
+    }
+
+    @Override
+    public String getPath() {
+      return path;
+    }
+
+    @Override
+    public Optional<String> getBlobId() {
+      return Optional.of(blobId.name());
+    }
+
+    @Override
+    public OptionalLong getSize() throws IOException {
+      if (isLfsPointer()) {
+        return OptionalLong.empty();
+      }
+      return OptionalLong.of(loader().getSize());
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+      if (isLfsPointer()) {
+        return repositoryService.getCatCommand().setRevision(revision).getStream(path);
+      }
+      ObjectLoader objectLoader = loader();
+      if (objectLoader.isLarge()) {
+        return objectLoader.openStream();
+      }
+      return new ByteArrayInputStream(objectLoader.getCachedBytes());
+    }
+
+    private ObjectLoader loader() throws IOException {
+      if (loader == null) {
+        loader = repository.open(blobId, Constants.OBJ_BLOB);
+      }
+      return loader;
+    }
+
+    private boolean isLfsPointer() throws IOException {
+      if (lfsPointer == null) {
+        lfsPointer = loader().getSize() <= LFS_POINTER_MAX_SIZE && startsWithLfsPrefix(loader().getCachedBytes());
+      }
+      return lfsPointer;
+    }
+
+    private boolean startsWithLfsPrefix(byte[] content) {
+      if (content.length < LFS_POINTER_PREFIX.length) {
+        return false;
+      }
+      for (int i = 0; i < LFS_POINTER_PREFIX.length; i++) {
+        if (content[i] != LFS_POINTER_PREFIX[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Skips every file up to the cursor and every subtree which lies entirely before it. The tree walk visits the paths
+   * ordered by their bytes, so both can be decided from the raw path alone.
+   */
+  private static class AfterPathFilter extends TreeFilter {
+
+    private final byte[] after;
+
+    private AfterPathFilter(String after) {
+      this.after = after.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean include(TreeWalk walker) {
+      byte[] path = walker.getRawPath();
+      if (walker.isSubtree()) {
+        byte[] prefix = Arrays.copyOf(path, path.length + 1);
+        prefix[path.length] = '/';
+        return Arrays.compareUnsigned(prefix, 0, prefix.length, after, 0, Math.min(prefix.length, after.length)) >= 0;
+      }
+      return Arrays.compareUnsigned(path, after) > 0;
+    }
+
+    @Override
+    public boolean shouldBeRecursive() {
+      return false;
+    }
+
+    @Override
+    public TreeFilter clone() {
+      return this;
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import jakarta.inject.Inject;
+import sonia.scm.plugin.Extension;
+import sonia.scm.plugin.Requires;
+import sonia.scm.repository.GitRepositoryHandler;
+import sonia.scm.repository.GitUtil;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.api.RepositoryService;
+
+import java.io.IOException;
+
+@Extension
+@Requires("scm-git-plugin")
+class GitBulkContentReaderProvider implements BulkContentReaderProvider {
+
+  private final GitRepositoryHandler repositoryHandler;
+
+  @Inject
+  GitBulkContentReaderProvider(GitRepositoryHandler repositoryHandler) {
+    this.repositoryHandler = repositoryHandler;
+  }
+
+  @Override
+  public boolean isSupported(Repository repository) {
+    return GitRepositoryHandler.TYPE_NAME.equals(repository.getType());
+  }
+
+  @Override
+  public BulkContentReader create(RepositoryService repositoryService) throws IOException {
+    Repository repository = repositoryService.getRepository();
+    return new GitBulkContentReader(
+      repositoryService,
+      GitUtil.open(repositoryHandler.getDirectory(repository.getId()))
+    );
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import sonia.scm.repository.Repository;
+
+import jakarta.inject.Singleton;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * In memory cache of the head revision of the default branch per repository. Every invalidation starts a new
+ * generation for the repository. A revision which was resolved before an invalidation is not stored, so that a
+ * concurrent push can not be hidden by a stale revision.
+ */
+@Singleton
+public class HeadRevisionCache {
+
+  private final Map<String, Entry> entries = new HashMap<>();
+
+  public synchronized Optional<String> get(Repository repository) {
+    Entry entry = entries.get(repository.getId());
+    if (entry != null) {
+      return Optional.ofNullable(entry.revision);
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Returns the current generation of the repository. The generation must be fetched before the head revision is
+   * resolved and passed to {@link #put(Repository, long, String)} afterwards.
+   */
+  public synchronized long generation(Repository repository) {
+    return entry(repository).generation;
+  }
+
+  public synchronized void put(Repository repository, long generation, String revision) {
+    Entry entry = entry(repository);
+    if (entry.generation == generation) {
+      entry.revision = revision;
+    }
+  }
+
+  public synchronized void invalidate(Repository repository) {
+    Entry entry = entry(repository);
+    entry.generation++;
+    entry.revision = null;
+  }
+
+  private Entry entry(Repository repository) {
+    return entries.computeIfAbsent(repository.getId(), id -> new Entry());
+  }
+
+  private static class Entry {
+    private long generation;
+    private String revision;
+  }
+
+}
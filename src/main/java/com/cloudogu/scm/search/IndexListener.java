@@ -19,11 +19,17 @@ package com.cloudogu.scm.search;
 import com.github.legman.Subscribe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import sonia.scm.HandlerEventType;
 import sonia.scm.plugin.Extension;
 import sonia.scm.repository.DefaultBranchChangedEvent;
 import sonia.scm.repository.PostReceiveRepositoryHookEvent;
 import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryEvent;
 import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.api.HookBranchProvider;
+import sonia.scm.repository.api.HookContext;
+import sonia.scm.repository.api.HookFeature;
+import sonia.scm.repository.api.HookTagProvider;
 import sonia.scm.search.ReindexRepositoryEvent;
 import sonia.scm.search.SearchEngine;
 import sonia.scm.web.security.AdministrationContext;
@@ -32,6 +38,11 @@ import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 import jakarta.servlet.ServletContextEvent;
 import jakarta.servlet.ServletContextListener;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
 
 @Extension
 @Singleton
@@ -43,28 +54,101 @@ public class IndexListener implements ServletContextListener {
   private final AdministrationContext administrationContext;
   private final RepositoryManager repositoryManager;
   private final SearchEngine searchEngine;
+  private final StartupIndexScheduler startupIndexScheduler;
+  private final DirtyRepositoryJournal journal;
+  private final IndexUpdateCoalescer coalescer;
+  private final DefaultBranchCache defaultBranchCache;
+  private final HeadRevisionCache headRevisionCache;
+  private final ContentExtractionPool extractionPool;
+  private final BinaryResolverExecutor resolverExecutor;
+  private final IndexMetrics metrics;
 
   @Inject
-  public IndexListener(AdministrationContext administrationContext, RepositoryManager repositoryManager, SearchEngine searchEngine) {
+  public IndexListener(AdministrationContext administrationContext,
+                       RepositoryManager repositoryManager,
+                       SearchEngine searchEngine,
+                       StartupIndexScheduler startupIndexScheduler,
+                       DirtyRepositoryJournal journal,
+                       IndexUpdateCoalescer coalescer,
+                       DefaultBranchCache defaultBranchCache,
+                       HeadRevisionCache headRevisionCache,
+                       ContentExtractionPool extractionPool,
+                       BinaryResolverExecutor resolverExecutor,
+                       IndexMetrics metrics) {
     this.administrationContext = administrationContext;
     this.repositoryManager = repositoryManager;
     this.searchEngine = searchEngine;
+    this.startupIndexScheduler = startupIndexScheduler;
+    this.journal = journal;
+    this.coalescer = coalescer;
+    this.defaultBranchCache = defaultBranchCache;
+    this.headRevisionCache = headRevisionCache;
+    this.extractionPool = extractionPool;
+    this.resolverExecutor = resolverExecutor;
+    this.metrics = metrics;
   }
 
   @Override
   public void contextInitialized(ServletContextEvent servletContextEvent) {
     administrationContext.runAsAdmin(() -> {
-      for (Repository repository : repositoryManager.getAll()) {
-        LOG.debug("startup check if index of repository {}, requires update", repository);
-        submit(repository);
-      }
+      Collection<Repository> repositories = repositoryManager.getAll();
+      metrics.register(repositories);
+      startupIndexScheduler.schedule(repositories, this::submit);
     });
   }
 
+  @Subscribe
+  public void handle(RepositoryEvent event) {
+    if (event.getEventType() == HandlerEventType.CREATE) {
+      metrics.register(Collections.singleton(event.getItem()));
+    } else if (event.getEventType() == HandlerEventType.DELETE) {
+      metrics.remove(event.getItem());
+      coalescer.remove(event.getItem());
+    }
+  }
+
   @Subscribe
   public void handle(PostReceiveRepositoryHookEvent event) {
-    LOG.debug("received hook event for repository {}, update index if necessary", event.getRepository());
-    submit(event.getRepository());
+    Repository repository = event.getRepository();
+    if (!mayChangeDefaultBranch(repository, event.getContext())) {
+      LOG.debug("received hook event for repository {}, which does not change the default branch", repository);
+      return;
+    }
+    LOG.debug("received hook event for repository {}, update index if necessary", repository);
+    headRevisionCache.invalidate(repository);
+    journal.mark(repository);
+    metrics.changed(repository);
+    submit(repository);
+  }
+
+  private boolean mayChangeDefaultBranch(Repository repository, HookContext context) {
+    if (context == null || !context.isFeatureSupported(HookFeature.BRANCH_PROVIDER)) {
+      return true;
+    }
+
+    HookBranchProvider branchProvider = context.getBranchProvider();
+    Set<String> branches = new HashSet<>(branchProvider.getCreatedOrModified());
+    branches.addAll(branchProvider.getDeletedOrClosed());
+    if (branches.isEmpty()) {
+      return !isTagOnly(context);
+    }
+
+    Optional<String> defaultBranch = defaultBranchCache.get(repository);
+    if (defaultBranch.isEmpty()) {
+      return true;
+    }
+    if (branchProvider.getDeletedOrClosed().contains(defaultBranch.get())) {
+      defaultBranchCache.invalidate(repository);
+    }
+    return branches.contains(defaultBranch.get());
+  }
+
+  private boolean isTagOnly(HookContext context) {
+    if (!context.isFeatureSupported(HookFeature.TAG_PROVIDER)) {
+      return false;
+    }
+    HookTagProvider tagProvider = context.getTagProvider();
+    return !tagProvider.getCreatedTags().isEmpty() || !tagProvider.getDeletedTags().isEmpty();
   }
 
   @Subscribe
@@ -73,6 +157,10 @@ public class IndexListener implements ServletContextListener {
       "received default branch changed event for repository {}, update index if necessary",
       event.getRepository()
     );
+    defaultBranchCache.invalidate(event.getRepository());
+    headRevisionCache.invalidate(event.getRepository());
+    journal.mark(event.getRepository());
+    metrics.changed(event.getRepository());
     submit(event.getRepository());
   }
 
@@ -83,19 +171,23 @@ public class IndexListener implements ServletContextListener {
       "received reindex event for repository {}, perform full reindex",
       repository
     );
+    headRevisionCache.invalidate(repository);
+    journal.mark(repository);
+    metrics.changed(repository);
     searchEngine.forType(FileContent.class)
       .forResource(repository)
       .update(new ReIndexTask(repository));
   }
 
   private void submit(Repository repository) {
-    searchEngine.forType(FileContent.class)
-      .forResource(repository)
-      .update(new IndexerTask(repository));
+    coalescer.request(repository);
   }
 
   @Override
   public void contextDestroyed(ServletContextEvent servletContextEvent) {
-    // nothing to destroy here
+    startupIndexScheduler.shutdown();
+    coalescer.shutdown();
+    extractionPool.shutdown();
+    resolverExecutor.shutdown();
   }
 }
@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import sonia.scm.repository.Repository;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the metrics of the indexing pipeline to the {@link MeterRegistry} of SCM-Manager.
+ */
+@Singleton
+public class IndexMetrics {
+
+  private static final String PREFIX = "scm.contentsearch.";
+
+  private static final String TAG_OUTCOME = "outcome";
+  private static final String TAG_RESULT = "result";
+  private static final String TAG_REPOSITORY = "repository";
+  private static final String TAG_REASON = "reason";
+
+  private static final String SUCCESS = "success";
+  private static final String FAILURE = "failure";
+
+  private final MeterRegistry registry;
+  private final Clock clock;
+  private final Counter bytesRead;
+  private final Counter skippedBinaries;
+  private final Counter skippedGenerated;
+  private final Map<Stage, Timer> succeeded = new EnumMap<>(Stage.class);
+  private final Map<Stage, Timer> failed = new EnumMap<>(Stage.class);
+  private final Map<FileResult, Counter> files = new EnumMap<>(FileResult.class);
+  private final Map<SkippedBlobReport.Reason, Counter> resolverSkipped = new EnumMap<>(SkippedBlobReport.Reason.class);
+
+  private final Map<String, RepositoryLag> lags = new ConcurrentHashMap<>();
+
+  @Inject
+  public IndexMetrics(MeterRegistry registry, IndexUpdateCoalescer coalescer) {
+    this(registry, coalescer, Clock.systemUTC());
+  }
+
+  @VisibleForTesting
+  IndexMetrics(MeterRegistry registry, IndexUpdateCoalescer coalescer, Clock clock) {
+    this.registry = registry;
+    this.clock = clock;
+    this.bytesRead = Counter.builder(PREFIX + "bytes.read")
+      .description("Bytes read from repositories for content extraction")
+      .baseUnit("bytes")
+      .register(registry);
+    this.skippedBinaries = Counter.builder(PREFIX + "binaries.skipped")
+      .description("Binary files indexed without content, because no resolver supports them")
+      .register(registry);
+    this.skippedGenerated = Counter.builder(PREFIX + "generated.skipped")
+      .description("Generated or minified files indexed without content")
+      .register(registry);
+    Gauge.builder(PREFIX + "tasks.pending", coalescer, IndexUpdateCoalescer::getPendingUpdates)
+      .description("Repositories with a pending or running index update")
+      .register(registry);
+    for (Stage stage : Stage.values()) {
+      succeeded.put(stage, timer(stage, SUCCESS));
+      failed.put(stage, timer(stage, FAILURE));
+    }
+    for (FileResult result : FileResult.values()) {
+      files.put(result, Counter.builder(PREFIX + "files")
+        .description("Files processed by the indexer")
+        .tag(TAG_RESULT, result.name)
+        .register(registry));
+    }
+    for (SkippedBlobReport.Reason reason : SkippedBlobReport.Reason.values()) {
+      resolverSkipped.put(reason, Counter.builder(PREFIX + "resolver.skipped")
+        .description("Binary files indexed without content, because the resolver failed or was not called")
+        .tag(TAG_REASON, reason.getName())
+        .register(registry));
+    }
+  }
+
+  private Timer timer(Stage stage, String outcome) {
+    return Timer.builder(PREFIX + stage.name)
+      .description(stage.description)
+      .tag(TAG_OUTCOME, outcome)
+      .register(registry);
+  }
+
+  /**
+   * Runs the operation and records its duration for the given stage, tagged with the outcome.
+   */
+  public <T> T time(Stage stage, Operation<T> operation) throws IOException {
+    long start = System.nanoTime();
+    Timer timer = failed.get(stage);
+    try {
+      T result = operation.run();
+      timer = succeeded.get(stage);
+      return result;
+    } finally {
+      timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  public void file(FileResult result) {
+    files.get(result).increment();
+  }
+
+  public void extracted(FileContent fileContent) {
+    file(FileResult.EXTRACTED);
+    if (fileContent.isGenerated()) {
+      skippedGenerated.increment();
+    } else if (fileContent.isBinary() && fileContent.getContent() == null) {
+      skippedBinaries.increment();
+    }
+  }
+
+  /**
+   * Counts the binary files whose content has been skipped by the resolvers, tagged with the reason.
+   */
+  public void skipped(SkippedBlobReport report) {
+    for (SkippedBlobReport.Entry entry : report.getEntries()) {
+      resolverSkipped.get(entry.getReason()).increment();
+    }
+  }
+
+  /**
+   * Returns a file which counts the bytes read from its content.
+   */
+  public RepositoryFile counting(RepositoryFile file) {
+    return new CountingFile(file);
+  }
+
+  /**
+   * Registers the lag of the repositories, so that it is reported from the start and not only after the first change.
+   */
+  public void register(Collection<Repository> repositories) {
+    repositories.forEach(this::lag);
+  }
+
+  /**
+   * Removes the lag of a deleted repository.
+   */
+  public void remove(Repository repository) {
+    RepositoryLag lag = lags.remove(repository.getId());
+    if (lag != null) {
+      registry.remove(lag.seconds);
+      registry.remove(lag.commits);
+    }
+  }
+
+  /**
+   * Marks the repository as changed, the lag of the repository grows until an update has finished.
+   */
+  public void changed(Repository repository) {
+    lag(repository).dirtySince.compareAndSet(0, clock.millis());
+  }
+
+  public void commitsBehind(Repository repository, long commits) {
+    lag(repository).commitsBehind.set(commits);
+  }
+
+  /**
+   * Resets the lag of the repository, if it has not been changed after the update has started.
+   */
+  public void indexed(Repository repository, Instant start) {
+    RepositoryLag lag = lag(repository);
+    lag.dirtySince.getAndUpdate(since -> since < start.toEpochMilli() ? 0 : since);
+    lag.commitsBehind.set(0);
+  }
+
+  private RepositoryLag lag(Repository repository) {
+    return lags.computeIfAbsent(repository.getId(), id -> new RepositoryLag(repository));
+  }
+
+  private double seconds(AtomicLong dirtySince) {
+    long since = dirtySince.get();
+    return since == 0 ? 0 : Math.max(0, clock.millis() - since) / 1000.0;
+  }
+
+  public enum Stage {
+    COLLECT("collect", "Duration of collecting the paths to index"),
+    EXTRACT("extract", "Duration of reading and extracting the content of a file"),
+    STORE("store", "Duration of writing a document to the index");
+
+    private final String name;
+    private final String description;
+
+    Stage(String name, String description) {
+      this.name = name;
+      this.description = description;
+    }
+  }
+
+  public enum FileResult {
+    EXTRACTED("extracted"),
+    UNCHANGED("unchanged"),
+    REUSED("reused");
+
+    private final String name;
+
+    FileResult(String name) {
+      this.name = name;
+    }
+  }
+
+  @FunctionalInterface
+  public interface Operation<T> {
+    T run() throws IOException;
+  }
+
+  private class RepositoryLag {
+    private final AtomicLong dirtySince = new AtomicLong();
+    private final AtomicLong commitsBehind = new AtomicLong();
+    private final Gauge seconds;
+    private final Gauge commits;
+
+    private RepositoryLag(Repository repository) {
+      Tags tags = Tags.of(TAG_REPOSITORY, repository.getNamespaceAndName().toString());
+      this.seconds = Gauge.builder(PREFIX + "lag.seconds", dirtySince, IndexMetrics.this::seconds)
+        .description("Seconds since the first change which is not yet indexed")
+        .baseUnit("seconds")
+        .tags(tags)
+        .register(registry);
+      this.commits = Gauge.builder(PREFIX + "lag.commits", commitsBehind, AtomicLong::get)
+        .description("Commits between the indexed and the latest revision, when the update started")
+        .tags(tags)
+        .register(registry);
+    }
+  }
+
+  private class CountingFile implements RepositoryFile {
+
+    private final RepositoryFile file;
+
+    private CountingFile(RepositoryFile file) {
+      this.file = file;
+    }
+
+    @Override
+    public String getPath() {
+      return file.getPath();
+    }
+
+    @Override
+    public OptionalLong getSize() throws IOException {
+      return file.getSize();
+    }
+
+    @Override
+    public Optional<String> getBlobId() {
+      return file.getBlobId();
+    }
+
+    @Override
+    public Optional<String> getChangeToken() {
+      return file.getChangeToken();
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+      return new CountingStream(file.openStream());
+    }
+  }
+
+  private class CountingStream extends FilterInputStream {
+
+    private long count;
+
+    private CountingStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int result = super.read();
+      if (result >= 0) {
+        count++;
+      }
+      return result;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int result = super.read(b, off, len);
+      if (result > 0) {
+        count += result;
+      }
+      return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        bytesRead.increment(count);
+        count = 0;
+      }
+    }
+  }
+}
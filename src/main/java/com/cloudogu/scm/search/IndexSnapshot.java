@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Paths and blob ids of the files which have been written to the index of a repository. The blob ids are only valid
+ * for the fingerprint of the indexer which has written them, see {@link Indexer#getFingerprint()}. The recorded id is
+ * the {@link RepositoryFile#getChangeToken() change token} of the file, which is the blob id for repositories that
+ * have blob ids.
+ * <p>
+ * The paths are kept in pages of consecutive paths in {@link PathOrder}, which are loaded from the
+ * {@link IndexSnapshotStore} once a path of the page is accessed. So an update of a few files only loads and writes
+ * the pages of those files, and a walk over the tree loads one page after the other.
+ */
+public class IndexSnapshot {
+
+  /**
+   * Number of paths of the pages, which are written by the store. Pages are split once they have grown beyond twice
+   * this size.
+   */
+  static final int PAGE_SIZE = 2048;
+
+  private static final String FIRST_BOUND = "";
+
+  private final NavigableMap<String, Page> pages = new TreeMap<>(PathOrder.COMPARATOR);
+  @Nullable
+  private final PageReader reader;
+  private String fingerprint;
+
+  public IndexSnapshot(String fingerprint) {
+    this.fingerprint = fingerprint;
+    this.reader = null;
+    Page page = new Page(FIRST_BOUND, Page.NEW, fingerprint);
+    page.blobIds = new HashMap<>();
+    page.modified = true;
+    pages.put(FIRST_BOUND, page);
+  }
+
+  IndexSnapshot(String fingerprint, Collection<Page> pages, PageReader reader) {
+    this.fingerprint = fingerprint;
+    this.reader = reader;
+    for (Page page : pages) {
+      this.pages.put(page.bound, page);
+    }
+  }
+
+  public String getFingerprint() {
+    return fingerprint;
+  }
+
+  /**
+   * Switches the snapshot to the given fingerprint. If the fingerprint differs, the blob ids are forgotten, because
+   * the indexed documents of those blobs would look different, if they were written now. The paths are kept.
+   * Pages which have not been loaded yet, forget their blob ids once they are loaded.
+   */
+  public void useFingerprint(String fingerprint) {
+    if (!Objects.equals(this.fingerprint, fingerprint)) {
+      this.fingerprint = fingerprint;
+      for (Page page : pages.values()) {
+        if (page.blobIds != null) {
+          page.blobIds.replaceAll((path, blobId) -> null);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns {@code true} if the given blob has already been indexed for the path.
+   */
+  public boolean isUnchanged(String path, String blobId) {
+    return blobId.equals(getBlobId(path));
+  }
+
+  @Nullable
+  public String getBlobId(String path) {
+    return load(page(path)).get(path);
+  }
+
+  public void put(String path, @Nullable String blobId) {
+    Page page = page(path);
+    Map<String, String> blobIds = load(page);
+    if (blobIds.containsKey(path) && Objects.equals(blobIds.get(path), blobId)) {
+      return;
+    }
+    blobIds.put(path, blobId);
+    page.modified = true;
+  }
+
+  public void removeAll(Collection<String> paths) {
+    for (String path : paths) {
+      Page page = page(path);
+      if (load(page).containsKey(path)) {
+        page.blobIds.remove(path);
+        page.modified = true;
+      }
+    }
+  }
+
+  /**
+   * Returns the paths in {@link PathOrder}. Pages which have not been loaded before, are read while they are iterated
+   * and are not kept in memory.
+   */
+  public Iterable<String> getPaths() {
+    return () -> new Iterator<>() {
+
+      private final Iterator<Page> pageIterator = pages.values().iterator();
+      private Iterator<String> paths = Collections.emptyIterator();
+
+      @Override
+      public boolean hasNext() {
+        while (!paths.hasNext() && pageIterator.hasNext()) {
+          List<String> sorted = new ArrayList<>(read(pageIterator.next()).keySet());
+          sorted.sort(PathOrder.COMPARATOR);
+          paths = sorted.iterator();
+        }
+        return paths.hasNext();
+      }
+
+      @Override
+      public String next() {
+        hasNext();
+        return paths.next();
+      }
+    };
+  }
+
+  /**
+   * Returns {@code true} if the snapshot has been changed since it was loaded or written.
+   */
+  boolean isModified() {
+    return pages.values().stream().anyMatch(page -> page.modified);
+  }
+
+  Collection<Page> getPages() {
+    return pages.values();
+  }
+
+  /**
+   * Replaces the pages with the given pages, which have been written to the store.
+   */
+  void written(Collection<Page> writtenPages) {
+    pages.clear();
+    for (Page page : writtenPages) {
+      pages.put(page.bound, page);
+    }
+  }
+
+  private Page page(String path) {
+    return pages.floorEntry(path).getValue();
+  }
+
+  private Map<String, String> load(Page page) {
+    if (page.blobIds == null) {
+      page.blobIds = read(page);
+    }
+    return page.blobIds;
+  }
+
+  private Map<String, String> read(Page page) {
+    if (page.blobIds != null) {
+      return page.blobIds;
+    }
+    Objects.requireNonNull(reader, "pages of a new snapshot are always loaded");
+    try {
+      Map<String, String> blobIds = reader.read(page.id);
+      if (!fingerprint.equals(page.fingerprint)) {
+        blobIds.replaceAll((path, blobId) -> null);
+      }
+      return blobIds;
+    } catch (IOException e) {
+      throw new UncheckedIOException("failed to read page " + page.id + " of snapshot", e);
+    }
+  }
+
+  /**
+   * Reads the paths and blob ids of a stored page.
+   */
+  @FunctionalInterface
+  interface PageReader {
+    Map<String, String> read(int id) throws IOException;
+  }
+
+  /**
+   * Paths from the bound of the page up to the bound of the next page. The first page has an empty bound, so that
+   * every path belongs to a page.
+   */
+  static final class Page {
+
+    static final int NEW = -1;
+
+    private final String bound;
+    private final int id;
+    private final String fingerprint;
+    @Nullable
+    private Map<String, String> blobIds;
+    private boolean modified;
+
+    Page(String bound, int id, String fingerprint) {
+      this.bound = bound;
+      this.id = id;
+      this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Creates a page, which has just been written with the given paths and blob ids.
+     */
+    static Page written(String bound, int id, String fingerprint, Map<String, String> blobIds) {
+      Page page = new Page(bound, id, fingerprint);
+      page.blobIds = blobIds;
+      return page;
+    }
+
+    String getBound() {
+      return bound;
+    }
+
+    int getId() {
+      return id;
+    }
+
+    String getFingerprint() {
+      return fingerprint;
+    }
+
+    boolean isFirst() {
+      return FIRST_BOUND.equals(bound);
+    }
+
+    boolean isModified() {
+      return modified;
+    }
+
+    /**
+     * Returns the paths and blob ids of a modified page, which are always loaded.
+     */
+    Map<String, String> getBlobIds() {
+      return Objects.requireNonNull(blobIds, "page is not loaded");
+    }
+  }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import com.cloudogu.scm.search.IndexSnapshot.Page;
+import com.google.common.base.Strings;
+import sonia.scm.repository.Repository;
+import sonia.scm.store.Blob;
+import sonia.scm.store.BlobStore;
+import sonia.scm.store.BlobStoreFactory;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stores the {@link IndexSnapshot} of a repository. The index itself can only be written, so the snapshot is the only
+ * way to find documents of files which no longer exist, without deleting the whole index of the repository first, and
+ * to find files whose content has already been indexed.
+ * <p>
+ * The snapshot is stored as pages of consecutive paths, each in its own blob, and a small table of contents with the
+ * first path of every page. An update only writes the pages which have been modified. Modified pages are written as
+ * new blobs and the table of contents is written last, so that an interrupted update leaves the previous snapshot
+ * intact. Blobs which are not listed in the table of contents are removed afterwards.
+ */
+@Singleton
+public class IndexSnapshotStore {
+
+  static final String STORE_NAME = "content-search-snapshot";
+  private static final String CONTENTS_ID = "contents";
+  private static final String PAGE_PREFIX = "page-";
+  private static final int FORMAT_VERSION = 4;
+
+  private final BlobStoreFactory storeFactory;
+
+  @Inject
+  public IndexSnapshotStore(BlobStoreFactory storeFactory) {
+    this.storeFactory = storeFactory;
+  }
+
+  /**
+   * Returns the snapshot of the repository or an empty optional, if the index was written without a snapshot. Only the
+   * table of contents is read, the pages are read once they are accessed.
+   */
+  public Optional<IndexSnapshot> get(Repository repository) throws IOException {
+    BlobStore store = store(repository);
+    Optional<Blob> blob = store.getOptional(CONTENTS_ID);
+    if (blob.isEmpty()) {
+      return Optional.empty();
+    }
+    try (DataInputStream input = open(blob.get())) {
+      if (input.readInt() != FORMAT_VERSION) {
+        return Optional.empty();
+      }
+      String fingerprint = readString(input);
+      int count = input.readInt();
+      List<Page> pages = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        String bound = readString(input);
+        int id = input.readInt();
+        pages.add(new Page(bound, id, readString(input)));
+      }
+      return Optional.of(new IndexSnapshot(fingerprint, pages, id -> readPage(store, id)));
+    }
+  }
+
+  /**
+   * Writes the pages of the snapshot which have been modified since it was loaded. Nothing is written, if the
+   * snapshot has not changed. A new snapshot replaces the stored one.
+   */
+  public void update(Repository repository, IndexSnapshot snapshot) throws IOException {
+    if (!snapshot.isModified()) {
+      return;
+    }
+    BlobStore store = store(repository);
+    PageWriter writer = new PageWriter(store, snapshot.getFingerprint());
+    for (Page page : snapshot.getPages()) {
+      if (page.isModified()) {
+        writer.write(page);
+      } else {
+        writer.keep(page);
+      }
+    }
+    writer.commit();
+    snapshot.written(writer.pages);
+  }
+
+  /**
+   * Writes a new snapshot with the paths of the walk and without blob ids, e.g. for an index which has been written
+   * without a snapshot. The walk must visit the paths in {@link PathOrder}, so that the pages can be written while the
+   * tree is walked and only a single page is kept in memory.
+   */
+  public IndexSnapshot seed(Repository repository, String fingerprint, PathWalk walk) throws IOException {
+    BlobStore store = store(repository);
+    PageWriter writer = new PageWriter(store, fingerprint);
+    List<String> paths = new ArrayList<>();
+    String[] bound = {""};
+    try {
+      walk.walk(path -> {
+        if (paths.size() == IndexSnapshot.PAGE_SIZE) {
+          writeSeed(writer, bound[0], paths);
+          paths.clear();
+          bound[0] = path;
+        }
+        paths.add(path);
+        return true;
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    writeSeed(writer, bound[0], paths);
+    writer.commit();
+    return new IndexSnapshot(fingerprint, writer.pages, id -> readPage(store, id));
+  }
+
+  private void writeSeed(PageWriter writer, String bound, List<String> paths) {
+    try {
+      writer.write(bound, paths, new HashMap<>(), false);
+    } catch (IOException e) {
+      throw new UncheckedIOException("failed to write page of snapshot", e);
+    }
+  }
+
+  public void remove(Repository repository) {
+    store(repository).clear();
+  }
+
+  private Map<String, String> readPage(BlobStore store, int id) throws IOException {
+    Blob blob = store.getOptional(PAGE_PREFIX + id)
+      .orElseThrow(() -> new IOException("page " + id + " of snapshot is missing"));
+    try (DataInputStream input = open(blob)) {
+      if (input.readInt() != FORMAT_VERSION) {
+        throw new IOException("unknown format of snapshot page " + id);
+      }
+      int count = input.readInt();
+      Map<String, String> blobIds = new HashMap<>(count);
+      for (int i = 0; i < count; i++) {
+        String path = readString(input);
+        String blobId = readString(input);
+        blobIds.put(path, blobId.isEmpty() ? null : blobId);
+      }
+      return blobIds;
+    }
+  }
+
+  /**
+   * Writes modified pages as new blobs and the table of contents of all pages once every page has been written.
+   */
+  private class PageWriter {
+
+    private final BlobStore store;
+    private final String fingerprint;
+    private final List<Page> pages = new ArrayList<>();
+    private int nextId;
+
+    private PageWriter(BlobStore store, String fingerprint) {
+      this.store = store;
+      this.fingerprint = fingerprint;
+      this.nextId = store.getAll()
+        .stream()
+        .map(Blob::getId)
+        .filter(id -> id.startsWith(PAGE_PREFIX))
+        .mapToInt(IndexSnapshotStore::pageId)
+        .max()
+        .orElse(0) + 1;
+    }
+
+    void keep(Page page) {
+      pages.add(page);
+    }
+
+    /**
+     * Writes the page and splits it, if it has grown too large. Empty pages are dropped, their paths belong to the
+     * previous page from now on. Only the first page is always kept, because every path belongs to a page.
+     */
+    void write(Page page) throws IOException {
+      List<String> paths = new ArrayList<>(page.getBlobIds().keySet());
+      paths.sort(PathOrder.COMPARATOR);
+      if (paths.isEmpty()) {
+        if (page.isFirst()) {
+          write(page.getBound(), paths, page.getBlobIds(), true);
+        }
+        return;
+      }
+      int pageCount = paths.size() > 2 * IndexSnapshot.PAGE_SIZE ? paths.size() / IndexSnapshot.PAGE_SIZE : 1;
+      for (int i = 0; i < pageCount; i++) {
+        int from = i * paths.size() / pageCount;
+        int to = (i + 1) * paths.size() / pageCount;
+        List<String> pagePaths = paths.subList(from, to);
+        Map<String, String> blobIds = new HashMap<>(pagePaths.size());
+        for (String path : pagePaths) {
+          blobIds.put(path, page.getBlobIds().get(path));
+        }
+        write(i == 0 ? page.getBound() : pagePaths.get(0), pagePaths, blobIds, true);
+      }
+    }
+
+    /**
+     * Writes a page with the given paths, which must be sorted in {@link PathOrder}. Only if the page is kept loaded,
+     * the written page keeps the blob ids in memory.
+     */
+    void write(String bound, List<String> paths, Map<String, String> blobIds, boolean keepLoaded) throws IOException {
+      int id = nextId++;
+      Blob blob = store.create(PAGE_PREFIX + id);
+      try (DataOutputStream output = create(blob)) {
+        output.writeInt(FORMAT_VERSION);
+        output.writeInt(paths.size());
+        for (String path : paths) {
+          writeString(output, path);
+          writeString(output, Strings.nullToEmpty(blobIds.get(path)));
+        }
+      }
+      blob.commit();
+      pages.add(keepLoaded ? Page.written(bound, id, fingerprint, blobIds) : new Page(bound, id, fingerprint));
+    }
+
+    void commit() throws IOException {
+      Blob blob = store.getOptional(CONTENTS_ID).orElseGet(() -> store.create(CONTENTS_ID));
+      try (DataOutputStream output = create(blob)) {
+        output.writeInt(FORMAT_VERSION);
+        writeString(output, fingerprint);
+        output.writeInt(pages.size());
+        for (Page page : pages) {
+          writeString(output, page.getBound());
+          output.writeInt(page.getId());
+          writeString(output, page.getFingerprint());
+        }
+      }
+      blob.commit();
+      removeUnreferenced(pages);
+    }
+
+    private void removeUnreferenced(Collection<Page> referenced) {
+      Set<String> ids = new HashSet<>();
+      ids.add(CONTENTS_ID);
+      referenced.forEach(page -> ids.add(PAGE_PREFIX + page.getId()));
+      for (Blob blob : store.getAll()) {
+        if (!ids.contains(blob.getId())) {
+          store.remove(blob.getId());
+        }
+      }
+    }
+  }
+
+  /**
+   * Walk over the paths of a tree in {@link PathOrder}.
+   */
+  @FunctionalInterface
+  public interface PathWalk {
+    void walk(BulkContentReader.PathVisitor visitor) throws IOException;
+  }
+
+  private static int pageId(String blobId) {
+    try {
+      return Integer.parseInt(blobId.substring(PAGE_PREFIX.length()));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Writes the string as length prefixed UTF-8, because {@link DataOutput#writeUTF(String)} is limited to 64 KiB.
+   */
+  private static void writeString(DataOutput output, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  private static String readString(DataInput input) throws IOException {
+    byte[] bytes = new byte[input.readInt()];
+    input.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private DataInputStream open(Blob blob) throws IOException {
+    return new DataInputStream(new BufferedInputStream(new GZIPInputStream(blob.getInputStream())));
+  }
+
+  private DataOutputStream create(Blob blob) throws IOException {
+    return new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(blob.getOutputStream())));
+  }
+
+  private BlobStore store(Repository repository) {
+    return storeFactory.withName(STORE_NAME).forRepository(repository).build();
+  }
+}
@@ -25,6 +25,7 @@ import jakarta.xml.bind.annotation.XmlAccessType;
 import jakarta.xml.bind.annotation.XmlAccessorType;
 import jakarta.xml.bind.annotation.XmlRootElement;
 import jakarta.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
+import javax.annotation.Nullable;
 import java.time.Instant;
 
 @Data
@@ -41,8 +42,32 @@ public class IndexStatus {
   private Instant lastUpdate;
   private int version;
 
+  /**
+   * Target revision of an unfinished re-index, {@code null} if no re-index is in progress.
+   */
+  @Nullable
+  private String reindexRevision;
+  /**
+   * Number of files of the target revision, which have been written by the unfinished re-index.
+   */
+  private int reindexOffset;
+  /**
+   * Last path written by the unfinished re-index, the next chunk continues with the path after it in
+   * {@link PathOrder}. {@code null} if the re-index starts with the first file.
+   */
+  @Nullable
+  private String reindexCursor;
+
+  public IndexStatus(String revision, Instant lastUpdate, int version) {
+    this(revision, lastUpdate, version, null, 0, null);
+  }
+
   public boolean isEmpty() {
     return EMPTY.equals(revision);
   }
 
+  public boolean isReindexing() {
+    return reindexRevision != null;
+  }
+
 }
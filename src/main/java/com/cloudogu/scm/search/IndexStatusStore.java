@@ -22,6 +22,7 @@ import sonia.scm.store.DataStoreFactory;
 
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
+import javax.annotation.Nullable;
 import java.time.Instant;
 import java.util.Optional;
 
@@ -57,8 +58,28 @@ public class IndexStatusStore {
     store.put(repository.getId(), status);
   }
 
+  /**
+   * Records the progress of an unfinished re-index. The indexed revision and version are kept, because the index
+   * still contains documents of the previous state.
+   *
+   * @param offset number of files written so far
+   * @param cursor last path written so far, or {@code null} to start with the first file
+   */
+  public void checkpoint(Repository repository, String targetRevision, int offset, @Nullable String cursor) {
+    IndexStatus status = get(repository).orElseGet(() -> new IndexStatus(null, null, FileContent.VERSION));
+    status.setReindexRevision(targetRevision);
+    status.setReindexOffset(offset);
+    status.setReindexCursor(cursor);
+    status.setLastUpdate(Instant.now());
+    store.put(repository.getId(), status);
+  }
+
   public Optional<IndexStatus> get(Repository repository) {
-    return store.getOptional(repository.getId());
+    return get(repository.getId());
+  }
+
+  public Optional<IndexStatus> get(String repositoryId) {
+    return store.getOptional(repositoryId);
   }
 
 }
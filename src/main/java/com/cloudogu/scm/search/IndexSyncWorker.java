@@ -16,101 +16,464 @@
 
 package com.cloudogu.scm.search;
 
+import com.google.common.annotations.VisibleForTesting;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import sonia.scm.NotFoundException;
 import sonia.scm.repository.Repository;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 class IndexSyncWorker {
 
   private static final Logger LOG = LoggerFactory.getLogger(IndexSyncWorker.class);
 
+  static final String CHUNK_SIZE_PROPERTY = "scm.contentSearch.reindexChunkSize";
+  private static final int DEFAULT_CHUNK_SIZE = 10000;
+
+  static final String RECONCILE_THRESHOLD_PROPERTY = "scm.contentSearch.reconcileThreshold";
+  private static final int DEFAULT_RECONCILE_THRESHOLD = 1000;
+
   private final LatestRevisionResolver latestRevisionResolver;
   private final UpdatePathCollector updatePathCollector;
   private final RevisionPathCollector revisionPathCollector;
+  private final RevisionDistanceEstimator revisionDistanceEstimator;
   private final IndexStatusStore indexStatusStore;
+  private final IndexSnapshotStore indexSnapshotStore;
   private final Indexer indexer;
+  private final IndexMetrics metrics;
+  private final int chunkSize;
+  private final long reconcileThreshold;
+  private final boolean modificationsSupported;
 
   private final Repository repository;
+  private final PendingIndexState pendingState;
+
+  IndexSyncWorker(IndexingContext indexingContext, PendingIndexState pendingState) {
+    this(
+      indexingContext,
+      pendingState,
+      Integer.getInteger(CHUNK_SIZE_PROPERTY, DEFAULT_CHUNK_SIZE),
+      Integer.getInteger(RECONCILE_THRESHOLD_PROPERTY, DEFAULT_RECONCILE_THRESHOLD)
+    );
+  }
 
-  IndexSyncWorker(IndexingContext indexingContext) {
+  /**
+   * Creates a worker, which records every change of the status and the snapshot in the given pending state instead
+   * of storing it, because the changes must only be stored after the index has been committed.
+   */
+  @VisibleForTesting
+  IndexSyncWorker(IndexingContext indexingContext, PendingIndexState pendingState, int chunkSize, long reconcileThreshold) {
     this.latestRevisionResolver = indexingContext.getLatestRevisionResolver();
     this.updatePathCollector = indexingContext.getUpdatePathCollector();
     this.revisionPathCollector = indexingContext.getRevisionPathCollector();
+    this.revisionDistanceEstimator = indexingContext.getRevisionDistanceEstimator();
     this.indexStatusStore = indexingContext.getIndexStatusStore();
+    this.indexSnapshotStore = indexingContext.getIndexSnapshotStore();
     this.indexer = indexingContext.getIndexer();
+    this.metrics = indexingContext.getMetrics();
     this.repository = indexingContext.getRepository();
+    this.pendingState = pendingState;
+    this.chunkSize = Math.max(1, chunkSize);
+    this.reconcileThreshold = reconcileThreshold;
+    this.modificationsSupported = indexingContext.isModificationsSupported();
   }
 
-  public void ensureIndexIsUpToDate() throws IOException {
+  /**
+   * Brings the index up to date with the default branch.
+   *
+   * @return {@code false} if a re-index has been started or continued, which requires further runs to finish
+   */
+  public boolean ensureIndexIsUpToDate() throws IOException {
     Optional<IndexStatus> status = indexStatusStore.get(repository);
     if (status.isPresent()) {
       IndexStatus indexStatus = status.get();
-      if (indexStatus.getVersion() != FileContent.VERSION) {
+      if (indexStatus.isReindexing()) {
+        return continueReIndex(indexStatus);
+      } else if (indexStatus.getVersion() != FileContent.VERSION) {
         LOG.debug(
           "found index of repository {} in version {} required is {}, trigger reindex",
           repository, indexStatus.getVersion(), FileContent.VERSION
         );
-        reIndex();
+        return reIndex(true);
       } else if (indexStatus.isEmpty()) {
-        reIndex();
+        return reIndex(true);
       } else {
-        ensureIndexIsUpToDate(indexStatus.getRevision());
+        return ensureIndexIsUpToDate(indexStatus.getRevision());
       }
     } else {
       LOG.debug("no index status present for repository {} trigger reindex", repository);
-      reIndex();
+      return reIndex(false);
     }
   }
 
-  private void ensureIndexIsUpToDate(String revision) throws IOException {
+  /**
+   * Starts over the re-index of the default branch, e.g. because the rules for excluded files have changed. The re-index
+   * reconciles the index with its snapshot, so only the affected files are written or removed. Repositories without an
+   * index or with an empty index are brought up to date as usual.
+   *
+   * @return {@code false} if further chunks of the re-index are left
+   */
+  public boolean reconcileWithTree() throws IOException {
+    Optional<IndexStatus> status = indexStatusStore.get(repository)
+      .filter(s -> s.isReindexing() || (s.getRevision() != null && !s.isEmpty()));
+    if (status.isEmpty()) {
+      return ensureIndexIsUpToDate();
+    }
     Optional<String> latestRevision = latestRevisionResolver.resolve();
-    if (latestRevision.isPresent()) {
-      ensureIndexIsUpToDate(revision, latestRevision.get());
-    } else {
+    if (latestRevision.isEmpty()) {
       emptyRepository();
+      return true;
     }
+    LOG.debug("start over re indexing of repository {} with {} on request", repository, latestRevision.get());
+    return reIndex(latestRevision.get(), null, 0, currentSnapshot(), chunkSize);
   }
 
-  private void ensureIndexIsUpToDate(String from, String to) throws IOException {
+  private boolean ensureIndexIsUpToDate(String revision) throws IOException {
+    Optional<String> latestRevision = latestRevisionResolver.resolve();
+    if (latestRevision.isPresent()) {
+      return ensureIndexIsUpToDate(revision, latestRevision.get());
+    }
+    emptyRepository();
+    return true;
+  }
+
+  private boolean ensureIndexIsUpToDate(String from, String to) throws IOException {
     if (from.equals(to)) {
       LOG.debug("index of repository {} is up to date", repository);
-      return;
+      return true;
+    }
+
+    if (!modificationsSupported) {
+      LOG.debug("repository {} does not support modifications between revisions, reconcile with the tree", repository);
+      return reconcile(to);
+    }
+
+    // the modifications between distant revisions are computed as a whole and may not fit into memory,
+    // reconciling the tree with the snapshot streams the tree and skips every unchanged blob instead
+    long distance = revisionDistanceEstimator.estimate(from, to);
+    if (distance == RevisionDistanceEstimator.UNRELATED) {
+      LOG.info(
+        "indexed revision {} of repository {} is no ancestor of {}, reconcile with the tree", from, repository, to
+      );
+      return reconcile(to);
+    }
+    metrics.commitsBehind(repository, distance);
+    if (distance > reconcileThreshold) {
+      LOG.info(
+        "index of repository {} is {} commits behind, reconcile with the tree of {} instead of updating",
+        repository, distance, to
+      );
+      return reconcile(to);
     }
 
     LOG.debug("start updating index of repository {} from {} to {}", repository, from, to);
 
-    updatePathCollector.collect(from, to);
+    metrics.time(IndexMetrics.Stage.COLLECT, () -> {
+      updatePathCollector.collect(from, to);
+      return null;
+    });
+    if (updatePathCollector.isExclusionsChanged()) {
+      LOG.debug("exclusions of repository {} have changed, reconcile with the tree of {}", repository, to);
+      return reconcile(to);
+    }
     updateIndex(to, updatePathCollector);
+    return true;
   }
 
-  private void updateIndex(String revision, PathCollector collector) throws IOException {
+  private void updateIndex(String revision, UpdatePathCollector collector) throws IOException {
+    // indexes written before snapshots were introduced are updated without one, until they are re-indexed
+    Optional<IndexSnapshot> snapshot = loadSnapshot();
+    IndexSnapshot indexSnapshot = snapshot.orElseGet(() -> new IndexSnapshot(indexer.getFingerprint()));
+
     indexer.delete(collector.getPathToDelete());
-    indexer.store(revision, collector.getPathToStore());
+    indexer.storeModified(revision, collector.getPathToStore(), collector.getMovedPaths(), indexSnapshot);
+    indexSnapshot.removeAll(removed(collector.getPathToDelete(), collector));
+
+    if (snapshot.isPresent()) {
+      pendingState.add(() -> indexSnapshotStore.update(repository, indexSnapshot));
+    }
+    pendingState.add(() -> indexStatusStore.update(repository, revision));
+  }
+
+  /**
+   * Loads the snapshot of the repository. Blob ids which were recorded with a different fingerprint of the indexer are
+   * dropped, so that those files are extracted again.
+   */
+  private Optional<IndexSnapshot> loadSnapshot() throws IOException {
+    Optional<IndexSnapshot> snapshot = indexSnapshotStore.get(repository);
+    snapshot.ifPresent(s -> s.useFingerprint(indexer.getFingerprint()));
+    return snapshot;
+  }
 
-    indexStatusStore.update(repository, revision);
+  /**
+   * Rebuilds the index of the repository on request, e.g. because the index has been lost. The snapshot may not match
+   * the index in that case, so it is not used but created again from the tree of the indexed revision.
+   *
+   * @return {@code true} if the re-index has finished, {@code false} if further chunks are left
+   * @see #reIndex(boolean)
+   */
+  boolean reIndex() throws IOException {
+    return reIndex(false);
   }
 
-  void reIndex() throws IOException {
+  /**
+   * Rebuilds the index of the repository. The documents are overwritten in place, so that searches find the old
+   * version of a file until its new version is written. Documents of files which no longer exist are removed after all
+   * files have been written. If there is no snapshot of the indexed paths, it is created from the tree of the indexed
+   * revision. Only if there is no indexed revision either, the whole index is deleted first and rebuilt in a single
+   * task, so that the index is never committed half way.
+   * <p>
+   * Files whose blob has already been indexed for the same path are skipped, as long as the blob id has been recorded
+   * with the current fingerprint of the indexer.
+   * <p>
+   * Large repositories are indexed in chunks, because the index is only committed at the end of a task. After each
+   * chunk the last written path is written to the {@link IndexStatusStore}, so that the next run (or the next start of
+   * the server) continues the walk over the tree right after it, even if the default branch has moved in between.
+   *
+   * @param trustSnapshot {@code false} if the snapshot may not match the index and has to be created again
+   * @return {@code true} if the re-index has finished, {@code false} if further chunks are left
+   */
+  private boolean reIndex(boolean trustSnapshot) throws IOException {
     LOG.debug("start re indexing for repository {}", repository);
-    indexer.deleteAll();
 
     Optional<String> latestRevision = latestRevisionResolver.resolve();
-    if (latestRevision.isPresent()) {
-      String revision = latestRevision.get();
-      revisionPathCollector.collect(latestRevision.get());
-      updateIndex(revision, revisionPathCollector);
-    } else {
-      indexStatusStore.empty(repository);
+    if (latestRevision.isEmpty()) {
+      emptyRepository();
+      return true;
     }
+
+    return reconcile(latestRevision.get(), trustSnapshot ? loadSnapshot().orElse(null) : null);
   }
 
-  private void emptyRepository() {
+  /**
+   * Reconciles the index with the tree of the revision, files whose blob has already been indexed for the same path
+   * are skipped.
+   */
+  private boolean reconcile(String revision) throws IOException {
+    return reconcile(revision, loadSnapshot().orElse(null));
+  }
+
+  private boolean reconcile(String revision, @Nullable IndexSnapshot snapshot) throws IOException {
+    IndexSnapshot indexSnapshot = snapshot != null ? snapshot : seedSnapshot().orElse(null);
+    if (indexSnapshot == null) {
+      LOG.debug("no indexed revision found for repository {}, delete all and re index in a single run", repository);
+      indexer.deleteAll();
+      return reIndex(revision, null, 0, new IndexSnapshot(indexer.getFingerprint()), Integer.MAX_VALUE);
+    }
+    return reIndex(revision, null, 0, indexSnapshot, chunkSize);
+  }
+
+  /**
+   * Creates the snapshot of an index which has been written without one or whose snapshot can not be trusted, from the
+   * tree of the indexed revision. The blob ids of the indexed documents are unknown, so every file is extracted again,
+   * but the documents of the indexed revision are kept until they are overwritten or removed.
+   */
+  private Optional<IndexSnapshot> seedSnapshot() throws IOException {
+    Optional<String> indexedRevision = indexStatusStore.get(repository)
+      .filter(status -> !status.isEmpty())
+      .map(IndexStatus::getRevision);
+    if (indexedRevision.isEmpty()) {
+      return Optional.empty();
+    }
+    String revision = indexedRevision.get();
+    LOG.debug("create snapshot of indexed paths for repository {} from revision {}", repository, revision);
+    try {
+      return Optional.of(indexSnapshotStore.seed(
+        repository, indexer.getFingerprint(), visitor -> revisionPathCollector.walk(revision, null, visitor)
+      ));
+    } catch (NotFoundException e) {
+      LOG.info("indexed revision {} of repository {} not found, snapshot can not be created", revision, repository);
+      return Optional.empty();
+    }
+  }
+
+  private boolean continueReIndex(IndexStatus status) throws IOException {
+    Optional<String> latestRevision = latestRevisionResolver.resolve();
+    if (latestRevision.isEmpty()) {
+      emptyRepository();
+      return true;
+    }
+
+    String revision = latestRevision.get();
+    String cursor = status.getReindexCursor();
+    if (revision.equals(status.getReindexRevision())) {
+      LOG.debug(
+        "continue re indexing of repository {} after file {} ({} files written)",
+        repository, cursor, status.getReindexOffset()
+      );
+      return reIndex(revision, cursor, status.getReindexOffset(), currentSnapshot(), chunkSize);
+    }
+
+    IndexSnapshot snapshot = currentSnapshot();
+    if (cursor != null && moveReIndex(status.getReindexRevision(), revision, cursor, snapshot)) {
+      LOG.debug(
+        "default branch of repository {} has moved during re index, continue with {} after file {}",
+        repository, revision, cursor
+      );
+      return reIndex(revision, cursor, status.getReindexOffset(), snapshot, chunkSize);
+    }
+    LOG.debug("default branch of repository {} has moved during re index, start over with {}", repository, revision);
+    return reIndex(revision, null, 0, snapshot, chunkSize);
+  }
+
+  /**
+   * Moves an unfinished re-index to the new head of the default branch, so that it does not start over whenever the
+   * branch moves. The files up to the cursor have been written from the previous target revision, so only the
+   * modifications between the revisions are applied to them. The files after the cursor are walked in the new revision
+   * anyway.
+   *
+   * @return {@code false} if the modifications can not be computed cheaply and the re-index has to start over
+   */
+  private boolean moveReIndex(String from, String to, String cursor, IndexSnapshot snapshot) throws IOException {
+    if (!modificationsSupported) {
+      return false;
+    }
+    long distance = revisionDistanceEstimator.estimate(from, to);
+    if (distance == RevisionDistanceEstimator.UNRELATED || distance > reconcileThreshold) {
+      return false;
+    }
+    metrics.time(IndexMetrics.Stage.COLLECT, () -> {
+      updatePathCollector.collect(from, to);
+      return null;
+    });
+    if (updatePathCollector.isExclusionsChanged()) {
+      return false;
+    }
+
+    List<String> pathToDelete = upTo(updatePathCollector.getPathToDelete(), cursor);
+    indexer.delete(pathToDelete);
+    indexer.storeModified(
+      to, upTo(updatePathCollector.getPathToStore(), cursor), updatePathCollector.getMovedPaths(), snapshot
+    );
+    snapshot.removeAll(removed(pathToDelete, updatePathCollector));
+    return true;
+  }
+
+  /**
+   * Returns the deleted paths which have not been stored again. They are removed from the snapshot after the files
+   * have been stored, because moved files may take over the documents of their old paths.
+   */
+  private List<String> removed(Collection<String> pathToDelete, UpdatePathCollector collector) {
+    Collection<String> pathToStore = collector.getPathToStore();
+    List<String> removed = new ArrayList<>();
+    for (String path : pathToDelete) {
+      if (!pathToStore.contains(path)) {
+        removed.add(path);
+      }
+    }
+    return removed;
+  }
+
+  private List<String> upTo(Collection<String> paths, String cursor) {
+    List<String> result = new ArrayList<>();
+    for (String path : paths) {
+      if (!PathOrder.isAfter(path, cursor)) {
+        result.add(path);
+      }
+    }
+    return result;
+  }
+
+  private IndexSnapshot currentSnapshot() throws IOException {
+    return loadSnapshot().orElseGet(() -> new IndexSnapshot(indexer.getFingerprint()));
+  }
+
+  private boolean reIndex(String revision,
+                          @Nullable String after,
+                          int written,
+                          IndexSnapshot snapshot,
+                          int size) throws IOException {
+    Chunk chunk = new Chunk(size);
+    metrics.time(IndexMetrics.Stage.COLLECT, () -> {
+      revisionPathCollector.walk(revision, after, chunk);
+      return null;
+    });
+
+    indexer.store(revision, chunk.paths, snapshot);
+
+    if (chunk.hasMore) {
+      int end = written + chunk.paths.size();
+      LOG.info("indexed {} files of repository {}, continue with next chunk", end, repository);
+      // the snapshot must contain every written path, to clean up correctly if the re-index starts over
+      String cursor = chunk.last();
+      pendingState.add(() -> indexSnapshotStore.update(repository, snapshot));
+      pendingState.add(() -> indexStatusStore.checkpoint(repository, revision, end, cursor));
+      return false;
+    }
+
+    // the paths after the cursor are all part of the last chunk, only the paths up to the cursor are walked again,
+    // so that every path of the revision is walked once for the set of existing paths
+    Set<String> pathSet = new CompactPathSet();
+    if (after != null) {
+      metrics.time(IndexMetrics.Stage.COLLECT, () -> {
+        revisionPathCollector.walk(revision, null, path -> {
+          if (PathOrder.isAfter(path, after)) {
+            return false;
+          }
+          pathSet.add(path);
+          return true;
+        });
+        return null;
+      });
+    }
+    pathSet.addAll(chunk.paths);
+
+    List<String> removed = new ArrayList<>();
+    for (String path : snapshot.getPaths()) {
+      if (!pathSet.contains(path)) {
+        removed.add(path);
+      }
+    }
+    LOG.debug("remove {} documents of files which no longer exist in repository {}", removed.size(), repository);
+    indexer.delete(removed);
+    snapshot.removeAll(removed);
+
+    pendingState.add(() -> indexSnapshotStore.update(repository, snapshot));
+    pendingState.add(() -> indexStatusStore.update(repository, revision));
+    return true;
+  }
+
+  private void emptyRepository() throws IOException {
     LOG.debug("repository {} looks empty, delete all to clean up", repository);
     indexer.deleteAll();
-    indexStatusStore.empty(repository);
+    IndexSnapshot snapshot = new IndexSnapshot(indexer.getFingerprint());
+    pendingState.add(() -> indexSnapshotStore.update(repository, snapshot));
+    pendingState.add(() -> indexStatusStore.empty(repository));
   }
 
+  /**
+   * Picks the paths of a single chunk from the walk over the tree. The walk is stopped at the first path after the
+   * chunk, which only tells that further chunks are left.
+   */
+  private static class Chunk implements BulkContentReader.PathVisitor {
+
+    private final int size;
+    private final List<String> paths = new ArrayList<>();
+    private boolean hasMore;
+
+    private Chunk(int size) {
+      this.size = size;
+    }
+
+    @Override
+    public boolean visit(String path) {
+      if (paths.size() < size) {
+        paths.add(path);
+        return true;
+      }
+      hasMore = true;
+      return false;
+    }
+
+    String last() {
+      return paths.get(paths.size() - 1);
+    }
+  }
 }
@@ -29,8 +29,8 @@ public class IndexSyncWorkerFactory {
     this.indexingContextFactory = indexingContextFactory;
   }
 
-  public IndexSyncWorker create(RepositoryService repositoryService, Indexer indexer) {
-    return new IndexSyncWorker(indexingContextFactory.create(repositoryService, indexer));
+  public IndexSyncWorker create(RepositoryService repositoryService, Indexer indexer, PendingIndexState pendingState) {
+    return new IndexSyncWorker(indexingContextFactory.create(repositoryService, indexer), pendingState);
   }
 
 }
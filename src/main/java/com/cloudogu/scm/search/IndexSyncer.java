@@ -19,7 +19,6 @@ package com.cloudogu.scm.search;
 import com.google.common.base.Stopwatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import sonia.scm.repository.Feature;
 import sonia.scm.repository.Repository;
 import sonia.scm.repository.api.Command;
 import sonia.scm.repository.api.RepositoryService;
@@ -45,52 +44,110 @@ public class IndexSyncer {
     this.indexSyncWorkerFactory = indexSyncWorkerFactory;
   }
 
-  public void ensureIndexIsUpToDate(Index<FileContent> index, Repository repository) {
+  /**
+   * Updates the index of the repository, if it is not up to date. The changes of the index status and snapshot are
+   * recorded in the pending state, which must be committed after the index has been committed.
+   *
+   * @return {@link Result#UP_TO_DATE} if the index is up to date afterwards or the repository could not be indexed at
+   * all, {@link Result#INCOMPLETE} if a re-index requires further runs
+   */
+  public Result ensureIndexIsUpToDate(Index<FileContent> index, Repository repository, PendingIndexState pendingState) {
+    return update(index, repository, pendingState, IndexSyncWorker::ensureIndexIsUpToDate);
+  }
+
+  /**
+   * Starts over the re-index of the repository, e.g. because the rules for excluded files have changed. Only the
+   * affected files are written or removed. The changes of the index status and snapshot are recorded in the pending
+   * state, like in {@link #ensureIndexIsUpToDate(Index, Repository, PendingIndexState)}.
+   */
+  public Result reconcile(Index<FileContent> index, Repository repository, PendingIndexState pendingState) {
+    return update(index, repository, pendingState, IndexSyncWorker::reconcileWithTree);
+  }
+
+  private Result update(Index<FileContent> index,
+                        Repository repository,
+                        PendingIndexState pendingState,
+                        WorkerOperation operation) {
     try (RepositoryService repositoryService = repositoryServiceFactory.create(repository)) {
       if (isSupported(repositoryService)) {
-       ensureIndexIsUpToDate(index, repositoryService);
+        return result(update(index, repositoryService, pendingState, operation));
       } else {
-        LOG.warn("repository {} could not index, because it does not support combined modifications", repository);
+        LOG.warn("repository {} could not index, because it does not support log or browse", repository);
       }
+      return Result.UP_TO_DATE;
     } catch (IOException e) {
       LOG.error("failed to update index or to check if an update is required for repository {}", repository, e);
+      return Result.FAILED;
     }
   }
 
-  void reindex(Index<FileContent> index, Repository repository) {
+  Result reindex(Index<FileContent> index, Repository repository, PendingIndexState pendingState) {
     try (RepositoryService repositoryService = repositoryServiceFactory.create(repository)) {
       if (isSupported(repositoryService)) {
         Stopwatch sw = Stopwatch.createStarted();
         Indexer indexer = indexerFactory.create(index, repositoryService);
         try {
-            IndexSyncWorker worker = indexSyncWorkerFactory.create(repositoryService, indexer);
-            worker.reIndex();
+          IndexSyncWorker worker = indexSyncWorkerFactory.create(repositoryService, indexer, pendingState);
+          return result(worker.reIndex());
         } finally {
+          indexer.reportSkippedBlobs();
           LOG.debug("re-index operation finished in {}", sw.stop());
         }
       } else {
-        LOG.warn("repository {} could not index, because it does not support combined modifications", repository);
+        LOG.warn("repository {} could not index, because it does not support log or browse", repository);
       }
+      return Result.UP_TO_DATE;
     } catch (IOException e) {
       LOG.error("failed to update index or to check if an update is required for repository {}", repository, e);
+      return Result.FAILED;
     }
   }
 
-  private boolean isSupported(RepositoryService repositoryService) {
+  private Result result(boolean complete) {
+    return complete ? Result.UP_TO_DATE : Result.INCOMPLETE;
+  }
+
+  /**
+   * Repositories without support for modifications between revisions are indexed as well, their index is updated by
+   * reconciling the tree with the snapshot of the index.
+   */
+  static boolean isSupported(RepositoryService repositoryService) {
     return repositoryService.isSupported(Command.LOG)
-      && repositoryService.isSupported(Command.BROWSE)
-      && repositoryService.isSupported(Feature.MODIFICATIONS_BETWEEN_REVISIONS);
+      && repositoryService.isSupported(Command.BROWSE);
   }
 
-  private void ensureIndexIsUpToDate(Index<FileContent> index, RepositoryService repositoryService) throws IOException {
+  private boolean update(Index<FileContent> index,
+                         RepositoryService repositoryService,
+                         PendingIndexState pendingState,
+                         WorkerOperation operation) throws IOException {
     Stopwatch sw = Stopwatch.createStarted();
     Indexer indexer = indexerFactory.create(index, repositoryService);
     try {
-      IndexSyncWorker worker = indexSyncWorkerFactory.create(repositoryService, indexer);
-      worker.ensureIndexIsUpToDate();
+      IndexSyncWorker worker = indexSyncWorkerFactory.create(repositoryService, indexer, pendingState);
+      return operation.run(worker);
     } finally {
+      indexer.reportSkippedBlobs();
       LOG.debug("ensure index is up to date operation finished in {}", sw.stop());
     }
   }
 
+  private interface WorkerOperation {
+    boolean run(IndexSyncWorker worker) throws IOException;
+  }
+
+  public enum Result {
+    /**
+     * The index is up to date.
+     */
+    UP_TO_DATE,
+    /**
+     * The index has been updated partially, another run is required to finish the update.
+     */
+    INCOMPLETE,
+    /**
+     * The update has failed.
+     */
+    FAILED
+  }
+
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.repository.api.RepositoryServiceFactory;
+
+import jakarta.inject.Inject;
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Cheap check whether the index of a repository has to be updated. In contrast to the {@link IndexSyncWorker} the
+ * check does not require an opened index, so it can be executed outside the index queue.
+ */
+public class IndexUpToDateCheck {
+
+  private static final Logger LOG = LoggerFactory.getLogger(IndexUpToDateCheck.class);
+
+  private final RepositoryServiceFactory repositoryServiceFactory;
+  private final IndexStatusStore indexStatusStore;
+  private final DefaultBranchCache defaultBranchCache;
+  private final HeadRevisionCache headRevisionCache;
+
+  @Inject
+  public IndexUpToDateCheck(RepositoryServiceFactory repositoryServiceFactory,
+                            IndexStatusStore indexStatusStore,
+                            DefaultBranchCache defaultBranchCache,
+                            HeadRevisionCache headRevisionCache) {
+    this.repositoryServiceFactory = repositoryServiceFactory;
+    this.indexStatusStore = indexStatusStore;
+    this.defaultBranchCache = defaultBranchCache;
+    this.headRevisionCache = headRevisionCache;
+  }
+
+  /**
+   * Returns {@code true} if the stored index status alone shows that an update is required. This check does not
+   * access the repository.
+   */
+  public boolean isStatusOutdated(Repository repository) {
+    Optional<IndexStatus> status = indexStatusStore.get(repository);
+    if (status.isEmpty()) {
+      LOG.debug("no index status present for repository {}, update required", repository);
+      return true;
+    }
+
+    IndexStatus indexStatus = status.get();
+    if (indexStatus.isReindexing()) {
+      LOG.debug("re-index of repository {} has not finished, update required", repository);
+      return true;
+    }
+    if (indexStatus.getVersion() != FileContent.VERSION) {
+      LOG.debug("index of repository {} has version {} required is {}", repository, indexStatus.getVersion(), FileContent.VERSION);
+      return true;
+    }
+    return false;
+  }
+
+  public boolean requiresUpdate(Repository repository) throws IOException {
+    if (isStatusOutdated(repository)) {
+      return true;
+    }
+
+    IndexStatus indexStatus = indexStatusStore.get(repository).orElseThrow();
+    Optional<String> cachedRevision = headRevisionCache.get(repository);
+    if (cachedRevision.isPresent()) {
+      return !cachedRevision.get().equals(indexStatus.getRevision());
+    }
+
+    try (RepositoryService repositoryService = repositoryServiceFactory.create(repository)) {
+      if (!IndexSyncer.isSupported(repositoryService)) {
+        return false;
+      }
+      Optional<String> latestRevision = latestRevisionResolver(repositoryService).resolve();
+      if (latestRevision.isPresent()) {
+        return !latestRevision.get().equals(indexStatus.getRevision());
+      }
+      return !indexStatus.isEmpty();
+    }
+  }
+
+  private LatestRevisionResolver latestRevisionResolver(RepositoryService repositoryService) {
+    return new LatestRevisionResolver(
+      repositoryService,
+      new DefaultBranchResolver(repositoryService, defaultBranchCache),
+      headRevisionCache
+    );
+  }
+
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.math.LongMath;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.repository.Repository;
+import sonia.scm.search.SearchEngine;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.time.Clock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces bursts of index update requests per repository. The first request of a repository is submitted
+ * immediately. Further requests within the quiet window or while an update is running are merged into a single
+ * pending update, so that there is at most one pending and one running update per repository.
+ * <p>
+ * Every submitted update gets a new generation, only the task of the current generation releases the running update.
+ * If the task does not finish within the update timeout, e.g. because it has been dropped by the queue or could not be
+ * started, it is assumed to be lost and the next update is submitted anyway. The timeout can be set with the system
+ * property {@value #UPDATE_TIMEOUT_PROPERTY}.
+ */
+@Singleton
+@SuppressWarnings("UnstableApiUsage")
+public class IndexUpdateCoalescer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(IndexUpdateCoalescer.class);
+
+  static final String QUIET_WINDOW_PROPERTY = "scm.contentSearch.quietWindow";
+  private static final long DEFAULT_QUIET_WINDOW = 5000L;
+
+  static final String UPDATE_TIMEOUT_PROPERTY = "scm.contentSearch.updateTimeout";
+  private static final long DEFAULT_UPDATE_TIMEOUT = 60 * 60 * 1000L;
+
+  private static final long NO_TIMER = Long.MAX_VALUE;
+
+  private final SearchEngine searchEngine;
+  private final ScheduledExecutorService scheduler;
+  private final Clock clock;
+  private final long quietWindow;
+  private final long updateTimeout;
+
+  private final Map<String, State> states = new HashMap<>();
+  private long generations;
+
+  @Inject
+  public IndexUpdateCoalescer(SearchEngine searchEngine) {
+    this(
+      searchEngine,
+      Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("content-search-coalescer-%d").setDaemon(true).build()
+      ),
+      Clock.systemUTC(),
+      Long.getLong(QUIET_WINDOW_PROPERTY, DEFAULT_QUIET_WINDOW),
+      Long.getLong(UPDATE_TIMEOUT_PROPERTY, DEFAULT_UPDATE_TIMEOUT)
+    );
+  }
+
+  @VisibleForTesting
+  IndexUpdateCoalescer(SearchEngine searchEngine,
+                       ScheduledExecutorService scheduler,
+                       Clock clock,
+                       long quietWindow,
+                       long updateTimeout) {
+    this.searchEngine = searchEngine;
+    this.scheduler = scheduler;
+    this.clock = clock;
+    this.quietWindow = quietWindow;
+    this.updateTimeout = updateTimeout;
+  }
+
+  public synchronized void request(Repository repository) {
+    request(repository, states.computeIfAbsent(repository.getId(), id -> new State()));
+  }
+
+  /**
+   * Requests an update which starts over the re-index of the repository, e.g. because the rules for excluded files
+   * have changed. The request is passed to the next submitted task, so that it can not be overwritten by the status of
+   * a running update.
+   */
+  public synchronized void reconcile(Repository repository) {
+    State state = states.computeIfAbsent(repository.getId(), id -> new State());
+    state.reconcile = true;
+    request(repository, state);
+  }
+
+  private void request(Repository repository, State state) {
+    if (state.pending) {
+      LOG.trace("index update of repository {} is already pending, coalesce request", repository);
+      return;
+    }
+    state.pending = true;
+    if (!submitIfReady(repository, state)) {
+      LOG.debug("delay index update of repository {}, because of recent updates", repository);
+    }
+  }
+
+  private synchronized void timerElapsed(Repository repository, long at) {
+    State state = states.get(repository.getId());
+    if (state == null) {
+      // the repository has been deleted in the meantime
+      return;
+    }
+    if (state.timerAt == at) {
+      state.timerAt = NO_TIMER;
+    }
+    if (state.pending) {
+      submitIfReady(repository, state);
+    }
+  }
+
+  /**
+   * Submits the pending update, if no update is running and the quiet window has elapsed. Otherwise, a timer checks
+   * again once the quiet window has elapsed or the running update is assumed to be lost. A running update submits the
+   * pending update itself, when it finishes.
+   */
+  private boolean submitIfReady(Repository repository, State state) {
+    long now = clock.millis();
+    if (isInFlight(repository, state, now)) {
+      schedule(repository, state, LongMath.saturatedAdd(state.inFlightSince, updateTimeout), now);
+      return false;
+    }
+    long quietUntil = state.lastSubmit + quietWindow;
+    if (now < quietUntil) {
+      schedule(repository, state, quietUntil, now);
+      return false;
+    }
+    submit(repository, state, now);
+    return true;
+  }
+
+  private void schedule(Repository repository, State state, long at, long now) {
+    if (state.timerAt <= at) {
+      // an earlier timer checks again
+      return;
+    }
+    state.timerAt = at;
+    scheduler.schedule(() -> timerElapsed(repository, at), Math.max(0L, at - now), TimeUnit.MILLISECONDS);
+  }
+
+  private boolean isInFlight(Repository repository, State state, long now) {
+    if (state.inFlight && now - state.inFlightSince >= updateTimeout) {
+      LOG.warn(
+        "index update of repository {} has not finished within {} ms, assume that it is lost", repository, updateTimeout
+      );
+      state.inFlight = false;
+    }
+    return state.inFlight;
+  }
+
+  /**
+   * Must be called when an update which was submitted by the coalescer starts, so that the update timeout is measured
+   * from the start of the update instead of its submission.
+   */
+  public synchronized void started(Repository repository, long generation) {
+    State state = states.get(repository.getId());
+    if (state != null && state.inFlight && state.generation == generation) {
+      state.inFlightSince = clock.millis();
+    }
+  }
+
+  /**
+   * Must be called after an update which was submitted by the coalescer has finished. Updates of an older generation
+   * are ignored, their slot has already been released by the update timeout.
+   */
+  public synchronized void finished(Repository repository, long generation) {
+    State state = states.get(repository.getId());
+    if (state == null || state.generation != generation) {
+      return;
+    }
+    state.inFlight = false;
+    if (state.pending) {
+      submitIfReady(repository, state);
+    }
+  }
+
+  /**
+   * Forgets the state of a deleted repository.
+   */
+  public synchronized void remove(Repository repository) {
+    states.remove(repository.getId());
+  }
+
+  /**
+   * Returns the number of repositories with a pending or a running update.
+   */
+  public synchronized int getPendingUpdates() {
+    int count = 0;
+    for (State state : states.values()) {
+      if (state.pending || state.inFlight) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private void submit(Repository repository, State state, long now) {
+    state.pending = false;
+    state.inFlight = true;
+    state.inFlightSince = now;
+    state.lastSubmit = now;
+    state.generation = ++generations;
+    IndexerTask task = new IndexerTask(repository, state.generation, state.reconcile);
+    state.reconcile = false;
+    searchEngine.forType(FileContent.class)
+      .forResource(repository)
+      .update(task);
+  }
+
+  public void shutdown() {
+    scheduler.shutdownNow();
+  }
+
+  private static class State {
+    private boolean inFlight;
+    private boolean pending;
+    private boolean reconcile;
+    private long timerAt = NO_TIMER;
+    private long generation;
+    private long inFlightSince;
+    private long lastSubmit = Long.MIN_VALUE / 2;
+  }
+
+}
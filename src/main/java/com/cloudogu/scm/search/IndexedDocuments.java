@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.scm.search;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.repository.Repository;
+import sonia.scm.search.Hit;
+import sonia.scm.search.QueryResult;
+import sonia.scm.search.SearchEngine;
+
+import jakarta.inject.Inject;
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Finds documents which have already been written to the index, by the blob id of their file. It is used to take over
+ * the content of renamed or copied files, without extracting their blob again. Only committed documents are found,
+ * documents which have been written by the running task are not visible yet.
+ */
+@SuppressWarnings("UnstableApiUsage")
+public class IndexedDocuments {
+
+  private static final Logger LOG = LoggerFactory.getLogger(IndexedDocuments.class);
+
+  /**
+   * Number of documents of the same blob which are checked for the file name, the blob may be indexed for other names.
+   */
+  private static final int MAX_HITS = 16;
+
+  private final SearchEngine searchEngine;
+
+  @Inject
+  public IndexedDocuments(SearchEngine searchEngine) {
+    this.searchEngine = searchEngine;
+  }
+
+  /**
+   * Returns an indexed document of the repository with the given blob id and the file name of the given path. Failed
+   * searches are logged and treated as no match, because the blob can always be extracted again.
+   */
+  Optional<FileContent> find(Repository repository, String blobId, String path) {
+    String filename = FileContent.fileName(path);
+    try {
+      QueryResult result = searchEngine.forType(FileContent.class)
+        .search()
+        .filter(Repository.class, repository.getId())
+        .limit(MAX_HITS)
+        .execute("blobId:\"" + blobId + "\"");
+      for (Hit hit : result.getHits()) {
+        Map<String, Hit.Field> fields = hit.getFields();
+        String indexedPath = string(fields, "path");
+        boolean sameFile = indexedPath != null && filename.equals(FileContent.fileName(indexedPath));
+        if (sameFile && blobId.equals(string(fields, "blobId"))) {
+          return Optional.of(document(fields, indexedPath, blobId));
+        }
+      }
+    } catch (RuntimeException e) {
+      LOG.warn("failed to search indexed document of blob {} in repository {}", blobId, repository, e);
+    }
+    return Optional.empty();
+  }
+
+  private FileContent document(Map<String, Hit.Field> fields, String path, String blobId) {
+    FileContent fileContent = new FileContent(
+      string(fields, "revision"),
+      path,
+      string(fields, "contentType"),
+      bool(fields, "binary"),
+      string(fields, "codingLanguage"),
+      string(fields, "content")
+    );
+    fileContent.setBlobId(blobId);
+    fileContent.setGenerated(bool(fields, "generated"));
+    return fileContent;
+  }
+
+  @Nullable
+  private static String string(Map<String, Hit.Field> fields, String name) {
+    Object value = value(fields, name);
+    return value != null ? value.toString() : null;
+  }
+
+  private static boolean bool(Map<String, Hit.Field> fields, String name) {
+    Object value = value(fields, name);
+    return Boolean.TRUE.equals(value) || "true".equals(value);
+  }
+
+  /**
+   * The content is never highlighted, because the query only matches the blob id.
+   */
+  @Nullable
+  private static Object value(Map<String, Hit.Field> fields, String name) {
+    Hit.Field field = fields.get(name);
+    if (field instanceof Hit.ValueField) {
+      return ((Hit.ValueField) field).getValue();
+    }
+    return null;
+  }
+}
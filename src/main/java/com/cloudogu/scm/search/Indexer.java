@@ -25,8 +25,19 @@ import sonia.scm.search.Id;
 import sonia.scm.search.Index;
 
 import jakarta.inject.Inject;
+import javax.annotation.Nullable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 @SuppressWarnings("UnstableApiUsage")
 class Indexer {
@@ -34,28 +45,316 @@ class Indexer {
   private static final Logger LOG = LoggerFactory.getLogger(Indexer.class);
 
   private final FileContentFactory fileContentFactory;
+  private final BulkContentReaderFactory readerFactory;
+  private final ContentExtractionPool extractionPool;
+  private final ContentSearchConfigStore configStore;
+  private final IndexMetrics metrics;
+  private final IndexedDocuments indexedDocuments;
   private final Index<FileContent> index;
   private final RepositoryService repositoryService;
   private final Repository repository;
+  private final SkippedBlobReport skippedBlobs = new SkippedBlobReport();
 
   @Inject
-  Indexer(FileContentFactory fileContentFactory, Index<FileContent> index, RepositoryService repositoryService) {
+  Indexer(FileContentFactory fileContentFactory,
+          BulkContentReaderFactory readerFactory,
+          ContentExtractionPool extractionPool,
+          ContentSearchConfigStore configStore,
+          IndexMetrics metrics,
+          IndexedDocuments indexedDocuments,
+          Index<FileContent> index,
+          RepositoryService repositoryService) {
     this.fileContentFactory = fileContentFactory;
+    this.readerFactory = readerFactory;
+    this.extractionPool = extractionPool;
+    this.configStore = configStore;
+    this.metrics = metrics;
+    this.indexedDocuments = indexedDocuments;
     this.index = index;
     this.repositoryService = repositoryService;
     this.repository = repositoryService.getRepository();
   }
 
   void store(String revision, Collection<String> paths) throws IOException {
+    store(revision, paths, new IndexSnapshot(getFingerprint()));
+  }
+
+  /**
+   * Stores the given paths of the revision. Files whose change token is already recorded for the path in the snapshot
+   * are skipped, the change tokens of the stored files are recorded in the snapshot.
+   */
+  void store(String revision, Collection<String> paths, IndexSnapshot snapshot) throws IOException {
+    store(revision, paths, Collections.emptySet(), snapshot, true);
+  }
+
+  /**
+   * Stores the given paths of the revision, which are known to be modified, e.g. the changes of a push. Only blob ids
+   * are compared with the snapshot and recorded, because the change tokens of files without blob id may need further
+   * commands of the repository, which do not pay off for modified files.
+   * <p>
+   * The moved paths, which have been renamed or copied, take over the indexed document of the same blob and file name
+   * instead of extracting the blob again, if the snapshot records the blob id for the path of that document. So the
+   * snapshot must still contain the old paths of renamed files.
+   */
+  void storeModified(String revision,
+                     Collection<String> paths,
+                     Collection<String> movedPaths,
+                     IndexSnapshot snapshot) throws IOException {
+    store(revision, paths, movedPaths, snapshot, false);
+  }
+
+  private void store(String revision,
+                     Collection<String> paths,
+                     Collection<String> movedPaths,
+                     IndexSnapshot snapshot,
+                     boolean changeTokens) throws IOException {
     if (paths.isEmpty()) {
       return;
     }
 
-    for (String path : paths) {
-      LOG.trace("store {} to index", path);
-      FileContent fileContent = fileContentFactory.create(repositoryService, revision, path);
-      index.store(id(path), permission(), fileContent);
+    long maxContentSize = configStore.getMaxContentSize(repository);
+    try (BulkContentReader reader = readerFactory.create(repositoryService)) {
+      boolean parallel = reader.isConcurrent() && extractionPool.isParallel();
+      new Batch(revision, maxContentSize, parallel, snapshot, movedPaths, changeTokens).store(reader, paths);
+    }
+  }
+
+  /**
+   * Returns a fingerprint of the settings which have an impact on the stored documents. Blob ids recorded with a
+   * different fingerprint must not be used to skip files.
+   */
+  String getFingerprint() {
+    return FileContent.VERSION + ";" + configStore.getMaxContentSize(repository) + ";" + fileContentFactory.getFingerprint();
+  }
+
+  /**
+   * Extracts and writes the files of a single {@link #store(String, Collection, IndexSnapshot)} call. In parallel mode
+   * the contents are extracted on the {@link ContentExtractionPool} and written from the calling thread in the order of
+   * the reader, at most {@link ContentExtractionPool#getQueueSize()} extracted files are waiting for the writer. Each of
+   * them holds a reservation of the memory budget of the pool, which is shared with all other batches.
+   * <p>
+   * Documents which have recently been written are reused for files with the same blob and file name, e.g. when a
+   * directory has been moved or copied, so that the blob is not extracted again. Moved files may also reuse documents
+   * which have been written by earlier tasks, those are looked up in the index.
+   */
+  private class Batch {
+
+    private final String revision;
+    private final long maxContentSize;
+    private final boolean parallel;
+    private final IndexSnapshot snapshot;
+    private final Collection<String> movedPaths;
+    private final boolean changeTokens;
+
+    private final Deque<Extraction> queue = new ArrayDeque<>();
+    private final RecentDocuments recentDocuments = new RecentDocuments();
+
+    private Batch(String revision,
+                  long maxContentSize,
+                  boolean parallel,
+                  IndexSnapshot snapshot,
+                  Collection<String> movedPaths,
+                  boolean changeTokens) {
+      this.revision = revision;
+      this.maxContentSize = maxContentSize;
+      this.parallel = parallel;
+      this.snapshot = snapshot;
+      this.movedPaths = movedPaths;
+      this.changeTokens = changeTokens;
+    }
+
+    void store(BulkContentReader reader, Collection<String> paths) throws IOException {
+      int queueSize = parallel ? extractionPool.getQueueSize() : 0;
+      try {
+        reader.read(revision, paths, file -> {
+          String changeToken = (changeTokens ? file.getChangeToken() : file.getBlobId()).orElse(null);
+          if (!isUnchanged(file, changeToken)) {
+            queue.addLast(extract(file, changeToken));
+            while (queue.size() > queueSize) {
+              write(queue.removeFirst());
+            }
+          }
+        });
+        while (!queue.isEmpty()) {
+          write(queue.removeFirst());
+        }
+      } finally {
+        queue.forEach(extraction -> {
+          extraction.content.cancel(true);
+          extractionPool.release(extraction.reserved);
+        });
+      }
+    }
+
+    private boolean isUnchanged(RepositoryFile file, @Nullable String changeToken) {
+      if (changeToken != null && snapshot.isUnchanged(file.getPath(), changeToken)) {
+        LOG.trace("skip {}, content is already indexed", file.getPath());
+        metrics.file(IndexMetrics.FileResult.UNCHANGED);
+        return true;
+      }
+      return false;
+    }
+
+    private Extraction extract(RepositoryFile file, @Nullable String changeToken) throws IOException {
+      Optional<FileContent> written = file.getBlobId().flatMap(blobId -> findWritten(blobId, file.getPath()));
+      if (written.isPresent()) {
+        LOG.trace("reuse content of {} for {}", written.get().getPath(), file.getPath());
+        metrics.file(IndexMetrics.FileResult.REUSED);
+        return new Extraction(CompletableFuture.completedFuture(written.get().moveTo(revision, file.getPath())), changeToken, 0);
+      }
+      if (parallel) {
+        int reserved = reserve(file);
+        try {
+          return new Extraction(extractionPool.submit(() -> create(file)), changeToken, reserved);
+        } catch (RuntimeException e) {
+          extractionPool.release(reserved);
+          throw e;
+        }
+      }
+      return new Extraction(CompletableFuture.completedFuture(create(file)), changeToken, 0);
+    }
+
+    /**
+     * Finds a written document of the same blob and file name. Documents of earlier tasks are only looked up for moved
+     * files, and only taken over if the snapshot records the blob for their path. Otherwise they may have been written
+     * with other settings or with skipped content.
+     */
+    private Optional<FileContent> findWritten(String blobId, String path) {
+      Optional<FileContent> recent = recentDocuments.find(blobId, path);
+      if (recent.isPresent() || !movedPaths.contains(path)) {
+        return recent;
+      }
+      return indexedDocuments.find(repository, blobId, path)
+        .filter(indexed -> blobId.equals(snapshot.getBlobId(indexed.getPath())));
+    }
+
+    /**
+     * Reserves the memory of the file from the budget of the pool. If the budget is exhausted, the extracted files of
+     * this batch are written first, because they free their reservations. Only a batch without reservations waits for
+     * the others.
+     */
+    private int reserve(RepositoryFile file) throws IOException {
+      long bytes = Math.min(file.getSize().orElse(maxContentSize), maxContentSize);
+      int reserved = extractionPool.tryReserve(bytes);
+      while (reserved < 0 && !queue.isEmpty()) {
+        write(queue.removeFirst());
+        reserved = extractionPool.tryReserve(bytes);
+      }
+      if (reserved < 0) {
+        reserved = extractionPool.reserve(bytes);
+      }
+      return reserved;
+    }
+
+    private FileContent create(RepositoryFile file) throws IOException {
+      FileContent fileContent = metrics.time(
+        IndexMetrics.Stage.EXTRACT,
+        () -> fileContentFactory.create(revision, metrics.counting(file), maxContentSize, skippedBlobs)
+      );
+      metrics.extracted(fileContent);
+      return fileContent;
+    }
+
+    private void write(Extraction extraction) throws IOException {
+      try {
+        write(await(extraction.content), extraction.changeToken);
+      } finally {
+        extractionPool.release(extraction.reserved);
+      }
+    }
+
+    private void write(FileContent fileContent, @Nullable String changeToken) throws IOException {
+      LOG.trace("store {} to index", fileContent.getPath());
+      metrics.time(IndexMetrics.Stage.STORE, () -> {
+        index.store(id(fileContent.getPath()), permission(), fileContent);
+        return null;
+      });
+      if (skippedBlobs.isRetryable(fileContent.getPath())) {
+        // without blob id the file is extracted again, when the index is reconciled with the tree
+        snapshot.put(fileContent.getPath(), null);
+      } else {
+        snapshot.put(fileContent.getPath(), changeToken);
+        recentDocuments.add(fileContent);
+      }
+    }
+  }
+
+  /**
+   * Content of a file which is extracted in the background, along with the change token to record in the snapshot
+   * once the content has been written and the memory reserved for the extraction.
+   */
+  private static class Extraction {
+
+    private final Future<FileContent> content;
+    @Nullable
+    private final String changeToken;
+    private final int reserved;
+
+    private Extraction(Future<FileContent> content, @Nullable String changeToken, int reserved) {
+      this.content = content;
+      this.changeToken = changeToken;
+      this.reserved = reserved;
+    }
+  }
+
+  /**
+   * Small cache of written documents by blob id. Only documents with a small content are kept, to bound the memory
+   * of a batch.
+   */
+  private static class RecentDocuments extends LinkedHashMap<String, FileContent> {
+
+    private static final int MAX_DOCUMENTS = 256;
+    private static final int MAX_CONTENT_LENGTH = 64 * 1024;
+
+    private RecentDocuments() {
+      super(16, 0.75f, true);
+    }
+
+    void add(FileContent fileContent) {
+      String blobId = fileContent.getBlobId();
+      String content = fileContent.getContent();
+      if (blobId != null && (content == null || content.length() <= MAX_CONTENT_LENGTH)) {
+        put(blobId, fileContent);
+      }
     }
+
+    Optional<FileContent> find(String blobId, String path) {
+      FileContent fileContent = get(blobId);
+      if (fileContent != null && fileContent.getFilename().equals(FileContent.fileName(path))) {
+        return Optional.of(fileContent);
+      }
+      return Optional.empty();
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, FileContent> eldest) {
+      return size() > MAX_DOCUMENTS;
+    }
+  }
+
+  private FileContent await(Future<FileContent> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for content extraction");
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof IOException ioException) {
+        throw ioException;
+      } else if (cause instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new IOException("failed to extract content", cause);
+    }
+  }
+
+  /**
+   * Logs and counts the binary files of this run whose content has been skipped by the resolvers.
+   */
+  void reportSkippedBlobs() {
+    metrics.skipped(skippedBlobs);
+    skippedBlobs.log(repository);
   }
 
   void delete(Collection<String> paths) {
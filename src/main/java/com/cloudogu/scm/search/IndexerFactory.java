@@ -25,14 +25,29 @@ import jakarta.inject.Inject;
 public class IndexerFactory {
 
   private final FileContentFactory contentFactory;
+  private final BulkContentReaderFactory readerFactory;
+  private final ContentExtractionPool extractionPool;
+  private final ContentSearchConfigStore configStore;
+  private final IndexMetrics metrics;
+  private final IndexedDocuments indexedDocuments;
 
   @Inject
-  public IndexerFactory(FileContentFactory contentFactory) {
+  public IndexerFactory(FileContentFactory contentFactory,
+                        BulkContentReaderFactory readerFactory,
+                        ContentExtractionPool extractionPool,
+                        ContentSearchConfigStore configStore,
+                        IndexMetrics metrics,
+                        IndexedDocuments indexedDocuments) {
     this.contentFactory = contentFactory;
+    this.readerFactory = readerFactory;
+    this.extractionPool = extractionPool;
+    this.configStore = configStore;
+    this.metrics = metrics;
+    this.indexedDocuments = indexedDocuments;
   }
 
   public Indexer create(Index<FileContent> index, RepositoryService repositoryService) {
-    return new Indexer(contentFactory, index, repositoryService);
+    return new Indexer(contentFactory, readerFactory, extractionPool, configStore, metrics, indexedDocuments, index, repositoryService);
   }
 
 }
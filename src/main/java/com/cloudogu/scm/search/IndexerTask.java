@@ -17,21 +17,49 @@
 package com.cloudogu.scm.search;
 
 import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import sonia.scm.repository.Repository;
 import sonia.scm.search.Index;
 import sonia.scm.search.SerializableIndexTask;
 
 import jakarta.inject.Inject;
+import java.io.IOException;
+import java.time.Instant;
 
 @SuppressWarnings("UnstableApiUsage")
 public class IndexerTask implements SerializableIndexTask<FileContent> {
 
+  private static final Logger LOG = LoggerFactory.getLogger(IndexerTask.class);
+
   private final Repository repository;
+  private final long generation;
+  private final boolean reconcile;
+
+  private transient PendingIndexState pendingState;
+  private transient IndexSyncer.Result result;
+  private transient Instant start;
 
   private IndexSyncer syncer;
+  private DirtyRepositoryJournal journal;
+  private IndexUpdateCoalescer coalescer;
+  private IndexMetrics metrics;
 
-  public IndexerTask(Repository repository) {
+  /**
+   * @param generation generation of the update in the {@link IndexUpdateCoalescer}, which has submitted the task
+   */
+  public IndexerTask(Repository repository, long generation) {
+    this(repository, generation, false);
+  }
+
+  /**
+   * @param generation generation of the update in the {@link IndexUpdateCoalescer}, which has submitted the task
+   * @param reconcile  {@code true} if the re-index of the repository has to start over
+   */
+  public IndexerTask(Repository repository, long generation, boolean reconcile) {
     this.repository = repository;
+    this.generation = generation;
+    this.reconcile = reconcile;
   }
 
   @Inject
@@ -39,13 +67,65 @@ public class IndexerTask implements SerializableIndexTask<FileContent> {
     this.syncer = syncer;
   }
 
+  @Inject
+  public void setJournal(DirtyRepositoryJournal journal) {
+    this.journal = journal;
+  }
+
+  @Inject
+  public void setCoalescer(IndexUpdateCoalescer coalescer) {
+    this.coalescer = coalescer;
+  }
+
+  @Inject
+  public void setMetrics(IndexMetrics metrics) {
+    this.metrics = metrics;
+  }
+
   @VisibleForTesting
   Repository getRepository() {
     return repository;
   }
 
+  @VisibleForTesting
+  boolean isReconcile() {
+    return reconcile;
+  }
+
   @Override
   public void update(Index<FileContent> index) {
-    syncer.ensureIndexIsUpToDate(index, repository);
+    coalescer.started(repository, generation);
+    start = Instant.now();
+    pendingState = new PendingIndexState();
+    try {
+      result = reconcile
+        ? syncer.reconcile(index, repository, pendingState)
+        : syncer.ensureIndexIsUpToDate(index, repository, pendingState);
+    } finally {
+      coalescer.finished(repository, generation);
+    }
+  }
+
+  /**
+   * Stores the status and the snapshot of the index, after the documents written by {@link #update(Index)} have been
+   * committed.
+   */
+  @Override
+  public void afterUpdate() {
+    if (result == null || result == IndexSyncer.Result.FAILED) {
+      return;
+    }
+    try {
+      pendingState.commit();
+    } catch (IOException e) {
+      LOG.error("failed to store index status of repository {}, the update will be repeated", repository, e);
+      return;
+    }
+    if (result == IndexSyncer.Result.UP_TO_DATE) {
+      journal.clear(repository, start);
+      metrics.indexed(repository, start);
+    } else if (result == IndexSyncer.Result.INCOMPLETE) {
+      coalescer.request(repository);
+    }
   }
 }
@@ -16,6 +16,7 @@
 
 package com.cloudogu.scm.search;
 
+import sonia.scm.repository.Feature;
 import sonia.scm.repository.Repository;
 import sonia.scm.repository.api.RepositoryService;
 
@@ -23,11 +24,31 @@ class IndexingContext {
 
   private final RepositoryService repositoryService;
   private final IndexStatusStore indexStatusStore;
+  private final IndexSnapshotStore indexSnapshotStore;
+  private final DefaultBranchCache defaultBranchCache;
+  private final HeadRevisionCache headRevisionCache;
+  private final ContentSearchConfigStore configStore;
+  private final BulkContentReaderFactory readerFactory;
+  private final IndexMetrics metrics;
   private final Indexer indexer;
 
-  IndexingContext(RepositoryService repositoryService, IndexStatusStore indexStatusStore, Indexer indexer) {
+  IndexingContext(RepositoryService repositoryService,
+                  IndexStatusStore indexStatusStore,
+                  IndexSnapshotStore indexSnapshotStore,
+                  DefaultBranchCache defaultBranchCache,
+                  HeadRevisionCache headRevisionCache,
+                  ContentSearchConfigStore configStore,
+                  BulkContentReaderFactory readerFactory,
+                  IndexMetrics metrics,
+                  Indexer indexer) {
     this.repositoryService = repositoryService;
     this.indexStatusStore = indexStatusStore;
+    this.indexSnapshotStore = indexSnapshotStore;
+    this.defaultBranchCache = defaultBranchCache;
+    this.headRevisionCache = headRevisionCache;
+    this.configStore = configStore;
+    this.readerFactory = readerFactory;
+    this.metrics = metrics;
     this.indexer = indexer;
   }
 
@@ -39,20 +60,44 @@ class IndexingContext {
     return indexer;
   }
 
+  public IndexMetrics getMetrics() {
+    return metrics;
+  }
+
   public IndexStatusStore getIndexStatusStore() {
     return indexStatusStore;
   }
 
+  public IndexSnapshotStore getIndexSnapshotStore() {
+    return indexSnapshotStore;
+  }
+
+  public boolean isModificationsSupported() {
+    return repositoryService.isSupported(Feature.MODIFICATIONS_BETWEEN_REVISIONS);
+  }
+
   public UpdatePathCollector getUpdatePathCollector() {
-    return new UpdatePathCollector(repositoryService);
+    return new UpdatePathCollector(repositoryService, getPathExclusionResolver());
   }
 
   public RevisionPathCollector getRevisionPathCollector() {
-    return new RevisionPathCollector(repositoryService);
+    return new RevisionPathCollector(repositoryService, readerFactory, getPathExclusionResolver());
+  }
+
+  public PathExclusionResolver getPathExclusionResolver() {
+    return new RepositoryPathExclusionResolver(repositoryService, configStore);
+  }
+
+  public RevisionDistanceEstimator getRevisionDistanceEstimator() {
+    return new RevisionDistanceEstimator(repositoryService);
   }
 
   public LatestRevisionResolver getLatestRevisionResolver() {
-    return new LatestRevisionResolver(repositoryService, new DefaultBranchResolver(repositoryService));
+    return new LatestRevisionResolver(
+      repositoryService,
+      new DefaultBranchResolver(repositoryService, defaultBranchCache),
+      headRevisionCache
+    );
   }
 
 }
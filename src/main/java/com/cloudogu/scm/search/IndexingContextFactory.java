@@ -23,14 +23,35 @@ import jakarta.inject.Inject;
 public class IndexingContextFactory {
 
   private final IndexStatusStore indexStatusStore;
+  private final IndexSnapshotStore indexSnapshotStore;
+  private final DefaultBranchCache defaultBranchCache;
+  private final HeadRevisionCache headRevisionCache;
+  private final ContentSearchConfigStore configStore;
+  private final BulkContentReaderFactory readerFactory;
+  private final IndexMetrics metrics;
 
   @Inject
-  public IndexingContextFactory(IndexStatusStore indexStatusStore) {
+  public IndexingContextFactory(IndexStatusStore indexStatusStore,
+                                IndexSnapshotStore indexSnapshotStore,
+                                DefaultBranchCache defaultBranchCache,
+                                HeadRevisionCache headRevisionCache,
+                                ContentSearchConfigStore configStore,
+                                BulkContentReaderFactory readerFactory,
+                                IndexMetrics metrics) {
     this.indexStatusStore = indexStatusStore;
+    this.indexSnapshotStore = indexSnapshotStore;
+    this.defaultBranchCache = defaultBranchCache;
+    this.headRevisionCache = headRevisionCache;
+    this.configStore = configStore;
+    this.readerFactory = readerFactory;
+    this.metrics = metrics;
   }
 
   public IndexingContext create(RepositoryService repositoryService, Indexer indexer) {
-    return new IndexingContext(repositoryService, indexStatusStore, indexer);
+    return new IndexingContext(
+      repositoryService, indexStatusStore, indexSnapshotStore, defaultBranchCache, headRevisionCache, configStore,
+      readerFactory, metrics, indexer
+    );
   }
 
 }
@@ -17,6 +17,7 @@
 package com.cloudogu.scm.search;
 
 import sonia.scm.repository.Changeset;
+import sonia.scm.repository.Repository;
 import sonia.scm.repository.api.LogCommandBuilder;
 import sonia.scm.repository.api.RepositoryService;
 
@@ -28,13 +29,30 @@ public class LatestRevisionResolver {
 
   private final RepositoryService repositoryService;
   private final DefaultBranchResolver defaultBranchResolver;
+  private final HeadRevisionCache headRevisionCache;
 
-  public LatestRevisionResolver(RepositoryService repositoryService, DefaultBranchResolver defaultBranchResolver) {
+  public LatestRevisionResolver(RepositoryService repositoryService,
+                                DefaultBranchResolver defaultBranchResolver,
+                                HeadRevisionCache headRevisionCache) {
     this.repositoryService = repositoryService;
     this.defaultBranchResolver = defaultBranchResolver;
+    this.headRevisionCache = headRevisionCache;
   }
 
   public Optional<String> resolve() throws IOException {
+    Repository repository = repositoryService.getRepository();
+    Optional<String> cachedRevision = headRevisionCache.get(repository);
+    if (cachedRevision.isPresent()) {
+      return cachedRevision;
+    }
+
+    long generation = headRevisionCache.generation(repository);
+    Optional<String> revision = resolveFromRepository();
+    revision.ifPresent(r -> headRevisionCache.put(repository, generation, r));
+    return revision;
+  }
+
+  private Optional<String> resolveFromRepository() throws IOException {
     DefaultBranchResolver.Result result = defaultBranchResolver.resolve();
     if (result.isEmpty()) {
       return Optional.empty();
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Glob based rules for files which should not be indexed, in the syntax of a {@code .gitignore} file:
+ * <ul>
+ *   <li>blank lines and lines starting with {@code #} are ignored</li>
+ *   <li>{@code *} matches anything except {@code /}, {@code ?} matches a single character except {@code /} and
+ *   {@code **} matches any number of directories</li>
+ *   <li>a pattern without a slash matches the name of a file or directory at any level, e.g. {@code node_modules} or
+ *   {@code *.min.js}, a pattern with a slash is relative to the root of the repository, e.g. {@code /vendor} or
+ *   {@code src/generated/}</li>
+ *   <li>a pattern which matches a directory excludes all files below it</li>
+ *   <li>a pattern starting with {@code !} includes files again, which were excluded by a previous pattern</li>
+ * </ul>
+ * The last matching pattern wins.
+ */
+public final class PathExclusions {
+
+  public static final PathExclusions NONE = new PathExclusions(Collections.emptyList());
+
+  private final List<Rule> rules;
+
+  private PathExclusions(List<Rule> rules) {
+    this.rules = rules;
+  }
+
+  /**
+   * Parses the rules of all sources, rules of later sources take precedence over rules of earlier sources.
+   */
+  public static PathExclusions parse(String... sources) {
+    List<Rule> rules = new ArrayList<>();
+    for (String source : sources) {
+      if (source != null) {
+        source.lines().map(PathExclusions::rule).forEach(rule -> {
+          if (rule != null) {
+            rules.add(rule);
+          }
+        });
+      }
+    }
+    return rules.isEmpty() ? NONE : new PathExclusions(rules);
+  }
+
+  public boolean isEmpty() {
+    return rules.isEmpty();
+  }
+
+  public boolean isExcluded(String path) {
+    boolean excluded = false;
+    for (Rule rule : rules) {
+      if (rule.negated == excluded && rule.pattern.matcher(path).matches()) {
+        excluded = !rule.negated;
+      }
+    }
+    return excluded;
+  }
+
+  private static Rule rule(String line) {
+    String pattern = line.strip();
+    if (pattern.isEmpty() || pattern.startsWith("#")) {
+      return null;
+    }
+
+    boolean negated = pattern.startsWith("!");
+    if (negated) {
+      pattern = pattern.substring(1);
+    }
+
+    boolean directory = pattern.endsWith("/");
+    if (directory) {
+      pattern = pattern.substring(0, pattern.length() - 1);
+    }
+
+    boolean anchored = pattern.contains("/");
+    if (pattern.startsWith("/")) {
+      pattern = pattern.substring(1);
+    }
+    if (pattern.isEmpty()) {
+      return null;
+    }
+
+    StringBuilder regex = new StringBuilder();
+    if (!anchored) {
+      regex.append("(?:.*/)?");
+    }
+    appendGlob(regex, pattern);
+    // a directory pattern matches only the files below, other patterns match the file itself as well
+    regex.append(directory ? "/.*" : "(?:/.*)?");
+    return new Rule(Pattern.compile(regex.toString()), negated);
+  }
+
+  private static void appendGlob(StringBuilder regex, String glob) {
+    int i = 0;
+    while (i < glob.length()) {
+      char c = glob.charAt(i);
+      if (glob.startsWith("**/", i)) {
+        regex.append("(?:.*/)?");
+        i += 3;
+      } else if (glob.startsWith("**", i)) {
+        regex.append(".*");
+        i += 2;
+      } else if (c == '*') {
+        regex.append("[^/]*");
+        i++;
+      } else if (c == '?') {
+        regex.append("[^/]");
+        i++;
+      } else if (c == '[' && glob.indexOf(']', i + 1) > i + 1) {
+        int end = glob.indexOf(']', i + 1);
+        String characters = glob.substring(i + 1, end);
+        regex.append('[');
+        if (characters.startsWith("!")) {
+          regex.append('^');
+          characters = characters.substring(1);
+        }
+        regex.append(characters.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+        i = end + 1;
+      } else {
+        regex.append(Pattern.quote(String.valueOf(c)));
+        i++;
+      }
+    }
+  }
+
+  private static class Rule {
+
+    private final Pattern pattern;
+    private final boolean negated;
+
+    private Rule(Pattern pattern, boolean negated) {
+      this.pattern = pattern;
+      this.negated = negated;
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import javax.annotation.Nullable;
+import java.util.Comparator;
+
+/**
+ * Order in which the files of a revision are walked. Paths are compared by their unicode code points, which is the
+ * same as comparing their UTF-8 bytes and the order of a depth first walk over a git tree. A cursor in this order
+ * allows a walk to continue after the last visited path, without visiting the paths before it again.
+ */
+final class PathOrder {
+
+  static final Comparator<String> COMPARATOR = PathOrder::compare;
+
+  private PathOrder() {
+  }
+
+  static int compare(String left, String right) {
+    int leftIndex = 0;
+    int rightIndex = 0;
+    while (leftIndex < left.length() && rightIndex < right.length()) {
+      int leftCodePoint = left.codePointAt(leftIndex);
+      int rightCodePoint = right.codePointAt(rightIndex);
+      if (leftCodePoint != rightCodePoint) {
+        return Integer.compare(leftCodePoint, rightCodePoint);
+      }
+      leftIndex += Character.charCount(leftCodePoint);
+      rightIndex += Character.charCount(rightCodePoint);
+    }
+    return Integer.compare(left.length() - leftIndex, right.length() - rightIndex);
+  }
+
+  /**
+   * Returns {@code true} if the path comes after the cursor. Every path comes after a cursor of {@code null}.
+   */
+  static boolean isAfter(String path, @Nullable String cursor) {
+    return cursor == null || compare(path, cursor) > 0;
+  }
+
+  /**
+   * Returns {@code true} if the directory may contain a path after the cursor, which is the case if the cursor lies
+   * within the directory or before it.
+   */
+  static boolean mayContainPathAfter(String directory, @Nullable String cursor) {
+    if (cursor == null || directory.isEmpty()) {
+      return true;
+    }
+    String prefix = directory + "/";
+    return cursor.startsWith(prefix) || compare(prefix, cursor) > 0;
+  }
+}
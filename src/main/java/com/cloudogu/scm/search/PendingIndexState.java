@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Changes of the {@link IndexStatusStore} and the {@link IndexSnapshotStore} of a single index task. The changes
+ * describe the documents written by the task, so they must not be stored before the task has committed the index.
+ * The task commits them in {@link sonia.scm.search.IndexTask#afterUpdate()}, if the index could not be committed the
+ * stores still describe the committed index and the next run repeats the work.
+ */
+class PendingIndexState {
+
+  private final List<Change> changes = new ArrayList<>();
+
+  void add(Change change) {
+    changes.add(change);
+  }
+
+  boolean isEmpty() {
+    return changes.isEmpty();
+  }
+
+  /**
+   * Stores all changes in the order in which they have been added.
+   */
+  void commit() throws IOException {
+    for (Change change : changes) {
+      change.apply();
+    }
+    changes.clear();
+  }
+
+  @FunctionalInterface
+  interface Change {
+    void apply() throws IOException;
+  }
+}
@@ -17,18 +17,31 @@
 package com.cloudogu.scm.search;
 
 import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import sonia.scm.repository.Repository;
 import sonia.scm.search.Index;
 import sonia.scm.search.SerializableIndexTask;
 
 import jakarta.inject.Inject;
+import java.io.IOException;
+import java.time.Instant;
 
 @SuppressWarnings("UnstableApiUsage")
 public class ReIndexTask implements SerializableIndexTask<FileContent> {
 
+  private static final Logger LOG = LoggerFactory.getLogger(ReIndexTask.class);
+
   private final Repository repository;
 
+  private transient PendingIndexState pendingState;
+  private transient IndexSyncer.Result result;
+  private transient Instant start;
+
   private IndexSyncer syncer;
+  private DirtyRepositoryJournal journal;
+  private IndexUpdateCoalescer coalescer;
+  private IndexMetrics metrics;
 
   public ReIndexTask(Repository repository) {
     this.repository = repository;
@@ -39,6 +52,21 @@ public class ReIndexTask implements SerializableIndexTask<FileContent> {
     this.syncer = syncer;
   }
 
+  @Inject
+  public void setJournal(DirtyRepositoryJournal journal) {
+    this.journal = journal;
+  }
+
+  @Inject
+  public void setCoalescer(IndexUpdateCoalescer coalescer) {
+    this.coalescer = coalescer;
+  }
+
+  @Inject
+  public void setMetrics(IndexMetrics metrics) {
+    this.metrics = metrics;
+  }
+
   @VisibleForTesting
   Repository getRepository() {
     return repository;
@@ -46,6 +74,31 @@ public class ReIndexTask implements SerializableIndexTask<FileContent> {
 
   @Override
   public void update(Index<FileContent> index) {
-    syncer.reindex(index, repository);
+    start = Instant.now();
+    pendingState = new PendingIndexState();
+    result = syncer.reindex(index, repository, pendingState);
+  }
+
+  /**
+   * Stores the status and the snapshot of the index, after the documents written by {@link #update(Index)} have been
+   * committed.
+   */
+  @Override
+  public void afterUpdate() {
+    if (result == null || result == IndexSyncer.Result.FAILED) {
+      return;
+    }
+    try {
+      pendingState.commit();
+    } catch (IOException e) {
+      LOG.error("failed to store index status of repository {}, the update will be repeated", repository, e);
+      return;
+    }
+    if (result == IndexSyncer.Result.UP_TO_DATE) {
+      journal.clear(repository, start);
+      metrics.indexed(repository, start);
+    } else if (result == IndexSyncer.Result.INCOMPLETE) {
+      coalescer.request(repository);
+    }
   }
 }
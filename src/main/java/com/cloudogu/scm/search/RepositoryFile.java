@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * A single file of a revision, which is provided by a {@link BulkContentReader}. The content is only read, if
+ * {@link #openStream()} is called.
+ */
+public interface RepositoryFile {
+
+  String getPath();
+
+  /**
+   * Returns the size of the file in bytes, if it can be determined without reading the content.
+   */
+  OptionalLong getSize() throws IOException;
+
+  /**
+   * Returns an id which changes whenever the content of the file changes, e.g. the object id of a git blob.
+   * Files with the same id have the same content, so that the extracted content can be reused for other paths.
+   */
+  default Optional<String> getBlobId() {
+    return Optional.empty();
+  }
+
+  /**
+   * Returns a token which changes whenever the content of the file changes. The token is recorded in the
+   * {@link IndexSnapshot}, files whose token has not changed are not extracted again. Readers without blob ids may
+   * derive it from the metadata of the file, files without a token are always extracted again.
+   */
+  default Optional<String> getChangeToken() {
+    return getBlobId();
+  }
+
+  InputStream openStream() throws IOException;
+
+}
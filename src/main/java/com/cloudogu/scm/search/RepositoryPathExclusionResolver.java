@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import com.google.common.io.ByteStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.NotFoundException;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.api.Command;
+import sonia.scm.repository.api.RepositoryService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Resolves the exclusions of a revision from the {@value #FILE_NAME} file at the root of the revision and from the
+ * configuration of the repository. The configured rules take precedence over the rules of the file.
+ */
+public class RepositoryPathExclusionResolver implements PathExclusionResolver {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RepositoryPathExclusionResolver.class);
+
+  static final String FILE_NAME = ".searchignore";
+
+  private static final int MAX_FILE_SIZE = 64 * 1024;
+
+  private final RepositoryService repositoryService;
+  private final ContentSearchConfigStore configStore;
+
+  public RepositoryPathExclusionResolver(RepositoryService repositoryService, ContentSearchConfigStore configStore) {
+    this.repositoryService = repositoryService;
+    this.configStore = configStore;
+  }
+
+  @Override
+  public PathExclusions resolve(String revision) throws IOException {
+    Repository repository = repositoryService.getRepository();
+    return PathExclusions.parse(readFile(revision), configStore.get(repository).getExcludes());
+  }
+
+  private String readFile(String revision) throws IOException {
+    if (!repositoryService.isSupported(Command.CAT)) {
+      return null;
+    }
+    try (InputStream stream = repositoryService.getCatCommand().setRevision(revision).getStream(FILE_NAME)) {
+      if (stream == null) {
+        return null;
+      }
+      byte[] content = ByteStreams.toByteArray(ByteStreams.limit(stream, MAX_FILE_SIZE));
+      return new String(content, StandardCharsets.UTF_8);
+    } catch (NotFoundException e) {
+      LOG.trace("no {} found in revision {} of repository {}", FILE_NAME, revision, repositoryService.getRepository());
+      return null;
+    }
+  }
+}
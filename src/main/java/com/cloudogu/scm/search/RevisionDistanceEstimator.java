@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.NotFoundException;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.api.RepositoryService;
+
+import java.io.IOException;
+
+/**
+ * Estimates how far the indexed revision is behind the latest revision, without computing the modifications between
+ * them. The estimate is the number of commits, which says nothing about the number of changed files of a single commit,
+ * but it is cheap to compute and catches long outages and rewritten histories.
+ */
+public class RevisionDistanceEstimator {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RevisionDistanceEstimator.class);
+
+  /**
+   * Distance of revisions which are not related at all, e.g. if the indexed revision has been removed by a force push.
+   * It is larger than every threshold, so the index is reconciled with the tree.
+   */
+  static final long UNRELATED = Long.MAX_VALUE;
+
+  private static final String SVN = "svn";
+
+  private final RepositoryService repositoryService;
+
+  public RevisionDistanceEstimator(RepositoryService repositoryService) {
+    this.repositoryService = repositoryService;
+  }
+
+  public long estimate(String from, String to) throws IOException {
+    Repository repository = repositoryService.getRepository();
+    if (SVN.equals(repository.getType())) {
+      // revisions of subversion are numbered, the log does not support ancestors
+      return Long.parseLong(to) - Long.parseLong(from);
+    }
+    try {
+      return repositoryService.getLogCommand()
+        .setStartChangeset(to)
+        .setAncestorChangeset(from)
+        .setPagingLimit(1)
+        .setDisablePreProcessors(true)
+        .setDisableCache(true)
+        .getChangesets()
+        .getTotal();
+    } catch (NotFoundException e) {
+      LOG.debug("revision {} or {} not found in repository {}, treat them as unrelated", from, to, repository);
+      return UNRELATED;
+    }
+  }
+}
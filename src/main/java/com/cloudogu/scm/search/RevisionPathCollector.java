@@ -16,23 +16,37 @@
 
 package com.cloudogu.scm.search;
 
-import sonia.scm.repository.BrowserResult;
-import sonia.scm.repository.FileObject;
 import sonia.scm.repository.api.RepositoryService;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.function.Consumer;
 
+/**
+ * Collects the paths of all files of a revision. The tree is walked with a single streaming walk of the
+ * {@link BulkContentReader}, so that the tree is never held in memory as a whole. A walk may start after the last
+ * path of a previous walk and stop early, which allows to process a large revision in chunks.
+ */
 public class RevisionPathCollector implements PathCollector {
 
-  private final Set<String> pathToStore = new HashSet<>();
+  private final Set<String> pathToStore = new CompactPathSet();
   private final RepositoryService repositoryService;
+  private final BulkContentReaderFactory readerFactory;
+  private final PathExclusionResolver exclusionResolver;
+
+  public RevisionPathCollector(RepositoryService repositoryService, BulkContentReaderFactory readerFactory) {
+    this(repositoryService, readerFactory, revision -> PathExclusions.NONE);
+  }
 
-  public RevisionPathCollector(RepositoryService repositoryService) {
+  public RevisionPathCollector(RepositoryService repositoryService,
+                               BulkContentReaderFactory readerFactory,
+                               PathExclusionResolver exclusionResolver) {
     this.repositoryService = repositoryService;
+    this.readerFactory = readerFactory;
+    this.exclusionResolver = exclusionResolver;
   }
 
   @Override
@@ -46,25 +60,34 @@ public class RevisionPathCollector implements PathCollector {
   }
 
   public void collect(String revision) throws IOException {
-    BrowserResult result = repositoryService.getBrowseCommand()
-      .setDisableSubRepositoryDetection(true)
-      .setDisableLastCommit(true)
-      .setDisablePreProcessors(true)
-      .setLimit(Integer.MAX_VALUE)
-      .setRecursive(true)
-      .setRevision(revision)
-      .getBrowserResult();
+    collect(revision, pathToStore::add);
+  }
 
-    collect(result.getFile());
+  /**
+   * Passes the path of every file of the revision to the consumer in {@link PathOrder}, without collecting them.
+   * Excluded files are skipped.
+   */
+  public void collect(String revision, Consumer<String> consumer) throws IOException {
+    walk(revision, null, path -> {
+      consumer.accept(path);
+      return true;
+    });
   }
 
-  private void collect(FileObject file) {
-    if (file.isDirectory()) {
-      for (FileObject child : file.getChildren()) {
-        collect(child);
+  /**
+   * Passes the paths of the files of the revision after the given cursor to the visitor in {@link PathOrder}, until
+   * the visitor returns {@code false}. Excluded files are skipped.
+   *
+   * @param after last path of a previous walk, or {@code null} to start with the first file
+   */
+  public void walk(String revision, @Nullable String after, BulkContentReader.PathVisitor visitor) throws IOException {
+    PathExclusions exclusions = exclusionResolver.resolve(revision);
+    try (BulkContentReader reader = readerFactory.create(repositoryService)) {
+      if (exclusions.isEmpty()) {
+        reader.walk(revision, after, visitor);
+      } else {
+        reader.walk(revision, after, path -> exclusions.isExcluded(path) || visitor.visit(path));
       }
-    } else {
-      pathToStore.add(file.getPath());
     }
   }
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.repository.Repository;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects the files whose content could not be extracted by a {@link BinaryFileContentResolver} during a single
+ * index run. Those files are indexed without content. The report is logged at the end of the run.
+ */
+class SkippedBlobReport {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SkippedBlobReport.class);
+
+  private static final int MAX_LOGGED_ENTRIES = 50;
+
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  void skipped(RepositoryFile file, String resolver, Reason reason) {
+    LOG.debug("skip content of {} with resolver {}: {}", file.getPath(), resolver, reason.description);
+    entries.put(file.getPath(), new Entry(file.getPath(), file.getBlobId().orElse(null), resolver, reason));
+  }
+
+  boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  Collection<Entry> getEntries() {
+    return new ArrayList<>(entries.values());
+  }
+
+  /**
+   * Returns {@code true} if the content of the file has been skipped for a temporary reason and should be extracted
+   * again by the next run which visits the file.
+   */
+  boolean isRetryable(String path) {
+    Entry entry = entries.get(path);
+    return entry != null && entry.getReason().retryable;
+  }
+
+  void log(Repository repository) {
+    if (entries.isEmpty()) {
+      return;
+    }
+    StringBuilder builder = new StringBuilder();
+    entries.values()
+      .stream()
+      .limit(MAX_LOGGED_ENTRIES)
+      .forEach(entry -> builder.append("\n  ").append(entry));
+    if (entries.size() > MAX_LOGGED_ENTRIES) {
+      builder.append("\n  ... and ").append(entries.size() - MAX_LOGGED_ENTRIES).append(" more");
+    }
+    LOG.warn("indexed {} binary files of repository {} without content:{}", entries.size(), repository, builder);
+  }
+
+  static class Entry {
+
+    private final String path;
+    @Nullable
+    private final String blobId;
+    private final String resolver;
+    private final Reason reason;
+
+    private Entry(String path, @Nullable String blobId, String resolver, Reason reason) {
+      this.path = path;
+      this.blobId = blobId;
+      this.resolver = resolver;
+      this.reason = reason;
+    }
+
+    String getPath() {
+      return path;
+    }
+
+    @Nullable
+    String getBlobId() {
+      return blobId;
+    }
+
+    String getResolver() {
+      return resolver;
+    }
+
+    Reason getReason() {
+      return reason;
+    }
+
+    @Override
+    public String toString() {
+      return path + (blobId != null ? " (" + blobId + ")" : "") + ": " + reason.description + " [" + resolver + "]";
+    }
+  }
+
+  enum Reason {
+    TOO_LARGE("too_large", "file exceeds the input limit of resolvers", false),
+    TIMEOUT("timeout", "resolver has timed out", false),
+    FAILED("failed", "resolver has failed", false),
+    DISABLED("disabled", "resolver is disabled after repeated failures", true),
+    BUSY("busy", "all resolver workers are busy", true);
+
+    private final String name;
+    private final String description;
+    private final boolean retryable;
+
+    Reason(String name, String description, boolean retryable) {
+      this.name = name;
+      this.description = description;
+      this.retryable = retryable;
+    }
+
+    String getName() {
+      return name;
+    }
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.repository.Repository;
+import sonia.scm.web.security.AdministrationContext;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Checks on startup which repositories require an index update. Repositories with pending changes from the
+ * {@link DirtyRepositoryJournal} and repositories with an outdated index status are checked in parallel on a bounded
+ * pool of workers. All other repositories are checked one by one by a slow background sweep, which catches changes
+ * that have not been recorded in the journal. Neither blocks the servlet container.
+ */
+@Singleton
+public class StartupIndexScheduler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StartupIndexScheduler.class);
+
+  static final String WORKERS_PROPERTY = "scm.contentSearch.startupWorkers";
+  static final String SWEEP_DELAY_PROPERTY = "scm.contentSearch.sweepDelay";
+
+  private static final int DEFAULT_WORKERS = 4;
+  private static final long DEFAULT_SWEEP_DELAY = 500L;
+  private static final int PROGRESS_STEPS = 10;
+
+  private final AdministrationContext administrationContext;
+  private final IndexUpToDateCheck upToDateCheck;
+  private final DirtyRepositoryJournal journal;
+  private final int workers;
+  private final long sweepDelay;
+
+  private ExecutorService executor;
+  private ScheduledExecutorService sweeper;
+
+  @Inject
+  public StartupIndexScheduler(AdministrationContext administrationContext,
+                               IndexUpToDateCheck upToDateCheck,
+                               DirtyRepositoryJournal journal) {
+    this(
+      administrationContext,
+      upToDateCheck,
+      journal,
+      Integer.getInteger(WORKERS_PROPERTY, DEFAULT_WORKERS),
+      Long.getLong(SWEEP_DELAY_PROPERTY, DEFAULT_SWEEP_DELAY)
+    );
+  }
+
+  @VisibleForTesting
+  StartupIndexScheduler(AdministrationContext administrationContext,
+                        IndexUpToDateCheck upToDateCheck,
+                        DirtyRepositoryJournal journal,
+                        int workers,
+                        long sweepDelay) {
+    this.administrationContext = administrationContext;
+    this.upToDateCheck = upToDateCheck;
+    this.journal = journal;
+    this.workers = Math.max(1, workers);
+    this.sweepDelay = Math.max(1L, sweepDelay);
+  }
+
+  public synchronized void schedule(Collection<Repository> repositories, Consumer<Repository> submitter) {
+    if (repositories.isEmpty()) {
+      return;
+    }
+    executor = Executors.newFixedThreadPool(workers, threadFactory("content-search-startup-%d"));
+    executor.execute(() -> plan(repositories, submitter));
+  }
+
+  private void plan(Collection<Repository> repositories, Consumer<Repository> submitter) {
+    List<Repository> pending = new ArrayList<>();
+    Queue<Repository> sweep = new ConcurrentLinkedQueue<>();
+    for (Repository repository : repositories) {
+      if (journal.contains(repository) || upToDateCheck.isStatusOutdated(repository)) {
+        pending.add(repository);
+      } else {
+        sweep.add(repository);
+      }
+    }
+
+    LOG.info(
+      "found {} repositories with pending index changes, {} repositories are checked in background",
+      pending.size(), sweep.size()
+    );
+
+    checkPending(pending, submitter);
+    if (!sweep.isEmpty()) {
+      startSweep(sweep, submitter);
+    }
+  }
+
+  private synchronized void checkPending(List<Repository> repositories, Consumer<Repository> submitter) {
+    Progress progress = new Progress("pending", repositories.size());
+    for (Repository repository : repositories) {
+      executor.execute(() -> check(repository, submitter, progress));
+    }
+    executor.shutdown();
+  }
+
+  private synchronized void startSweep(Queue<Repository> repositories, Consumer<Repository> submitter) {
+    ScheduledExecutorService scheduledExecutor = Executors.newSingleThreadScheduledExecutor(
+      threadFactory("content-search-sweep-%d")
+    );
+    sweeper = scheduledExecutor;
+
+    Progress progress = new Progress("remaining", repositories.size());
+    scheduledExecutor.scheduleWithFixedDelay(() -> {
+      Repository repository = repositories.poll();
+      if (repository != null) {
+        check(repository, submitter, progress);
+      } else {
+        scheduledExecutor.shutdown();
+      }
+    }, sweepDelay, sweepDelay, TimeUnit.MILLISECONDS);
+  }
+
+  private ThreadFactory threadFactory(String nameFormat) {
+    return new ThreadFactoryBuilder()
+      .setNameFormat(nameFormat)
+      .setDaemon(true)
+      .build();
+  }
+
+  private void check(Repository repository, Consumer<Repository> submitter, Progress progress) {
+    administrationContext.runAsAdmin(() -> {
+      boolean requiresUpdate = true;
+      try {
+        requiresUpdate = upToDateCheck.requiresUpdate(repository);
+      } catch (Exception ex) {
+        LOG.warn("failed to check index of repository {}, submit update to be sure", repository, ex);
+      }
+
+      if (requiresUpdate) {
+        LOG.debug("index of repository {} requires update", repository);
+        submitter.accept(repository);
+      } else {
+        LOG.debug("index of repository {} is up to date", repository);
+      }
+      progress.checked(requiresUpdate);
+    });
+  }
+
+  @VisibleForTesting
+  boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    ExecutorService startupExecutor;
+    synchronized (this) {
+      startupExecutor = executor;
+    }
+    if (startupExecutor != null && !startupExecutor.awaitTermination(timeout, unit)) {
+      return false;
+    }
+    ExecutorService sweepExecutor;
+    synchronized (this) {
+      sweepExecutor = sweeper;
+    }
+    return sweepExecutor == null || sweepExecutor.awaitTermination(timeout, unit);
+  }
+
+  public synchronized void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    if (sweeper != null) {
+      sweeper.shutdownNow();
+    }
+  }
+
+  private static class Progress {
+
+    private final Stopwatch stopwatch = Stopwatch.createStarted();
+    private final AtomicInteger checked = new AtomicInteger();
+    private final AtomicInteger outdated = new AtomicInteger();
+    private final String name;
+    private final int total;
+    private final int step;
+
+    private Progress(String name, int total) {
+      this.name = name;
+      this.total = total;
+      this.step = Math.max(1, total / PROGRESS_STEPS);
+    }
+
+    void checked(boolean requiresUpdate) {
+      int outdatedCount = requiresUpdate ? outdated.incrementAndGet() : outdated.get();
+      int count = checked.incrementAndGet();
+      if (count == total) {
+        LOG.info(
+          "finished index check of {} {} repositories in {}, {} require an update",
+          total, name, stopwatch.stop(), outdatedCount
+        );
+      } else if (count % step == 0) {
+        LOG.info("checked index of {} of {} {} repositories, {} require an update", count, total, name, outdatedCount);
+      }
+    }
+  }
+
+}
@@ -26,18 +26,31 @@ import sonia.scm.repository.api.RepositoryService;
 
 import java.io.IOException;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+/**
+ * Collects the paths which have changed between two revisions. Files which are excluded in the target revision are
+ * collected for deletion, because they may have been indexed before they were excluded.
+ */
 public class UpdatePathCollector implements PathCollector {
 
-  private final Set<String> pathToStore = new HashSet<>();
-  private final Set<String> pathToDelete = new HashSet<>();
+  private final Set<String> pathToStore = new CompactPathSet();
+  private final Set<String> pathToDelete = new CompactPathSet();
+  private final Set<String> movedPaths = new CompactPathSet();
   private final RepositoryService repositoryService;
+  private final PathExclusionResolver exclusionResolver;
+
+  private PathExclusions exclusions = PathExclusions.NONE;
+  private boolean exclusionsChanged;
 
   public UpdatePathCollector(RepositoryService repositoryService) {
+    this(repositoryService, revision -> PathExclusions.NONE);
+  }
+
+  public UpdatePathCollector(RepositoryService repositoryService, PathExclusionResolver exclusionResolver) {
     this.repositoryService = repositoryService;
+    this.exclusionResolver = exclusionResolver;
   }
 
   @Override
@@ -50,6 +63,22 @@ public class UpdatePathCollector implements PathCollector {
     return pathToDelete;
   }
 
+  /**
+   * Returns the paths to store which have been renamed or copied from another path. Their blob has probably been
+   * indexed already, so that they may take over the document of the other path.
+   */
+  public Collection<String> getMovedPaths() {
+    return movedPaths;
+  }
+
+  /**
+   * Returns {@code true} if the {@value RepositoryPathExclusionResolver#FILE_NAME} file has changed, which may
+   * exclude or include files that have not changed themselves.
+   */
+  public boolean isExclusionsChanged() {
+    return exclusionsChanged;
+  }
+
   void collect(String from, String to) throws IOException {
     Modifications modifications = repositoryService.getModificationsCommand()
       .baseRevision(from)
@@ -58,6 +87,7 @@ public class UpdatePathCollector implements PathCollector {
       .disableCache(true)
       .getModifications();
 
+    exclusions = exclusionResolver.resolve(to);
     collect(modifications);
   }
 
@@ -84,6 +114,7 @@ public class UpdatePathCollector implements PathCollector {
   private void copied(List<Copied> modifications) {
     for (Copied modification : modifications) {
       store(modification.getTargetPath());
+      moved(modification.getTargetPath());
     }
   }
 
@@ -96,16 +127,35 @@ public class UpdatePathCollector implements PathCollector {
   private void renamed(List<Renamed> modifications) {
     for (Renamed modification : modifications) {
       store(modification.getNewPath());
+      moved(modification.getNewPath());
       delete(modification.getOldPath());
     }
   }
 
   private void store(String path) {
-    pathToStore.add(path);
+    checkExclusionFile(path);
+    if (exclusions.isExcluded(path)) {
+      pathToDelete.add(path);
+    } else {
+      pathToStore.add(path);
+    }
+  }
+
+  private void moved(String path) {
+    if (pathToStore.contains(path)) {
+      movedPaths.add(path);
+    }
   }
 
   private void delete(String path) {
+    checkExclusionFile(path);
     pathToDelete.add(path);
   }
 
+  private void checkExclusionFile(String path) {
+    if (RepositoryPathExclusionResolver.FILE_NAME.equals(path)) {
+      exclusionsChanged = true;
+    }
+  }
+
 }
@@ -59,6 +59,11 @@ const BinaryContent: FC = () => {
   return <ContentMessage>{t("scm-content-search-plugin.hit.binary")}</ContentMessage>;
 };
 
+const GeneratedContent: FC = () => {
+  const [t] = useTranslation("plugins");
+  return <ContentMessage>{t("scm-content-search-plugin.hit.generated")}</ContentMessage>;
+};
+
 const EmptyContent: FC = () => {
   const [t] = useTranslation("plugins");
   return <ContentMessage>{t("scm-content-search-plugin.hit.empty")}</ContentMessage>;
@@ -99,8 +104,11 @@ const TextContent: FC<HitProps> = ({ hit }) => {
 
 const Content: FC<HitProps> = ({ hit }) => {
   const binary = useBooleanHitFieldValue(hit, "binary");
+  const generated = useBooleanHitFieldValue(hit, "generated");
 
-  if (binary) {
+  if (generated) {
+    return <GeneratedContent />;
+  } else if (binary) {
     return <BinaryContent />;
   } else {
     return <TextContent hit={hit} />;
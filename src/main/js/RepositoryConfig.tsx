@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+import React, { FC } from "react";
+import { useTranslation } from "react-i18next";
+import { HalRepresentation } from "@scm-manager/ui-types";
+import { useConfigLink } from "@scm-manager/ui-api";
+import { ConfigurationForm, Form } from "@scm-manager/ui-forms";
+import { Subtitle } from "@scm-manager/ui-components";
+
+type ContentSearchConfig = HalRepresentation & {
+  maxContentSize?: number | null;
+  defaultMaxContentSize: number;
+  excludes?: string | null;
+};
+
+type Props = {
+  link: string;
+};
+
+const RepositoryConfig: FC<Props> = ({ link }) => {
+  const [t] = useTranslation("plugins");
+  const { initialConfiguration, isReadOnly, update, ...formProps } = useConfigLink<ContentSearchConfig>(link);
+
+  return (
+    <>
+      <Subtitle subtitle={t("scm-content-search-plugin.config.title")} />
+      <ConfigurationForm<ContentSearchConfig>
+        isReadOnly={isReadOnly}
+        initialConfiguration={initialConfiguration}
+        onSubmit={update}
+        translationPath={["plugins", "scm-content-search-plugin.config"]}
+        {...formProps}
+      >
+        <Form.Row>
+          <Form.Input
+            name="maxContentSize"
+            type="number"
+            rules={{ min: 1 }}
+            placeholder={initialConfiguration?.defaultMaxContentSize?.toString()}
+          />
+        </Form.Row>
+        <Form.Row>
+          <Form.Textarea name="excludes" placeholder={"node_modules/\n*.min.js"} />
+        </Form.Row>
+      </ConfigurationForm>
+    </>
+  );
+};
+
+export default RepositoryConfig;
@@ -15,6 +15,15 @@
  */
 
 import { binder } from "@scm-manager/ui-extensions";
+import { ConfigurationBinder as cfgBinder } from "@scm-manager/ui-components";
 import ContentHitRenderer from "./ContentHitRenderer";
+import RepositoryConfig from "./RepositoryConfig";
 
 binder.bind("search.hit.content.renderer", ContentHitRenderer);
+
+cfgBinder.bindRepositorySetting(
+  "/content-search",
+  "scm-content-search-plugin.config.link",
+  "contentSearchConfig",
+  RepositoryConfig
+);
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class BinaryResolverExecutorTest {
+
+  private static final byte[] CONTENT = "%PDF".getBytes(StandardCharsets.UTF_8);
+
+  @Mock
+  private Clock clock;
+  @Mock
+  private BinaryFileContentResolver resolver;
+  @Mock
+  private RepositoryFile file;
+
+  private final SkippedBlobReport report = new SkippedBlobReport();
+
+  private BinaryResolverExecutor executor;
+
+  @AfterEach
+  void shutdown() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void shouldReturnExtractedText() throws IOException {
+    executor = executor(Duration.ofSeconds(10), 1024, 3);
+    when(resolver.resolveContent(any())).thenReturn("Hitchhiker's Guide");
+
+    Optional<String> text = executor.resolve(resolver, file, CONTENT, report);
+
+    assertThat(text).contains("Hitchhiker's Guide");
+    assertThat(report.isEmpty()).isTrue();
+  }
+
+  @Test
+  void shouldPassContentToResolver() throws IOException {
+    executor = executor(Duration.ofSeconds(10), 1024, 3);
+    when(resolver.resolveContent(any())).thenAnswer(invocation -> {
+      byte[] bytes = invocation.<InputStream>getArgument(0).readAllBytes();
+      return new String(bytes, StandardCharsets.UTF_8);
+    });
+
+    Optional<String> text = executor.resolve(resolver, file, CONTENT, report);
+
+    assertThat(text).contains("%PDF");
+  }
+
+  @Test
+  void shouldTruncateLongText() throws IOException {
+    executor = executor(Duration.ofSeconds(10), 6, 3);
+    when(resolver.resolveContent(any())).thenReturn("Marvin the Paranoid Android");
+
+    Optional<String> text = executor.resolve(resolver, file, CONTENT, report);
+
+    assertThat(text).contains("Marvin");
+  }
+
+  @Test
+  void shouldReportFailure() throws IOException {
+    executor = executor(Duration.ofSeconds(10), 1024, 3);
+    mockFile();
+    when(resolver.resolveContent(any())).thenThrow(new IllegalStateException("broken pdf"));
+
+    Optional<String> text = executor.resolve(resolver, file, CONTENT, report);
+
+    assertThat(text).isEmpty();
+    assertThat(report.getEntries())
+      .extracting(SkippedBlobReport.Entry::getPath, SkippedBlobReport.Entry::getBlobId, SkippedBlobReport.Entry::getReason)
+      .containsExactly(tuple("guide.pdf", "b42", SkippedBlobReport.Reason.FAILED));
+  }
+
+  @Test
+  void shouldReportTimeout() throws IOException {
+    executor = executor(Duration.ofMillis(50), 1024, 3);
+    mockFile();
+    when(resolver.resolveContent(any())).thenAnswer(invocation -> {
+      Thread.sleep(10_000);
+      return "too late";
+    });
+
+    Optional<String> text = executor.resolve(resolver, file, CONTENT, report);
+
+    assertThat(text).isEmpty();
+    assertThat(report.getEntries())
+      .extracting(SkippedBlobReport.Entry::getReason)
+      .containsExactly(SkippedBlobReport.Reason.TIMEOUT);
+  }
+
+  @Test
+  void shouldReplaceWorkerOfStuckResolver() throws IOException {
+    executor = executor(Duration.ofMillis(100), 1024, 3);
+    mockFile();
+    CountDownLatch release = new CountDownLatch(1);
+    when(resolver.resolveContent(any()))
+      .thenAnswer(invocation -> stuck(release))
+      .thenReturn("Hitchhiker's Guide");
+
+    try {
+      Optional<String> stuck = executor.resolve(resolver, file, CONTENT, report);
+      Optional<String> next = executor.resolve(resolver, file, CONTENT, report);
+
+      assertThat(stuck).isEmpty();
+      assertThat(next).contains("Hitchhiker's Guide");
+      assertThat(report.getEntries())
+        .extracting(SkippedBlobReport.Entry::getReason)
+        .containsExactly(SkippedBlobReport.Reason.TIMEOUT);
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  void shouldCountBlockedCallsAgainstStuckResolver() throws IOException {
+    executor = executor(Duration.ofMillis(100), 1024, 3);
+    mockFile();
+    CountDownLatch release = new CountDownLatch(1);
+    when(resolver.resolveContent(any())).thenAnswer(invocation -> stuck(release));
+
+    try {
+      // the first stuck worker is replaced, the second one keeps the only worker slot
+      executor.resolve(resolver, file, CONTENT, report);
+      executor.resolve(resolver, file, CONTENT, report);
+      executor.resolve(resolver, file, CONTENT, report);
+      executor.resolve(resolver, file, CONTENT, report);
+
+      assertThat(report.getEntries())
+        .extracting(SkippedBlobReport.Entry::getReason)
+        .containsExactly(
+          SkippedBlobReport.Reason.TIMEOUT,
+          SkippedBlobReport.Reason.TIMEOUT,
+          SkippedBlobReport.Reason.BUSY,
+          SkippedBlobReport.Reason.DISABLED
+        );
+      verify(resolver, times(2)).resolveContent(any());
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  void shouldReportBusyIfMemoryBudgetIsExhausted() throws IOException {
+    executor = new BinaryResolverExecutor(
+      new BinaryResolverExecutor.Settings(2, 1, Duration.ofMillis(100), 1024, 1024, CONTENT.length, 3, Duration.ofMinutes(1)),
+      clock
+    );
+    mockFile();
+    CountDownLatch release = new CountDownLatch(1);
+    when(resolver.resolveContent(any())).thenAnswer(invocation -> stuck(release));
+
+    try {
+      // the abandoned call keeps its input until it returns
+      executor.resolve(resolver, file, CONTENT, report);
+      executor.resolve(resolver, file, CONTENT, report);
+
+      assertThat(report.getEntries())
+        .extracting(SkippedBlobReport.Entry::getReason)
+        .containsExactly(SkippedBlobReport.Reason.TIMEOUT, SkippedBlobReport.Reason.BUSY);
+      verify(resolver, times(1)).resolveContent(any());
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  void shouldDisableResolverAfterRepeatedFailures() throws IOException {
+    executor = executor(Duration.ofSeconds(10), 1024, 2);
+    mockFile();
+    when(clock.millis()).thenReturn(1000L);
+    when(resolver.resolveContent(any())).thenThrow(new IllegalStateException("broken pdf"));
+
+    executor.resolve(resolver, file, CONTENT, report);
+    executor.resolve(resolver, file, CONTENT, report);
+    SkippedBlobReport next = new SkippedBlobReport();
+    executor.resolve(resolver, file, CONTENT, next);
+
+    verify(resolver, times(2)).resolveContent(any());
+    assertThat(next.getEntries())
+      .extracting(SkippedBlobReport.Entry::getReason)
+      .containsExactly(SkippedBlobReport.Reason.DISABLED);
+  }
+
+  @Test
+  void shouldEnableResolverAgainAfterSuccessfulTrial() throws IOException {
+    executor = executor(Duration.ofSeconds(10), 1024, 1);
+    mockFile();
+    when(clock.millis()).thenReturn(1000L, 1000L, 2000L, 62_000L);
+    when(resolver.resolveContent(any()))
+      .thenThrow(new IllegalStateException("broken pdf"))
+      .thenReturn("Hitchhiker's Guide", "Restaurant");
+
+    executor.resolve(resolver, file, CONTENT, report);
+    Optional<String> disabled = executor.resolve(resolver, file, CONTENT, report);
+    Optional<String> trial = executor.resolve(resolver, file, CONTENT, report);
+    Optional<String> enabled = executor.resolve(resolver, file, CONTENT, report);
+
+    assertThat(disabled).isEmpty();
+    assertThat(trial).contains("Hitchhiker's Guide");
+    assertThat(enabled).contains("Restaurant");
+  }
+
+  private void mockFile() {
+    lenient().when(file.getPath()).thenReturn("guide.pdf");
+    lenient().when(file.getBlobId()).thenReturn(Optional.of("b42"));
+  }
+
+  private String stuck(CountDownLatch release) {
+    // ignores interrupts, like a resolver which is stuck in a loop
+    while (release.getCount() > 0) {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        // continue waiting
+      }
+    }
+    return "too late";
+  }
+
+  private BinaryResolverExecutor executor(Duration timeout, int maxOutputLength, int failureThreshold) {
+    return new BinaryResolverExecutor(
+      new BinaryResolverExecutor.Settings(1, 1, timeout, 1024, maxOutputLength, 1024, failureThreshold, Duration.ofMinutes(1)),
+      clock
+    );
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.scm.search;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.BrowserResult;
+import sonia.scm.repository.FileObject;
+import sonia.scm.repository.api.BrowseCommandBuilder;
+import sonia.scm.repository.api.RepositoryService;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CatContentReaderTest {
+
+  @Mock
+  private RepositoryService repositoryService;
+
+  @Mock(answer = Answers.RETURNS_SELF)
+  private BrowseCommandBuilder browseCommand;
+
+  private final Map<String, FileObject> directories = new HashMap<>();
+  private String browsedPath;
+
+  private CatContentReader reader;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    reader = new CatContentReader(repositoryService);
+    when(repositoryService.getBrowseCommand()).thenReturn(browseCommand);
+    when(browseCommand.setPath(anyString())).thenAnswer(invocation -> {
+      browsedPath = invocation.getArgument(0);
+      return browseCommand;
+    });
+    when(browseCommand.getBrowserResult())
+      .thenAnswer(invocation -> new BrowserResult("42", directories.get(browsedPath)));
+  }
+
+  @Test
+  void shouldDeriveChangeTokenFromSizeAndCommitDate() throws IOException {
+    register(directory("", file("a", 42L, 1000L), file("b", 21L, 2000L)));
+
+    Map<String, Optional<String>> tokens = read("a", "b");
+
+    assertThat(tokens.get("a")).contains("meta:42:1000");
+    assertThat(tokens.get("b")).contains("meta:21:2000");
+    verify(browseCommand).setDisableLastCommit(false);
+  }
+
+  @Test
+  void shouldNotDeriveChangeTokenWithoutCommitDate() throws IOException {
+    register(directory("", file("a", 42L, null)));
+
+    Map<String, Optional<String>> tokens = read("a");
+
+    assertThat(tokens.get("a")).isEmpty();
+  }
+
+  @Test
+  void shouldBrowseEveryDirectoryOnlyOnceForSizesAndOnceForLastCommits() throws IOException {
+    register(directory("src", file("src/a", 1L, 1L), file("src/b", 2L, 2L)));
+    register(directory("test", file("test/a", 3L, 3L)));
+
+    Map<String, Optional<String>> tokens = read("src/a", "src/b", "test/a");
+
+    assertThat(tokens.get("test/a")).contains("meta:3:3");
+    verify(browseCommand, times(2)).setPath("src");
+    verify(browseCommand, times(2)).setPath("test");
+  }
+
+  @Test
+  void shouldPassSizeOfFile() throws IOException {
+    register(directory("src", file("src/a", 42L, 1L)));
+
+    Map<String, OptionalLong> sizes = new HashMap<>();
+    reader.read("42", Collections.singletonList("src/a"), file -> sizes.put(file.getPath(), file.getSize()));
+
+    assertThat(sizes.get("src/a")).hasValue(42L);
+  }
+
+  @Test
+  void shouldNotBrowseLastCommitsWithoutChangeTokens() throws IOException {
+    register(directory("src", file("src/a", 1L, 1L), file("src/b", 2L, 2L)));
+
+    reader.read("42", Arrays.asList("src/a", "src/b"), file -> file.getSize());
+
+    verify(browseCommand, times(1)).setPath("src");
+    verify(browseCommand).setDisableLastCommit(true);
+    verify(browseCommand, never()).setDisableLastCommit(false);
+  }
+
+  private Map<String, Optional<String>> read(String... paths) throws IOException {
+    Map<String, Optional<String>> tokens = new HashMap<>();
+    reader.read("42", Arrays.asList(paths), file -> tokens.put(file.getPath(), file.getChangeToken()));
+    return tokens;
+  }
+
+  private void register(FileObject directory) {
+    directories.put(directory.getPath(), directory);
+  }
+
+  private FileObject directory(String path, FileObject... children) {
+    FileObject directory = new FileObject();
+    directory.setName(path);
+    directory.setPath(path);
+    directory.setDirectory(true);
+    directory.setChildren(Arrays.asList(children));
+    return directory;
+  }
+
+  private FileObject file(String path, Long length, Long commitDate) {
+    FileObject file = new FileObject();
+    file.setName(path);
+    file.setPath(path);
+    file.setDirectory(false);
+    file.setLength(length);
+    file.setCommitDate(commitDate);
+    return file;
+  }
+}
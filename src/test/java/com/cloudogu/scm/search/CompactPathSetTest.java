@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompactPathSetTest {
+
+  private final CompactPathSet paths = new CompactPathSet();
+
+  @Test
+  void shouldAddPaths() {
+    assertThat(paths.add("src/main/java/App.java")).isTrue();
+    assertThat(paths.add("src/main/java/App.java")).isFalse();
+    assertThat(paths.add("src/main/java/Other.java")).isTrue();
+
+    assertThat(paths).hasSize(2);
+  }
+
+  @Test
+  void shouldContainOnlyAddedPaths() {
+    paths.addAll(Arrays.asList("src/main/java/App.java", "README.md"));
+
+    assertThat(paths.contains("src/main/java/App.java")).isTrue();
+    assertThat(paths.contains("README.md")).isTrue();
+    assertThat(paths.contains("src/main/java")).isFalse();
+    assertThat(paths.contains("src/main/java/App")).isFalse();
+    assertThat(paths.contains("LICENSE")).isFalse();
+  }
+
+  @Test
+  void shouldIterateGroupedByDirectory() {
+    paths.addAll(Arrays.asList("src/b/Two.java", "README.md", "src/a/One.java", "src/b/Three.java", "pom.xml"));
+
+    assertThat(new ArrayList<>(paths))
+      .containsExactly("README.md", "pom.xml", "src/a/One.java", "src/b/Three.java", "src/b/Two.java");
+  }
+
+  @Test
+  void shouldHandlePathWhichIsAlsoDirectory() {
+    paths.addAll(Arrays.asList("a/b", "a"));
+
+    assertThat(new ArrayList<>(paths)).containsExactly("a", "a/b");
+    assertThat(paths.contains("a")).isTrue();
+  }
+
+  @Test
+  void shouldBehaveLikeHashSet() {
+    Set<String> expected = new HashSet<>();
+    for (int i = 0; i < 1000; i++) {
+      String path = "src/" + (i % 7) + "/" + (i % 13) + "/file-" + (i % 101);
+      assertThat(paths.add(path)).isEqualTo(expected.add(path));
+    }
+
+    List<String> iterated = new ArrayList<>(paths);
+    assertThat(iterated).hasSize(expected.size());
+    assertThat(paths).isEqualTo(expected);
+  }
+
+  @Test
+  void shouldClear() {
+    paths.add("a/b");
+
+    paths.clear();
+
+    assertThat(paths).isEmpty();
+    assertThat(paths.contains("a/b")).isFalse();
+  }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.scm.search;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContentExtractionPoolTest {
+
+  private final ContentExtractionPool pool = new ContentExtractionPool(2, 4, 100);
+
+  @AfterEach
+  void shutdown() {
+    pool.shutdown();
+  }
+
+  @Test
+  void shouldReserveFromSharedBudget() {
+    assertThat(pool.tryReserve(60)).isEqualTo(60);
+    assertThat(pool.tryReserve(60)).isEqualTo(-1);
+
+    pool.release(60);
+
+    assertThat(pool.tryReserve(60)).isEqualTo(60);
+  }
+
+  @Test
+  void shouldReserveWholeBudgetForLargeFiles() {
+    assertThat(pool.tryReserve(1000)).isEqualTo(100);
+    assertThat(pool.tryReserve(1)).isEqualTo(-1);
+  }
+
+  @Test
+  void shouldReserveAtLeastOneByte() {
+    assertThat(pool.tryReserve(0)).isEqualTo(1);
+  }
+
+  @Test
+  void shouldWaitUntilBudgetIsReleased() throws Exception {
+    int reserved = pool.tryReserve(100);
+
+    CompletableFuture<Integer> waiting = CompletableFuture.supplyAsync(() -> {
+      try {
+        return pool.reserve(50);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    Thread.sleep(50);
+    assertThat(waiting).isNotDone();
+
+    pool.release(reserved);
+
+    assertThat(waiting.get(5, TimeUnit.SECONDS)).isEqualTo(50);
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import org.github.sdorra.jse.ShiroExtension;
+import org.github.sdorra.jse.SubjectAware;
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.jboss.resteasy.mock.MockHttpResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.api.v2.resources.ScmPathInfoStore;
+import sonia.scm.repository.NamespaceAndName;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.store.InMemoryConfigurationStoreFactory;
+import sonia.scm.web.RestDispatcher;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+@ExtendWith({MockitoExtension.class, ShiroExtension.class})
+class ContentSearchConfigResourceTest {
+
+  private static final String URL = "/" + ContentSearchConfigResource.PATH + "/hitchhiker/HeartOfGold";
+
+  @Mock
+  private RepositoryManager repositoryManager;
+
+  private final Repository repository = RepositoryTestData.createHeartOfGold();
+
+  @Mock
+  private IndexUpdateCoalescer coalescer;
+
+  private ContentSearchConfigStore configStore;
+  private RestDispatcher dispatcher;
+
+  @BeforeEach
+  void setUp() {
+    repository.setId("hog");
+    lenient().when(repositoryManager.get(new NamespaceAndName("hitchhiker", "HeartOfGold"))).thenReturn(repository);
+
+    ScmPathInfoStore pathInfoStore = new ScmPathInfoStore();
+    pathInfoStore.set(() -> URI.create("/scm/api/"));
+
+    configStore = new ContentSearchConfigStore(InMemoryConfigurationStoreFactory.create());
+    dispatcher = new RestDispatcher();
+    dispatcher.addSingletonResource(
+      new ContentSearchConfigResource(repositoryManager, configStore, () -> pathInfoStore, coalescer)
+    );
+  }
+
+  @Test
+  @SubjectAware(value = "trillian", permissions = "repository:modify:hog")
+  void shouldReturnConfig() throws URISyntaxException {
+    configStore.set(repository, new ContentSearchConfig(1024L));
+
+    MockHttpResponse response = new MockHttpResponse();
+    dispatcher.invoke(MockHttpRequest.get(URL), response);
+
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(response.getContentAsString())
+      .contains("\"maxContentSize\":1024")
+      .contains("\"update\":{\"href\":\"/scm/api/v2/content-search/config/hitchhiker/HeartOfGold\"}");
+  }
+
+  @Test
+  @SubjectAware(value = "trillian", permissions = "repository:modify:hog")
+  void shouldUpdateConfig() throws URISyntaxException {
+    MockHttpRequest request = MockHttpRequest.put(URL)
+      .contentType(ContentSearchConfigResource.MEDIA_TYPE)
+      .content("{\"maxContentSize\":4096}".getBytes(StandardCharsets.UTF_8));
+
+    MockHttpResponse response = new MockHttpResponse();
+    dispatcher.invoke(request, response);
+
+    assertThat(response.getStatus()).isEqualTo(204);
+    assertThat(configStore.get(repository).getMaxContentSize()).isEqualTo(4096L);
+    verifyNoInteractions(coalescer);
+  }
+
+  @Test
+  @SubjectAware(value = "trillian", permissions = "repository:modify:hog")
+  void shouldReturnExcludes() throws URISyntaxException {
+    ContentSearchConfig config = new ContentSearchConfig(null, "node_modules/");
+    configStore.set(repository, config);
+
+    MockHttpResponse response = new MockHttpResponse();
+    dispatcher.invoke(MockHttpRequest.get(URL), response);
+
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(response.getContentAsString()).contains("\"excludes\":\"node_modules/\"");
+  }
+
+  @Test
+  @SubjectAware(value = "trillian", permissions = "repository:modify:hog")
+  void shouldReconcileIndexIfExcludesHaveChanged() throws URISyntaxException {
+    MockHttpRequest request = MockHttpRequest.put(URL)
+      .contentType(ContentSearchConfigResource.MEDIA_TYPE)
+      .content("{\"excludes\":\"node_modules/\\n*.min.js\"}".getBytes(StandardCharsets.UTF_8));
+
+    MockHttpResponse response = new MockHttpResponse();
+    dispatcher.invoke(request, response);
+
+    assertThat(response.getStatus()).isEqualTo(204);
+    assertThat(configStore.get(repository).getExcludes()).isEqualTo("node_modules/\n*.min.js");
+    verify(coalescer).reconcile(repository);
+  }
+
+  @Test
+  @SubjectAware(value = "trillian", permissions = "repository:read:hog")
+  void shouldRejectUpdateWithoutModifyPermission() throws URISyntaxException {
+    MockHttpRequest request = MockHttpRequest.put(URL)
+      .contentType(ContentSearchConfigResource.MEDIA_TYPE)
+      .content("{\"maxContentSize\":4096}".getBytes(StandardCharsets.UTF_8));
+
+    MockHttpResponse response = new MockHttpResponse();
+    dispatcher.invoke(request, response);
+
+    assertThat(response.getStatus()).isEqualTo(403);
+    assertThat(configStore.get(repository).getMaxContentSize()).isNull();
+  }
+
+  @Test
+  @SubjectAware(value = "trillian", permissions = "repository:modify:hog")
+  void shouldReturnNotFoundForUnknownRepository() throws URISyntaxException {
+    MockHttpResponse response = new MockHttpResponse();
+    dispatcher.invoke(MockHttpRequest.get("/" + ContentSearchConfigResource.PATH + "/hitchhiker/Puzzle42"), response);
+
+    assertThat(response.getStatus()).isEqualTo(404);
+  }
+
+}
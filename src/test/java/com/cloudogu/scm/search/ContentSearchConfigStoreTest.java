@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.store.InMemoryConfigurationStoreFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContentSearchConfigStoreTest {
+
+  private final Repository repository = RepositoryTestData.createHeartOfGold();
+
+  private ContentSearchConfigStore configStore;
+
+  @BeforeEach
+  void setUp() {
+    System.setProperty(ContentSearchConfigStore.MAX_CONTENT_SIZE_PROPERTY, "2048");
+    configStore = new ContentSearchConfigStore(InMemoryConfigurationStoreFactory.create());
+  }
+
+  @AfterEach
+  void tearDown() {
+    System.clearProperty(ContentSearchConfigStore.MAX_CONTENT_SIZE_PROPERTY);
+  }
+
+  @Test
+  void shouldReturnEmptyConfig() {
+    assertThat(configStore.get(repository).getMaxContentSize()).isNull();
+  }
+
+  @Test
+  void shouldUseGlobalMaxContentSize() {
+    assertThat(configStore.getMaxContentSize(repository)).isEqualTo(2048L);
+  }
+
+  @Test
+  void shouldUseMaxContentSizeOfRepository() {
+    configStore.set(repository, new ContentSearchConfig(1024L));
+
+    assertThat(configStore.getMaxContentSize(repository)).isEqualTo(1024L);
+  }
+
+  @Test
+  void shouldIgnoreInvalidMaxContentSizeOfRepository() {
+    configStore.set(repository, new ContentSearchConfig(0L));
+
+    assertThat(configStore.getMaxContentSize(repository)).isEqualTo(2048L);
+  }
+
+}
@@ -29,8 +29,11 @@ import sonia.scm.repository.api.Command;
 import sonia.scm.repository.api.RepositoryService;
 
 import java.io.IOException;
+import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -39,6 +42,9 @@ class DefaultBranchResolverTest {
   @Mock(answer = Answers.RETURNS_DEEP_STUBS)
   private RepositoryService repositoryService;
 
+  @Mock
+  private DefaultBranchCache defaultBranchCache;
+
   @InjectMocks
   private DefaultBranchResolver resolver;
 
@@ -72,6 +78,7 @@ class DefaultBranchResolverTest {
     DefaultBranchResolver.Result result = resolver.resolve();
     assertThat(result.isEmpty()).isTrue();
     assertThat(result.getDefaultBranch()).isEmpty();
+    verify(defaultBranchCache).invalidate(repositoryService.getRepository());
   }
 
   @Test
@@ -85,6 +92,17 @@ class DefaultBranchResolverTest {
     DefaultBranchResolver.Result result = resolver.resolve();
     assertThat(result.isEmpty()).isFalse();
     assertThat(result.getDefaultBranch()).contains("develop");
+    verify(defaultBranchCache).put(repositoryService.getRepository(), "develop");
+  }
+
+  @Test
+  void shouldReturnCachedDefaultBranch() throws IOException {
+    supported(true);
+    when(defaultBranchCache.get(repositoryService.getRepository())).thenReturn(Optional.of("main"));
+
+    DefaultBranchResolver.Result result = resolver.resolve();
+    assertThat(result.getDefaultBranch()).contains("main");
+    verify(repositoryService, never()).getBranchesCommand();
   }
 
   private void branches(Branch... branches) throws IOException {
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.store.InMemoryByteDataStoreFactory;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DirtyRepositoryJournalTest {
+
+  private DirtyRepositoryJournal journal;
+
+  private final Repository repository = RepositoryTestData.createHeartOfGold();
+
+  @BeforeEach
+  void setUp() {
+    journal = new DirtyRepositoryJournal(new InMemoryByteDataStoreFactory());
+  }
+
+  @Test
+  void shouldNotContainUnmarkedRepository() {
+    assertThat(journal.contains(repository)).isFalse();
+  }
+
+  @Test
+  void shouldContainMarkedRepository() {
+    journal.mark(repository);
+
+    assertThat(journal.contains(repository)).isTrue();
+  }
+
+  @Test
+  void shouldClearRepository() {
+    journal.mark(repository);
+
+    journal.clear(repository, Instant.now().plus(1, ChronoUnit.SECONDS));
+
+    assertThat(journal.contains(repository)).isFalse();
+  }
+
+  @Test
+  void shouldNotClearRepositoryWithChangesAfterUpdateStarted() {
+    Instant start = Instant.now().minus(1, ChronoUnit.SECONDS);
+    journal.mark(repository);
+
+    journal.clear(repository, start);
+
+    assertThat(journal.contains(repository)).isTrue();
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExtractedTextCacheTest {
+
+  @TempDir
+  private Path directory;
+
+  @Test
+  void shouldReturnEmptyForUnknownKey() {
+    ExtractedTextCache cache = new ExtractedTextCache(directory, 1024);
+
+    assertThat(cache.get(ExtractedTextCache.key("unknown"))).isEmpty();
+  }
+
+  @Test
+  void shouldReturnCachedText() {
+    ExtractedTextCache cache = new ExtractedTextCache(directory, 1024);
+    String key = ExtractedTextCache.key("resolver", "1", "blob:42");
+
+    cache.put(key, "Hitchhiker's Guide");
+
+    assertThat(cache.get(key)).contains("Hitchhiker's Guide");
+  }
+
+  @Test
+  void shouldCreateDifferentKeysForDifferentParts() {
+    assertThat(ExtractedTextCache.key("resolver", "1", "blob:42"))
+      .isEqualTo(ExtractedTextCache.key("resolver", "1", "blob:42"))
+      .isNotEqualTo(ExtractedTextCache.key("resolver", "2", "blob:42"))
+      .isNotEqualTo(ExtractedTextCache.key("resolver", "1", "blob:21"));
+  }
+
+  @Test
+  void shouldKeepTextsAcrossRestarts() {
+    String key = ExtractedTextCache.key("blob:42");
+    new ExtractedTextCache(directory, 1024).put(key, "Hitchhiker's Guide");
+
+    ExtractedTextCache cache = new ExtractedTextCache(directory, 1024);
+
+    assertThat(cache.get(key)).contains("Hitchhiker's Guide");
+  }
+
+  @Test
+  void shouldEvictLeastRecentlyUsedTexts() {
+    ExtractedTextCache cache = new ExtractedTextCache(directory, 30);
+    String first = ExtractedTextCache.key("1");
+    String second = ExtractedTextCache.key("2");
+    String third = ExtractedTextCache.key("3");
+
+    cache.put(first, "a".repeat(10));
+    cache.put(second, "b".repeat(10));
+    cache.get(first);
+    cache.put(third, "c".repeat(15));
+
+    assertThat(cache.get(first)).isPresent();
+    assertThat(cache.get(second)).isEmpty();
+    assertThat(cache.get(third)).isPresent();
+    assertThat(countFiles()).isEqualTo(2);
+  }
+
+  @Test
+  void shouldRestoreOrderOfUseAfterRestart() throws IOException {
+    String first = ExtractedTextCache.key("1");
+    String second = ExtractedTextCache.key("2");
+    ExtractedTextCache cache = new ExtractedTextCache(directory, 30);
+    cache.put(first, "a".repeat(10));
+    cache.put(second, "b".repeat(10));
+    setLastModified(first, 2000);
+    setLastModified(second, 1000);
+
+    cache = new ExtractedTextCache(directory, 30);
+    cache.put(ExtractedTextCache.key("3"), "c".repeat(15));
+
+    assertThat(cache.get(first)).isPresent();
+    assertThat(cache.get(second)).isEmpty();
+  }
+
+  @Test
+  void shouldNotCacheTextsLargerThanTheCache() {
+    ExtractedTextCache cache = new ExtractedTextCache(directory, 10);
+    String key = ExtractedTextCache.key("1");
+
+    cache.put(key, "a".repeat(11));
+
+    assertThat(cache.get(key)).isEmpty();
+  }
+
+  @Test
+  void shouldRemoveInterruptedWrites() throws IOException {
+    Path temp = directory.resolve("ab").resolve("abc.tmp");
+    Files.createDirectories(temp.getParent());
+    Files.writeString(temp, "incomplete");
+
+    new ExtractedTextCache(directory, 1024).get(ExtractedTextCache.key("1"));
+
+    assertThat(temp).doesNotExist();
+  }
+
+  @Test
+  void shouldNotLeaveTemporaryFilesAfterWrite() {
+    ExtractedTextCache cache = new ExtractedTextCache(directory, 1024);
+    String key = ExtractedTextCache.key("1");
+
+    cache.put(key, "Hitchhiker's Guide");
+    cache.put(key, "Restaurant at the End of the Universe");
+
+    assertThat(cache.get(key)).contains("Restaurant at the End of the Universe");
+    assertThat(countFiles()).isOne();
+  }
+
+  @Test
+  void shouldNotCacheIfDisabled() {
+    ExtractedTextCache cache = new ExtractedTextCache(directory, 0);
+    String key = ExtractedTextCache.key("1");
+
+    cache.put(key, "Hitchhiker's Guide");
+
+    assertThat(cache.get(key)).isEmpty();
+    assertThat(countFiles()).isZero();
+  }
+
+  private void setLastModified(String key, long millis) throws IOException {
+    Files.setLastModifiedTime(directory.resolve(key.substring(0, 2)).resolve(key), FileTime.fromMillis(millis));
+  }
+
+  private long countFiles() {
+    try (Stream<Path> files = Files.walk(directory)) {
+      return files.filter(Files::isRegularFile).count();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -20,6 +20,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Answers;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
@@ -32,7 +33,11 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -40,6 +45,9 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -60,6 +68,16 @@ class FileContentFactoryTest {
     fileContentFactory = new FileContentFactory(contentTypeResolver, Set.of(binaryResolver));
   }
 
+  @Test
+  void shouldChangeFingerprintWithResolverVersion() {
+    when(binaryResolver.getVersion()).thenReturn("1");
+    String first = fileContentFactory.getFingerprint();
+
+    when(binaryResolver.getVersion()).thenReturn("2");
+
+    assertThat(fileContentFactory.getFingerprint()).isNotEqualTo(first);
+  }
+
   @Test
   void shouldCreateBinaryContent() throws IOException {
     ContentType contentType = mockContentType(false, "image", "png");
@@ -138,6 +156,383 @@ class FileContentFactoryTest {
     assertThat(content.getCodingLanguage()).isNull();
   }
 
+  @Test
+  void shouldNotReadBinaryContentWithoutResolver() throws IOException {
+    ContentType contentType = mockContentType(false, "application", "zip");
+    when(contentTypeResolver.resolve("archive.zip")).thenReturn(contentType);
+
+    ByteArrayInputStream stream = new ByteArrayInputStream(new byte[4096]);
+    when(repositoryService.getCatCommand().setRevision("42").getStream("archive.zip")).thenReturn(stream);
+    when(contentTypeResolver.resolve(eq("archive.zip"), any())).thenReturn(contentType);
+    when(binaryResolver.isSupported("application/zip")).thenReturn(false);
+
+    FileContent content = fileContentFactory.create(repositoryService, "42", "archive.zip");
+
+    assertThat(content.isBinary()).isTrue();
+    assertThat(content.getContent()).isNull();
+    assertThat(stream.available()).isEqualTo(4096 - 1024);
+    verify(binaryResolver, never()).resolveContent(any());
+  }
+
+  @Test
+  void shouldReadContentFromRepositoryFile() throws IOException {
+    ContentType contentType = mockContentType(true, "text", "plain");
+    when(contentTypeResolver.resolve("README")).thenReturn(contentType);
+    when(contentTypeResolver.resolve(eq("README"), any())).thenReturn(contentType);
+
+    RepositoryFile file = mock(RepositoryFile.class);
+    when(file.getPath()).thenReturn("README");
+    when(file.openStream()).thenReturn(new ByteArrayInputStream("Don't panic".getBytes(StandardCharsets.UTF_8)));
+
+    FileContent content = fileContentFactory.create("42", file, Long.MAX_VALUE);
+
+    assertThat(content.getPath()).isEqualTo("README");
+    assertThat(content.getContent()).isEqualTo("Don't panic");
+  }
+
+  @Test
+  void shouldNotReadContentIfSizeExceedsLimit() throws IOException {
+    ContentType contentType = mockContentType(true, "text", "plain");
+    when(contentTypeResolver.resolve("dump.sql")).thenReturn(contentType);
+
+    RepositoryFile file = mock(RepositoryFile.class);
+    when(file.getPath()).thenReturn("dump.sql");
+    when(file.getSize()).thenReturn(OptionalLong.of(2048));
+
+    FileContent content = fileContentFactory.create("42", file, 1024);
+
+    assertThat(content.getPath()).isEqualTo("dump.sql");
+    assertThat(content.getExtension()).isEqualTo("sql");
+    assertThat(content.getContent()).isNull();
+    verify(file, never()).openStream();
+  }
+
+  @Test
+  void shouldStoreBlobIdOfFile() throws IOException {
+    ContentType contentType = mockContentType(true, "text", "plain");
+    when(contentTypeResolver.resolve("dump.sql")).thenReturn(contentType);
+
+    RepositoryFile file = mock(RepositoryFile.class);
+    when(file.getPath()).thenReturn("dump.sql");
+    when(file.getSize()).thenReturn(OptionalLong.of(2048));
+    when(file.getBlobId()).thenReturn(Optional.of("b42"));
+
+    FileContent content = fileContentFactory.create("42", file, 1024);
+
+    assertThat(content.getBlobId()).isEqualTo("b42");
+  }
+
+  @Test
+  void shouldStopReadingIfContentExceedsLimit() throws IOException {
+    ContentType contentType = mockContentType(true, "text", "plain");
+    when(contentTypeResolver.resolve("dump.sql")).thenReturn(contentType);
+    when(contentTypeResolver.resolve(eq("dump.sql"), any())).thenReturn(contentType);
+
+    byte[] bytes = "a\n".repeat(4096).getBytes(StandardCharsets.UTF_8);
+    ByteArrayInputStream stream = new ByteArrayInputStream(bytes);
+    RepositoryFile file = mock(RepositoryFile.class);
+    when(file.getPath()).thenReturn("dump.sql");
+    when(file.getSize()).thenReturn(OptionalLong.empty());
+    when(file.openStream()).thenReturn(stream);
+
+    FileContent content = fileContentFactory.create("42", file, 2048);
+
+    assertThat(content.getContent()).isNull();
+    assertThat(stream.available()).isEqualTo(8192 - 2049);
+  }
+
+  @Test
+  void shouldIndexContentUpToLimit() throws IOException {
+    ContentType contentType = mockContentType(true, "text", "plain");
+    when(contentTypeResolver.resolve("README")).thenReturn(contentType);
+    when(contentTypeResolver.resolve(eq("README"), any())).thenReturn(contentType);
+
+    RepositoryFile file = mock(RepositoryFile.class);
+    when(file.getPath()).thenReturn("README");
+    when(file.getSize()).thenReturn(OptionalLong.empty());
+    when(file.openStream()).thenReturn(new ByteArrayInputStream("Don't panic".getBytes(StandardCharsets.UTF_8)));
+
+    FileContent content = fileContentFactory.create("42", file, 11);
+
+    assertThat(content.getContent()).isEqualTo("Don't panic");
+  }
+
+  @Test
+  void shouldDecodeMultiByteCharactersAcrossBufferBoundaries() throws IOException {
+    String first = "Gr\u00fc\u00dfe aus K\u00f6ln!\n".repeat(2000);
+    String second = "Don't panic";
+
+    assertThat(createTextContent(first)).isEqualTo(first);
+    assertThat(createTextContent(second)).isEqualTo(second);
+  }
+
+  @Test
+  void shouldIndexMinifiedFileByPathOnly() throws IOException {
+    ContentType contentType = mockContentType(true, "text", "javascript");
+    when(contentTypeResolver.resolve("dist/app.min.js")).thenReturn(contentType);
+
+    RepositoryFile file = mock(RepositoryFile.class);
+    when(file.getPath()).thenReturn("dist/app.min.js");
+
+    FileContent content = fileContentFactory.create("42", file, 1024);
+
+    assertThat(content.isGenerated()).isTrue();
+    assertThat(content.getContent()).isNull();
+    assertThat(content.getContentType()).isEqualTo("text/javascript");
+    verify(file, never()).openStream();
+  }
+
+  @Test
+  void shouldIndexFileWithGeneratorMarkerByPathOnly() throws IOException {
+    FileContent content = createContent("api.go", "// Code generated by protoc-gen-go. DO NOT EDIT.\npackage api\n");
+
+    assertThat(content.isGenerated()).isTrue();
+    assertThat(content.getContent()).isNull();
+  }
+
+  @Test
+  void shouldIndexFileWithLongLinesByPathOnly() throws IOException {
+    FileContent content = createContent("data.json", "{\"key\":\"value\"},".repeat(400));
+
+    assertThat(content.isGenerated()).isTrue();
+    assertThat(content.getContent()).isNull();
+  }
+
+  @Test
+  void shouldIndexProseWithoutLineBreaks() throws IOException {
+    String value = "# Guide\n\n" + "Time is an illusion, lunchtime doubly so. ".repeat(60) + "\n";
+
+    FileContent content = createContent("README.md", value);
+
+    assertThat(content.isGenerated()).isFalse();
+    assertThat(content.getContent()).isEqualTo(value);
+  }
+
+  @Test
+  void shouldCountCharactersInsteadOfBytesOfLongLines() throws IOException {
+    // 1500 characters, but 4500 bytes
+    String value = "\u5b87\u5b99\u4eba\u751f\u305d\u306e\u4ed6\u3059\u3079\u3066\u306b\u3064\u3044\u3066\u3002".repeat(100);
+
+    FileContent content = createContent("notes.txt", value);
+
+    assertThat(content.isGenerated()).isFalse();
+    assertThat(content.getContent()).isEqualTo(value);
+  }
+
+  @Test
+  void shouldIndexHandWrittenFile() throws IOException {
+    String value = "# Build\n\nThe generated classes are written to build/generated.\n";
+
+    FileContent content = createContent("README.md", value);
+
+    assertThat(content.isGenerated()).isFalse();
+    assertThat(content.getContent()).isEqualTo(value);
+  }
+
+  @Test
+  void shouldIndexGeneratedFileIfDetectionIsDisabled() throws IOException {
+    fileContentFactory = new FileContentFactory(contentTypeResolver, Set.of(binaryResolver), false);
+    String value = "{\"key\":\"value\"},".repeat(400);
+
+    FileContent content = createContent("data.json", value);
+
+    assertThat(content.isGenerated()).isFalse();
+    assertThat(content.getContent()).isEqualTo(value);
+  }
+
+  @Nested
+  class ExtractedTextCacheTests {
+
+    @BeforeEach
+    void setUp(@TempDir Path directory) {
+      ExtractedTextCache cache = new ExtractedTextCache(directory, 1024 * 1024);
+      fileContentFactory = new FileContentFactory(
+        contentTypeResolver, Set.of(binaryResolver), cache, new BinaryResolverExecutor(), true
+      );
+
+      ContentType contentType = mockContentType(false, "application", "pdf");
+      when(contentTypeResolver.resolve(any())).thenReturn(contentType);
+      when(contentTypeResolver.resolve(any(), any())).thenReturn(contentType);
+      when(binaryResolver.isSupported("application/pdf")).thenReturn(true);
+      lenient().when(binaryResolver.getVersion()).thenReturn("1");
+    }
+
+    @Test
+    void shouldExtractContentWithSameBlobIdOnlyOnce() throws IOException {
+      when(binaryResolver.resolveContent(any())).thenReturn("Hitchhiker's Guide");
+
+      FileContent first = createBinaryContent("guide.pdf", "b42", "42");
+      FileContent second = createBinaryContent("renamed/guide.pdf", "b42", "42");
+
+      assertThat(first.getContent()).isEqualTo("Hitchhiker's Guide");
+      assertThat(second.getContent()).isEqualTo("Hitchhiker's Guide");
+      verify(binaryResolver, times(1)).resolveContent(any());
+    }
+
+    @Test
+    void shouldCacheByContentIfFileHasNoBlobId() throws IOException {
+      when(binaryResolver.resolveContent(any())).thenReturn("Hitchhiker's Guide", "Restaurant");
+
+      FileContent first = createBinaryContent("guide.pdf", null, "42");
+      FileContent second = createBinaryContent("copy.pdf", null, "42");
+      FileContent third = createBinaryContent("restaurant.pdf", null, "21");
+
+      assertThat(first.getContent()).isEqualTo("Hitchhiker's Guide");
+      assertThat(second.getContent()).isEqualTo("Hitchhiker's Guide");
+      assertThat(third.getContent()).isEqualTo("Restaurant");
+      verify(binaryResolver, times(2)).resolveContent(any());
+    }
+
+    @Test
+    void shouldExtractAgainWithNewResolverVersion() throws IOException {
+      when(binaryResolver.resolveContent(any())).thenReturn("Hitchhiker's Guide", "The Hitchhiker's Guide");
+
+      createBinaryContent("guide.pdf", "b42", "42");
+      when(binaryResolver.getVersion()).thenReturn("2");
+      FileContent content = createBinaryContent("guide.pdf", "b42", "42");
+
+      assertThat(content.getContent()).isEqualTo("The Hitchhiker's Guide");
+      verify(binaryResolver, times(2)).resolveContent(any());
+    }
+
+    @Test
+    void shouldNotCacheFailedExtraction() throws IOException {
+      when(binaryResolver.resolveContent(any())).thenReturn(null, "Hitchhiker's Guide");
+
+      createBinaryContent("guide.pdf", "b42", "42");
+      FileContent content = createBinaryContent("guide.pdf", "b42", "42");
+
+      assertThat(content.getContent()).isEqualTo("Hitchhiker's Guide");
+    }
+
+    private FileContent createBinaryContent(String path, String blobId, String value) throws IOException {
+      RepositoryFile file = mock(RepositoryFile.class);
+      when(file.getPath()).thenReturn(path);
+      when(file.getSize()).thenReturn(OptionalLong.empty());
+      when(file.getBlobId()).thenReturn(Optional.ofNullable(blobId));
+      when(file.openStream()).thenReturn(new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8)));
+
+      return fileContentFactory.create("42", file, 1024 * 1024);
+    }
+  }
+
+  @Nested
+  class ResolverLimitTests {
+
+    private final SkippedBlobReport report = new SkippedBlobReport();
+
+    @BeforeEach
+    void setUp() {
+      BinaryResolverExecutor executor = new BinaryResolverExecutor(
+        new BinaryResolverExecutor.Settings(1, 1, Duration.ofSeconds(10), 8, 1024, 1024, 3, Duration.ofMinutes(1)),
+        Clock.systemUTC()
+      );
+      fileContentFactory = new FileContentFactory(
+        contentTypeResolver, Set.of(binaryResolver), ExtractedTextCache.disabled(), executor, true
+      );
+
+      ContentType contentType = mockContentType(false, "application", "pdf");
+      when(contentTypeResolver.resolve(any())).thenReturn(contentType);
+      lenient().when(contentTypeResolver.resolve(any(), any())).thenReturn(contentType);
+      lenient().when(binaryResolver.isSupported("application/pdf")).thenReturn(true);
+    }
+
+    @Test
+    void shouldSkipFilesLargerThanInputLimitWithoutReading() throws IOException {
+      RepositoryFile file = mock(RepositoryFile.class);
+      when(file.getPath()).thenReturn("guide.pdf");
+      when(file.getSize()).thenReturn(OptionalLong.of(9));
+      when(file.openStream()).thenReturn(new ByteArrayInputStream("Marvin".getBytes(StandardCharsets.UTF_8)));
+
+      FileContent content = fileContentFactory.create("42", file, 1024, report);
+
+      assertThat(content.getContent()).isNull();
+      assertThat(report.getEntries())
+        .extracting(SkippedBlobReport.Entry::getReason)
+        .containsExactly(SkippedBlobReport.Reason.TOO_LARGE);
+      verify(binaryResolver, never()).resolveContent(any());
+    }
+
+    @Test
+    void shouldSkipFilesOfUnknownSizeLargerThanInputLimit() throws IOException {
+      FileContent content = create("Hitchhiker's Guide");
+
+      assertThat(content.getContent()).isNull();
+      assertThat(report.getEntries())
+        .extracting(SkippedBlobReport.Entry::getReason)
+        .containsExactly(SkippedBlobReport.Reason.TOO_LARGE);
+      verify(binaryResolver, never()).resolveContent(any());
+    }
+
+    @Test
+    void shouldSkipFilesLargerThanContentLimitInsteadOfTruncating() throws IOException {
+      BinaryResolverExecutor executor = new BinaryResolverExecutor(
+        new BinaryResolverExecutor.Settings(1, 1, Duration.ofSeconds(10), 4096, 1024, 4096, 3, Duration.ofMinutes(1)),
+        Clock.systemUTC()
+      );
+      fileContentFactory = new FileContentFactory(
+        contentTypeResolver, Set.of(binaryResolver), ExtractedTextCache.disabled(), executor, true
+      );
+
+      // larger than the header, which is checked against the content limit before the resolver is asked
+      FileContent content = create("Marvin".repeat(400), 2048);
+
+      assertThat(content.getContent()).isNull();
+      assertThat(report.getEntries())
+        .extracting(SkippedBlobReport.Entry::getReason)
+        .containsExactly(SkippedBlobReport.Reason.TOO_LARGE);
+      verify(binaryResolver, never()).resolveContent(any());
+    }
+
+    @Test
+    void shouldResolveFilesWithinInputLimit() throws IOException {
+      when(binaryResolver.resolveContent(any())).thenReturn("Marvin");
+
+      FileContent content = create("Marvin");
+
+      assertThat(content.getContent()).isEqualTo("Marvin");
+      assertThat(report.isEmpty()).isTrue();
+    }
+
+    private FileContent create(String value) throws IOException {
+      return create(value, 1024);
+    }
+
+    private FileContent create(String value, long maxContentSize) throws IOException {
+      RepositoryFile file = mock(RepositoryFile.class);
+      when(file.getPath()).thenReturn("guide.pdf");
+      when(file.getSize()).thenReturn(OptionalLong.empty());
+      when(file.openStream()).thenReturn(new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8)));
+
+      return fileContentFactory.create("42", file, maxContentSize, report);
+    }
+  }
+
+  private FileContent createContent(String path, String value) throws IOException {
+    ContentType contentType = mockContentType(true, "text", "plain");
+    when(contentTypeResolver.resolve(path)).thenReturn(contentType);
+    when(contentTypeResolver.resolve(eq(path), any())).thenReturn(contentType);
+
+    RepositoryFile file = mock(RepositoryFile.class);
+    when(file.getPath()).thenReturn(path);
+    when(file.getSize()).thenReturn(OptionalLong.empty());
+    when(file.openStream()).thenReturn(new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8)));
+
+    return fileContentFactory.create("42", file, 1024 * 1024);
+  }
+
+  private String createTextContent(String value) throws IOException {
+    ContentType contentType = mockContentType(true, "text", "plain");
+    lenient().when(contentTypeResolver.resolve("README")).thenReturn(contentType);
+    lenient().when(contentTypeResolver.resolve(eq("README"), any())).thenReturn(contentType);
+
+    RepositoryFile file = mock(RepositoryFile.class);
+    when(file.getPath()).thenReturn("README");
+    when(file.openStream()).thenReturn(new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8)));
+
+    return fileContentFactory.create("42", file, Long.MAX_VALUE).getContent();
+  }
+
   @Nested
   class FilenameAndExtensionTests {
 
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import org.junit.jupiter.api.Test;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HeadRevisionCacheTest {
+
+  private final HeadRevisionCache cache = new HeadRevisionCache();
+
+  private final Repository repository = RepositoryTestData.createHeartOfGold();
+
+  @Test
+  void shouldReturnEmptyForUnknownRepository() {
+    assertThat(cache.get(repository)).isEmpty();
+  }
+
+  @Test
+  void shouldReturnCachedRevision() {
+    cache.put(repository, cache.generation(repository), "42");
+
+    assertThat(cache.get(repository)).contains("42");
+  }
+
+  @Test
+  void shouldInvalidateRevision() {
+    cache.put(repository, cache.generation(repository), "42");
+
+    cache.invalidate(repository);
+
+    assertThat(cache.get(repository)).isEmpty();
+  }
+
+  @Test
+  void shouldNotStoreRevisionResolvedBeforeInvalidation() {
+    long generation = cache.generation(repository);
+
+    cache.invalidate(repository);
+    cache.put(repository, generation, "21");
+
+    assertThat(cache.get(repository)).isEmpty();
+  }
+}
@@ -16,6 +16,8 @@
 
 package com.cloudogu.scm.search;
 
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Answers;
@@ -24,23 +26,38 @@ import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.HandlerEventType;
 import sonia.scm.repository.DefaultBranchChangedEvent;
 import sonia.scm.repository.PostReceiveRepositoryHookEvent;
 import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryEvent;
 import sonia.scm.repository.RepositoryManager;
 import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.repository.Tag;
+import sonia.scm.repository.api.HookBranchProvider;
+import sonia.scm.repository.api.HookContext;
+import sonia.scm.repository.api.HookFeature;
+import sonia.scm.repository.api.HookTagProvider;
 import sonia.scm.search.ReindexRepositoryEvent;
 import sonia.scm.search.SearchEngine;
 import sonia.scm.web.security.AdministrationContext;
 import sonia.scm.web.security.PrivilegedAction;
 
 import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @SuppressWarnings("UnstableApiUsage")
@@ -56,14 +73,38 @@ class IndexListenerTest {
   @Mock(answer = Answers.RETURNS_DEEP_STUBS)
   private SearchEngine searchEngine;
 
+  @Mock
+  private StartupIndexScheduler startupIndexScheduler;
+
+  @Mock
+  private DirtyRepositoryJournal journal;
+
+  @Mock
+  private IndexUpdateCoalescer coalescer;
+
+  @Mock
+  private DefaultBranchCache defaultBranchCache;
+
+  @Mock
+  private HeadRevisionCache headRevisionCache;
+
+  @Mock
+  private ContentExtractionPool extractionPool;
+
+  @Mock
+  private BinaryResolverExecutor resolverExecutor;
+
+  @Mock
+  private IndexMetrics metrics;
+
   @InjectMocks
   private IndexListener indexListener;
 
   @Captor
-  private ArgumentCaptor<IndexerTask> taskCaptor;
+  private ArgumentCaptor<ReIndexTask> reindexTaskCaptor;
 
   @Captor
-  private ArgumentCaptor<ReIndexTask> reindexTaskCaptor;
+  private ArgumentCaptor<Consumer<Repository>> submitterCaptor;
 
   @Test
   void shouldTriggerUpdateOnPostReceiveRepositoryHookEvent() {
@@ -75,15 +116,110 @@ class IndexListenerTest {
     indexListener.handle(event);
 
     assertUpdate(heartOfGold);
+    verify(journal).mark(heartOfGold);
+    verify(metrics).changed(heartOfGold);
   }
 
-  private void assertUpdate(Repository repository) {
-    verify(searchEngine.forType(FileContent.class).forResource(repository)).update(
-      taskCaptor.capture()
-    );
+  @Nested
+  class HookEventFilterTests {
 
-    IndexerTask task = taskCaptor.getValue();
-    assertThat(task.getRepository()).isSameAs(repository);
+    private final Repository heartOfGold = RepositoryTestData.createHeartOfGold();
+
+    @Mock
+    private HookContext context;
+
+    @Mock
+    private HookBranchProvider branchProvider;
+
+    @Mock
+    private HookTagProvider tagProvider;
+
+    @BeforeEach
+    void setUp() {
+      lenient().when(context.isFeatureSupported(HookFeature.BRANCH_PROVIDER)).thenReturn(true);
+      lenient().when(context.getBranchProvider()).thenReturn(branchProvider);
+      lenient().when(context.getTagProvider()).thenReturn(tagProvider);
+    }
+
+    @Test
+    void shouldTriggerUpdateIfDefaultBranchWasModified() {
+      when(defaultBranchCache.get(heartOfGold)).thenReturn(Optional.of("main"));
+      branches(List.of("main", "feature/spaceship"), List.of());
+
+      indexListener.handle(event());
+
+      assertUpdate(heartOfGold);
+      verify(headRevisionCache).invalidate(heartOfGold);
+      verify(defaultBranchCache, never()).invalidate(heartOfGold);
+    }
+
+    @Test
+    void shouldTriggerUpdateIfDefaultBranchWasDeleted() {
+      when(defaultBranchCache.get(heartOfGold)).thenReturn(Optional.of("main"));
+      branches(List.of(), List.of("main"));
+
+      indexListener.handle(event());
+
+      assertUpdate(heartOfGold);
+      verify(headRevisionCache).invalidate(heartOfGold);
+      verify(defaultBranchCache).invalidate(heartOfGold);
+    }
+
+    @Test
+    void shouldTriggerUpdateIfDefaultBranchIsUnknown() {
+      when(defaultBranchCache.get(heartOfGold)).thenReturn(Optional.empty());
+      branches(List.of("feature/spaceship"), List.of());
+
+      indexListener.handle(event());
+
+      assertUpdate(heartOfGold);
+    }
+
+    @Test
+    void shouldSkipUpdateForOtherBranches() {
+      when(defaultBranchCache.get(heartOfGold)).thenReturn(Optional.of("main"));
+      branches(List.of("feature/spaceship"), List.of("feature/heart"));
+
+      indexListener.handle(event());
+
+      verifyNoInteractions(coalescer, journal, headRevisionCache);
+    }
+
+    @Test
+    void shouldSkipUpdateForTagOnlyPush() {
+      branches(List.of(), List.of());
+      when(context.isFeatureSupported(HookFeature.TAG_PROVIDER)).thenReturn(true);
+      when(tagProvider.getCreatedTags()).thenReturn(List.of(new Tag("1.0.0", "42")));
+
+      indexListener.handle(event());
+
+      verifyNoInteractions(coalescer, journal);
+    }
+
+    @Test
+    void shouldTriggerUpdateWithoutBranchProvider() {
+      when(context.isFeatureSupported(HookFeature.BRANCH_PROVIDER)).thenReturn(false);
+
+      indexListener.handle(event());
+
+      assertUpdate(heartOfGold);
+    }
+
+    private void branches(List<String> createdOrModified, List<String> deletedOrClosed) {
+      when(branchProvider.getCreatedOrModified()).thenReturn(createdOrModified);
+      when(branchProvider.getDeletedOrClosed()).thenReturn(deletedOrClosed);
+    }
+
+    private PostReceiveRepositoryHookEvent event() {
+      PostReceiveRepositoryHookEvent event = mock(PostReceiveRepositoryHookEvent.class);
+      when(event.getRepository()).thenReturn(heartOfGold);
+      when(event.getContext()).thenReturn(context);
+      return event;
+    }
+  }
+
+  private void assertUpdate(Repository repository) {
+    verify(coalescer).request(repository);
   }
 
   @Test
@@ -96,6 +232,8 @@ class IndexListenerTest {
     indexListener.handle(event);
 
     assertUpdate(heartOfGold);
+    verify(defaultBranchCache).invalidate(heartOfGold);
+    verify(headRevisionCache).invalidate(heartOfGold);
   }
 
   @Test
@@ -108,6 +246,7 @@ class IndexListenerTest {
     indexListener.handle(event);
 
     assertReindex(heartOfGold);
+    verify(journal).mark(heartOfGold);
   }
 
   private void assertReindex(Repository repository) {
@@ -120,9 +259,10 @@ class IndexListenerTest {
   }
 
   @Test
-  void shouldTriggerUpdateOnStart() {
+  void shouldScheduleStartupCheck() {
     Repository heartOfGold = RepositoryTestData.createHeartOfGold();
-    when(repositoryManager.getAll()).thenReturn(Collections.singleton(heartOfGold));
+    Set<Repository> repositories = Collections.singleton(heartOfGold);
+    when(repositoryManager.getAll()).thenReturn(repositories);
     doAnswer(ic -> {
       PrivilegedAction action = ic.getArgument(0);
       action.run();
@@ -130,7 +270,40 @@ class IndexListenerTest {
     }).when(administrationContext).runAsAdmin(any(PrivilegedAction.class));
 
     indexListener.contextInitialized(null);
+
+    verify(metrics).register(repositories);
+    verify(startupIndexScheduler).schedule(eq(repositories), submitterCaptor.capture());
+    submitterCaptor.getValue().accept(heartOfGold);
     assertUpdate(heartOfGold);
   }
 
+  @Test
+  void shouldRegisterMetricsOfCreatedRepository() {
+    Repository heartOfGold = RepositoryTestData.createHeartOfGold();
+
+    indexListener.handle(new RepositoryEvent(HandlerEventType.CREATE, heartOfGold));
+
+    verify(metrics).register(Collections.singleton(heartOfGold));
+  }
+
+  @Test
+  void shouldRemoveMetricsAndUpdateStateOfDeletedRepository() {
+    Repository heartOfGold = RepositoryTestData.createHeartOfGold();
+
+    indexListener.handle(new RepositoryEvent(HandlerEventType.DELETE, heartOfGold));
+
+    verify(metrics).remove(heartOfGold);
+    verify(coalescer).remove(heartOfGold);
+  }
+
+  @Test
+  void shouldShutdownStartupCheck() {
+    indexListener.contextDestroyed(null);
+
+    verify(startupIndexScheduler).shutdown();
+    verify(coalescer).shutdown();
+    verify(extractionPool).shutdown();
+    verify(resolverExecutor).shutdown();
+  }
+
 }
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.io.ContentType;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class IndexMetricsTest {
+
+  @Mock
+  private IndexUpdateCoalescer coalescer;
+
+  @Mock
+  private Clock clock;
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final Repository repository = RepositoryTestData.createHeartOfGold();
+
+  private IndexMetrics metrics;
+
+  @BeforeEach
+  void setUp() {
+    metrics = new IndexMetrics(registry, coalescer, clock);
+  }
+
+  @Test
+  void shouldTimeOperationsByOutcome() throws IOException {
+    assertThat(metrics.time(IndexMetrics.Stage.EXTRACT, () -> "ok")).isEqualTo("ok");
+    assertThrows(IOException.class, () -> metrics.time(IndexMetrics.Stage.EXTRACT, () -> {
+      throw new IOException("failed");
+    }));
+
+    assertThat(registry.get("scm.contentsearch.extract").tag("outcome", "success").timer().count()).isEqualTo(1);
+    assertThat(registry.get("scm.contentsearch.extract").tag("outcome", "failure").timer().count()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldCountFilesAndSkippedBinaries() {
+    ContentType contentType = mock(ContentType.class);
+    when(contentType.getRaw()).thenReturn("application/octet-stream");
+    when(contentType.getLanguage()).thenReturn(Optional.empty());
+
+    metrics.extracted(new FileContent("42", "a.bin", contentType));
+    metrics.file(IndexMetrics.FileResult.UNCHANGED);
+
+    assertThat(registry.get("scm.contentsearch.files").tag("result", "extracted").counter().count()).isEqualTo(1);
+    assertThat(registry.get("scm.contentsearch.files").tag("result", "unchanged").counter().count()).isEqualTo(1);
+    assertThat(registry.get("scm.contentsearch.binaries.skipped").counter().count()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldCountSkippedGeneratedFiles() {
+    ContentType contentType = mock(ContentType.class);
+    when(contentType.getRaw()).thenReturn("text/javascript");
+    when(contentType.isText()).thenReturn(true);
+    when(contentType.getLanguage()).thenReturn(Optional.empty());
+    FileContent fileContent = new FileContent("42", "app.min.js", contentType);
+    fileContent.setGenerated(true);
+
+    metrics.extracted(fileContent);
+
+    assertThat(registry.get("scm.contentsearch.generated.skipped").counter().count()).isEqualTo(1);
+    assertThat(registry.get("scm.contentsearch.binaries.skipped").counter().count()).isZero();
+  }
+
+  @Test
+  void shouldCountSkippedBlobsByReason() {
+    SkippedBlobReport report = new SkippedBlobReport();
+    report.skipped(file("a.pdf"), "PdfResolver", SkippedBlobReport.Reason.TIMEOUT);
+    report.skipped(file("b.pdf"), "PdfResolver", SkippedBlobReport.Reason.TIMEOUT);
+    report.skipped(file("c.pdf"), "PdfResolver", SkippedBlobReport.Reason.DISABLED);
+
+    metrics.skipped(report);
+
+    assertThat(registry.get("scm.contentsearch.resolver.skipped").tag("reason", "timeout").counter().count()).isEqualTo(2);
+    assertThat(registry.get("scm.contentsearch.resolver.skipped").tag("reason", "disabled").counter().count()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldCountBytesRead() throws IOException {
+    RepositoryFile file = mock(RepositoryFile.class);
+    when(file.openStream()).thenReturn(new ByteArrayInputStream(new byte[42]));
+
+    try (InputStream stream = metrics.counting(file).openStream()) {
+      stream.readAllBytes();
+    }
+
+    assertThat(registry.get("scm.contentsearch.bytes.read").counter().count()).isEqualTo(42);
+  }
+
+  @Test
+  void shouldReportPendingTasks() {
+    when(coalescer.getPendingUpdates()).thenReturn(3);
+
+    assertThat(registry.get("scm.contentsearch.tasks.pending").gauge().value()).isEqualTo(3);
+  }
+
+  @Test
+  void shouldReportLagUntilIndexed() {
+    when(clock.millis()).thenReturn(10_000L, 25_000L);
+    metrics.changed(repository);
+    metrics.commitsBehind(repository, 7);
+
+    assertThat(lag("seconds")).isEqualTo(15);
+    assertThat(lag("commits")).isEqualTo(7);
+
+    metrics.indexed(repository, Instant.ofEpochMilli(20_000L));
+
+    assertThat(lag("seconds")).isZero();
+    assertThat(lag("commits")).isZero();
+  }
+
+  @Test
+  void shouldKeepLagOfChangesDuringUpdate() {
+    lenient().when(clock.millis()).thenReturn(30_000L);
+    metrics.changed(repository);
+
+    metrics.indexed(repository, Instant.ofEpochMilli(20_000L));
+
+    assertThat(registry.get("scm.contentsearch.lag.seconds").gauge().value()).isZero();
+    when(clock.millis()).thenReturn(40_000L);
+    assertThat(lag("seconds")).isEqualTo(10);
+  }
+
+  @Test
+  void shouldRegisterMetersOnlyOnce() throws IOException {
+    int meters = registry.getMeters().size();
+
+    metrics.time(IndexMetrics.Stage.STORE, () -> "ok");
+    metrics.file(IndexMetrics.FileResult.REUSED);
+    SkippedBlobReport report = new SkippedBlobReport();
+    report.skipped(file("a.pdf"), "PdfResolver", SkippedBlobReport.Reason.BUSY);
+    metrics.skipped(report);
+
+    assertThat(registry.getMeters()).hasSize(meters);
+  }
+
+  @Test
+  void shouldReportLagOfRegisteredRepositoriesBeforeFirstChange() {
+    metrics.register(Collections.singleton(repository));
+
+    assertThat(lag("seconds")).isZero();
+    assertThat(lag("commits")).isZero();
+  }
+
+  @Test
+  void shouldRemoveLagOfDeletedRepository() {
+    metrics.register(Collections.singleton(repository));
+
+    metrics.remove(repository);
+
+    assertThat(registry.find("scm.contentsearch.lag.seconds").gauges()).isEmpty();
+    assertThat(registry.find("scm.contentsearch.lag.commits").gauges()).isEmpty();
+  }
+
+  private double lag(String unit) {
+    return registry.get("scm.contentsearch.lag." + unit)
+      .tag("repository", repository.getNamespaceAndName().toString())
+      .gauge()
+      .value();
+  }
+
+  private RepositoryFile file(String path) {
+    RepositoryFile file = mock(RepositoryFile.class);
+    when(file.getPath()).thenReturn(path);
+    return file;
+  }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import com.google.common.base.Strings;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.store.Blob;
+import sonia.scm.store.BlobStore;
+import sonia.scm.store.InMemoryBlobStoreFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IndexSnapshotStoreTest {
+
+  private final Repository repository = RepositoryTestData.createHeartOfGold();
+
+  private final InMemoryBlobStoreFactory storeFactory = new InMemoryBlobStoreFactory();
+
+  private IndexSnapshotStore snapshotStore;
+
+  @BeforeEach
+  void setUp() {
+    snapshotStore = new IndexSnapshotStore(storeFactory);
+  }
+
+  @Test
+  void shouldReturnEmptyWithoutSnapshot() throws IOException {
+    assertThat(snapshotStore.get(repository)).isEmpty();
+  }
+
+  @Test
+  void shouldReadWrittenSnapshot() throws IOException {
+    IndexSnapshot snapshot = new IndexSnapshot("v1");
+    snapshot.put("README.md", "b42");
+    snapshot.put("src/main/java/App.java", null);
+
+    snapshotStore.update(repository, snapshot);
+
+    assertThat(snapshotStore.get(repository))
+      .hasValueSatisfying(stored -> {
+        assertThat(stored.getFingerprint()).isEqualTo("v1");
+        assertThat(stored.getPaths()).containsExactly("README.md", "src/main/java/App.java");
+        assertThat(stored.getBlobId("README.md")).isEqualTo("b42");
+        assertThat(stored.getBlobId("src/main/java/App.java")).isNull();
+      });
+  }
+
+  @Test
+  void shouldReadPathsLongerThan64KiB() throws IOException {
+    String path = Strings.repeat("a", 70_000);
+
+    snapshotStore.update(repository, snapshot(path));
+
+    assertThat(snapshotStore.get(repository))
+      .hasValueSatisfying(stored -> assertThat(stored.getBlobId(path)).isEqualTo("blob-" + path));
+  }
+
+  @Test
+  void shouldOverwriteSnapshot() throws IOException {
+    snapshotStore.update(repository, snapshot("a", "b"));
+    snapshotStore.update(repository, snapshot("c"));
+
+    assertThat(blobs()).hasSize(2);
+    assertThat(snapshotStore.get(repository))
+      .hasValueSatisfying(stored -> assertThat(stored.getPaths()).containsOnly("c"));
+  }
+
+  @Test
+  void shouldRemoveSnapshot() throws IOException {
+    snapshotStore.update(repository, snapshot("a"));
+
+    snapshotStore.remove(repository);
+
+    assertThat(snapshotStore.get(repository)).isEmpty();
+  }
+
+  @Test
+  void shouldWriteChanges() throws IOException {
+    snapshotStore.update(repository, snapshot("a", "b"));
+
+    IndexSnapshot loaded = snapshotStore.get(repository).orElseThrow();
+    loaded.put("c", "blob-c");
+    loaded.removeAll(Collections.singletonList("a"));
+    snapshotStore.update(repository, loaded);
+
+    assertThat(blobs()).hasSize(2);
+    assertThat(snapshotStore.get(repository))
+      .hasValueSatisfying(stored -> {
+        assertThat(stored.getPaths()).containsOnly("b", "c");
+        assertThat(stored.getBlobId("c")).isEqualTo("blob-c");
+      });
+  }
+
+  @Test
+  void shouldNotWriteUnchangedSnapshot() throws IOException {
+    snapshotStore.update(repository, snapshot("a"));
+    Set<String> written = blobIds();
+
+    IndexSnapshot loaded = snapshotStore.get(repository).orElseThrow();
+    loaded.put("a", "blob-a");
+    loaded.removeAll(Collections.singletonList("x"));
+    snapshotStore.update(repository, loaded);
+
+    assertThat(blobIds()).isEqualTo(written);
+  }
+
+  @Test
+  void shouldSplitLargePages() throws IOException {
+    snapshotStore.update(repository, snapshot(paths(2 * IndexSnapshot.PAGE_SIZE + 1)));
+
+    assertThat(blobs()).hasSize(3);
+    assertThat(snapshotStore.get(repository))
+      .hasValueSatisfying(stored -> assertThat(stored.getPaths()).containsExactlyElementsOf(paths(2 * IndexSnapshot.PAGE_SIZE + 1)));
+  }
+
+  @Test
+  void shouldOnlyWriteModifiedPages() throws IOException {
+    List<String> paths = paths(2 * IndexSnapshot.PAGE_SIZE + 1);
+    snapshotStore.update(repository, snapshot(paths));
+    Set<String> written = blobIds();
+
+    IndexSnapshot loaded = snapshotStore.get(repository).orElseThrow();
+    loaded.put(paths.get(paths.size() - 1), "changed");
+    snapshotStore.update(repository, loaded);
+
+    Set<String> rewritten = blobIds();
+    rewritten.retainAll(written);
+    assertThat(rewritten).hasSize(2);
+    assertThat(snapshotStore.get(repository))
+      .hasValueSatisfying(stored -> {
+        assertThat(stored.getBlobId(paths.get(0))).isEqualTo("blob-" + paths.get(0));
+        assertThat(stored.getBlobId(paths.get(paths.size() - 1))).isEqualTo("changed");
+      });
+  }
+
+  @Test
+  void shouldDropEmptyPages() throws IOException {
+    List<String> paths = paths(2 * IndexSnapshot.PAGE_SIZE + 1);
+    snapshotStore.update(repository, snapshot(paths));
+
+    IndexSnapshot loaded = snapshotStore.get(repository).orElseThrow();
+    loaded.removeAll(paths.subList(IndexSnapshot.PAGE_SIZE, paths.size()));
+    snapshotStore.update(repository, loaded);
+
+    assertThat(blobs()).hasSize(2);
+    IndexSnapshot stored = snapshotStore.get(repository).orElseThrow();
+    assertThat(stored.getPaths()).containsExactlyElementsOf(paths.subList(0, IndexSnapshot.PAGE_SIZE));
+    stored.put("zzz", "blob-zzz");
+    assertThat(stored.getBlobId("zzz")).isEqualTo("blob-zzz");
+  }
+
+  @Test
+  void shouldIgnoreAndRemovePagesLeftOverFromInterruptedUpdate() throws IOException {
+    snapshotStore.update(repository, snapshot("a"));
+    Blob leftOver = store().create("page-99");
+    leftOver.getOutputStream().close();
+    leftOver.commit();
+
+    IndexSnapshot loaded = snapshotStore.get(repository).orElseThrow();
+    assertThat(loaded.getPaths()).containsOnly("a");
+
+    loaded.put("b", "blob-b");
+    snapshotStore.update(repository, loaded);
+
+    assertThat(blobIds()).doesNotContain("page-99");
+  }
+
+  @Test
+  void shouldSeedSnapshotWithoutBlobIds() throws IOException {
+    snapshotStore.update(repository, snapshot("old"));
+    List<String> paths = paths(IndexSnapshot.PAGE_SIZE + 1);
+
+    IndexSnapshot seeded = snapshotStore.seed(repository, "v1", visitor -> paths.forEach(visitor::visit));
+
+    assertThat(seeded.getPaths()).containsExactlyElementsOf(paths);
+    assertThat(blobs()).hasSize(3);
+    assertThat(snapshotStore.get(repository))
+      .hasValueSatisfying(stored -> {
+        assertThat(stored.getPaths()).containsExactlyElementsOf(paths);
+        assertThat(stored.getBlobId(paths.get(0))).isNull();
+      });
+  }
+
+  @Test
+  void shouldForgetBlobIdsOfPagesWithOtherFingerprint() throws IOException {
+    snapshotStore.update(repository, snapshot("a", "b"));
+
+    IndexSnapshot loaded = snapshotStore.get(repository).orElseThrow();
+    loaded.useFingerprint("v2");
+    loaded.put("c", "blob-c");
+    snapshotStore.update(repository, loaded);
+
+    assertThat(snapshotStore.get(repository))
+      .hasValueSatisfying(stored -> {
+        assertThat(stored.getFingerprint()).isEqualTo("v2");
+        assertThat(stored.getBlobId("a")).isNull();
+        assertThat(stored.getBlobId("c")).isEqualTo("blob-c");
+      });
+  }
+
+  @Test
+  void shouldDetectUnchangedBlobs() {
+    IndexSnapshot snapshot = snapshot("a");
+
+    assertThat(snapshot.isUnchanged("a", "blob-a")).isTrue();
+    assertThat(snapshot.isUnchanged("a", "blob-b")).isFalse();
+    assertThat(snapshot.isUnchanged("b", "blob-a")).isFalse();
+  }
+
+  @Test
+  void shouldForgetBlobIdsOnFingerprintChange() {
+    IndexSnapshot snapshot = snapshot("a");
+
+    snapshot.useFingerprint("v2");
+
+    assertThat(snapshot.getPaths()).containsOnly("a");
+    assertThat(snapshot.isUnchanged("a", "blob-a")).isFalse();
+  }
+
+  @Test
+  void shouldKeepBlobIdsOnSameFingerprint() {
+    IndexSnapshot snapshot = snapshot("a");
+
+    snapshot.useFingerprint("v1");
+
+    assertThat(snapshot.isUnchanged("a", "blob-a")).isTrue();
+  }
+
+  private List<Blob> blobs() {
+    return store().getAll();
+  }
+
+  private Set<String> blobIds() {
+    return blobs().stream().map(Blob::getId).collect(Collectors.toSet());
+  }
+
+  private BlobStore store() {
+    return storeFactory.withName(IndexSnapshotStore.STORE_NAME).forRepository(repository).build();
+  }
+
+  private List<String> paths(int count) {
+    List<String> paths = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      paths.add(String.format("file-%05d", i));
+    }
+    return paths;
+  }
+
+  private IndexSnapshot snapshot(String... paths) {
+    return snapshot(List.of(paths));
+  }
+
+  private IndexSnapshot snapshot(List<String> paths) {
+    IndexSnapshot snapshot = new IndexSnapshot("v1");
+    for (String path : paths) {
+      snapshot.put(path, "blob-" + path);
+    }
+    return snapshot;
+  }
+
+}
@@ -16,27 +16,45 @@
 
 package com.cloudogu.scm.search;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.stubbing.Answer;
 import sonia.scm.repository.Repository;
 import sonia.scm.repository.RepositoryTestData;
 import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.store.InMemoryBlobStoreFactory;
 import sonia.scm.store.InMemoryByteDataStoreFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
+import static sonia.scm.ContextEntry.ContextBuilder.entity;
+import static sonia.scm.NotFoundException.notFound;
 
 @ExtendWith(MockitoExtension.class)
 class IndexSyncWorkerTest {
@@ -58,6 +76,8 @@ class IndexSyncWorkerTest {
 
   private IndexStatusStore statusStore;
 
+  private IndexSnapshotStore snapshotStore;
+
   @Mock
   private LatestRevisionResolver latestRevisionResolver;
 
@@ -67,8 +87,15 @@ class IndexSyncWorkerTest {
   @Mock
   private RevisionPathCollector revisionPathCollector;
 
+  @Mock
+  private RevisionDistanceEstimator revisionDistanceEstimator;
+
   private IndexSyncWorker worker;
 
+  private final PendingIndexState pendingState = new PendingIndexState();
+
+  private final List<String> walkedPaths = new ArrayList<>();
+
   private final Repository repository = RepositoryTestData.createHappyVerticalPeopleTransporter();
 
   @BeforeEach
@@ -76,20 +103,37 @@ class IndexSyncWorkerTest {
     when(contextFactory.create(repositoryService, indexer)).thenReturn(context);
 
     statusStore = new IndexStatusStore(new InMemoryByteDataStoreFactory());
+    snapshotStore = new IndexSnapshotStore(new InMemoryBlobStoreFactory());
 
     when(context.getIndexStatusStore()).thenReturn(statusStore);
+    when(context.getIndexSnapshotStore()).thenReturn(snapshotStore);
     when(context.getLatestRevisionResolver()).thenReturn(latestRevisionResolver);
     when(context.getUpdatePathCollector()).thenReturn(updatePathCollector);
     when(context.getRevisionPathCollector()).thenReturn(revisionPathCollector);
+    when(context.getRevisionDistanceEstimator()).thenReturn(revisionDistanceEstimator);
+    lenient().when(context.isModificationsSupported()).thenReturn(true);
     when(context.getIndexer()).thenReturn(indexer);
+    IndexMetrics metrics = new IndexMetrics(new SimpleMeterRegistry(), mock(IndexUpdateCoalescer.class));
+    when(context.getMetrics()).thenReturn(metrics);
     when(context.getRepository()).thenReturn(repository);
 
-    worker = factory.create(repositoryService, indexer);
+    lenient().when(indexer.getFingerprint()).thenReturn("v1");
+    Answer<Void> store = invocation -> {
+      Collection<String> paths = invocation.getArgument(1);
+      // the snapshot is the last argument of store and storeModified
+      IndexSnapshot snapshot = invocation.getArgument(invocation.getArguments().length - 1);
+      paths.forEach(path -> snapshot.put(path, "blob-" + path));
+      return null;
+    };
+    lenient().doAnswer(store).when(indexer).store(anyString(), anyCollection(), any(IndexSnapshot.class));
+    lenient().doAnswer(store).when(indexer).storeModified(anyString(), anyCollection(), anyCollection(), any(IndexSnapshot.class));
+
+    worker = factory.create(repositoryService, indexer, pendingState);
   }
 
   @Test
   void shouldDeleteAllForNonIndexedEmptyRepository() throws IOException {
-    worker.ensureIndexIsUpToDate();
+    ensureIndexIsUpToDate();
 
     verify(indexer).deleteAll();
     assertThat(statusStore.get(repository))
@@ -100,13 +144,13 @@ class IndexSyncWorkerTest {
   void shouldReIndexNonIndexedRepository() throws IOException {
     when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
     List<String> pathToStore = Arrays.asList("a", "b");
-    when(revisionPathCollector.getPathToStore()).thenReturn(pathToStore);
+    mockRevisionPaths(pathToStore);
 
-    worker.ensureIndexIsUpToDate();
+    ensureIndexIsUpToDate();
 
     verify(indexer).deleteAll();
-    verify(revisionPathCollector).collect("42");
-    verify(indexer).store("42", pathToStore);
+    verify(revisionPathCollector).walk(eq("42"), isNull(), any());
+    verify(indexer).store(eq("42"), eq(pathToStore), any(IndexSnapshot.class));
     assertThat(statusStore.get(repository))
       .hasValueSatisfying(status -> assertThat(status.getRevision()).isEqualTo("42"));
   }
@@ -115,7 +159,7 @@ class IndexSyncWorkerTest {
   void shouldDeleteAllForEmptyRepository() throws IOException {
     statusStore.update(repository, "42");
 
-    worker.ensureIndexIsUpToDate();
+    ensureIndexIsUpToDate();
 
     verify(indexer).deleteAll();
     assertThat(statusStore.get(repository))
@@ -127,9 +171,9 @@ class IndexSyncWorkerTest {
     statusStore.update(repository, "42", -1);
     when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
 
-    worker.ensureIndexIsUpToDate();
+    ensureIndexIsUpToDate();
 
-    verify(indexer).deleteAll();
+    verify(indexer, never()).deleteAll();
     assertThat(statusStore.get(repository))
       .hasValueSatisfying(status -> {
         assertThat(status.getRevision()).isEqualTo("42");
@@ -143,14 +187,14 @@ class IndexSyncWorkerTest {
     statusStore.empty(repository);
 
     List<String> pathToStore = Arrays.asList("a", "b");
-    when(revisionPathCollector.getPathToStore()).thenReturn(pathToStore);
+    mockRevisionPaths(pathToStore);
     when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
 
-    worker.ensureIndexIsUpToDate();
+    ensureIndexIsUpToDate();
 
     verify(indexer).deleteAll();
-    verify(revisionPathCollector).collect("42");
-    verify(indexer).store("42", pathToStore);
+    verify(revisionPathCollector).walk(eq("42"), isNull(), any());
+    verify(indexer).store(eq("42"), eq(pathToStore), any(IndexSnapshot.class));
     assertThat(statusStore.get(repository))
       .hasValueSatisfying(status -> assertThat(status.getRevision()).isEqualTo("42"));
   }
@@ -160,7 +204,7 @@ class IndexSyncWorkerTest {
     statusStore.update(repository, "42");
     when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
 
-    worker.ensureIndexIsUpToDate();
+    ensureIndexIsUpToDate();
 
     verifyNoInteractions(indexer);
   }
@@ -175,11 +219,12 @@ class IndexSyncWorkerTest {
     List<String> pathToDelete = Arrays.asList("c", "d");
     when(updatePathCollector.getPathToDelete()).thenReturn(pathToDelete);
 
-    worker.ensureIndexIsUpToDate();
+    ensureIndexIsUpToDate();
 
     verify(updatePathCollector).collect("21", "42");
     verify(indexer).delete(pathToDelete);
-    verify(indexer).store("42", pathToStore);
+    verify(indexer).storeModified(eq("42"), eq(pathToStore), anyCollection(), any(IndexSnapshot.class));
+    verify(indexer, never()).store(anyString(), anyCollection(), any(IndexSnapshot.class));
     verify(indexer, never()).deleteAll();
     assertThat(statusStore.get(repository))
       .hasValueSatisfying(status -> assertThat(status.getRevision()).isEqualTo("42"));
@@ -189,14 +234,556 @@ class IndexSyncWorkerTest {
   void shouldReindex() throws IOException {
     when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
     List<String> pathToStore = Arrays.asList("a", "b");
-    when(revisionPathCollector.getPathToStore()).thenReturn(pathToStore);
+    mockRevisionPaths(pathToStore);
+
+    reIndex();
+
+    verify(indexer).deleteAll();
+    verify(revisionPathCollector).walk(eq("42"), isNull(), any());
+    verify(indexer).store(eq("42"), eq(pathToStore), any(IndexSnapshot.class));
+    assertThat(statusStore.get(repository))
+      .hasValueSatisfying(status -> assertThat(status.getRevision()).isEqualTo("42"));
+  }
+
+  @Test
+  void shouldReindexWithoutDeletingAllIfSnapshotExists() throws IOException {
+    storeSnapshot("a", "b", "c");
+    statusStore.update(repository, "21", -1);
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
+    List<String> pathToStore = Arrays.asList("a", "b", "d");
+    mockRevisionPaths(pathToStore);
+
+    ensureIndexIsUpToDate();
+
+    verify(indexer, never()).deleteAll();
+    verify(indexer).store(eq("42"), eq(pathToStore), any(IndexSnapshot.class));
+    verify(indexer).delete(Collections.singletonList("c"));
+    assertSnapshot("a", "b", "d");
+  }
+
+  @Test
+  void shouldCreateSnapshotOnReindex() throws IOException {
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
+    mockRevisionPaths(Arrays.asList("a", "b"));
+
+    reIndex();
+
+    assertSnapshot("a", "b");
+  }
+
+  @Test
+  void shouldUpdateSnapshot() throws IOException {
+    storeSnapshot("a", "c");
+    statusStore.update(repository, "21");
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
+    when(updatePathCollector.getPathToStore()).thenReturn(Arrays.asList("a", "b"));
+    when(updatePathCollector.getPathToDelete()).thenReturn(Collections.singletonList("c"));
+
+    ensureIndexIsUpToDate();
+
+    assertSnapshot("a", "b");
+  }
+
+  @Test
+  void shouldReindexInChunks() throws IOException {
+    worker = new IndexSyncWorker(context, pendingState, 2, 1000);
+    storeSnapshot();
+    statusStore.update(repository, "21", -1);
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
+    mockRevisionPaths(Arrays.asList("a", "b", "c", "d", "e"));
+
+    assertThat(ensureIndexIsUpToDate()).isFalse();
+
+    verify(indexer).store(eq("42"), eq(Arrays.asList("a", "b")), any(IndexSnapshot.class));
+    assertThat(statusStore.get(repository))
+      .hasValueSatisfying(status -> {
+        assertThat(status.isReindexing()).isTrue();
+        assertThat(status.getReindexRevision()).isEqualTo("42");
+        assertThat(status.getReindexOffset()).isEqualTo(2);
+        assertThat(status.getReindexCursor()).isEqualTo("b");
+      });
+    assertSnapshot("a", "b");
+    assertThat(walkedPaths).containsExactly("a", "b", "c");
+  }
+
+  @Test
+  void shouldReindexNonIndexedRepositoryInSingleRun() throws IOException {
+    worker = new IndexSyncWorker(context, pendingState, 2, 1000);
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
+    mockRevisionPaths(Arrays.asList("a", "b", "c", "d", "e"));
+
+    assertThat(reIndex()).isTrue();
+
+    verify(indexer).deleteAll();
+    verify(indexer).store(eq("42"), eq(Arrays.asList("a", "b", "c", "d", "e")), any(IndexSnapshot.class));
+    assertThat(statusStore.get(repository))
+      .hasValueSatisfying(status -> {
+        assertThat(status.isReindexing()).isFalse();
+        assertThat(status.getRevision()).isEqualTo("42");
+      });
+  }
+
+  @Test
+  void shouldCreateMissingSnapshotFromIndexedRevision() throws IOException {
+    worker = new IndexSyncWorker(context, pendingState, 2, 1000);
+    statusStore.update(repository, "21", -1);
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
+    mockRevisionPaths("21", Arrays.asList("a", "b", "x"));
+    mockRevisionPaths("42", Arrays.asList("a", "b", "c"));
+
+    assertThat(ensureIndexIsUpToDate()).isFalse();
+
+    verify(indexer, never()).deleteAll();
+    verify(indexer).store(eq("42"), eq(Arrays.asList("a", "b")), any(IndexSnapshot.class));
+    assertSnapshot("a", "b", "x");
+
+    assertThat(ensureIndexIsUpToDate()).isTrue();
+
+    verify(indexer).store(eq("42"), eq(Collections.singletonList("c")), any(IndexSnapshot.class));
+    verify(indexer).delete(Collections.singletonList("x"));
+    assertSnapshot("a", "b", "c");
+  }
+
+  @Test
+  void shouldReindexInSingleRunIfIndexedRevisionIsGone() throws IOException {
+    worker = new IndexSyncWorker(context, pendingState, 2, 1000);
+    statusStore.update(repository, "21", -1);
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
+    doThrow(notFound(entity("Changeset", "21"))).when(revisionPathCollector).walk(eq("21"), any(), any());
+    mockRevisionPaths("42", Arrays.asList("a", "b", "c"));
+
+    assertThat(ensureIndexIsUpToDate()).isTrue();
+
+    verify(indexer).deleteAll();
+    verify(indexer).store(eq("42"), eq(Arrays.asList("a", "b", "c")), any(IndexSnapshot.class));
+    assertSnapshot("a", "b", "c");
+  }
+
+  @Test
+  void shouldContinueReindexAtCheckpoint() throws IOException {
+    worker = new IndexSyncWorker(context, pendingState, 2, 1000);
+    storeSnapshot("a", "b", "x");
+    statusStore.update(repository, "21");
+    statusStore.checkpoint(repository, "42", 4, "d");
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
+    mockRevisionPaths(Arrays.asList("a", "b", "c", "d", "e"));
+
+    assertThat(ensureIndexIsUpToDate()).isTrue();
+
+    verify(indexer, never()).deleteAll();
+    verify(indexer).store(eq("42"), eq(Collections.singletonList("e")), any(IndexSnapshot.class));
+    verify(indexer).delete(Collections.singletonList("x"));
+    // the chunk after the cursor and the paths up to the cursor for the set of existing paths
+    assertThat(walkedPaths).containsExactly("e", "a", "b", "c", "d", "e");
+    assertThat(statusStore.get(repository))
+      .hasValueSatisfying(status -> {
+        assertThat(status.isReindexing()).isFalse();
+        assertThat(status.getRevision()).isEqualTo("42");
+      });
+  }
+
+  @Test
+  void shouldContinueReindexIfHeadMovesBetweenEveryChunk() throws IOException {
+    worker = new IndexSyncWorker(context, pendingState, 2, 1000);
+    storeSnapshot();
+    statusStore.update(repository, "21", -1);
+    when(latestRevisionResolver.resolve())
+      .thenReturn(Optional.of("42"), Optional.of("43"), Optional.of("44"));
+    mockRevisionPaths("42", Arrays.asList("a", "b", "c", "d", "e"));
+    mockRevisionPaths("43", Arrays.asList("a", "aa", "b", "c", "d", "e"));
+    mockRevisionPaths("44", Arrays.asList("a", "aa", "b", "d", "e"));
+    when(updatePathCollector.getPathToStore())
+      .thenReturn(Arrays.asList("a", "aa"), Collections.emptyList());
+    when(updatePathCollector.getPathToDelete())
+      .thenReturn(Collections.emptyList(), Collections.singletonList("c"));
+
+    assertThat(ensureIndexIsUpToDate()).isFalse();
+    assertThat(ensureIndexIsUpToDate()).isFalse();
+    assertThat(ensureIndexIsUpToDate()).isTrue();
+
+    verify(indexer).store(eq("42"), eq(Arrays.asList("a", "b")), any(IndexSnapshot.class));
+    verify(updatePathCollector).collect("42", "43");
+    verify(indexer).storeModified(eq("43"), eq(Arrays.asList("a", "aa")), anyCollection(), any(IndexSnapshot.class));
+    verify(indexer).store(eq("43"), eq(Arrays.asList("c", "d")), any(IndexSnapshot.class));
+    verify(updatePathCollector).collect("43", "44");
+    verify(indexer).delete(Collections.singletonList("c"));
+    verify(indexer).store(eq("44"), eq(Collections.singletonList("e")), any(IndexSnapshot.class));
+    assertSnapshot("a", "aa", "b", "d", "e");
+    assertThat(statusStore.get(repository))
+      .hasValueSatisfying(status -> {
+        assertThat(status.isReindexing()).isFalse();
+        assertThat(status.getRevision()).isEqualTo("44");
+      });
+  }
+
+  @Test
+  void shouldOnlyApplyModificationsUpToCursorIfHeadHasMoved() throws IOException {
+    worker = new IndexSyncWorker(context, pendingState, 2, 1000);
+    storeSnapshot("a", "b", "x");
+    statusStore.checkpoint(repository, "42", 2, "b");
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("43"));
+    mockRevisionPaths("43", Arrays.asList("a", "c", "d"));
+    when(updatePathCollector.getPathToStore()).thenReturn(Arrays.asList("a", "c"));
+    when(updatePathCollector.getPathToDelete()).thenReturn(Arrays.asList("b", "x"));
+
+    assertThat(ensureIndexIsUpToDate()).isTrue();
+
+    verify(indexer).storeModified(eq("43"), eq(Collections.singletonList("a")), anyCollection(), any(IndexSnapshot.class));
+    verify(indexer).delete(Collections.singletonList("b"));
+    verify(indexer).store(eq("43"), eq(Arrays.asList("c", "d")), any(IndexSnapshot.class));
+    verify(indexer).delete(Collections.singletonList("x"));
+    assertSnapshot("a", "c", "d");
+  }
+
+  @Test
+  void shouldStartOverIfHeadHasMovedDuringReindexWithoutModificationsSupport() throws IOException {
+    when(context.isModificationsSupported()).thenReturn(false);
+    worker = new IndexSyncWorker(context, pendingState, 2, 1000);
+    storeSnapshot("a", "b");
+    statusStore.checkpoint(repository, "42", 2, "b");
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("43"));
+    mockRevisionPaths(Arrays.asList("a", "b", "c"));
+
+    assertThat(ensureIndexIsUpToDate()).isFalse();
+
+    verify(revisionPathCollector).walk(eq("43"), isNull(), any());
+    verify(indexer).store(eq("43"), eq(Arrays.asList("a", "b")), any(IndexSnapshot.class));
+    assertThat(statusStore.get(repository))
+      .hasValueSatisfying(status -> {
+        assertThat(status.getReindexRevision()).isEqualTo("43");
+        assertThat(status.getReindexOffset()).isEqualTo(2);
+        assertThat(status.getReindexCursor()).isEqualTo("b");
+      });
+  }
+
+  @Test
+  void shouldCreateSnapshotFromIndexedRevisionOnReindex() throws IOException {
+    storeSnapshot("a", "x");
+    statusStore.update(repository, "21");
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
+    mockRevisionPaths("21", Arrays.asList("a", "b"));
+    mockRevisionPaths("42", Arrays.asList("a", "b", "c"));
+    List<String> knownBlobIds = recordKnownBlobIds();
+
+    reIndex();
+
+    assertThat(knownBlobIds).isEmpty();
+    verify(indexer, never()).deleteAll();
+    assertSnapshot("a", "b", "c");
+    assertThat(snapshotStore.get(repository))
+      .hasValueSatisfying(snapshot -> assertThat(snapshot.getBlobId("a")).isEqualTo("blob-a"));
+  }
+
+  @Test
+  void shouldPassBlobIdsOfSnapshotToIndexerOnReindexAfterVersionChange() throws IOException {
+    storeSnapshot("a", "b");
+    statusStore.update(repository, "21", -1);
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
+    mockRevisionPaths(Arrays.asList("a", "b", "c"));
+    List<String> knownBlobIds = recordKnownBlobIds();
+
+    ensureIndexIsUpToDate();
+
+    verify(indexer, never()).deleteAll();
+    assertThat(knownBlobIds).containsExactly("blob-a", "blob-b");
+    assertSnapshot("a", "b", "c");
+  }
+
+  @Test
+  void shouldPassBlobIdsOfSnapshotToIndexerOnReconcile() throws IOException {
+    when(context.isModificationsSupported()).thenReturn(false);
+    worker = new IndexSyncWorker(context, pendingState, 10, 100);
+    storeSnapshot("a", "b");
+    statusStore.update(repository, "21");
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
+    mockRevisionPaths(Arrays.asList("a", "b"));
+    List<String> knownBlobIds = recordKnownBlobIds();
+
+    ensureIndexIsUpToDate();
+
+    assertThat(knownBlobIds).containsExactly("blob-a", "blob-b");
+  }
+
+  @Test
+  void shouldNotStoreStatusAndSnapshotBeforeCommit() throws IOException {
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
+    mockRevisionPaths(Arrays.asList("a", "b"));
+
+    assertThat(worker.reIndex()).isTrue();
+
+    verify(indexer).store(eq("42"), eq(Arrays.asList("a", "b")), any(IndexSnapshot.class));
+    assertThat(pendingState.isEmpty()).isFalse();
+    assertThat(statusStore.get(repository)).isEmpty();
+    assertThat(snapshotStore.get(repository)).isEmpty();
+
+    pendingState.commit();
+
+    assertThat(statusStore.get(repository))
+      .hasValueSatisfying(status -> assertThat(status.getRevision()).isEqualTo("42"));
+    assertSnapshot("a", "b");
+  }
+
+  @Test
+  void shouldNotStoreCheckpointBeforeCommit() throws IOException {
+    worker = new IndexSyncWorker(context, pendingState, 2, 1000);
+    statusStore.update(repository, "21");
+    storeSnapshot("a");
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
+    mockRevisionPaths(Arrays.asList("a", "b", "c"));
 
-    worker.reIndex();
+    assertThat(worker.reIndex()).isFalse();
+
+    assertThat(statusStore.get(repository))
+      .hasValueSatisfying(status -> {
+        assertThat(status.isReindexing()).isFalse();
+        assertThat(status.getRevision()).isEqualTo("21");
+      });
+  }
+
+  @Test
+  void shouldForgetBlobIdsOfOtherFingerprint() throws IOException {
+    storeSnapshot("a", "b");
+    when(indexer.getFingerprint()).thenReturn("v2");
+    statusStore.update(repository, "21");
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
+    when(updatePathCollector.getPathToStore()).thenReturn(Collections.singletonList("a"));
+
+    ensureIndexIsUpToDate();
+
+    verify(indexer).storeModified(eq("42"), eq(Collections.singletonList("a")), anyCollection(), argThat(snapshot -> snapshot.getBlobId("b") == null));
+  }
+
+  @Test
+  void shouldRemoveOldPathsOfMovedFilesFromSnapshotAfterStoring() throws IOException {
+    storeSnapshot("a", "b");
+    statusStore.update(repository, "21");
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
+    when(updatePathCollector.getPathToStore()).thenReturn(Collections.singletonList("c"));
+    when(updatePathCollector.getMovedPaths()).thenReturn(Collections.singletonList("c"));
+    when(updatePathCollector.getPathToDelete()).thenReturn(Collections.singletonList("a"));
+    List<String> pathsWhileStoring = new ArrayList<>();
+    doAnswer(invocation -> {
+      IndexSnapshot snapshot = invocation.getArgument(3);
+      snapshot.getPaths().forEach(pathsWhileStoring::add);
+      return null;
+    }).when(indexer).storeModified(anyString(), anyCollection(), anyCollection(), any(IndexSnapshot.class));
+
+    ensureIndexIsUpToDate();
+
+    verify(indexer).delete(Collections.singletonList("a"));
+    verify(indexer).storeModified(
+      eq("42"), eq(Collections.singletonList("c")), eq(Collections.singletonList("c")), any(IndexSnapshot.class)
+    );
+    assertThat(pathsWhileStoring).containsExactly("a", "b");
+    assertSnapshot("b");
+  }
+
+  @Test
+  void shouldReconcileWithTreeIfTooFarBehind() throws IOException {
+    worker = new IndexSyncWorker(context, pendingState, 10, 100);
+    storeSnapshot("a", "b", "x");
+    statusStore.update(repository, "21");
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
+    when(revisionDistanceEstimator.estimate("21", "42")).thenReturn(101L);
+    mockRevisionPaths(Arrays.asList("a", "b", "c"));
+
+    assertThat(ensureIndexIsUpToDate()).isTrue();
+
+    verifyNoInteractions(updatePathCollector);
+    verify(indexer, never()).deleteAll();
+    verify(indexer).store(eq("42"), eq(Arrays.asList("a", "b", "c")), any(IndexSnapshot.class));
+    verify(indexer).delete(Collections.singletonList("x"));
+    assertThat(statusStore.get(repository))
+      .hasValueSatisfying(status -> assertThat(status.getRevision()).isEqualTo("42"));
+  }
+
+  @Test
+  void shouldReconcileWithTreeWithoutModificationsSupport() throws IOException {
+    when(context.isModificationsSupported()).thenReturn(false);
+    worker = new IndexSyncWorker(context, pendingState, 10, 100);
+    storeSnapshot("a", "x");
+    statusStore.update(repository, "21");
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
+    mockRevisionPaths(Arrays.asList("a", "b"));
+
+    assertThat(ensureIndexIsUpToDate()).isTrue();
+
+    verifyNoInteractions(updatePathCollector, revisionDistanceEstimator);
+    verify(indexer).store(eq("42"), eq(Arrays.asList("a", "b")), argThat(snapshot -> "blob-a".equals(snapshot.getBlobId("a"))));
+    verify(indexer).delete(Collections.singletonList("x"));
+    assertSnapshot("a", "b");
+  }
+
+  @Test
+  void shouldReconcileWithTreeIfIndexedRevisionIsGone() throws IOException {
+    storeSnapshot("a", "x");
+    statusStore.update(repository, "21");
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
+    when(revisionDistanceEstimator.estimate("21", "42")).thenReturn(RevisionDistanceEstimator.UNRELATED);
+    mockRevisionPaths(Arrays.asList("a", "b"));
+
+    assertThat(ensureIndexIsUpToDate()).isTrue();
+
+    verifyNoInteractions(updatePathCollector);
+    verify(indexer).delete(Collections.singletonList("x"));
+    assertSnapshot("a", "b");
+  }
+
+  @Test
+  void shouldUpdateIncrementallyBelowThreshold() throws IOException {
+    worker = new IndexSyncWorker(context, pendingState, 10, 100);
+    statusStore.update(repository, "21");
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
+    when(revisionDistanceEstimator.estimate("21", "42")).thenReturn(100L);
+
+    ensureIndexIsUpToDate();
+
+    verify(updatePathCollector).collect("21", "42");
+    verifyNoInteractions(revisionPathCollector);
+  }
+
+  @Test
+  void shouldReconcileWithTreeIfExclusionsHaveChanged() throws IOException {
+    worker = new IndexSyncWorker(context, pendingState, 10, 100);
+    storeSnapshot("a", "node_modules/x");
+    statusStore.update(repository, "21");
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
+    when(updatePathCollector.isExclusionsChanged()).thenReturn(true);
+    mockRevisionPaths(Arrays.asList(".searchignore", "a"));
+
+    assertThat(ensureIndexIsUpToDate()).isTrue();
+
+    verify(updatePathCollector).collect("21", "42");
+    verify(indexer, never()).deleteAll();
+    verify(indexer).store(eq("42"), eq(Arrays.asList(".searchignore", "a")), any(IndexSnapshot.class));
+    verify(indexer).delete(Collections.singletonList("node_modules/x"));
+    assertSnapshot("a", ".searchignore");
+  }
+
+  @Test
+  void shouldReconcileWithTreeOnRequest() throws IOException {
+    storeSnapshot("a", "node_modules/x");
+    statusStore.update(repository, "42");
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
+    mockRevisionPaths(Collections.singletonList("a"));
+
+    assertThat(reconcileWithTree()).isTrue();
+
+    verify(indexer, never()).deleteAll();
+    verify(indexer).delete(Collections.singletonList("node_modules/x"));
+    assertSnapshot("a");
+    assertThat(statusStore.get(repository))
+      .hasValueSatisfying(status -> {
+        assertThat(status.isReindexing()).isFalse();
+        assertThat(status.getRevision()).isEqualTo("42");
+      });
+  }
+
+  @Test
+  void shouldStartOverRunningReIndexOnReconcileRequest() throws IOException {
+    worker = new IndexSyncWorker(context, pendingState, 1, 100);
+    storeSnapshot("a", "b");
+    statusStore.update(repository, "21");
+    statusStore.checkpoint(repository, "42", 1, "a");
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
+    mockRevisionPaths(Arrays.asList("a", "b"));
+
+    assertThat(reconcileWithTree()).isFalse();
+
+    verify(revisionPathCollector).walk(eq("42"), isNull(), any());
+    verify(indexer).store(eq("42"), eq(Collections.singletonList("a")), any(IndexSnapshot.class));
+    assertThat(statusStore.get(repository))
+      .hasValueSatisfying(status -> {
+        assertThat(status.getReindexRevision()).isEqualTo("42");
+        assertThat(status.getReindexCursor()).isEqualTo("a");
+        assertThat(status.getReindexOffset()).isEqualTo(1);
+      });
+  }
+
+  @Test
+  void shouldUpdateAsUsualOnReconcileRequestWithoutIndex() throws IOException {
+    when(latestRevisionResolver.resolve()).thenReturn(Optional.of("42"));
+    mockRevisionPaths(Collections.singletonList("a"));
+
+    assertThat(reconcileWithTree()).isTrue();
 
     verify(indexer).deleteAll();
-    verify(revisionPathCollector).collect("42");
-    verify(indexer).store("42", pathToStore);
     assertThat(statusStore.get(repository))
       .hasValueSatisfying(status -> assertThat(status.getRevision()).isEqualTo("42"));
   }
+
+  private boolean ensureIndexIsUpToDate() throws IOException {
+    boolean upToDate = worker.ensureIndexIsUpToDate();
+    pendingState.commit();
+    return upToDate;
+  }
+
+  private boolean reconcileWithTree() throws IOException {
+    boolean finished = worker.reconcileWithTree();
+    pendingState.commit();
+    return finished;
+  }
+
+  private boolean reIndex() throws IOException {
+    boolean finished = worker.reIndex();
+    pendingState.commit();
+    return finished;
+  }
+
+  /**
+   * Records the blob ids of the snapshot, which are known to the indexer before it stores the files.
+   */
+  private List<String> recordKnownBlobIds() throws IOException {
+    List<String> knownBlobIds = new ArrayList<>();
+    doAnswer(invocation -> {
+      Collection<String> paths = invocation.getArgument(1);
+      IndexSnapshot snapshot = invocation.getArgument(2);
+      for (String path : paths) {
+        String blobId = snapshot.getBlobId(path);
+        if (blobId != null) {
+          knownBlobIds.add(blobId);
+        }
+        snapshot.put(path, "blob-" + path);
+      }
+      return null;
+    }).when(indexer).store(anyString(), anyCollection(), any(IndexSnapshot.class));
+    return knownBlobIds;
+  }
+
+  private void mockRevisionPaths(List<String> paths) throws IOException {
+    doAnswer(walk(paths)).when(revisionPathCollector).walk(anyString(), any(), any());
+  }
+
+  private void mockRevisionPaths(String revision, List<String> paths) throws IOException {
+    doAnswer(walk(paths)).when(revisionPathCollector).walk(eq(revision), any(), any());
+  }
+
+  private Answer<Void> walk(List<String> paths) {
+    return invocation -> {
+      String after = invocation.getArgument(1);
+      BulkContentReader.PathVisitor visitor = invocation.getArgument(2);
+      for (String path : paths) {
+        if (PathOrder.isAfter(path, after)) {
+          walkedPaths.add(path);
+          if (!visitor.visit(path)) {
+            break;
+          }
+        }
+      }
+      return null;
+    };
+  }
+
+  private void storeSnapshot(String... paths) throws IOException {
+    IndexSnapshot snapshot = new IndexSnapshot("v1");
+    for (String path : paths) {
+      snapshot.put(path, "blob-" + path);
+    }
+    snapshotStore.update(repository, snapshot);
+  }
+
+  private void assertSnapshot(String... paths) throws IOException {
+    assertThat(snapshotStore.get(repository))
+      .hasValueSatisfying(snapshot -> assertThat(snapshot.getPaths()).containsOnly(paths));
+  }
 }
@@ -23,7 +23,6 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import sonia.scm.repository.Feature;
 import sonia.scm.repository.Repository;
 import sonia.scm.repository.RepositoryTestData;
 import sonia.scm.repository.api.Command;
@@ -33,6 +32,7 @@ import sonia.scm.search.Index;
 
 import java.io.IOException;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
@@ -63,6 +63,8 @@ class IndexSyncerTest {
 
   private final Repository repository = RepositoryTestData.createHeartOfGold();
 
+  private final PendingIndexState pendingState = new PendingIndexState();
+
   @BeforeEach
   void setUp() {
     when(repositoryServiceFactory.create(repository)).thenReturn(repositoryService);
@@ -72,29 +74,35 @@ class IndexSyncerTest {
   class EnsureIndexIsUpToDateTests {
     @Test
     void shouldNotIndexIfLogCommandIsNotSupported() {
-      support(false, true, true);
+      support(false, true);
 
-      indexSyncer.ensureIndexIsUpToDate(index, repository);
+      indexSyncer.ensureIndexIsUpToDate(index, repository, pendingState);
 
       verifyNoInteractions(indexerFactory);
     }
 
     @Test
     void shouldNotIndexIfBrowseCommandIsNotSupported() {
-      support(true, false, true);
+      support(true, false);
 
-      indexSyncer.ensureIndexIsUpToDate(index, repository);
+      indexSyncer.ensureIndexIsUpToDate(index, repository, pendingState);
 
       verifyNoInteractions(indexerFactory);
     }
 
     @Test
-    void shouldNotIndexIfFeatureIsNotSupported() {
-      support(true, true, false);
+    void shouldIndexWithoutModificationsFeature() throws IOException {
+      Indexer indexer = mock(Indexer.class);
+      when(indexerFactory.create(index, repositoryService)).thenReturn(indexer);
 
-      indexSyncer.ensureIndexIsUpToDate(index, repository);
+      IndexSyncWorker worker = mock(IndexSyncWorker.class);
+      when(indexSyncWorkerFactory.create(repositoryService, indexer, pendingState)).thenReturn(worker);
 
-      verifyNoInteractions(indexerFactory);
+      support(true, true);
+
+      indexSyncer.ensureIndexIsUpToDate(index, repository, pendingState);
+
+      verify(worker).ensureIndexIsUpToDate();
     }
 
     @Test
@@ -103,28 +111,57 @@ class IndexSyncerTest {
       when(indexerFactory.create(index, repositoryService)).thenReturn(indexer);
 
       IndexSyncWorker worker = mock(IndexSyncWorker.class);
-      when(indexSyncWorkerFactory.create(repositoryService, indexer)).thenReturn(worker);
+      when(indexSyncWorkerFactory.create(repositoryService, indexer, pendingState)).thenReturn(worker);
 
-      support(true, true, true);
+      support(true, true);
 
-      indexSyncer.ensureIndexIsUpToDate(index, repository);
+      indexSyncer.ensureIndexIsUpToDate(index, repository, pendingState);
 
       verify(worker).ensureIndexIsUpToDate();
     }
 
+    @Test
+    void shouldCallWorkerToReconcile() throws IOException {
+      Indexer indexer = mock(Indexer.class);
+      when(indexerFactory.create(index, repositoryService)).thenReturn(indexer);
+
+      IndexSyncWorker worker = mock(IndexSyncWorker.class);
+      when(indexSyncWorkerFactory.create(repositoryService, indexer, pendingState)).thenReturn(worker);
+      when(worker.reconcileWithTree()).thenReturn(true);
+
+      support(true, true);
+
+      assertThat(indexSyncer.reconcile(index, repository, pendingState)).isEqualTo(IndexSyncer.Result.UP_TO_DATE);
+      verify(indexer).reportSkippedBlobs();
+    }
+
+    @Test
+    void shouldReturnIncompleteIfWorkerHasNotFinished() throws IOException {
+      Indexer indexer = mock(Indexer.class);
+      when(indexerFactory.create(index, repositoryService)).thenReturn(indexer);
+
+      IndexSyncWorker worker = mock(IndexSyncWorker.class);
+      when(indexSyncWorkerFactory.create(repositoryService, indexer, pendingState)).thenReturn(worker);
+      when(worker.ensureIndexIsUpToDate()).thenReturn(false);
+
+      support(true, true);
+
+      assertThat(indexSyncer.ensureIndexIsUpToDate(index, repository, pendingState)).isEqualTo(IndexSyncer.Result.INCOMPLETE);
+    }
+
     @Test
     void shouldCloseRepositoryServiceOnException() throws IOException {
       Indexer indexer = mock(Indexer.class);
       when(indexerFactory.create(index, repositoryService)).thenReturn(indexer);
 
       IndexSyncWorker worker = mock(IndexSyncWorker.class);
-      when(indexSyncWorkerFactory.create(repositoryService, indexer)).thenReturn(worker);
+      when(indexSyncWorkerFactory.create(repositoryService, indexer, pendingState)).thenReturn(worker);
 
       doThrow(new IOException("fail")).when(worker).ensureIndexIsUpToDate();
 
-      support(true, true, true);
+      support(true, true);
 
-      indexSyncer.ensureIndexIsUpToDate(index, repository);
+      indexSyncer.ensureIndexIsUpToDate(index, repository, pendingState);
 
       verify(repositoryService).close();
     }
@@ -134,29 +171,35 @@ class IndexSyncerTest {
   class ReindexTests {
     @Test
     void shouldNotIndexIfLogCommandIsNotSupported() {
-      support(false, true, true);
+      support(false, true);
 
-      indexSyncer.reindex(index, repository);
+      indexSyncer.reindex(index, repository, pendingState);
 
       verifyNoInteractions(indexerFactory);
     }
 
     @Test
     void shouldNotIndexIfBrowseCommandIsNotSupported() {
-      support(true, false, true);
+      support(true, false);
 
-      indexSyncer.reindex(index, repository);
+      indexSyncer.reindex(index, repository, pendingState);
 
       verifyNoInteractions(indexerFactory);
     }
 
     @Test
-    void shouldNotIndexIfFeatureIsNotSupported() {
-      support(true, true, false);
+    void shouldIndexWithoutModificationsFeature() throws IOException {
+      Indexer indexer = mock(Indexer.class);
+      when(indexerFactory.create(index, repositoryService)).thenReturn(indexer);
 
-      indexSyncer.reindex(index, repository);
+      IndexSyncWorker worker = mock(IndexSyncWorker.class);
+      when(indexSyncWorkerFactory.create(repositoryService, indexer, pendingState)).thenReturn(worker);
 
-      verifyNoInteractions(indexerFactory);
+      support(true, true);
+
+      indexSyncer.reindex(index, repository, pendingState);
+
+      verify(worker).reIndex();
     }
 
     @Test
@@ -165,37 +208,50 @@ class IndexSyncerTest {
       when(indexerFactory.create(index, repositoryService)).thenReturn(indexer);
 
       IndexSyncWorker worker = mock(IndexSyncWorker.class);
-      when(indexSyncWorkerFactory.create(repositoryService, indexer)).thenReturn(worker);
+      when(indexSyncWorkerFactory.create(repositoryService, indexer, pendingState)).thenReturn(worker);
 
-      support(true, true, true);
+      support(true, true);
 
-      indexSyncer.reindex(index, repository);
+      indexSyncer.reindex(index, repository, pendingState);
 
       verify(worker).reIndex();
     }
 
+    @Test
+    void shouldReturnUpToDateIfWorkerHasFinished() throws IOException {
+      Indexer indexer = mock(Indexer.class);
+      when(indexerFactory.create(index, repositoryService)).thenReturn(indexer);
+
+      IndexSyncWorker worker = mock(IndexSyncWorker.class);
+      when(indexSyncWorkerFactory.create(repositoryService, indexer, pendingState)).thenReturn(worker);
+      when(worker.reIndex()).thenReturn(true);
+
+      support(true, true);
+
+      assertThat(indexSyncer.reindex(index, repository, pendingState)).isEqualTo(IndexSyncer.Result.UP_TO_DATE);
+    }
+
     @Test
     void shouldCloseRepositoryServiceOnException() throws IOException {
       Indexer indexer = mock(Indexer.class);
       when(indexerFactory.create(index, repositoryService)).thenReturn(indexer);
 
       IndexSyncWorker worker = mock(IndexSyncWorker.class);
-      when(indexSyncWorkerFactory.create(repositoryService, indexer)).thenReturn(worker);
+      when(indexSyncWorkerFactory.create(repositoryService, indexer, pendingState)).thenReturn(worker);
 
       doThrow(new IOException("fail")).when(worker).reIndex();
 
-      support(true, true, true);
+      support(true, true);
 
-      indexSyncer.reindex(index, repository);
+      assertThat(indexSyncer.reindex(index, repository, pendingState)).isEqualTo(IndexSyncer.Result.FAILED);
 
       verify(repositoryService).close();
     }
   }
 
-  private void support(boolean log, boolean browse, boolean baseMod) {
+  private void support(boolean log, boolean browse) {
     lenient().doReturn(log).when(repositoryService).isSupported(Command.LOG);
     lenient().doReturn(browse).when(repositoryService).isSupported(Command.BROWSE);
-    lenient().doReturn(baseMod).when(repositoryService).isSupported(Feature.MODIFICATIONS_BETWEEN_REVISIONS);
   }
 
 }
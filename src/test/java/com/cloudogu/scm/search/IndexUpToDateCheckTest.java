@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Changeset;
+import sonia.scm.repository.ChangesetPagingResult;
+import sonia.scm.repository.Feature;
+import sonia.scm.repository.Person;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.repository.api.Command;
+import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.repository.api.RepositoryServiceFactory;
+import sonia.scm.store.InMemoryByteDataStoreFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class IndexUpToDateCheckTest {
+
+  @Mock
+  private RepositoryServiceFactory repositoryServiceFactory;
+
+  @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+  private RepositoryService repositoryService;
+
+  private IndexStatusStore statusStore;
+
+  private HeadRevisionCache headRevisionCache;
+
+  private IndexUpToDateCheck check;
+
+  private final Repository repository = RepositoryTestData.createHeartOfGold();
+
+  @BeforeEach
+  void setUp() {
+    statusStore = new IndexStatusStore(new InMemoryByteDataStoreFactory());
+    headRevisionCache = new HeadRevisionCache();
+    check = new IndexUpToDateCheck(repositoryServiceFactory, statusStore, new DefaultBranchCache(), headRevisionCache);
+  }
+
+  @Test
+  void shouldRequireUpdateWithoutStatus() throws IOException {
+    assertThat(check.requiresUpdate(repository)).isTrue();
+
+    verifyNoInteractions(repositoryServiceFactory);
+  }
+
+  @Test
+  void shouldRequireUpdateIfVersionHasChanged() throws IOException {
+    statusStore.update(repository, "42", -1);
+
+    assertThat(check.requiresUpdate(repository)).isTrue();
+
+    verifyNoInteractions(repositoryServiceFactory);
+  }
+
+  @Test
+  void shouldRequireUpdateIfReindexHasNotFinished() throws IOException {
+    statusStore.update(repository, "21");
+    statusStore.checkpoint(repository, "42", 100, "a");
+
+    assertThat(check.requiresUpdate(repository)).isTrue();
+
+    verifyNoInteractions(repositoryServiceFactory);
+  }
+
+  @Test
+  void shouldNotRequireUpdateIfNotSupported() throws IOException {
+    statusStore.update(repository, "42");
+    when(repositoryServiceFactory.create(repository)).thenReturn(repositoryService);
+    support(false);
+
+    assertThat(check.requiresUpdate(repository)).isFalse();
+  }
+
+  @Test
+  void shouldNotRequireUpdateIfRevisionIsIndexed() throws IOException {
+    statusStore.update(repository, "42");
+    mockLatestRevision("42");
+
+    assertThat(check.requiresUpdate(repository)).isFalse();
+  }
+
+  @Test
+  void shouldRequireUpdateIfRevisionHasChanged() throws IOException {
+    statusStore.update(repository, "21");
+    mockLatestRevision("42");
+
+    assertThat(check.requiresUpdate(repository)).isTrue();
+  }
+
+  @Test
+  void shouldNotRequireUpdateForEmptyRepository() throws IOException {
+    statusStore.empty(repository);
+    mockLatestRevision();
+
+    assertThat(check.requiresUpdate(repository)).isFalse();
+  }
+
+  @Test
+  void shouldRequireUpdateIfRepositoryHasBecomeEmpty() throws IOException {
+    statusStore.update(repository, "42");
+    mockLatestRevision();
+
+    assertThat(check.requiresUpdate(repository)).isTrue();
+  }
+
+  @Test
+  void shouldUseCachedHeadRevision() throws IOException {
+    statusStore.update(repository, "42");
+    headRevisionCache.put(repository, headRevisionCache.generation(repository), "42");
+
+    assertThat(check.requiresUpdate(repository)).isFalse();
+
+    verifyNoInteractions(repositoryServiceFactory);
+  }
+
+  @Test
+  void shouldRequireUpdateIfCachedHeadRevisionHasChanged() throws IOException {
+    statusStore.update(repository, "21");
+    headRevisionCache.put(repository, headRevisionCache.generation(repository), "42");
+
+    assertThat(check.requiresUpdate(repository)).isTrue();
+
+    verifyNoInteractions(repositoryServiceFactory);
+  }
+
+  private void mockLatestRevision(String... revisions) throws IOException {
+    when(repositoryServiceFactory.create(repository)).thenReturn(repositoryService);
+    lenient().when(repositoryService.getRepository()).thenReturn(repository);
+    support(true);
+    lenient().when(repositoryService.isSupported(Command.BRANCHES)).thenReturn(false);
+
+    Changeset[] changesets = Arrays.stream(revisions)
+      .map(revision -> new Changeset(revision, 1L, Person.toPerson("trillian")))
+      .toArray(Changeset[]::new);
+
+    when(
+      repositoryService.getLogCommand()
+        .setPagingLimit(1)
+        .setDisablePreProcessors(true)
+        .setDisableCache(true)
+        .getChangesets()
+    ).thenReturn(new ChangesetPagingResult(changesets.length, Arrays.asList(changesets)));
+  }
+
+  private void support(boolean supported) {
+    lenient().when(repositoryService.isSupported(Command.LOG)).thenReturn(supported);
+    lenient().when(repositoryService.isSupported(Command.BROWSE)).thenReturn(supported);
+    lenient().when(repositoryService.isSupported(Feature.MODIFICATIONS_BETWEEN_REVISIONS)).thenReturn(supported);
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.search.SearchEngine;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@SuppressWarnings("UnstableApiUsage")
+class IndexUpdateCoalescerTest {
+
+  private static final long QUIET_WINDOW = 5000L;
+  private static final long UPDATE_TIMEOUT = 60_000L;
+
+  @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+  private SearchEngine searchEngine;
+
+  @Mock
+  private ScheduledExecutorService scheduler;
+
+  @Mock
+  private Clock clock;
+
+  private IndexUpdateCoalescer coalescer;
+
+  private final Repository repository = RepositoryTestData.createHeartOfGold();
+
+  @BeforeEach
+  void setUp() {
+    lenient().when(clock.millis()).thenReturn(100_000L);
+    coalescer = new IndexUpdateCoalescer(searchEngine, scheduler, clock, QUIET_WINDOW, UPDATE_TIMEOUT);
+  }
+
+  @Test
+  void shouldSubmitFirstRequestImmediately() {
+    coalescer.request(repository);
+
+    assertSubmitted(1);
+    verifyNoInteractions(scheduler);
+  }
+
+  @Test
+  void shouldCoalesceRequestsWhileUpdateIsRunning() {
+    coalescer.request(repository);
+    coalescer.request(repository);
+    coalescer.request(repository);
+
+    assertSubmitted(1);
+
+    when(clock.millis()).thenReturn(110_000L);
+    coalescer.finished(repository, 1);
+    assertSubmitted(2);
+  }
+
+  @Test
+  void shouldCountPendingUpdates() {
+    assertThat(coalescer.getPendingUpdates()).isZero();
+
+    coalescer.request(repository);
+    assertThat(coalescer.getPendingUpdates()).isEqualTo(1);
+
+    coalescer.finished(repository, 1);
+    assertThat(coalescer.getPendingUpdates()).isZero();
+  }
+
+  @Test
+  void shouldSubmitPendingUpdateAfterQuietWindow() {
+    coalescer.request(repository);
+    coalescer.finished(repository, 1);
+
+    when(clock.millis()).thenReturn(101_000L);
+    coalescer.request(repository);
+
+    assertSubmitted(1);
+    Runnable timer = captureTimer(4000L);
+
+    when(clock.millis()).thenReturn(105_000L);
+    timer.run();
+    assertSubmitted(2);
+  }
+
+  @Test
+  void shouldSubmitPendingUpdateAfterRunningUpdateHasFinishedWithinQuietWindow() {
+    coalescer.request(repository);
+    coalescer.request(repository);
+
+    when(clock.millis()).thenReturn(101_000L);
+    coalescer.finished(repository, 1);
+
+    assertSubmitted(1);
+    Runnable timer = captureTimer(4000L);
+
+    when(clock.millis()).thenReturn(105_000L);
+    timer.run();
+    assertSubmitted(2);
+  }
+
+  @Test
+  void shouldSubmitImmediatelyIfQuietWindowHasElapsed() {
+    coalescer.request(repository);
+    coalescer.finished(repository, 1);
+
+    when(clock.millis()).thenReturn(106_000L);
+    coalescer.request(repository);
+
+    assertSubmitted(2);
+    verify(scheduler, never()).schedule(any(Runnable.class), anyLong(), any());
+  }
+
+  @Test
+  void shouldSubmitPendingUpdateIfRunningUpdateIsLost() {
+    coalescer.request(repository);
+    coalescer.request(repository);
+
+    Runnable timer = captureTimer(UPDATE_TIMEOUT);
+
+    when(clock.millis()).thenReturn(100_000L + UPDATE_TIMEOUT);
+    timer.run();
+    assertSubmitted(2);
+  }
+
+  @Test
+  void shouldSubmitNewRequestIfRunningUpdateIsLost() {
+    coalescer.request(repository);
+
+    when(clock.millis()).thenReturn(100_000L + UPDATE_TIMEOUT);
+    coalescer.request(repository);
+
+    assertSubmitted(2);
+  }
+
+  @Test
+  void shouldMeasureUpdateTimeoutFromStart() {
+    coalescer.request(repository);
+
+    when(clock.millis()).thenReturn(100_000L + UPDATE_TIMEOUT - 1000L);
+    coalescer.started(repository, 1);
+
+    when(clock.millis()).thenReturn(100_000L + UPDATE_TIMEOUT);
+    coalescer.request(repository);
+
+    assertSubmitted(1);
+  }
+
+  @Test
+  void shouldIgnoreFinishedOfLostUpdate() {
+    coalescer.request(repository);
+    when(clock.millis()).thenReturn(100_000L + UPDATE_TIMEOUT);
+    coalescer.request(repository);
+
+    coalescer.finished(repository, 1);
+
+    assertSubmitted(2);
+    assertThat(coalescer.getPendingUpdates()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldForgetDeletedRepository() {
+    coalescer.request(repository);
+    coalescer.request(repository);
+
+    coalescer.remove(repository);
+    captureTimer(UPDATE_TIMEOUT).run();
+
+    assertThat(coalescer.getPendingUpdates()).isZero();
+    assertSubmitted(1);
+  }
+
+  @Test
+  void shouldPassReconcileRequestToNextSubmittedTask() {
+    coalescer.request(repository);
+    coalescer.reconcile(repository);
+    coalescer.request(repository);
+
+    when(clock.millis()).thenReturn(110_000L);
+    coalescer.finished(repository, 1);
+    when(clock.millis()).thenReturn(120_000L);
+    coalescer.finished(repository, 2);
+    coalescer.request(repository);
+
+    assertThat(captureTasks(3))
+      .extracting(IndexerTask::isReconcile)
+      .containsExactly(false, true, false);
+  }
+
+  @Test
+  void shouldIgnoreFinishedForUnknownRepository() {
+    coalescer.finished(repository, 1);
+
+    verifyNoInteractions(searchEngine, scheduler);
+  }
+
+  private Runnable captureTimer(long delay) {
+    ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+    verify(scheduler).schedule(captor.capture(), eq(delay), eq(TimeUnit.MILLISECONDS));
+    return captor.getValue();
+  }
+
+  private List<IndexerTask> captureTasks(int times) {
+    ArgumentCaptor<IndexerTask> captor = ArgumentCaptor.forClass(IndexerTask.class);
+    verify(searchEngine.forType(FileContent.class).forResource(repository), times(times)).update(captor.capture());
+    return captor.getAllValues();
+  }
+
+  private void assertSubmitted(int times) {
+    verify(searchEngine.forType(FileContent.class).forResource(repository), times(times))
+      .update(any(IndexerTask.class));
+  }
+}
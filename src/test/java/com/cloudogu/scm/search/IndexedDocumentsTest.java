@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+
+package com.cloudogu.scm.search;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.search.Hit;
+import sonia.scm.search.QueryResult;
+import sonia.scm.search.SearchEngine;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("UnstableApiUsage")
+@ExtendWith(MockitoExtension.class)
+class IndexedDocumentsTest {
+
+  private final Repository repository = RepositoryTestData.createHeartOfGold();
+
+  @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+  private SearchEngine searchEngine;
+
+  @InjectMocks
+  private IndexedDocuments indexedDocuments;
+
+  @Test
+  void shouldFindDocumentWithSameBlobAndFileName() {
+    mockHits(hit("src/a/Other.java", "same-blob"), hit("src/a/App.java", "same-blob"));
+
+    Optional<FileContent> document = indexedDocuments.find(repository, "same-blob", "src/b/App.java");
+
+    assertThat(document).hasValueSatisfying(fileContent -> {
+      assertThat(fileContent.getPath()).isEqualTo("src/a/App.java");
+      assertThat(fileContent.getRevision()).isEqualTo("21");
+      assertThat(fileContent.getContentType()).isEqualTo("text/x-java-source");
+      assertThat(fileContent.isBinary()).isFalse();
+      assertThat(fileContent.getCodingLanguage()).isEqualTo("java");
+      assertThat(fileContent.getContent()).isEqualTo("Don't panic");
+      assertThat(fileContent.getBlobId()).isEqualTo("same-blob");
+      assertThat(fileContent.isGenerated()).isFalse();
+    });
+  }
+
+  @Test
+  void shouldNotFindDocumentWithOtherFileName() {
+    mockHits(hit("src/a/Other.java", "same-blob"));
+
+    Optional<FileContent> document = indexedDocuments.find(repository, "same-blob", "src/b/App.java");
+
+    assertThat(document).isEmpty();
+  }
+
+  @Test
+  void shouldNotFindDocumentWithOtherBlobId() {
+    mockHits(hit("src/a/App.java", "other-blob"));
+
+    Optional<FileContent> document = indexedDocuments.find(repository, "same-blob", "src/b/App.java");
+
+    assertThat(document).isEmpty();
+  }
+
+  @Test
+  void shouldNotFindDocumentIfSearchFails() {
+    when(searchEngine.forType(FileContent.class).search().filter(Repository.class, repository.getId()).limit(anyInt()).execute(anyString()))
+      .thenThrow(new IllegalStateException("index is closed"));
+
+    Optional<FileContent> document = indexedDocuments.find(repository, "same-blob", "src/b/App.java");
+
+    assertThat(document).isEmpty();
+  }
+
+  private void mockHits(Hit... hits) {
+    QueryResult result = new QueryResult(hits.length, FileContent.class, Arrays.asList(hits));
+    when(searchEngine.forType(FileContent.class).search().filter(Repository.class, repository.getId()).limit(anyInt()).execute("blobId:\"same-blob\""))
+      .thenReturn(result);
+  }
+
+  private Hit hit(String path, String blobId) {
+    Map<String, Hit.Field> fields = new HashMap<>();
+    fields.put("revision", new Hit.ValueField("21"));
+    fields.put("path", new Hit.ValueField(path));
+    fields.put("contentType", new Hit.ValueField("text/x-java-source"));
+    fields.put("binary", new Hit.ValueField(false));
+    fields.put("codingLanguage", new Hit.ValueField("java"));
+    fields.put("content", new Hit.ValueField("Don't panic"));
+    fields.put("blobId", new Hit.ValueField(blobId));
+    fields.put("generated", new Hit.ValueField(false));
+    return new Hit(path, repository.getId(), 1f, fields);
+  }
+}
@@ -27,7 +27,18 @@ import sonia.scm.repository.Repository;
 import sonia.scm.repository.RepositoryTestData;
 import sonia.scm.search.Index;
 
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 @SuppressWarnings("UnstableApiUsage")
@@ -36,26 +47,163 @@ class IndexerTaskTest {
   @Mock
   private IndexSyncer syncer;
 
+  @Mock
+  private DirtyRepositoryJournal journal;
+
+  @Mock
+  private IndexUpdateCoalescer coalescer;
+
+  @Mock
+  private IndexMetrics metrics;
+
   @Mock
   private Index<FileContent> index;
 
+  private final Repository heartOfGold = RepositoryTestData.createHeartOfGold();
+
   @Test
   void shouldInjectDependencyAndDelegate() {
+    IndexerTask task = createTask();
+
+    task.update(index);
+
+    verify(syncer).ensureIndexIsUpToDate(eq(index), eq(heartOfGold), any(PendingIndexState.class));
+    verify(coalescer).started(heartOfGold, 42);
+    verify(coalescer).finished(heartOfGold, 42);
+  }
+
+  @Test
+  void shouldReconcileIfRequested() {
+    IndexerTask task = createTask(true);
+
+    task.update(index);
+
+    verify(syncer).reconcile(eq(index), eq(heartOfGold), any(PendingIndexState.class));
+    verify(syncer, never()).ensureIndexIsUpToDate(any(), any(), any());
+  }
+
+  @Test
+  void shouldNotifyCoalescerOnException() {
+    when(syncer.ensureIndexIsUpToDate(eq(index), eq(heartOfGold), any(PendingIndexState.class))).thenThrow(new IllegalStateException("failed"));
+
+    IndexerTask task = createTask();
+    assertThrows(IllegalStateException.class, () -> task.update(index));
+
+    verify(coalescer).finished(heartOfGold, 42);
+  }
+
+  @Test
+  void shouldClearJournalAfterSuccessfulUpdate() {
+    when(syncer.ensureIndexIsUpToDate(eq(index), eq(heartOfGold), any(PendingIndexState.class))).thenReturn(IndexSyncer.Result.UP_TO_DATE);
+
+    IndexerTask task = createTask();
+    task.update(index);
+    task.afterUpdate();
+
+    verify(journal).clear(eq(heartOfGold), any(Instant.class));
+    verify(metrics).indexed(eq(heartOfGold), any(Instant.class));
+  }
+
+  @Test
+  void shouldNotClearJournalAfterFailedUpdate() {
+    when(syncer.ensureIndexIsUpToDate(eq(index), eq(heartOfGold), any(PendingIndexState.class))).thenReturn(IndexSyncer.Result.FAILED);
+
+    IndexerTask task = createTask();
+    task.update(index);
+    task.afterUpdate();
+
+    verifyNoInteractions(journal);
+  }
+
+  @Test
+  void shouldRequestContinuationOfIncompleteUpdate() {
+    when(syncer.ensureIndexIsUpToDate(eq(index), eq(heartOfGold), any(PendingIndexState.class))).thenReturn(IndexSyncer.Result.INCOMPLETE);
+
+    IndexerTask task = createTask();
+    task.update(index);
+    task.afterUpdate();
+
+    verify(coalescer).request(heartOfGold);
+    verifyNoInteractions(journal);
+  }
+
+  @Test
+  void shouldNotClearJournalBeforeIndexIsCommitted() {
+    when(syncer.ensureIndexIsUpToDate(eq(index), eq(heartOfGold), any(PendingIndexState.class))).thenReturn(IndexSyncer.Result.UP_TO_DATE);
+
+    createTask().update(index);
+
+    verifyNoInteractions(journal, metrics);
+  }
+
+  @Test
+  void shouldCommitPendingStateAfterUpdate() {
+    AtomicBoolean committed = new AtomicBoolean();
+    when(syncer.ensureIndexIsUpToDate(eq(index), eq(heartOfGold), any(PendingIndexState.class))).thenAnswer(invocation -> {
+      PendingIndexState pendingState = invocation.getArgument(2);
+      pendingState.add(() -> committed.set(true));
+      return IndexSyncer.Result.UP_TO_DATE;
+    });
+
+    IndexerTask task = createTask();
+    task.update(index);
+    assertThat(committed).isFalse();
+
+    task.afterUpdate();
+    assertThat(committed).isTrue();
+  }
+
+  @Test
+  void shouldNotCommitPendingStateOfFailedUpdate() {
+    AtomicBoolean committed = new AtomicBoolean();
+    when(syncer.ensureIndexIsUpToDate(eq(index), eq(heartOfGold), any(PendingIndexState.class))).thenAnswer(invocation -> {
+      PendingIndexState pendingState = invocation.getArgument(2);
+      pendingState.add(() -> committed.set(true));
+      return IndexSyncer.Result.FAILED;
+    });
+
+    IndexerTask task = createTask();
+    task.update(index);
+    task.afterUpdate();
+
+    assertThat(committed).isFalse();
+  }
+
+  @Test
+  void shouldNotClearJournalIfPendingStateCouldNotBeStored() {
+    when(syncer.ensureIndexIsUpToDate(eq(index), eq(heartOfGold), any(PendingIndexState.class))).thenAnswer(invocation -> {
+      PendingIndexState pendingState = invocation.getArgument(2);
+      pendingState.add(() -> {
+        throw new IOException("failed");
+      });
+      return IndexSyncer.Result.UP_TO_DATE;
+    });
+
+    IndexerTask task = createTask();
+    task.update(index);
+    task.afterUpdate();
+
+    verifyNoInteractions(journal, metrics);
+  }
+
+  private IndexerTask createTask() {
+    return createTask(false);
+  }
+
+  private IndexerTask createTask(boolean reconcile) {
     Injector injector = Guice.createInjector(new AbstractModule() {
       @Override
       protected void configure() {
         bind(IndexSyncer.class).toInstance(syncer);
+        bind(DirtyRepositoryJournal.class).toInstance(journal);
+        bind(IndexUpdateCoalescer.class).toInstance(coalescer);
+        bind(IndexMetrics.class).toInstance(metrics);
       }
     });
 
-    Repository heartOfGold = RepositoryTestData.createHeartOfGold();
-
-    IndexerTask task = new IndexerTask(heartOfGold);
+    IndexerTask task = new IndexerTask(heartOfGold, 42, reconcile);
     injector.injectMembers(task);
-
-    task.update(index);
-
-    verify(syncer).ensureIndexIsUpToDate(index, heartOfGold);
+    return task;
   }
 
 }
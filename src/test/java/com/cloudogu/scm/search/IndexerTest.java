@@ -16,12 +16,15 @@
 
 package com.cloudogu.scm.search;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import sonia.scm.io.ContentType;
 import sonia.scm.repository.Repository;
@@ -31,10 +34,27 @@ import sonia.scm.search.Id;
 import sonia.scm.search.Index;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.function.UnaryOperator;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
@@ -49,6 +69,21 @@ class IndexerTest {
   @Mock
   private FileContentFactory fileContentFactory;
 
+  @Mock
+  private BulkContentReaderFactory readerFactory;
+
+  @Mock
+  private ContentExtractionPool extractionPool;
+
+  @Mock
+  private ContentSearchConfigStore configStore;
+
+  @Mock
+  private IndexedDocuments indexedDocuments;
+
+  @Spy
+  private IndexMetrics metrics = new IndexMetrics(new SimpleMeterRegistry(), mock(IndexUpdateCoalescer.class));
+
   @InjectMocks
   private IndexerFactory indexerFactory;
 
@@ -81,11 +116,13 @@ class IndexerTest {
 
   @Test
   void shouldStore() throws IOException {
-    FileContent a = new FileContent("21", "a", contentType());
-    when(fileContentFactory.create(repositoryService, "42", "a")).thenReturn(a);
+    when(readerFactory.create(repositoryService)).thenReturn(readerWithBlobIds());
+
+    FileContent a = new FileContent("42", "a", contentType());
+    when(fileContentFactory.create(eq("42"), argThat(file -> file.getPath().equals("a")), anyLong(), any())).thenReturn(a);
 
     FileContent b = new FileContent("42", "b", contentType());
-    when(fileContentFactory.create(repositoryService, "42", "b")).thenReturn(b);
+    when(fileContentFactory.create(eq("42"), argThat(file -> file.getPath().equals("b")), anyLong(), any())).thenReturn(b);
 
     indexer.store("42", Arrays.asList("a", "b"));
 
@@ -93,6 +130,346 @@ class IndexerTest {
     verify(index).store(id("b"), "repository:pull:" + repository.getId(), b);
   }
 
+  @Test
+  void shouldSkipFilesWithUnchangedBlob() throws IOException {
+    when(readerFactory.create(repositoryService)).thenReturn(readerWithBlobIds());
+    FileContent b = new FileContent("42", "b", contentType());
+    when(fileContentFactory.create(eq("42"), argThat(file -> file.getPath().equals("b")), anyLong(), any())).thenReturn(b);
+
+    IndexSnapshot snapshot = new IndexSnapshot("v1");
+    snapshot.put("a", "blob-a");
+    snapshot.put("b", "old-blob-b");
+
+    indexer.store("42", Arrays.asList("a", "b"), snapshot);
+
+    verify(fileContentFactory, never()).create(eq("42"), argThat(file -> file.getPath().equals("a")), anyLong(), any());
+    verify(index).store(id("b"), "repository:pull:" + repository.getId(), b);
+  }
+
+  @Test
+  void shouldRecordBlobIdsOfStoredFiles() throws IOException {
+    when(readerFactory.create(repositoryService)).thenReturn(readerWithBlobIds());
+    FileContent a = new FileContent("42", "a", contentType());
+    a.setBlobId("blob-a");
+    when(fileContentFactory.create(eq("42"), any(), anyLong(), any())).thenReturn(a);
+
+    IndexSnapshot snapshot = new IndexSnapshot("v1");
+    indexer.store("42", Collections.singletonList("a"), snapshot);
+
+    assertThat(snapshot.getBlobId("a")).isEqualTo("blob-a");
+  }
+
+  @Test
+  void shouldSkipAndRecordFilesByChangeTokenWithoutBlobId() throws IOException {
+    BulkContentReader reader = mock(BulkContentReader.class);
+    doAnswer(invocation -> {
+      BulkContentReader.FileConsumer consumer = invocation.getArgument(2);
+      for (String path : Arrays.asList("a", "b")) {
+        RepositoryFile file = mock(RepositoryFile.class);
+        lenient().when(file.getPath()).thenReturn(path);
+        lenient().when(file.getChangeToken()).thenReturn(Optional.of("meta:42:" + path));
+        consumer.accept(file);
+      }
+      return null;
+    }).when(reader).read(eq("42"), any(), any());
+    when(readerFactory.create(repositoryService)).thenReturn(reader);
+    FileContent b = new FileContent("42", "b", contentType());
+    when(fileContentFactory.create(eq("42"), argThat(file -> file.getPath().equals("b")), anyLong(), any())).thenReturn(b);
+
+    IndexSnapshot snapshot = new IndexSnapshot("v1");
+    snapshot.put("a", "meta:42:a");
+    snapshot.put("b", "meta:21:b");
+
+    indexer.store("42", Arrays.asList("a", "b"), snapshot);
+
+    verify(fileContentFactory, never()).create(eq("42"), argThat(file -> file.getPath().equals("a")), anyLong(), any());
+    assertThat(snapshot.getBlobId("b")).isEqualTo("meta:42:b");
+  }
+
+  @Test
+  void shouldNotRequestChangeTokensOfModifiedFiles() throws IOException {
+    BulkContentReader reader = mock(BulkContentReader.class);
+    RepositoryFile file = mock(RepositoryFile.class);
+    lenient().when(file.getPath()).thenReturn("a");
+    doAnswer(invocation -> {
+      BulkContentReader.FileConsumer consumer = invocation.getArgument(2);
+      consumer.accept(file);
+      return null;
+    }).when(reader).read(eq("42"), any(), any());
+    when(readerFactory.create(repositoryService)).thenReturn(reader);
+    FileContent a = new FileContent("42", "a", contentType());
+    when(fileContentFactory.create(eq("42"), any(), anyLong(), any())).thenReturn(a);
+
+    IndexSnapshot snapshot = new IndexSnapshot("v1");
+    snapshot.put("a", "meta:21:a");
+
+    indexer.storeModified("42", Collections.singletonList("a"), Collections.emptySet(), snapshot);
+
+    verify(file, never()).getChangeToken();
+    verify(index).store(id("a"), "repository:pull:" + repository.getId(), a);
+    assertThat(snapshot.getPaths()).containsExactly("a");
+    assertThat(snapshot.getBlobId("a")).isNull();
+  }
+
+  @Test
+  void shouldRecordBlobIdsOfModifiedFiles() throws IOException {
+    when(readerFactory.create(repositoryService)).thenReturn(readerWithBlobIds());
+    FileContent a = new FileContent("42", "a", contentType());
+    when(fileContentFactory.create(eq("42"), any(), anyLong(), any())).thenReturn(a);
+
+    IndexSnapshot snapshot = new IndexSnapshot("v1");
+    indexer.storeModified("42", Collections.singletonList("a"), Collections.emptySet(), snapshot);
+
+    assertThat(snapshot.getBlobId("a")).isEqualTo("blob-a");
+  }
+
+  @Test
+  void shouldNotRecordBlobIdOfTemporarilySkippedFiles() throws IOException {
+    when(readerFactory.create(repositoryService)).thenReturn(readerWithBlobIds());
+    ContentType contentType = contentType();
+    when(fileContentFactory.create(eq("42"), any(), anyLong(), any())).thenAnswer(invocation -> {
+      RepositoryFile file = invocation.getArgument(1);
+      SkippedBlobReport report = invocation.getArgument(3);
+      SkippedBlobReport.Reason reason = file.getPath().equals("a.pdf")
+        ? SkippedBlobReport.Reason.BUSY
+        : SkippedBlobReport.Reason.TIMEOUT;
+      report.skipped(file, "PdfResolver", reason);
+      FileContent fileContent = new FileContent("42", file.getPath(), contentType);
+      file.getBlobId().ifPresent(fileContent::setBlobId);
+      return fileContent;
+    });
+
+    IndexSnapshot snapshot = new IndexSnapshot("v1");
+    indexer.store("42", Arrays.asList("a.pdf", "b.pdf"), snapshot);
+
+    assertThat(snapshot.getPaths()).containsExactlyInAnyOrder("a.pdf", "b.pdf");
+    assertThat(snapshot.getBlobId("a.pdf")).isNull();
+    assertThat(snapshot.getBlobId("b.pdf")).isEqualTo("blob-b.pdf");
+  }
+
+  @Test
+  void shouldCountSkippedFiles() throws IOException {
+    when(readerFactory.create(repositoryService)).thenReturn(readerWithBlobIds());
+    ContentType contentType = contentType();
+    when(fileContentFactory.create(eq("42"), any(), anyLong(), any())).thenAnswer(invocation -> {
+      RepositoryFile file = invocation.getArgument(1);
+      SkippedBlobReport report = invocation.getArgument(3);
+      report.skipped(file, "PdfResolver", SkippedBlobReport.Reason.FAILED);
+      return new FileContent("42", file.getPath(), contentType);
+    });
+
+    indexer.store("42", Arrays.asList("a.pdf", "b.pdf"), new IndexSnapshot("v1"));
+    indexer.reportSkippedBlobs();
+
+    verify(metrics).skipped(argThat(report -> report.getEntries().size() == 2));
+  }
+
+  @Test
+  void shouldReuseContentOfSameBlobWithinBatch() throws IOException {
+    when(readerFactory.create(repositoryService)).thenReturn(readerWithBlobIds(path -> "same-blob"));
+    ContentType contentType = contentType();
+    when(fileContentFactory.create(eq("42"), any(), anyLong(), any())).thenAnswer(invocation -> {
+      RepositoryFile file = invocation.getArgument(1);
+      FileContent fileContent = new FileContent("42", file.getPath(), contentType, "Don't panic");
+      fileContent.setBlobId("same-blob");
+      return fileContent;
+    });
+
+    List<String> paths = Arrays.asList("src/a/App.java", "src/b/App.java", "src/c/Other.java");
+    IndexSnapshot snapshot = new IndexSnapshot("v1");
+    indexer.store("42", paths, snapshot);
+
+    verify(fileContentFactory).create(eq("42"), argThat(file -> file.getPath().equals("src/a/App.java")), anyLong(), any());
+    verify(fileContentFactory, never()).create(eq("42"), argThat(file -> file.getPath().equals("src/b/App.java")), anyLong(), any());
+    verify(fileContentFactory).create(eq("42"), argThat(file -> file.getPath().equals("src/c/Other.java")), anyLong(), any());
+
+    ArgumentCaptor<FileContent> captor = ArgumentCaptor.forClass(FileContent.class);
+    verify(index, times(3)).store(any(), eq("repository:pull:" + repository.getId()), captor.capture());
+    FileContent moved = captor.getAllValues().get(1);
+    assertThat(moved.getPath()).isEqualTo("src/b/App.java");
+    assertThat(moved.getContent()).isEqualTo("Don't panic");
+    assertThat(snapshot.getBlobId("src/b/App.java")).isEqualTo("same-blob");
+  }
+
+  @Test
+  void shouldReuseIndexedDocumentOfMovedFile() throws IOException {
+    when(readerFactory.create(repositoryService)).thenReturn(readerWithBlobIds(path -> "same-blob"));
+    FileContent indexed = new FileContent("21", "src/a/App.java", contentType(), "Don't panic");
+    indexed.setBlobId("same-blob");
+    when(indexedDocuments.find(repository, "same-blob", "src/b/App.java")).thenReturn(Optional.of(indexed));
+
+    IndexSnapshot snapshot = new IndexSnapshot("v1");
+    snapshot.put("src/a/App.java", "same-blob");
+    List<String> paths = Collections.singletonList("src/b/App.java");
+    indexer.storeModified("42", paths, paths, snapshot);
+
+    verify(fileContentFactory, never()).create(anyString(), any(), anyLong(), any());
+    ArgumentCaptor<FileContent> captor = ArgumentCaptor.forClass(FileContent.class);
+    verify(index).store(eq(id("src/b/App.java")), eq("repository:pull:" + repository.getId()), captor.capture());
+    FileContent moved = captor.getValue();
+    assertThat(moved.getRevision()).isEqualTo("42");
+    assertThat(moved.getPath()).isEqualTo("src/b/App.java");
+    assertThat(moved.getContent()).isEqualTo("Don't panic");
+    assertThat(snapshot.getBlobId("src/b/App.java")).isEqualTo("same-blob");
+  }
+
+  @Test
+  void shouldExtractMovedFileIfIndexedDocumentIsNotInSnapshot() throws IOException {
+    when(readerFactory.create(repositoryService)).thenReturn(readerWithBlobIds(path -> "same-blob"));
+    FileContent indexed = new FileContent("21", "src/a/App.java", contentType(), "Don't panic");
+    indexed.setBlobId("same-blob");
+    when(indexedDocuments.find(repository, "same-blob", "src/b/App.java")).thenReturn(Optional.of(indexed));
+    FileContent extracted = new FileContent("42", "src/b/App.java", contentType(), "Don't panic");
+    when(fileContentFactory.create(eq("42"), any(), anyLong(), any())).thenReturn(extracted);
+
+    // e.g. written with other settings or with skipped content
+    IndexSnapshot snapshot = new IndexSnapshot("v1");
+    List<String> paths = Collections.singletonList("src/b/App.java");
+    indexer.storeModified("42", paths, paths, snapshot);
+
+    verify(index).store(id("src/b/App.java"), "repository:pull:" + repository.getId(), extracted);
+  }
+
+  @Test
+  void shouldNotSearchIndexedDocumentsOfFilesWhichHaveNotMoved() throws IOException {
+    when(readerFactory.create(repositoryService)).thenReturn(readerWithBlobIds());
+    FileContent a = new FileContent("42", "a", contentType());
+    when(fileContentFactory.create(eq("42"), any(), anyLong(), any())).thenReturn(a);
+
+    indexer.storeModified("42", Collections.singletonList("a"), Collections.emptySet(), new IndexSnapshot("v1"));
+
+    verifyNoInteractions(indexedDocuments);
+  }
+
+  @Test
+  void shouldCreateFingerprintOfSettings() {
+    when(configStore.getMaxContentSize(repository)).thenReturn(42L);
+    when(fileContentFactory.getFingerprint()).thenReturn("pdf");
+
+    assertThat(indexer.getFingerprint()).isEqualTo(FileContent.VERSION + ";42;pdf");
+  }
+
+  @Test
+  void shouldPassMaxContentSizeOfRepository() throws IOException {
+    when(configStore.getMaxContentSize(repository)).thenReturn(42L);
+    when(readerFactory.create(repositoryService)).thenReturn(readerWithBlobIds());
+    FileContent a = new FileContent("42", "a", contentType());
+    when(fileContentFactory.create(eq("42"), any(), eq(42L), any())).thenReturn(a);
+
+    indexer.store("42", Collections.singletonList("a"));
+
+    verify(index).store(id("a"), "repository:pull:" + repository.getId(), a);
+  }
+
+  @Test
+  void shouldCloseReader() throws IOException {
+    BulkContentReader reader = mock(BulkContentReader.class);
+    when(readerFactory.create(repositoryService)).thenReturn(reader);
+
+    indexer.store("42", Arrays.asList("a", "b"));
+
+    verify(reader).close();
+  }
+
+  @Test
+  void shouldStoreInOrderOfReaderWithParallelExtraction() throws IOException {
+    ContentExtractionPool pool = new ContentExtractionPool(4, 2);
+    try {
+      indexer = new IndexerFactory(fileContentFactory, readerFactory, pool, configStore, metrics, indexedDocuments).create(index, repositoryService);
+
+      BulkContentReader reader = mock(BulkContentReader.class);
+      when(reader.isConcurrent()).thenReturn(true);
+      when(readerFactory.create(repositoryService)).thenReturn(reader);
+
+      List<String> paths = new ArrayList<>();
+      for (int i = 0; i < 20; i++) {
+        paths.add("file-" + i);
+      }
+      doAnswer(invocation -> {
+        BulkContentReader.FileConsumer consumer = invocation.getArgument(2);
+        for (String path : paths) {
+          consumer.accept(CatContentReader.file(repositoryService, "42", path));
+        }
+        return null;
+      }).when(reader).read(eq("42"), eq(paths), any());
+      ContentType contentType = contentType();
+      when(fileContentFactory.create(eq("42"), any(), anyLong(), any())).thenAnswer(invocation -> {
+        RepositoryFile file = invocation.getArgument(1);
+        return new FileContent("42", file.getPath(), contentType);
+      });
+
+      indexer.store("42", paths);
+
+      ArgumentCaptor<FileContent> captor = ArgumentCaptor.forClass(FileContent.class);
+      verify(index, times(20)).store(any(), eq("repository:pull:" + repository.getId()), captor.capture());
+      assertThat(captor.getAllValues()).extracting(FileContent::getPath).containsExactlyElementsOf(paths);
+      verify(reader).close();
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  void shouldWriteOwnExtractionsIfMemoryBudgetIsExhausted() throws IOException {
+    ContentExtractionPool pool = new ContentExtractionPool(4, 8, 10);
+    try {
+      indexer = new IndexerFactory(fileContentFactory, readerFactory, pool, configStore, metrics, indexedDocuments).create(index, repositoryService);
+      when(configStore.getMaxContentSize(repository)).thenReturn(1024L);
+
+      BulkContentReader reader = mock(BulkContentReader.class);
+      when(reader.isConcurrent()).thenReturn(true);
+      when(readerFactory.create(repositoryService)).thenReturn(reader);
+
+      List<String> paths = Arrays.asList("a", "b", "c");
+      doAnswer(invocation -> {
+        BulkContentReader.FileConsumer consumer = invocation.getArgument(2);
+        for (String path : paths) {
+          RepositoryFile file = mock(RepositoryFile.class);
+          lenient().when(file.getPath()).thenReturn(path);
+          when(file.getSize()).thenReturn(OptionalLong.of(8));
+          consumer.accept(file);
+        }
+        return null;
+      }).when(reader).read(eq("42"), eq(paths), any());
+      ContentType contentType = contentType();
+      when(fileContentFactory.create(eq("42"), any(), anyLong(), any())).thenAnswer(invocation -> {
+        RepositoryFile file = invocation.getArgument(1);
+        return new FileContent("42", file.getPath(), contentType);
+      });
+
+      indexer.store("42", paths);
+
+      verify(index, times(3)).store(any(), eq("repository:pull:" + repository.getId()), any());
+      // every reservation has been released
+      assertThat(pool.tryReserve(10)).isEqualTo(10);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  void shouldPassExtractionFailureToCaller() throws IOException {
+    ContentExtractionPool pool = new ContentExtractionPool(2, 1);
+    try {
+      indexer = new IndexerFactory(fileContentFactory, readerFactory, pool, configStore, metrics, indexedDocuments).create(index, repositoryService);
+
+      BulkContentReader reader = mock(BulkContentReader.class);
+      when(reader.isConcurrent()).thenReturn(true);
+      doAnswer(invocation -> {
+        BulkContentReader.FileConsumer consumer = invocation.getArgument(2);
+        consumer.accept(CatContentReader.file(repositoryService, "42", "a"));
+        consumer.accept(CatContentReader.file(repositoryService, "42", "b"));
+        return null;
+      }).when(reader).read(eq("42"), any(), any());
+      when(readerFactory.create(repositoryService)).thenReturn(reader);
+      when(fileContentFactory.create(eq("42"), any(), anyLong(), any())).thenThrow(new IOException("failed"));
+
+      assertThrows(IOException.class, () -> indexer.store("42", Arrays.asList("a", "b")));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
   private Id<FileContent> id(String a) {
     return Id.of(FileContent.class, a).and(Repository.class, repository);
   }
@@ -115,6 +492,30 @@ class IndexerTest {
     verify(index.delete().by(Repository.class, repository)).execute();
   }
 
+  private BulkContentReader readerWithBlobIds() {
+    return readerWithBlobIds(path -> "blob-" + path);
+  }
+
+  private BulkContentReader readerWithBlobIds(UnaryOperator<String> blobIdOfPath) {
+    return new BulkContentReader() {
+      @Override
+      public void read(String revision, Collection<String> paths, FileConsumer consumer) throws IOException {
+        for (String path : paths) {
+          RepositoryFile file = mock(RepositoryFile.class);
+          lenient().when(file.getPath()).thenReturn(path);
+          lenient().when(file.getBlobId()).thenReturn(Optional.of(blobIdOfPath.apply(path)));
+          lenient().when(file.getChangeToken()).thenReturn(Optional.of(blobIdOfPath.apply(path)));
+          consumer.accept(file);
+        }
+      }
+
+      @Override
+      public void walk(String revision, String after, PathVisitor visitor) {
+        throw new UnsupportedOperationException("not required by the indexer");
+      }
+    };
+  }
+
   private ContentType contentType() {
     ContentType contentType = mock(ContentType.class);
     when(contentType.getRaw()).thenReturn("application/octet-stream");
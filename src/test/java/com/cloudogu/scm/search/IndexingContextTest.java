@@ -38,6 +38,24 @@ class IndexingContextTest {
   @Mock
   private IndexStatusStore indexStatusStore;
 
+  @Mock
+  private IndexSnapshotStore indexSnapshotStore;
+
+  @Mock
+  private DefaultBranchCache defaultBranchCache;
+
+  @Mock
+  private HeadRevisionCache headRevisionCache;
+
+  @Mock
+  private ContentSearchConfigStore configStore;
+
+  @Mock
+  private BulkContentReaderFactory readerFactory;
+
+  @Mock
+  private IndexMetrics metrics;
+
   @Mock
   private Indexer indexer;
 
@@ -62,7 +80,9 @@ class IndexingContextTest {
   @Test
   void shouldReturnDependencies() {
     assertThat(context.getIndexStatusStore()).isSameAs(indexStatusStore);
+    assertThat(context.getIndexSnapshotStore()).isSameAs(indexSnapshotStore);
     assertThat(context.getIndexer()).isSameAs(indexer);
+    assertThat(context.getMetrics()).isSameAs(metrics);
   }
 
   @Test
@@ -70,5 +90,7 @@ class IndexingContextTest {
     assertThat(context.getLatestRevisionResolver()).isNotNull();
     assertThat(context.getUpdatePathCollector()).isNotNull();
     assertThat(context.getRevisionPathCollector()).isNotNull();
+    assertThat(context.getRevisionDistanceEstimator()).isNotNull();
+    assertThat(context.getPathExclusionResolver()).isNotNull();
   }
 }
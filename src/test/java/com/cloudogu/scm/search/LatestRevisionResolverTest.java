@@ -38,6 +38,7 @@ import static com.cloudogu.scm.search.DefaultBranchResolver.*;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -49,6 +50,9 @@ class LatestRevisionResolverTest {
   @Mock
   private DefaultBranchResolver defaultBranchResolver;
 
+  @Mock
+  private HeadRevisionCache headRevisionCache;
+
   @InjectMocks
   private LatestRevisionResolver resolver;
 
@@ -98,6 +102,16 @@ class LatestRevisionResolverTest {
 
     Optional<String> revision = resolver.resolve();
     assertThat(revision).contains("42");
+    verify(headRevisionCache).put(repositoryService.getRepository(), 0L, "42");
+  }
+
+  @Test
+  void shouldReturnCachedRevision() throws IOException {
+    when(headRevisionCache.get(repositoryService.getRepository())).thenReturn(Optional.of("21"));
+
+    Optional<String> revision = resolver.resolve();
+    assertThat(revision).contains("21");
+    verifyNoInteractions(defaultBranchResolver);
   }
 
   private void changesets(Changeset... changesets) throws IOException {
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PathExclusionsTest {
+
+  @Test
+  void shouldNotExcludeAnythingWithoutRules() {
+    PathExclusions exclusions = PathExclusions.parse("# only a comment\n\n", null);
+
+    assertThat(exclusions.isEmpty()).isTrue();
+    assertThat(exclusions.isExcluded("src/App.java")).isFalse();
+  }
+
+  @Test
+  void shouldMatchNamesAtAnyLevel() {
+    PathExclusions exclusions = PathExclusions.parse("node_modules\n*.min.js\npackage-lock.json");
+
+    assertThat(exclusions.isExcluded("node_modules/react/index.js")).isTrue();
+    assertThat(exclusions.isExcluded("ui/node_modules/react/index.js")).isTrue();
+    assertThat(exclusions.isExcluded("dist/app.min.js")).isTrue();
+    assertThat(exclusions.isExcluded("app.min.js")).isTrue();
+    assertThat(exclusions.isExcluded("ui/package-lock.json")).isTrue();
+    assertThat(exclusions.isExcluded("src/app.js")).isFalse();
+    assertThat(exclusions.isExcluded("src/node_modules.md")).isFalse();
+  }
+
+  @Test
+  void shouldAnchorPatternsWithSlash() {
+    PathExclusions exclusions = PathExclusions.parse("/vendor\nsrc/generated");
+
+    assertThat(exclusions.isExcluded("vendor/lib/a.go")).isTrue();
+    assertThat(exclusions.isExcluded("module/vendor/lib/a.go")).isFalse();
+    assertThat(exclusions.isExcluded("src/generated/Api.java")).isTrue();
+    assertThat(exclusions.isExcluded("module/src/generated/Api.java")).isFalse();
+  }
+
+  @Test
+  void shouldMatchOnlyDirectoriesWithTrailingSlash() {
+    PathExclusions exclusions = PathExclusions.parse("build/");
+
+    assertThat(exclusions.isExcluded("build/classes/App.class")).isTrue();
+    assertThat(exclusions.isExcluded("module/build/out.txt")).isTrue();
+    assertThat(exclusions.isExcluded("docs/build")).isFalse();
+  }
+
+  @Test
+  void shouldMatchAnyNumberOfDirectories() {
+    PathExclusions exclusions = PathExclusions.parse("src/**/generated/*.java\ndocs/**");
+
+    assertThat(exclusions.isExcluded("src/generated/Api.java")).isTrue();
+    assertThat(exclusions.isExcluded("src/main/java/generated/Api.java")).isTrue();
+    assertThat(exclusions.isExcluded("src/main/java/generated/api/Api.java")).isFalse();
+    assertThat(exclusions.isExcluded("docs/a/b/index.md")).isTrue();
+  }
+
+  @Test
+  void shouldMatchSingleCharactersAndClasses() {
+    PathExclusions exclusions = PathExclusions.parse("file?.txt\n*.[ch]\nlog[!s].txt");
+
+    assertThat(exclusions.isExcluded("file1.txt")).isTrue();
+    assertThat(exclusions.isExcluded("file12.txt")).isFalse();
+    assertThat(exclusions.isExcluded("lib/a.c")).isTrue();
+    assertThat(exclusions.isExcluded("lib/a.h")).isTrue();
+    assertThat(exclusions.isExcluded("lib/a.cpp")).isFalse();
+    assertThat(exclusions.isExcluded("log1.txt")).isTrue();
+    assertThat(exclusions.isExcluded("logs.txt")).isFalse();
+  }
+
+  @Test
+  void shouldQuoteRegexCharacters() {
+    PathExclusions exclusions = PathExclusions.parse("a+b.(c)");
+
+    assertThat(exclusions.isExcluded("a+b.(c)")).isTrue();
+    assertThat(exclusions.isExcluded("aab.(c)")).isFalse();
+  }
+
+  @Test
+  void shouldIncludeNegatedPatternsAgain() {
+    PathExclusions exclusions = PathExclusions.parse("*.json\n!config.json");
+
+    assertThat(exclusions.isExcluded("data.json")).isTrue();
+    assertThat(exclusions.isExcluded("src/config.json")).isFalse();
+  }
+
+  @Test
+  void shouldPreferRulesOfLaterSources() {
+    PathExclusions exclusions = PathExclusions.parse("vendor/", "!vendor/important/**");
+
+    assertThat(exclusions.isExcluded("vendor/lib/a.go")).isTrue();
+    assertThat(exclusions.isExcluded("vendor/important/a.go")).isFalse();
+  }
+}
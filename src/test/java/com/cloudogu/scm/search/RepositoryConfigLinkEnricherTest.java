@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import org.github.sdorra.jse.ShiroExtension;
+import org.github.sdorra.jse.SubjectAware;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.api.v2.resources.HalAppender;
+import sonia.scm.api.v2.resources.HalEnricherContext;
+import sonia.scm.api.v2.resources.ScmPathInfoStore;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+
+import java.net.URI;
+
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+@ExtendWith({MockitoExtension.class, ShiroExtension.class})
+class RepositoryConfigLinkEnricherTest {
+
+  @Mock
+  private HalAppender appender;
+
+  private final Repository repository = RepositoryTestData.createHeartOfGold();
+
+  private RepositoryConfigLinkEnricher enricher;
+
+  @BeforeEach
+  void setUp() {
+    repository.setId("hog");
+    ScmPathInfoStore pathInfoStore = new ScmPathInfoStore();
+    pathInfoStore.set(() -> URI.create("/scm/api/"));
+    enricher = new RepositoryConfigLinkEnricher(() -> pathInfoStore);
+  }
+
+  @Test
+  @SubjectAware(value = "trillian", permissions = "repository:modify:hog")
+  void shouldAppendConfigLink() {
+    enricher.enrich(HalEnricherContext.of(repository), appender);
+
+    verify(appender).appendLink("contentSearchConfig", "/scm/api/v2/content-search/config/hitchhiker/HeartOfGold");
+  }
+
+  @Test
+  @SubjectAware(value = "trillian", permissions = "repository:read:hog")
+  void shouldNotAppendConfigLinkWithoutModifyPermission() {
+    enricher.enrich(HalEnricherContext.of(repository), appender);
+
+    verifyNoInteractions(appender);
+  }
+
+}
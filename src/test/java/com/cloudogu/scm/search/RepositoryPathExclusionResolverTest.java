@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.repository.api.CatCommandBuilder;
+import sonia.scm.repository.api.Command;
+import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.store.InMemoryConfigurationStoreFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static sonia.scm.ContextEntry.ContextBuilder.entity;
+import static sonia.scm.NotFoundException.notFound;
+
+@ExtendWith(MockitoExtension.class)
+class RepositoryPathExclusionResolverTest {
+
+  @Mock
+  private RepositoryService repositoryService;
+
+  @Mock(answer = Answers.RETURNS_SELF)
+  private CatCommandBuilder catCommand;
+
+  private final Repository repository = RepositoryTestData.createHeartOfGold();
+
+  private ContentSearchConfigStore configStore;
+  private RepositoryPathExclusionResolver resolver;
+
+  @BeforeEach
+  void setUp() {
+    repository.setId("hog");
+    lenient().when(repositoryService.getRepository()).thenReturn(repository);
+    lenient().when(repositoryService.getCatCommand()).thenReturn(catCommand);
+    lenient().when(repositoryService.isSupported(Command.CAT)).thenReturn(true);
+
+    configStore = new ContentSearchConfigStore(InMemoryConfigurationStoreFactory.create());
+    resolver = new RepositoryPathExclusionResolver(repositoryService, configStore);
+  }
+
+  @Test
+  void shouldReadExclusionsFromFileOfRevision() throws IOException {
+    when(catCommand.getStream(".searchignore")).thenReturn(stream("node_modules/\n*.min.js"));
+
+    PathExclusions exclusions = resolver.resolve("42");
+
+    verify(catCommand).setRevision("42");
+    assertThat(exclusions.isExcluded("ui/node_modules/react/index.js")).isTrue();
+    assertThat(exclusions.isExcluded("dist/app.min.js")).isTrue();
+    assertThat(exclusions.isExcluded("src/app.js")).isFalse();
+  }
+
+  @Test
+  void shouldReadExclusionsFromConfiguration() throws IOException {
+    configStore.set(repository, new ContentSearchConfig(null, "vendor/"));
+    when(catCommand.getStream(".searchignore")).thenThrow(notFound(entity("Path", ".searchignore")));
+
+    PathExclusions exclusions = resolver.resolve("42");
+
+    assertThat(exclusions.isExcluded("vendor/lib/a.go")).isTrue();
+  }
+
+  @Test
+  void shouldPreferConfigurationOverFile() throws IOException {
+    configStore.set(repository, new ContentSearchConfig(null, "!vendor/important/**"));
+    when(catCommand.getStream(".searchignore")).thenReturn(stream("vendor/"));
+
+    PathExclusions exclusions = resolver.resolve("42");
+
+    assertThat(exclusions.isExcluded("vendor/lib/a.go")).isTrue();
+    assertThat(exclusions.isExcluded("vendor/important/a.go")).isFalse();
+  }
+
+  @Test
+  void shouldNotExcludeAnythingWithoutFileAndConfiguration() throws IOException {
+    when(catCommand.getStream(".searchignore")).thenThrow(notFound(entity("Path", ".searchignore")));
+
+    assertThat(resolver.resolve("42").isEmpty()).isTrue();
+  }
+
+  @Test
+  void shouldIgnoreFileIfCatIsNotSupported() throws IOException {
+    when(repositoryService.isSupported(Command.CAT)).thenReturn(false);
+    configStore.set(repository, new ContentSearchConfig(null, "vendor/"));
+
+    PathExclusions exclusions = resolver.resolve("42");
+
+    assertThat(exclusions.isExcluded("vendor/lib/a.go")).isTrue();
+  }
+
+  private ByteArrayInputStream stream(String content) {
+    return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.ChangesetPagingResult;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.api.LogCommandBuilder;
+import sonia.scm.repository.api.RepositoryService;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static sonia.scm.ContextEntry.ContextBuilder.entity;
+import static sonia.scm.NotFoundException.notFound;
+
+@ExtendWith(MockitoExtension.class)
+class RevisionDistanceEstimatorTest {
+
+  @Mock
+  private RepositoryService repositoryService;
+
+  @Mock(answer = Answers.RETURNS_SELF)
+  private LogCommandBuilder logCommand;
+
+  @InjectMocks
+  private RevisionDistanceEstimator estimator;
+
+  @Test
+  void shouldCountCommitsBetweenRevisions() throws IOException {
+    when(repositoryService.getRepository()).thenReturn(new Repository("42", "git", "hitchhiker", "hog"));
+    when(repositoryService.getLogCommand()).thenReturn(logCommand);
+    when(logCommand.getChangesets()).thenReturn(new ChangesetPagingResult(21, Collections.emptyList()));
+
+    assertThat(estimator.estimate("a", "b")).isEqualTo(21);
+
+    verify(logCommand).setStartChangeset("b");
+    verify(logCommand).setAncestorChangeset("a");
+  }
+
+  @Test
+  void shouldTreatRemovedRevisionAsUnrelated() throws IOException {
+    when(repositoryService.getRepository()).thenReturn(new Repository("42", "git", "hitchhiker", "hog"));
+    when(repositoryService.getLogCommand()).thenReturn(logCommand);
+    when(logCommand.getChangesets()).thenThrow(notFound(entity("Changeset", "a")));
+
+    assertThat(estimator.estimate("a", "b")).isEqualTo(RevisionDistanceEstimator.UNRELATED);
+  }
+
+  @Test
+  void shouldSubtractSubversionRevisions() throws IOException {
+    when(repositoryService.getRepository()).thenReturn(new Repository("42", "svn", "hitchhiker", "hog"));
+
+    assertThat(estimator.estimate("21", "42")).isEqualTo(21);
+  }
+}
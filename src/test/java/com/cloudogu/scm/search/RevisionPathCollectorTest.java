@@ -21,19 +21,32 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Answers;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import sonia.scm.repository.BrowserResult;
 import sonia.scm.repository.FileObject;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
 import sonia.scm.repository.api.BrowseCommandBuilder;
 import sonia.scm.repository.api.RepositoryService;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -43,21 +56,35 @@ class RevisionPathCollectorTest {
   @Mock
   private RepositoryService repositoryService;
 
-  @InjectMocks
-  private RevisionPathCollector collector;
+  @Mock
+  private PathExclusionResolver exclusionResolver;
 
   @Mock(answer = Answers.RETURNS_SELF)
   private BrowseCommandBuilder browseCommand;
 
+  private final Map<String, FileObject> directories = new HashMap<>();
+  private String browsedPath;
+
+  private RevisionPathCollector collector;
+
   @BeforeEach
-  void setUp() {
-    when(repositoryService.getBrowseCommand()).thenReturn(browseCommand);
+  void setUp() throws IOException {
+    collector = new RevisionPathCollector(
+      repositoryService, new BulkContentReaderFactory(Collections.emptySet()), exclusionResolver
+    );
+    lenient().when(repositoryService.getBrowseCommand()).thenReturn(browseCommand);
+    lenient().when(browseCommand.setPath(anyString())).thenAnswer(invocation -> {
+      browsedPath = invocation.getArgument(0);
+      return browseCommand;
+    });
+    lenient().when(browseCommand.getBrowserResult())
+      .thenAnswer(invocation -> new BrowserResult("42", directories.get(browsedPath)));
+    lenient().when(exclusionResolver.resolve("42")).thenReturn(PathExclusions.NONE);
   }
 
   @Test
   void shouldCollectPaths() throws IOException {
-    BrowserResult result = new BrowserResult("42", createTree());
-    when(browseCommand.getBrowserResult()).thenReturn(result);
+    register(createTree());
 
     collector.collect("42");
 
@@ -67,6 +94,120 @@ class RevisionPathCollectorTest {
     assertThat(collector.getPathToDelete()).isEmpty();
   }
 
+  @Test
+  void shouldWalkInPathOrder() throws IOException {
+    register(directory("",
+      directory("a", file("a/c"), file("a/b")),
+      file("b"),
+      file("a.txt"),
+      file("a-b")
+    ));
+
+    List<String> paths = new ArrayList<>();
+    collector.collect("42", paths::add);
+
+    assertThat(paths).containsExactly("a-b", "a.txt", "a/b", "a/c", "b");
+  }
+
+  @Test
+  void shouldContinueAfterCursor() throws IOException {
+    register(directory("",
+      directory("a", file("a/b"), file("a/c")),
+      directory("b", file("b/a"), file("b/b")),
+      file("c")
+    ));
+
+    List<String> paths = new ArrayList<>();
+    collector.walk("42", "b/a", path -> paths.add(path));
+
+    assertThat(paths).containsExactly("b/b", "c");
+    verify(browseCommand, never()).setPath("a");
+  }
+
+  @Test
+  void shouldStopWalk() throws IOException {
+    register(directory("",
+      directory("a", file("a/b"), file("a/c")),
+      directory("b", file("b/a"))
+    ));
+
+    List<String> paths = new ArrayList<>();
+    collector.walk("42", null, path -> paths.add(path) && paths.size() < 2);
+
+    assertThat(paths).containsExactly("a/b", "a/c");
+    verify(browseCommand, never()).setPath("b");
+  }
+
+  @Test
+  void shouldSkipExcludedPaths() throws IOException {
+    when(exclusionResolver.resolve("42")).thenReturn(PathExclusions.parse("c"));
+    register(createTree());
+
+    List<String> paths = new ArrayList<>();
+    collector.collect("42", paths::add);
+
+    assertThat(paths).containsExactly("a/b");
+  }
+
+  @Test
+  void shouldNotOverflowStackOnDeepTrees() throws IOException {
+    FileObject current = file("deep");
+    for (int i = 0; i < 10000; i++) {
+      current = directory("d" + i, current);
+    }
+    register(directory("", current));
+
+    List<String> paths = new ArrayList<>();
+    collector.collect("42", paths::add);
+
+    assertThat(paths).containsExactly("deep");
+  }
+
+  @Test
+  void shouldWalkWithReaderOfRepositoryType() throws IOException {
+    Repository repository = RepositoryTestData.create42Puzzle();
+    when(repositoryService.getRepository()).thenReturn(repository);
+    BulkContentReader reader = mock(BulkContentReader.class);
+    BulkContentReaderProvider provider = mock(BulkContentReaderProvider.class);
+    when(provider.isSupported(repository)).thenReturn(true);
+    when(provider.create(repositoryService)).thenReturn(reader);
+
+    collector = new RevisionPathCollector(
+      repositoryService, new BulkContentReaderFactory(Collections.singleton(provider)), exclusionResolver
+    );
+    collector.walk("42", "a", path -> true);
+
+    verify(reader).walk(eq("42"), eq("a"), any());
+    verify(reader).close();
+  }
+
+  private void register(FileObject root) {
+    Deque<FileObject> stack = new ArrayDeque<>();
+    stack.push(root);
+    while (!stack.isEmpty()) {
+      FileObject directory = stack.pop();
+      directories.put(directory.getPath(), directory);
+      directory.getChildren().stream().filter(FileObject::isDirectory).forEach(stack::push);
+    }
+  }
+
+  private FileObject directory(String path, FileObject... children) {
+    FileObject directory = new FileObject();
+    directory.setName(path);
+    directory.setPath(path);
+    directory.setDirectory(true);
+    directory.setChildren(Arrays.asList(children));
+    return directory;
+  }
+
+  private FileObject file(String path) {
+    FileObject file = new FileObject();
+    file.setName(path);
+    file.setPath(path);
+    file.setDirectory(false);
+    return file;
+  }
+
   private FileObject createTree() {
     FileObject root = new FileObject();
     root.setName("");
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2020 - present Cloudogu GmbH
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/.
+ */
+
+package com.cloudogu.scm.search;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.web.security.AdministrationContext;
+import sonia.scm.web.security.PrivilegedAction;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class StartupIndexSchedulerTest {
+
+  @Mock
+  private AdministrationContext administrationContext;
+
+  @Mock
+  private IndexUpToDateCheck upToDateCheck;
+
+  @Mock
+  private DirtyRepositoryJournal journal;
+
+  private StartupIndexScheduler scheduler;
+
+  private final List<Repository> submitted = new CopyOnWriteArrayList<>();
+
+  private final Repository heartOfGold = RepositoryTestData.createHeartOfGold();
+  private final Repository puzzle = RepositoryTestData.create42Puzzle();
+  private final Repository transporter = RepositoryTestData.createHappyVerticalPeopleTransporter();
+
+  @BeforeEach
+  void setUp() {
+    lenient().doAnswer(ic -> {
+      PrivilegedAction action = ic.getArgument(0);
+      action.run();
+      return null;
+    }).when(administrationContext).runAsAdmin(any(PrivilegedAction.class));
+
+    scheduler = new StartupIndexScheduler(administrationContext, upToDateCheck, journal, 2, 1L);
+  }
+
+  @AfterEach
+  void tearDown() {
+    scheduler.shutdown();
+  }
+
+  @Test
+  void shouldSubmitOnlyOutdatedRepositories() throws IOException, InterruptedException {
+    when(upToDateCheck.requiresUpdate(heartOfGold)).thenReturn(true);
+    when(upToDateCheck.requiresUpdate(puzzle)).thenReturn(false);
+    when(upToDateCheck.requiresUpdate(transporter)).thenReturn(true);
+
+    scheduler.schedule(Arrays.asList(heartOfGold, puzzle, transporter), submitted::add);
+
+    assertThat(scheduler.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(submitted).containsOnly(heartOfGold, transporter);
+  }
+
+  @Test
+  void shouldCheckJournaledAndOutdatedRepositoriesFirst() throws IOException, InterruptedException {
+    lenient().when(journal.contains(heartOfGold)).thenReturn(true);
+    lenient().when(upToDateCheck.isStatusOutdated(puzzle)).thenReturn(true);
+    when(upToDateCheck.requiresUpdate(any())).thenReturn(true);
+
+    Map<Repository, String> threads = new ConcurrentHashMap<>();
+    scheduler.schedule(
+      Arrays.asList(transporter, heartOfGold, puzzle),
+      repository -> threads.put(repository, Thread.currentThread().getName())
+    );
+
+    assertThat(scheduler.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(threads.get(heartOfGold)).startsWith("content-search-startup-");
+    assertThat(threads.get(puzzle)).startsWith("content-search-startup-");
+    assertThat(threads.get(transporter)).startsWith("content-search-sweep-");
+  }
+
+  @Test
+  void shouldSubmitIfCheckFails() throws IOException, InterruptedException {
+    when(upToDateCheck.requiresUpdate(heartOfGold)).thenThrow(new IOException("failed"));
+
+    scheduler.schedule(Collections.singletonList(heartOfGold), submitted::add);
+
+    assertThat(scheduler.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(submitted).containsOnly(heartOfGold);
+  }
+
+  @Test
+  void shouldDoNothingWithoutRepositories() throws InterruptedException {
+    scheduler.schedule(Collections.emptyList(), submitted::add);
+
+    assertThat(scheduler.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(submitted).isEmpty();
+    verifyNoInteractions(administrationContext, upToDateCheck);
+  }
+}
@@ -35,6 +35,7 @@ import sonia.scm.repository.api.RepositoryService;
 import java.io.IOException;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -44,6 +45,9 @@ class UpdatePathCollectorTest {
   @Mock
   private RepositoryService repositoryService;
 
+  @Mock
+  private PathExclusionResolver exclusionResolver;
+
   @InjectMocks
   private UpdatePathCollector collector;
 
@@ -51,8 +55,9 @@ class UpdatePathCollectorTest {
   private ModificationsCommandBuilder modificationsCommand;
 
   @BeforeEach
-  void setUp() {
+  void setUp() throws IOException {
     when(repositoryService.getModificationsCommand()).thenReturn(modificationsCommand);
+    lenient().when(exclusionResolver.resolve("42")).thenReturn(PathExclusions.NONE);
   }
 
   @Test
@@ -66,6 +71,50 @@ class UpdatePathCollectorTest {
 
     assertThat(collector.getPathToStore()).containsOnly("a", "m", "c", "y");
     assertThat(collector.getPathToDelete()).containsOnly("r", "x");
+    assertThat(collector.isExclusionsChanged()).isFalse();
+  }
+
+  @Test
+  void shouldCollectCopiedAndRenamedPathsAsMoved() throws IOException {
+    when(modificationsCommand.getModifications()).thenReturn(createModifications());
+
+    collector.collect("21", "42");
+
+    assertThat(collector.getMovedPaths()).containsOnly("c", "y");
+  }
+
+  @Test
+  void shouldDeleteExcludedPaths() throws IOException {
+    when(exclusionResolver.resolve("42")).thenReturn(PathExclusions.parse("m\ny"));
+    when(modificationsCommand.getModifications()).thenReturn(createModifications());
+
+    collector.collect("21", "42");
+
+    assertThat(collector.getPathToStore()).containsOnly("a", "c");
+    assertThat(collector.getPathToDelete()).containsOnly("m", "r", "x", "y");
+    assertThat(collector.getMovedPaths()).containsOnly("c");
+  }
+
+  @Test
+  void shouldDetectChangedExclusions() throws IOException {
+    when(modificationsCommand.getModifications()).thenReturn(
+      new Modifications("42", new Modified(".searchignore"))
+    );
+
+    collector.collect("21", "42");
+
+    assertThat(collector.isExclusionsChanged()).isTrue();
+  }
+
+  @Test
+  void shouldDetectRemovedExclusions() throws IOException {
+    when(modificationsCommand.getModifications()).thenReturn(
+      new Modifications("42", new Removed(".searchignore"))
+    );
+
+    collector.collect("21", "42");
+
+    assertThat(collector.isExclusionsChanged()).isTrue();
   }
 
   private Modifications createModifications() {